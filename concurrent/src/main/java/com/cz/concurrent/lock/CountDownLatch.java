@@ -3,6 +3,8 @@ package com.cz.concurrent.lock;
 
 import com.cz.concurrent.lock.aqs.AbstractQueuedSynchronizer;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * 计数栅栏的实现
  * 场景如：
@@ -22,7 +24,16 @@ public class CountDownLatch {
 
         @Override
         public boolean tryReleaseShared() {
-            return this.getState().decrementAndGet() == 0;
+            //已经是 0 了就不再减，否则 await 永远等不到 0
+            while (true) {
+                int count = this.getState().get();
+                if (count == 0) {
+                    return false;
+                }
+                if (this.getState().compareAndSet(count, count - 1)) {
+                    return count - 1 == 0;
+                }
+            }
         }
     };
 
@@ -40,6 +51,22 @@ public class CountDownLatch {
         myAqs.acquireShared();
     }
 
+    /**
+     * 阻塞，直到计数为 0，或者超时
+     *
+     * @return 计数是否到了 0
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return myAqs.tryAcquireSharedNanos(unit.toNanos(timeout));
+    }
+
+    /**
+     * 剩余的计数
+     */
+    public long getCount() {
+        return myAqs.getState().get();
+    }
+
     /**
      * 进行一次计数
      */
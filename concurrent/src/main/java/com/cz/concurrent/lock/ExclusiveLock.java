@@ -28,6 +28,11 @@ public class ExclusiveLock implements Lock {
             // 这儿如果是当前线程就直接释放，可重入的情况下，要判断资源的占用情况（state 字段保存了资源的占用次数）
             return owner.compareAndSet(Thread.currentThread(),null);
         }
+
+        @Override
+        protected boolean isHeldExclusively() {
+            return owner.get() == Thread.currentThread();
+        }
     };
 
     @Override
@@ -47,18 +52,21 @@ public class ExclusiveLock implements Lock {
 
     @Override
     public void lockInterruptibly() throws InterruptedException {
-        throw new UnsupportedOperationException("当前独享锁未实现该方法");
+        myAqs.acquireInterruptibly();
     }
 
 
     @Override
-    public boolean tryLock(long time, TimeUnit unit){
-        throw new UnsupportedOperationException("当前独享锁未实现该方法");
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+        return myAqs.tryAcquireNanos(unit.toNanos(time));
     }
 
 
+    /**
+     * 锁不可重入，等待条件时持有一次锁
+     */
     @Override
     public Condition newCondition() {
-        throw new UnsupportedOperationException("当前独享锁未实现该方法");
+        return myAqs.new ConditionObject();
     }
 }
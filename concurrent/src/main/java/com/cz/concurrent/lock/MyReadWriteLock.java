@@ -4,44 +4,117 @@ package com.cz.concurrent.lock;
 import com.cz.concurrent.lock.aqs.AbstractQueuedSynchronizer;
 
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 
 /**
  * 读写锁的实现
+ * <p>
+ * 读锁：每个线程按自己的编号累加到一组分段计数器中的一个上，分段数按 CPU 核数确定，
+ * 每段独占一个缓存行，读线程之间不会争抢同一个缓存行。加读锁只是一次计数加一，再看一眼有没有写线程。
+ * <p>
+ * 写锁：写线程先把自己设为 owner，之后新来的读线程都会让路（写优先，写线程不会饿死），
+ * 再等所有分段计数归零，就拿到了写锁。state 字段保存写锁的重入次数。
+ * <p>
+ * 读锁、写锁都可以重入；持有写锁时可以再加读锁，然后释放写锁，就降级成了读锁。
+ * 读锁不能升级为写锁，持有读锁时加写锁会抛出 IllegalMonitorStateException。
  *
  * @author leishiguang
  * @since v1.0
  */
 public class MyReadWriteLock implements ReadWriteLock {
 
-    private AbstractQueuedSynchronizer myAqs = new AbstractQueuedSynchronizer(){
+    /**
+     * 每段计数之间隔开的 int 个数，64 字节一个缓存行
+     */
+    private static final int PADDING = 16;
+
+    /**
+     * 分段数，CPU 核数向上取 2 的幂
+     */
+    private static final int STRIPES = stripes();
+
+    /**
+     * 排队之前重试的次数
+     */
+    private static final int SPINS = 4;
+
+    /**
+     * 读锁的分段计数，下标为 stripe * PADDING
+     */
+    private final AtomicIntegerArray readers = new AtomicIntegerArray(STRIPES * PADDING);
+
+    /**
+     * 当前线程持有读锁的次数，以及它用哪一段计数
+     */
+    private final ThreadLocal<ReadHolder> readHolder = new ThreadLocal<ReadHolder>() {
+        @Override
+        protected ReadHolder initialValue() {
+            return new ReadHolder();
+        }
+    };
+
+    private final ReadLock readLock = new ReadLock();
+    private final WriteLock writeLock = new WriteLock();
+
+    private static final class ReadHolder {
+        final int index = stripeOf(Thread.currentThread()) * PADDING;
+        int count;
+    }
+
+    private final Sync myAqs = new Sync();
+
+    private final class Sync extends AbstractQueuedSynchronizer {
 
         /**
          * 加写锁
          */
         @Override
         public boolean tryAcquire() {
-            //读锁存在时，不允许写
-            if(myAqs.getState().get() != 0){
+            Thread current = Thread.currentThread();
+            Thread writer = owner.get();
+            if (writer == current) {
+                //重入，或者之前占了位置，在等读线程退出
+                if (getState().get() > 0) {
+                    getState().incrementAndGet();
+                    return true;
+                }
+                return tryAcquireAfterReaders();
+            }
+            if (writer != null || hasQueuedPredecessors() || !owner.compareAndSet(null, current)) {
+                return false;
+            }
+            if (tryAcquireAfterReaders()) {
+                return true;
+            }
+            //只有排在队列最前面的写线程才能占着位置等，还没排队的写线程占着位置，
+            //会挡住在它入队之前排进来的读线程，而那些读线程又挡着它
+            if (!hasQueuedThreads() || hasQueuedPredecessors()) {
+                owner.set(null);
+                releaseShared();
+            }
+            return false;
+        }
+
+        /**
+         * 已经占了位置，读线程全部退出后拿到写锁
+         */
+        private boolean tryAcquireAfterReaders() {
+            if (readerCount() != 0) {
                 return false;
-            }else{
-                return owner.compareAndSet(null,Thread.currentThread());
             }
+            getState().set(1);
+            return true;
         }
 
         /**
-         * 加读锁
+         * 加读锁，排队之后才会调用，快速路径见 {@link ReadLock#tryLockFast()}
          */
         @Override
         public int tryAcquireShared() {
-            //如果当前有线程占用了写锁，则不允许再加锁，除非是同一个线程
-            if (owner.get() != null && !owner.get().equals(Thread.currentThread())) {
-                return -1;
-            }else {
-                return myAqs.getState().incrementAndGet();
-            }
+            return readLock.tryLockFast() ? 1 : -1;
         }
 
         /**
@@ -49,88 +122,292 @@ public class MyReadWriteLock implements ReadWriteLock {
          */
         @Override
         public boolean tryRelease() {
-            return owner.compareAndSet(Thread.currentThread(),null);
+            if (owner.get() != Thread.currentThread() || getState().get() == 0) {
+                throw new IllegalMonitorStateException();
+            }
+            if (getState().decrementAndGet() > 0) {
+                return false;
+            }
+            owner.set(null);
+            return true;
         }
 
         /**
-         * 释放读锁
+         * 读锁在这之前已经释放了，这里只负责唤醒等待的线程
          */
         @Override
         public boolean tryReleaseShared() {
-            return myAqs.getState().decrementAndGet() >= 0;
+            return true;
+        }
+
+        @Override
+        protected boolean isHeldExclusively() {
+            return owner.get() == Thread.currentThread() && getState().get() > 0;
+        }
+
+        Thread writer() {
+            return owner.get();
         }
-    };
 
+        /**
+         * 写线程超时或者被中断，让出占的位置，唤醒排队的读线程
+         */
+        void abandonWrite() {
+            if (owner.get() == Thread.currentThread() && getState().get() == 0) {
+                owner.set(null);
+                releaseShared();
+            }
+        }
+    }
 
     @Override
     public Lock writeLock() {
-        return new Lock() {
-            @Override
-            public void lock() {
-                myAqs.acquire();
+        return writeLock;
+    }
+
+    @Override
+    public Lock readLock() {
+        return readLock;
+    }
+
+    /**
+     * 当前持有读锁的次数，包括重入
+     */
+    public int getReadLockCount() {
+        return readerCount();
+    }
+
+    /**
+     * 当前线程持有读锁的次数
+     */
+    public int getReadHoldCount() {
+        return readHolder.get().count;
+    }
+
+    public boolean isWriteLocked() {
+        return myAqs.getState().get() > 0;
+    }
+
+    public boolean isWriteLockedByCurrentThread() {
+        return myAqs.getState().get() > 0 && myAqs.writer() == Thread.currentThread();
+    }
+
+    private int readerCount() {
+        int count = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            count += readers.get(i * PADDING);
+        }
+        return count;
+    }
+
+    /**
+     * 读线程让路，或者释放读锁之后，有写线程占了位置就唤醒它
+     */
+    private void signalWriter() {
+        if (myAqs.writer() != null) {
+            myAqs.releaseShared();
+        }
+    }
+
+    /**
+     * 排队的读线程拿到读锁后，唤醒排在它后面的线程。读线程之间会互相传播，
+     * 写线程却不会，它要醒来排到最前面，才能占位置等读线程退出
+     */
+    private void signalQueued() {
+        if (myAqs.hasQueuedThreads()) {
+            myAqs.releaseShared();
+        }
+    }
+
+    /**
+     * 短暂让出 CPU 再重试，持有锁的线程很快就会释放，比排队 park 便宜
+     */
+    private boolean spinForRead() {
+        for (int i = 0; i < SPINS; i++) {
+            Thread.yield();
+            if (readLock.tryLockFast()) {
+                return true;
             }
+        }
+        return false;
+    }
 
-            @Override
-            public void unlock() {
-                myAqs.release();
+    private boolean spinForWrite() {
+        for (int i = 0; i < SPINS; i++) {
+            Thread.yield();
+            if (myAqs.tryAcquire()) {
+                return true;
             }
+        }
+        return false;
+    }
 
-            @Override
-            public void lockInterruptibly(){
-                throw new UnsupportedOperationException();
+    /**
+     * 读锁
+     */
+    private final class ReadLock implements Lock {
+
+        /**
+         * 不排队加读锁：没有写线程，或者写线程是自己（降级），或者自己已经持有读锁（重入）
+         */
+        boolean tryLockFast() {
+            ReadHolder holder = readHolder.get();
+            if (holder.count > 0) {
+                //重入的读锁不能让路，写线程在等它释放
+                readers.incrementAndGet(holder.index);
+                holder.count++;
+                return true;
             }
+            Thread current = Thread.currentThread();
+            Thread writer = myAqs.writer();
+            if (writer != null && writer != current) {
+                return false;
+            }
+            readers.incrementAndGet(holder.index);
+            writer = myAqs.writer();
+            if (writer != null && writer != current) {
+                //写线程在计数之后占了位置，让给它
+                readers.decrementAndGet(holder.index);
+                signalWriter();
+                return false;
+            }
+            holder.count++;
+            return true;
+        }
 
-            @Override
-            public boolean tryLock() {
-                throw new UnsupportedOperationException();
+        @Override
+        public void lock() {
+            if (!tryLockFast() && !spinForRead()) {
+                myAqs.acquireShared();
+                signalQueued();
             }
+        }
 
-            @Override
-            public boolean tryLock(long time, TimeUnit unit){
-                throw new UnsupportedOperationException();
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            if (!tryLockFast() && !spinForRead()) {
+                myAqs.acquireSharedInterruptibly();
+                signalQueued();
             }
+        }
 
+        @Override
+        public boolean tryLock() {
+            return tryLockFast();
+        }
 
-            @Override
-            public Condition newCondition() {
-                throw new UnsupportedOperationException();
+        @Override
+        public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+            if (tryLockFast()) {
+                return true;
             }
-        };
-    }
-
-    @Override
-    public Lock readLock() {
-        return new Lock() {
-            @Override
-            public void lock() {
-                myAqs.acquireShared();
+            if (myAqs.tryAcquireSharedNanos(unit.toNanos(time))) {
+                signalQueued();
+                return true;
             }
+            return false;
+        }
 
-            @Override
-            public void unlock() {
-                myAqs.releaseShared();
+        @Override
+        public void unlock() {
+            ReadHolder holder = readHolder.get();
+            if (holder.count == 0) {
+                throw new IllegalMonitorStateException("当前线程没有持有读锁");
             }
+            holder.count--;
+            readers.decrementAndGet(holder.index);
+            signalWriter();
+        }
+
+        /**
+         * 读锁不支持条件等待
+         */
+        @Override
+        public Condition newCondition() {
+            throw new UnsupportedOperationException();
+        }
+    }
 
-            @Override
-            public void lockInterruptibly() throws InterruptedException {
-                throw new UnsupportedOperationException();
+    /**
+     * 写锁
+     */
+    private final class WriteLock implements Lock {
+
+        @Override
+        public void lock() {
+            checkNotReading();
+            if (!myAqs.tryAcquire() && !spinForWrite()) {
+                myAqs.acquire();
             }
+        }
 
-            @Override
-            public boolean tryLock() {
-                throw new UnsupportedOperationException();
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            checkNotReading();
+            boolean locked = false;
+            try {
+                myAqs.acquireInterruptibly();
+                locked = true;
+            } finally {
+                if (!locked) {
+                    myAqs.abandonWrite();
+                }
             }
+        }
 
-            @Override
-            public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
-                throw new UnsupportedOperationException();
+        @Override
+        public boolean tryLock() {
+            checkNotReading();
+            return myAqs.tryAcquire();
+        }
+
+        @Override
+        public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+            checkNotReading();
+            boolean locked = false;
+            try {
+                locked = myAqs.tryAcquireNanos(unit.toNanos(time));
+                return locked;
+            } finally {
+                if (!locked) {
+                    myAqs.abandonWrite();
+                }
             }
+        }
 
+        @Override
+        public void unlock() {
+            myAqs.release();
+        }
+
+        /**
+         * 写锁只重入了一次时才能等待条件
+         */
+        @Override
+        public Condition newCondition() {
+            return myAqs.new ConditionObject();
+        }
 
-            @Override
-            public Condition newCondition() {
-                throw new UnsupportedOperationException();
+        /**
+         * 持有读锁再加写锁，会一直等自己释放读锁
+         */
+        private void checkNotReading() {
+            if (readHolder.get().count > 0 && myAqs.writer() != Thread.currentThread()) {
+                throw new IllegalMonitorStateException("读锁不能升级为写锁");
             }
-        };
+        }
+    }
+
+    private static int stripes() {
+        int n = 1;
+        while (n < Runtime.getRuntime().availableProcessors()) {
+            n <<= 1;
+        }
+        return n;
+    }
+
+    private static int stripeOf(Thread thread) {
+        int h = (int) thread.getId() * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
     }
 }
@@ -2,6 +2,8 @@ package com.cz.concurrent.lock;
 
 import com.cz.concurrent.lock.aqs.AbstractQueuedSynchronizer;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * 自定义信号量实现
  * 使用场景如：
@@ -56,6 +58,22 @@ public class Semaphore {
         myAqs.acquireShared();
     }
 
+    /**
+     * 获得令牌，最多等待 timeout
+     *
+     * @return 是否拿到了令牌
+     */
+    public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        return myAqs.tryAcquireSharedNanos(unit.toNanos(timeout));
+    }
+
+    /**
+     * 剩余的令牌数量
+     */
+    public int availablePermits() {
+        return myAqs.getState().get();
+    }
+
     /**
      * 释放令牌
      */
@@ -1,8 +1,14 @@
 package com.cz.concurrent.lock.aqs;
 
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.LockSupport;
 
 /**
@@ -11,6 +17,14 @@ import java.util.concurrent.locks.LockSupport;
  * tryAcquire、 tryAcquireShared ： 实际执行占用资源的操作，如何判定一个由使用者具体去实现。
  * release、 releaseShared ： 定义释放资源的逻辑，释放之后，通知后续节点进行争抢。
  * tryRelease、 tryReleaseShared： 实际执行资源释放的操作，具体的AQS使用者去实现。
+ * isHeldExclusively： 当前线程是否独占资源，使用 {@link ConditionObject} 时由使用者实现。
+ * <p>
+ * 等待的线程排在一个 CLH 队列里：每个节点只关心它的前驱，前驱的 waitStatus 为 SIGNAL 时，
+ * 前驱释放资源时负责唤醒它，所以线程可以放心 park。只有排在 head 后面的第一个节点会去争抢资源，
+ * 释放的时候也只唤醒这一个，不会所有等待者一起醒来争抢。入队、出队都只是一次 CAS，不需要锁。
+ * <p>
+ * 共享模式下，一个节点抢到资源后如果还有剩余（tryAcquireShared 返回值大于 0），
+ * 会接着唤醒后面的共享节点，一路传播下去。
  *
  * @author leishiguang
  * @since v1.0
@@ -18,19 +32,112 @@ import java.util.concurrent.locks.LockSupport;
 public class AbstractQueuedSynchronizer {
 
     /**
-     * 当前资源的拥有者
+     * 剩余时间小于这个值时不再 park，直接自旋，park 本身的开销比这还大
      */
-    protected volatile AtomicReference<Thread> owner = new AtomicReference<>();
+    static final long SPIN_FOR_TIMEOUT_THRESHOLD = 1000L;
 
     /**
-     * 保存当前正在等待的线程
+     * 当前资源的拥有者
      */
-    private volatile LinkedBlockingQueue<Thread> waiters = new LinkedBlockingQueue<>();
+    protected final AtomicReference<Thread> owner = new AtomicReference<>();
 
     /**
      * 记录资源的状态
      */
-    private volatile AtomicInteger state = new AtomicInteger(0);
+    private final AtomicInteger state = new AtomicInteger(0);
+
+    /**
+     * 等待队列的头节点，懒加载。头节点是当前拿到资源（或者刚放弃排队）的节点，它的 thread 为空
+     */
+    private volatile Node head;
+
+    /**
+     * 等待队列的尾节点，新节点从这里入队
+     */
+    private volatile Node tail;
+
+    private static final AtomicReferenceFieldUpdater<AbstractQueuedSynchronizer, Node> HEAD =
+            AtomicReferenceFieldUpdater.newUpdater(AbstractQueuedSynchronizer.class, Node.class, "head");
+    private static final AtomicReferenceFieldUpdater<AbstractQueuedSynchronizer, Node> TAIL =
+            AtomicReferenceFieldUpdater.newUpdater(AbstractQueuedSynchronizer.class, Node.class, "tail");
+
+    /**
+     * 等待队列里的节点
+     */
+    static final class Node {
+        /**
+         * 共享模式的标记
+         */
+        static final Node SHARED = new Node();
+        /**
+         * 独占模式的标记
+         */
+        static final Node EXCLUSIVE = null;
+
+        /**
+         * 节点已经因为超时或者中断放弃排队
+         */
+        static final int CANCELLED = 1;
+        /**
+         * 后继节点已经（或者马上就要）park，当前节点释放资源时要唤醒它
+         */
+        static final int SIGNAL = -1;
+        /**
+         * 节点在条件队列里等待
+         */
+        static final int CONDITION = -2;
+        /**
+         * 共享模式下释放的通知要继续往后传播
+         */
+        static final int PROPAGATE = -3;
+
+        volatile int waitStatus;
+        volatile Node prev;
+        volatile Node next;
+        volatile Thread thread;
+        /**
+         * 在条件队列里指向下一个等待者，在等待队列里标记节点的模式
+         */
+        Node nextWaiter;
+
+        private static final AtomicIntegerFieldUpdater<Node> WAIT_STATUS =
+                AtomicIntegerFieldUpdater.newUpdater(Node.class, "waitStatus");
+        private static final AtomicReferenceFieldUpdater<Node, Node> NEXT =
+                AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "next");
+
+        Node() {
+        }
+
+        Node(Thread thread, Node mode) {
+            this.nextWaiter = mode;
+            this.thread = thread;
+        }
+
+        Node(Thread thread, int waitStatus) {
+            this.waitStatus = waitStatus;
+            this.thread = thread;
+        }
+
+        boolean isShared() {
+            return nextWaiter == SHARED;
+        }
+
+        Node predecessor() {
+            Node p = prev;
+            if (p == null) {
+                throw new NullPointerException();
+            }
+            return p;
+        }
+
+        boolean compareAndSetWaitStatus(int expect, int update) {
+            return WAIT_STATUS.compareAndSet(this, expect, update);
+        }
+
+        boolean compareAndSetNext(Node expect, Node update) {
+            return NEXT.compareAndSet(this, expect, update);
+        }
+    }
 
     /**
      * 执行资源争抢
@@ -43,6 +150,8 @@ public class AbstractQueuedSynchronizer {
 
     /**
      * 共享资源占用的逻辑，返回资源占用的情况
+     *
+     * @return 小于 0 没抢到；等于 0 抢到了，但后面的共享节点抢不到了；大于 0 抢到了，后面的共享节点也可能抢到
      */
     public int tryAcquireShared(){
         throw new UnsupportedOperationException("由子类实现");
@@ -50,7 +159,7 @@ public class AbstractQueuedSynchronizer {
 
     /**
      * 执行资源释放
-     * @return 释放成功
+     * @return 释放成功，等待的线程可以来争抢了
      */
     public boolean tryRelease(){
         throw new UnsupportedOperationException("由子类实现");
@@ -58,76 +167,113 @@ public class AbstractQueuedSynchronizer {
 
     /**
      * 执行共享资源释放
-     * @return 释放成功
+     * @return 释放成功，等待的线程可以来争抢了
      */
     public boolean tryReleaseShared(){
         throw new UnsupportedOperationException("由子类实现");
     }
 
     /**
-     * 尝试进行资源争抢，如果没抢到，就进入等待队列
+     * 当前线程是否独占了资源，{@link ConditionObject} 用它检查调用者
+     */
+    protected boolean isHeldExclusively() {
+        throw new UnsupportedOperationException("由子类实现");
+    }
+
+    /**
+     * 尝试进行资源争抢，如果没抢到，就进入等待队列，忽略中断
      */
     public void acquire() {
-        //第一次执行争抢
-        boolean firstAddQueue = true;
-        // 不断尝试增抢资源
-        while (!tryAcquire()) {
-            if (firstAddQueue) {
-                //如果没有抢到，加入等待集合
-                waiters.offer(Thread.currentThread());
-                firstAddQueue = false;
-            } else {
-                //已经在等待队列了，挂起当前线程
-                LockSupport.park();
-            }
+        if (!tryAcquire() && acquireQueued(addWaiter(Node.EXCLUSIVE))) {
+            //等待期间被中断过，恢复中断状态
+            Thread.currentThread().interrupt();
         }
-        // 如果抢到了，从等待队列中移除
-        waiters.remove(Thread.currentThread());
     }
 
     /**
+     * 同 {@link #acquire()}，但等待时响应中断
+     */
+    public void acquireInterruptibly() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (!tryAcquire()) {
+            doAcquireInterruptibly();
+        }
+    }
+
+    /**
+     * 同 {@link #acquireInterruptibly()}，但最多等待 nanosTimeout 纳秒
      *
+     * @return 是否抢到了资源
+     */
+    public boolean tryAcquireNanos(long nanosTimeout) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        return tryAcquire() || doAcquireNanos(nanosTimeout);
+    }
+
+    /**
+     * 共享模式的资源争抢，没抢到就进入等待队列，忽略中断
      */
     public void acquireShared(){
-        //第一次执行争抢
-        boolean firstAddQueue = true;
-        // 不断尝试增抢资源
-        while (tryAcquireShared() < 0) {
-            if (firstAddQueue) {
-                //如果没有抢到，加入等待集合
-                waiters.offer(Thread.currentThread());
-                firstAddQueue = false;
-            } else {
-                //已经在等待队列了，挂起当前线程
-                LockSupport.park();
-            }
+        if (tryAcquireShared() < 0) {
+            doAcquireShared();
+        }
+    }
+
+    /**
+     * 同 {@link #acquireShared()}，但等待时响应中断
+     */
+    public void acquireSharedInterruptibly() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (tryAcquireShared() < 0) {
+            doAcquireSharedInterruptibly();
         }
-        // 如果抢到了，从等待队列中移除
-        waiters.remove(Thread.currentThread());
     }
 
+    /**
+     * 同 {@link #acquireSharedInterruptibly()}，但最多等待 nanosTimeout 纳秒
+     *
+     * @return 是否抢到了资源
+     */
+    public boolean tryAcquireSharedNanos(long nanosTimeout) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        return tryAcquireShared() >= 0 || doAcquireSharedNanos(nanosTimeout);
+    }
 
     /**
-     * 当资源被释放的时候，要通知等待队列的线程，继续争抢
+     * 当资源被释放的时候，唤醒排在最前面的等待者
+     *
+     * @return tryRelease 的结果
      */
-    public void release() {
+    public boolean release() {
         if (tryRelease()) {
-            //通知所有等待者
-            for (Thread next : waiters) {
-                //唤醒线程
-                LockSupport.unpark(next);
+            Node h = head;
+            if (h != null && h.waitStatus != 0) {
+                unparkSuccessor(h);
             }
+            return true;
         }
+        return false;
     }
 
-    public void releaseShared(){
+    /**
+     * 共享资源释放的时候，唤醒排在最前面的等待者，它再把通知传播给后面的共享节点
+     *
+     * @return tryReleaseShared 的结果
+     */
+    public boolean releaseShared(){
         if (tryReleaseShared()) {
-            //通知所有等待者
-            for (Thread next : waiters) {
-                //唤醒线程
-                LockSupport.unpark(next);
-            }
+            doReleaseShared();
+            return true;
         }
+        return false;
     }
 
     /**
@@ -137,5 +283,713 @@ public class AbstractQueuedSynchronizer {
         return state;
     }
 
+    /**
+     * 是否有线程在排队，结果只是一个瞬间的快照
+     */
+    public final boolean hasQueuedThreads() {
+        return head != tail;
+    }
+
+    /**
+     * 是否有别的线程排在当前线程前面，公平的 tryAcquire 可以用它决定要不要插队
+     */
+    public final boolean hasQueuedPredecessors() {
+        Node t = tail;
+        Node h = head;
+        Node s;
+        return h != t && ((s = h.next) == null || s.thread != Thread.currentThread());
+    }
+
+    /**
+     * 排队的线程数，只是估计值
+     */
+    public final int getQueueLength() {
+        int n = 0;
+        for (Node p = tail; p != null; p = p.prev) {
+            if (p.thread != null) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * 排队的线程，只是估计值
+     */
+    public final Collection<Thread> getQueuedThreads() {
+        ArrayList<Thread> list = new ArrayList<>();
+        for (Node p = tail; p != null; p = p.prev) {
+            Thread t = p.thread;
+            if (t != null) {
+                list.add(t);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * 入队，必要时先初始化头节点
+     *
+     * @return 节点的前驱
+     */
+    private Node enq(Node node) {
+        for (;;) {
+            Node t = tail;
+            if (t == null) {
+                if (HEAD.compareAndSet(this, null, new Node())) {
+                    tail = head;
+                }
+            } else {
+                node.prev = t;
+                if (TAIL.compareAndSet(this, t, node)) {
+                    t.next = node;
+                    return t;
+                }
+            }
+        }
+    }
+
+    private Node addWaiter(Node mode) {
+        Node node = new Node(Thread.currentThread(), mode);
+        enq(node);
+        return node;
+    }
 
+    /**
+     * 抢到资源的节点成为新的头节点，只有抢到资源的线程会调用，不需要 CAS
+     */
+    private void setHead(Node node) {
+        head = node;
+        node.thread = null;
+        node.prev = null;
+    }
+
+    /**
+     * 唤醒 node 后面第一个没有取消的节点
+     */
+    private void unparkSuccessor(Node node) {
+        int ws = node.waitStatus;
+        if (ws < 0) {
+            node.compareAndSetWaitStatus(ws, 0);
+        }
+        //next 可能还没连上，或者已经取消了，这时从尾部往前找
+        Node s = node.next;
+        if (s == null || s.waitStatus > 0) {
+            s = null;
+            for (Node t = tail; t != null && t != node; t = t.prev) {
+                if (t.waitStatus <= 0) {
+                    s = t;
+                }
+            }
+        }
+        if (s != null) {
+            LockSupport.unpark(s.thread);
+        }
+    }
+
+    /**
+     * 共享模式的释放：唤醒后继，并保证通知会传播下去
+     */
+    private void doReleaseShared() {
+        for (;;) {
+            Node h = head;
+            if (h != null && h != tail) {
+                int ws = h.waitStatus;
+                if (ws == Node.SIGNAL) {
+                    if (!h.compareAndSetWaitStatus(Node.SIGNAL, 0)) {
+                        continue;
+                    }
+                    unparkSuccessor(h);
+                } else if (ws == 0 && !h.compareAndSetWaitStatus(0, Node.PROPAGATE)) {
+                    continue;
+                }
+            }
+            //头节点变了说明有节点抢到了资源，接着帮它往后传播
+            if (h == head) {
+                break;
+            }
+        }
+    }
+
+    private void setHeadAndPropagate(Node node, int propagate) {
+        Node h = head;
+        setHead(node);
+        if (propagate > 0 || h == null || h.waitStatus < 0 || (h = head) == null || h.waitStatus < 0) {
+            Node s = node.next;
+            if (s == null || s.isShared()) {
+                doReleaseShared();
+            }
+        }
+    }
+
+    /**
+     * 放弃排队：超时、中断，或者 tryAcquire 抛了异常
+     */
+    private void cancelAcquire(Node node) {
+        if (node == null) {
+            return;
+        }
+        node.thread = null;
+        //跳过已经取消的前驱
+        Node pred = node.prev;
+        while (pred.waitStatus > 0) {
+            node.prev = pred = pred.prev;
+        }
+        Node predNext = pred.next;
+        node.waitStatus = Node.CANCELLED;
+
+        if (node == tail && TAIL.compareAndSet(this, node, pred)) {
+            pred.compareAndSetNext(predNext, null);
+        } else {
+            int ws;
+            if (pred != head
+                    && ((ws = pred.waitStatus) == Node.SIGNAL || (ws <= 0 && pred.compareAndSetWaitStatus(ws, Node.SIGNAL)))
+                    && pred.thread != null) {
+                Node next = node.next;
+                if (next != null && next.waitStatus <= 0) {
+                    pred.compareAndSetNext(predNext, next);
+                }
+            } else {
+                //前驱就是头节点，或者没法让前驱通知后继，直接唤醒后继让它自己去整理队列
+                unparkSuccessor(node);
+            }
+            node.next = node;
+        }
+    }
+
+    /**
+     * 没抢到资源时，确认前驱会唤醒自己之后才能 park
+     *
+     * @return 是否可以 park 了
+     */
+    private static boolean shouldParkAfterFailedAcquire(Node pred, Node node) {
+        int ws = pred.waitStatus;
+        if (ws == Node.SIGNAL) {
+            return true;
+        }
+        if (ws > 0) {
+            //前驱已经取消，跳过它们
+            do {
+                node.prev = pred = pred.prev;
+            } while (pred.waitStatus > 0);
+            pred.next = node;
+        } else {
+            //让前驱释放时唤醒自己，再抢一次之后才 park
+            pred.compareAndSetWaitStatus(ws, Node.SIGNAL);
+        }
+        return false;
+    }
+
+    private boolean parkAndCheckInterrupt() {
+        LockSupport.park(this);
+        return Thread.interrupted();
+    }
+
+    /**
+     * 排在队列里的节点不断争抢资源，直到抢到，忽略中断
+     *
+     * @return 等待期间是否被中断过
+     */
+    final boolean acquireQueued(Node node) {
+        boolean failed = true;
+        try {
+            boolean interrupted = false;
+            for (;;) {
+                Node p = node.predecessor();
+                if (p == head && tryAcquire()) {
+                    setHead(node);
+                    p.next = null;
+                    failed = false;
+                    return interrupted;
+                }
+                if (shouldParkAfterFailedAcquire(p, node) && parkAndCheckInterrupt()) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (failed) {
+                cancelAcquire(node);
+            }
+        }
+    }
+
+    private void doAcquireInterruptibly() throws InterruptedException {
+        Node node = addWaiter(Node.EXCLUSIVE);
+        boolean failed = true;
+        try {
+            for (;;) {
+                Node p = node.predecessor();
+                if (p == head && tryAcquire()) {
+                    setHead(node);
+                    p.next = null;
+                    failed = false;
+                    return;
+                }
+                if (shouldParkAfterFailedAcquire(p, node) && parkAndCheckInterrupt()) {
+                    throw new InterruptedException();
+                }
+            }
+        } finally {
+            if (failed) {
+                cancelAcquire(node);
+            }
+        }
+    }
+
+    private boolean doAcquireNanos(long nanosTimeout) throws InterruptedException {
+        if (nanosTimeout <= 0L) {
+            return false;
+        }
+        final long deadline = System.nanoTime() + nanosTimeout;
+        Node node = addWaiter(Node.EXCLUSIVE);
+        boolean failed = true;
+        try {
+            for (;;) {
+                Node p = node.predecessor();
+                if (p == head && tryAcquire()) {
+                    setHead(node);
+                    p.next = null;
+                    failed = false;
+                    return true;
+                }
+                nanosTimeout = deadline - System.nanoTime();
+                if (nanosTimeout <= 0L) {
+                    return false;
+                }
+                if (shouldParkAfterFailedAcquire(p, node) && nanosTimeout > SPIN_FOR_TIMEOUT_THRESHOLD) {
+                    LockSupport.parkNanos(this, nanosTimeout);
+                }
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } finally {
+            if (failed) {
+                cancelAcquire(node);
+            }
+        }
+    }
+
+    private void doAcquireShared() {
+        Node node = addWaiter(Node.SHARED);
+        boolean failed = true;
+        try {
+            boolean interrupted = false;
+            for (;;) {
+                Node p = node.predecessor();
+                if (p == head) {
+                    int r = tryAcquireShared();
+                    if (r >= 0) {
+                        setHeadAndPropagate(node, r);
+                        p.next = null;
+                        if (interrupted) {
+                            Thread.currentThread().interrupt();
+                        }
+                        failed = false;
+                        return;
+                    }
+                }
+                if (shouldParkAfterFailedAcquire(p, node) && parkAndCheckInterrupt()) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (failed) {
+                cancelAcquire(node);
+            }
+        }
+    }
+
+    private void doAcquireSharedInterruptibly() throws InterruptedException {
+        Node node = addWaiter(Node.SHARED);
+        boolean failed = true;
+        try {
+            for (;;) {
+                Node p = node.predecessor();
+                if (p == head) {
+                    int r = tryAcquireShared();
+                    if (r >= 0) {
+                        setHeadAndPropagate(node, r);
+                        p.next = null;
+                        failed = false;
+                        return;
+                    }
+                }
+                if (shouldParkAfterFailedAcquire(p, node) && parkAndCheckInterrupt()) {
+                    throw new InterruptedException();
+                }
+            }
+        } finally {
+            if (failed) {
+                cancelAcquire(node);
+            }
+        }
+    }
+
+    private boolean doAcquireSharedNanos(long nanosTimeout) throws InterruptedException {
+        if (nanosTimeout <= 0L) {
+            return false;
+        }
+        final long deadline = System.nanoTime() + nanosTimeout;
+        Node node = addWaiter(Node.SHARED);
+        boolean failed = true;
+        try {
+            for (;;) {
+                Node p = node.predecessor();
+                if (p == head) {
+                    int r = tryAcquireShared();
+                    if (r >= 0) {
+                        setHeadAndPropagate(node, r);
+                        p.next = null;
+                        failed = false;
+                        return true;
+                    }
+                }
+                nanosTimeout = deadline - System.nanoTime();
+                if (nanosTimeout <= 0L) {
+                    return false;
+                }
+                if (shouldParkAfterFailedAcquire(p, node) && nanosTimeout > SPIN_FOR_TIMEOUT_THRESHOLD) {
+                    LockSupport.parkNanos(this, nanosTimeout);
+                }
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } finally {
+            if (failed) {
+                cancelAcquire(node);
+            }
+        }
+    }
+
+    /**
+     * 节点是否已经从条件队列转移到了等待队列
+     */
+    final boolean isOnSyncQueue(Node node) {
+        if (node.waitStatus == Node.CONDITION || node.prev == null) {
+            return false;
+        }
+        if (node.next != null) {
+            return true;
+        }
+        //prev 不为空也可能还没 CAS 进队列，从尾部找一遍
+        for (Node t = tail; t != null; t = t.prev) {
+            if (t == node) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 把被 signal 的节点从条件队列转移到等待队列
+     *
+     * @return 节点在 signal 之前已经取消了则返回 false
+     */
+    final boolean transferForSignal(Node node) {
+        if (!node.compareAndSetWaitStatus(Node.CONDITION, 0)) {
+            return false;
+        }
+        Node p = enq(node);
+        int ws = p.waitStatus;
+        //前驱取消了，或者没法让它通知，直接唤醒，让节点自己去整理
+        if (ws > 0 || !p.compareAndSetWaitStatus(ws, Node.SIGNAL)) {
+            LockSupport.unpark(node.thread);
+        }
+        return true;
+    }
+
+    /**
+     * 等待被中断或超时后，把节点转移到等待队列
+     *
+     * @return 是否在 signal 之前就取消了
+     */
+    final boolean transferAfterCancelledWait(Node node) {
+        if (node.compareAndSetWaitStatus(Node.CONDITION, 0)) {
+            enq(node);
+            return true;
+        }
+        //signal 已经在转移它了，等它转移完
+        while (!isOnSyncQueue(node)) {
+            Thread.yield();
+        }
+        return false;
+    }
+
+    /**
+     * 释放资源，条件等待之前调用
+     */
+    final void releaseForCondition(Node node) {
+        boolean failed = true;
+        try {
+            if (release()) {
+                failed = false;
+            } else {
+                throw new IllegalMonitorStateException();
+            }
+        } finally {
+            if (failed) {
+                node.waitStatus = Node.CANCELLED;
+            }
+        }
+    }
+
+    /**
+     * 独占模式的条件队列，和 {@link java.util.concurrent.locks.ReentrantLock#newCondition()} 一样使用。
+     * 等待时调用一次 {@link #release()} 释放资源，醒来后再 {@link #acquire()} 回来，
+     * 所以只适用于不可重入、一次只占用一份资源的独占锁，比如 ExclusiveLock。
+     */
+    public class ConditionObject implements Condition {
+        /**
+         * 等待后被中断了，醒来后恢复中断状态
+         */
+        private static final int REINTERRUPT = 1;
+        /**
+         * 等待后被中断了，醒来后抛出 InterruptedException
+         */
+        private static final int THROW_IE = -1;
+
+        private Node firstWaiter;
+        private Node lastWaiter;
+
+        /**
+         * 加入条件队列，调用者持有资源，不需要 CAS
+         */
+        private Node addConditionWaiter() {
+            Node t = lastWaiter;
+            if (t != null && t.waitStatus != Node.CONDITION) {
+                unlinkCancelledWaiters();
+                t = lastWaiter;
+            }
+            Node node = new Node(Thread.currentThread(), Node.CONDITION);
+            if (t == null) {
+                firstWaiter = node;
+            } else {
+                t.nextWaiter = node;
+            }
+            lastWaiter = node;
+            return node;
+        }
+
+        private void doSignal(Node first) {
+            do {
+                if ((firstWaiter = first.nextWaiter) == null) {
+                    lastWaiter = null;
+                }
+                first.nextWaiter = null;
+            } while (!transferForSignal(first) && (first = firstWaiter) != null);
+        }
+
+        private void doSignalAll(Node first) {
+            lastWaiter = firstWaiter = null;
+            do {
+                Node next = first.nextWaiter;
+                first.nextWaiter = null;
+                transferForSignal(first);
+                first = next;
+            } while (first != null);
+        }
+
+        private void unlinkCancelledWaiters() {
+            Node t = firstWaiter;
+            Node trail = null;
+            while (t != null) {
+                Node next = t.nextWaiter;
+                if (t.waitStatus != Node.CONDITION) {
+                    t.nextWaiter = null;
+                    if (trail == null) {
+                        firstWaiter = next;
+                    } else {
+                        trail.nextWaiter = next;
+                    }
+                    if (next == null) {
+                        lastWaiter = trail;
+                    }
+                } else {
+                    trail = t;
+                }
+                t = next;
+            }
+        }
+
+        @Override
+        public final void signal() {
+            if (!isHeldExclusively()) {
+                throw new IllegalMonitorStateException();
+            }
+            Node first = firstWaiter;
+            if (first != null) {
+                doSignal(first);
+            }
+        }
+
+        @Override
+        public final void signalAll() {
+            if (!isHeldExclusively()) {
+                throw new IllegalMonitorStateException();
+            }
+            Node first = firstWaiter;
+            if (first != null) {
+                doSignalAll(first);
+            }
+        }
+
+        @Override
+        public final void awaitUninterruptibly() {
+            Node node = addConditionWaiter();
+            releaseForCondition(node);
+            boolean interrupted = false;
+            while (!isOnSyncQueue(node)) {
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    interrupted = true;
+                }
+            }
+            if (acquireQueued(node) || interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public final void await() throws InterruptedException {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            Node node = addConditionWaiter();
+            releaseForCondition(node);
+            int interruptMode = 0;
+            while (!isOnSyncQueue(node)) {
+                LockSupport.park(this);
+                if ((interruptMode = checkInterruptWhileWaiting(node)) != 0) {
+                    break;
+                }
+            }
+            afterWait(node, interruptMode);
+        }
+
+        @Override
+        public final long awaitNanos(long nanosTimeout) throws InterruptedException {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            final long deadline = System.nanoTime() + nanosTimeout;
+            Node node = addConditionWaiter();
+            releaseForCondition(node);
+            int interruptMode = 0;
+            while (!isOnSyncQueue(node)) {
+                if (nanosTimeout <= 0L) {
+                    transferAfterCancelledWait(node);
+                    break;
+                }
+                if (nanosTimeout > SPIN_FOR_TIMEOUT_THRESHOLD) {
+                    LockSupport.parkNanos(this, nanosTimeout);
+                }
+                if ((interruptMode = checkInterruptWhileWaiting(node)) != 0) {
+                    break;
+                }
+                nanosTimeout = deadline - System.nanoTime();
+            }
+            afterWait(node, interruptMode);
+            return deadline - System.nanoTime();
+        }
+
+        /**
+         * 返回值看节点是不是超时转移的，不看醒来时还剩多少时间：
+         * signal 之后还要重新抢资源，抢到时可能已经过了期限
+         */
+        @Override
+        public final boolean awaitUntil(Date deadline) throws InterruptedException {
+            long abstime = deadline.getTime();
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            Node node = addConditionWaiter();
+            releaseForCondition(node);
+            boolean timedout = false;
+            int interruptMode = 0;
+            while (!isOnSyncQueue(node)) {
+                if (System.currentTimeMillis() >= abstime) {
+                    timedout = transferAfterCancelledWait(node);
+                    break;
+                }
+                LockSupport.parkUntil(this, abstime);
+                if ((interruptMode = checkInterruptWhileWaiting(node)) != 0) {
+                    break;
+                }
+            }
+            afterWait(node, interruptMode);
+            return !timedout;
+        }
+
+        /**
+         * 和 {@link #awaitUntil(Date)} 一样，返回的是有没有超时转移
+         */
+        @Override
+        public final boolean await(long time, TimeUnit unit) throws InterruptedException {
+            long nanosTimeout = unit.toNanos(time);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            final long deadline = System.nanoTime() + nanosTimeout;
+            Node node = addConditionWaiter();
+            releaseForCondition(node);
+            boolean timedout = false;
+            int interruptMode = 0;
+            while (!isOnSyncQueue(node)) {
+                if (nanosTimeout <= 0L) {
+                    timedout = transferAfterCancelledWait(node);
+                    break;
+                }
+                if (nanosTimeout > SPIN_FOR_TIMEOUT_THRESHOLD) {
+                    LockSupport.parkNanos(this, nanosTimeout);
+                }
+                if ((interruptMode = checkInterruptWhileWaiting(node)) != 0) {
+                    break;
+                }
+                nanosTimeout = deadline - System.nanoTime();
+            }
+            afterWait(node, interruptMode);
+            return !timedout;
+        }
+
+        /**
+         * 重新抢回资源，再处理等待期间的中断
+         */
+        private void afterWait(Node node, int interruptMode) throws InterruptedException {
+            if (acquireQueued(node) && interruptMode != THROW_IE) {
+                interruptMode = REINTERRUPT;
+            }
+            if (node.nextWaiter != null) {
+                unlinkCancelledWaiters();
+            }
+            if (interruptMode == THROW_IE) {
+                throw new InterruptedException();
+            } else if (interruptMode == REINTERRUPT) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * 在 signal 之前被中断的抛异常，之后被中断的只恢复中断状态
+         */
+        private int checkInterruptWhileWaiting(Node node) {
+            return Thread.interrupted() ? (transferAfterCancelledWait(node) ? THROW_IE : REINTERRUPT) : 0;
+        }
+
+        /**
+         * 是否有线程在等待这个条件，调用者必须持有资源
+         */
+        public final boolean hasWaiters() {
+            if (!isHeldExclusively()) {
+                throw new IllegalMonitorStateException();
+            }
+            for (Node w = firstWaiter; w != null; w = w.nextWaiter) {
+                if (w.waitStatus == Node.CONDITION) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
 }
@@ -0,0 +1,45 @@
+package com.cz.concurrent.lock.spin;
+
+/**
+ * 自适应的自旋次数：上一次自旋等到了锁，下一次多转一会儿；自旋没等到只能 park，下一次少转一些。
+ * 单核机器上自旋没有意义，持有锁的线程拿不到 CPU，所以直接去 park。
+ */
+final class AdaptiveSpin {
+
+    static final boolean MULTI_CORE = Runtime.getRuntime().availableProcessors() > 1;
+
+    private static final int MIN_SPINS = 1 << 4;
+    private static final int MAX_SPINS = 1 << 14;
+
+    /**
+     * 并发修改会丢掉几次调整，不需要精确
+     */
+    private volatile int limit = 1 << 10;
+
+    /**
+     * 这一次最多自旋多少次，之后就该 park 了
+     */
+    int limit() {
+        return MULTI_CORE ? limit : 0;
+    }
+
+    /**
+     * 自旋等到了锁
+     */
+    void succeeded() {
+        int current = limit;
+        if (current < MAX_SPINS) {
+            limit = current << 1;
+        }
+    }
+
+    /**
+     * 自旋没等到锁，只能 park
+     */
+    void failed() {
+        int current = limit;
+        if (current > MIN_SPINS) {
+            limit = current >> 1;
+        }
+    }
+}
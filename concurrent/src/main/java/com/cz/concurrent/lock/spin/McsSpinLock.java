@@ -0,0 +1,113 @@
+package com.cz.concurrent.lock.spin;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * MCS 队列自旋锁
+ * <p>
+ * 等待的线程排成链表，每个线程只盯着自己节点上的状态，解锁时前驱把锁直接交给后继。
+ * 不管多少线程在等，每次交接只写一个缓存行，也是先到先得。
+ * 自旋的次数由 {@link AdaptiveSpin} 决定，转够了还没轮到就把状态改成 PARKED 再 park，
+ * 前驱交锁时看到 PARKED 才去唤醒。
+ * <p>
+ * 每个线程的节点保存在 ThreadLocal 里，加锁、解锁必须是同一个线程。不可重入。
+ */
+public class McsSpinLock {
+
+    private static final int WAITING = 0;
+    private static final int PARKED = 1;
+    private static final int GRANTED = 2;
+
+    private static final class Node {
+        final Thread thread = Thread.currentThread();
+        volatile Node next;
+        volatile int state;
+
+        static final AtomicIntegerFieldUpdater<Node> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Node.class, "state");
+    }
+
+    private final AtomicReference<Node> tail = new AtomicReference<>();
+
+    private final ThreadLocal<Node> myNode = new ThreadLocal<Node>() {
+        @Override
+        protected Node initialValue() {
+            return new Node();
+        }
+    };
+
+    private final AdaptiveSpin spin = new AdaptiveSpin();
+
+    public void lock() {
+        Node node = myNode.get();
+        node.next = null;
+        node.state = WAITING;
+        Node pred = tail.getAndSet(node);
+        if (pred == null) {
+            return;
+        }
+        pred.next = node;
+        if (!spinLock(node)) {
+            parkLock(node);
+        }
+    }
+
+    public boolean tryLock() {
+        Node node = myNode.get();
+        node.next = null;
+        node.state = WAITING;
+        return tail.get() == null && tail.compareAndSet(null, node);
+    }
+
+    public void unLock() {
+        Node node = myNode.get();
+        Node next = node.next;
+        if (next == null) {
+            if (tail.compareAndSet(node, null)) {
+                return;
+            }
+            //后继已经换上了 tail，还没来得及连到 node.next 上，等它一下
+            while ((next = node.next) == null) {
+                Thread.yield();
+            }
+        }
+        if (Node.STATE.getAndSet(next, GRANTED) == PARKED) {
+            LockSupport.unpark(next.thread);
+        }
+    }
+
+    /**
+     * 在自旋次数用完之前等到前驱交锁
+     */
+    private boolean spinLock(Node node) {
+        int limit = spin.limit();
+        for (int spins = 0; spins < limit; spins++) {
+            if (node.state == GRANTED) {
+                spin.succeeded();
+                return true;
+            }
+        }
+        spin.failed();
+        return false;
+    }
+
+    private void parkLock(Node node) {
+        //改成 PARKED 失败说明前驱刚刚交了锁
+        if (!Node.STATE.compareAndSet(node, WAITING, PARKED)) {
+            return;
+        }
+        boolean interrupted = false;
+        while (node.state != GRANTED) {
+            LockSupport.park(this);
+            //park 不会因为中断状态一直返回，中断状态先清掉，拿到锁之后再恢复
+            if (Thread.interrupted()) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            node.thread.interrupt();
+        }
+    }
+}
@@ -1,24 +1,115 @@
 package com.cz.concurrent.lock.spin;
 
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * test-and-test-and-set 自旋锁
+ * <p>
+ * 锁被占用时只读 owner，不做 CAS，读只命中自己的缓存，不会让缓存行在各个核之间来回失效。
+ * 看到锁空出来才去 CAS，CAS 失败说明有别的线程同时在抢，随机退避一段时间再试，退避的上限每次翻倍，
+ * 把大家下一次争抢的时间错开。自旋的次数由 {@link AdaptiveSpin} 决定，转够了还没拿到就 park，
+ * 不会一直占着 CPU。
+ * <p>
+ * 不可重入，也不保证公平，刚来的线程可能插到 park 的线程前面。
+ */
 public class SpinLock {
+
+    private static final int MIN_BACKOFF = 1 << 2;
+    private static final int MAX_BACKOFF = 1 << 10;
+
     private AtomicReference<Thread> owner = new AtomicReference<>(); //不调用有参构造函数，则实例为null
-    
+
+    private final AdaptiveSpin spin = new AdaptiveSpin();
+
+    /**
+     * park 的线程，unLock 时唤醒排在最前面的一个
+     */
+    private final Queue<Thread> parked = new ConcurrentLinkedQueue<>();
+
     public void lock(){
         Thread currentThread = Thread.currentThread();
-        while(!owner.compareAndSet(null, currentThread)){  // owner == null ，则compareAndSet返回true，否则为false。
-            //拿不到owner的线程，不断的在死循环
+        // owner == null ，则compareAndSet返回true，否则为false。
+        if (owner.get() == null && owner.compareAndSet(null, currentThread)) {
+            return;
         }
+        if (!spinLock(currentThread)) {
+            parkLock(currentThread);
+        }
+    }
+
+    public boolean tryLock() {
+        return owner.get() == null && owner.compareAndSet(null, Thread.currentThread());
     }
-    
+
     public void unLock(){
         owner.set(null);
         // 也可以这样写，太麻烦，没必要
         /*
-        Thread cur = Thread.currentThread();  
+        Thread cur = Thread.currentThread();
         owner.compareAndSet(cur, null);
          */
+        if (!parked.isEmpty()) {
+            Thread next = parked.peek();
+            if (next != null) {
+                LockSupport.unpark(next);
+            }
+        }
+    }
+
+    /**
+     * 在自旋次数用完之前拿到锁
+     */
+    private boolean spinLock(Thread currentThread) {
+        int limit = spin.limit();
+        int backoff = MIN_BACKOFF;
+        for (int spins = 0; spins < limit; spins++) {
+            if (owner.get() != null) {
+                continue;
+            }
+            if (owner.compareAndSet(null, currentThread)) {
+                spin.succeeded();
+                return true;
+            }
+            spins += backoff(ThreadLocalRandom.current().nextInt(backoff) + 1);
+            if (backoff < MAX_BACKOFF) {
+                backoff <<= 1;
+            }
+        }
+        spin.failed();
+        return false;
+    }
+
+    /**
+     * 空转 n 次，读 owner 只是为了让循环不被优化掉
+     */
+    private int backoff(int n) {
+        for (int i = 0; i < n; i++) {
+            owner.get();
+        }
+        return n;
+    }
+
+    private void parkLock(Thread currentThread) {
+        boolean interrupted = false;
+        //先登记再检查一次，unLock 先放锁再看有没有人 park，两边总有一边能看到对方
+        parked.add(currentThread);
+        try {
+            while (!tryLock()) {
+                LockSupport.park(this);
+                //park 不会因为中断状态一直返回，中断状态先清掉，拿到锁之后再恢复
+                if (Thread.interrupted()) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            parked.remove(currentThread);
+        }
+        if (interrupted) {
+            currentThread.interrupt();
+        }
     }
-    
-}
\ No newline at end of file
+}
@@ -1,13 +1,35 @@
 package com.cz.concurrent.lock.spin;
 
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 
 public class TestSpinLock {
-    
+
     final static int THREAD_NUM = 100;
     static int x = 0;
 
+    /**
+     * 比较吞吐量时每组跑多久
+     */
+    final static long RUN_MILLIS = 500;
+
+    /**
+     * 线程数是 CPU 核数的几倍，超过 1 倍时一部分线程拿不到 CPU
+     */
+    final static int[] OVERSUBSCRIPTION = {1, 2, 4};
+
+    /**
+     * 统一几种锁的加锁、解锁
+     */
+    interface Locker {
+        void lock();
+
+        void unLock();
+    }
+
     public void testLock() throws InterruptedException {
         final CountDownLatch latch = new CountDownLatch(THREAD_NUM);
         final SpinLock spinLock = new SpinLock();
@@ -30,4 +52,184 @@ public class TestSpinLock {
         latch.await();    // 主线程等待所有子线程结束。
         System.out.println(x);    // 最终打印结果：10000 ，未出现线程不安全的异常。
     }
-}
\ No newline at end of file
+
+    /**
+     * 每种锁在 1 倍、2 倍、4 倍核数的线程下跑一段时间，打印每秒加锁次数，
+     * 以及公平性：各线程加锁次数的 Jain 指数，1 表示完全平均，1/n 表示只有一个线程拿到过锁；
+     * 还有拿得最少的线程和最多的线程的比值
+     */
+    public void compareLocks() throws InterruptedException {
+        int cores = Runtime.getRuntime().availableProcessors();
+        //预热，让 JIT 先编译好
+        for (String name : LOCK_NAMES) {
+            run(newLocker(name), cores, RUN_MILLIS / 2);
+        }
+        System.out.println("lock             threads      ops/s   fairness  min/max");
+        for (int times : OVERSUBSCRIPTION) {
+            int threads = cores * times;
+            for (String name : LOCK_NAMES) {
+                long[] counts = run(newLocker(name), threads, RUN_MILLIS);
+                report(name, threads, counts);
+            }
+        }
+    }
+
+    static final String[] LOCK_NAMES = {"SpinLock(TTAS)", "TicketSpinLock", "McsSpinLock", "ReentrantLock"};
+
+    static Locker newLocker(String name) {
+        switch (name) {
+            case "SpinLock(TTAS)": {
+                final SpinLock lock = new SpinLock();
+                return new Locker() {
+                    @Override
+                    public void lock() {
+                        lock.lock();
+                    }
+
+                    @Override
+                    public void unLock() {
+                        lock.unLock();
+                    }
+                };
+            }
+            case "TicketSpinLock": {
+                final TicketSpinLock lock = new TicketSpinLock();
+                return new Locker() {
+                    @Override
+                    public void lock() {
+                        lock.lock();
+                    }
+
+                    @Override
+                    public void unLock() {
+                        lock.unLock();
+                    }
+                };
+            }
+            case "McsSpinLock": {
+                final McsSpinLock lock = new McsSpinLock();
+                return new Locker() {
+                    @Override
+                    public void lock() {
+                        lock.lock();
+                    }
+
+                    @Override
+                    public void unLock() {
+                        lock.unLock();
+                    }
+                };
+            }
+            default: {
+                final ReentrantLock lock = new ReentrantLock();
+                return new Locker() {
+                    @Override
+                    public void lock() {
+                        lock.lock();
+                    }
+
+                    @Override
+                    public void unLock() {
+                        lock.unlock();
+                    }
+                };
+            }
+        }
+    }
+
+    /**
+     * 临界区里累加共享计数，临界区外做一点本地计算，让别的线程有机会拿到锁
+     *
+     * @return 每个线程加锁的次数
+     */
+    static long[] run(final Locker locker, int threads, long millis) throws InterruptedException {
+        final long[] counts = new long[threads];
+        final long[] shared = new long[1];
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicBoolean stop = new AtomicBoolean();
+        //本地计算的结果存起来，免得被 JIT 当成无用代码去掉
+        final long[] sinks = new long[threads];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int index = t;
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    long local = index;
+                    long count = 0;
+                    while (true) {
+                        //每 64 次看一眼要不要停
+                        if ((count & 63) == 0 && stop.get()) {
+                            break;
+                        }
+                        locker.lock();
+                        shared[0]++;
+                        locker.unLock();
+                        count++;
+                        for (int i = 0; i < 32; i++) {
+                            local = local * 31 + i;
+                        }
+                    }
+                    counts[index] = count;
+                    sinks[index] = local;
+                }
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        Thread.sleep(millis);
+        stop.set(true);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total != shared[0]) {
+            throw new AssertionError("Lost updates: " + total + " locks, counter " + shared[0]);
+        }
+        for (int i = 0; i < counts.length; i++) {
+            //换算成每秒
+            counts[i] = counts[i] * TimeUnit.SECONDS.toMillis(1) / millis;
+        }
+        return counts;
+    }
+
+    /**
+     * Jain 公平指数：(Σx)² / (n·Σx²)
+     */
+    static double fairness(long[] counts) {
+        double sum = 0;
+        double squares = 0;
+        for (long count : counts) {
+            sum += count;
+            squares += (double) count * count;
+        }
+        return squares == 0 ? 1 : sum * sum / (counts.length * squares);
+    }
+
+    private static void report(String name, int threads, long[] counts) {
+        long total = 0;
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (long count : counts) {
+            total += count;
+            min = Math.min(min, count);
+            max = Math.max(max, count);
+        }
+        System.out.println(String.format("%-16s %7d %10d %10.3f %8.3f",
+                name, threads, total, fairness(counts), max == 0 ? 0 : (double) min / max));
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        TestSpinLock test = new TestSpinLock();
+        test.testLock();
+        test.compareLocks();
+    }
+}
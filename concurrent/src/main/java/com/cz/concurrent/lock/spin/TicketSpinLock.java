@@ -0,0 +1,118 @@
+package com.cz.concurrent.lock.spin;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 排号自旋锁
+ * <p>
+ * 加锁先取一个号，等叫到自己的号；解锁就叫下一个号，先到先得，是公平的。
+ * 前面还有几个人在等，就按人数成比例地退避，排在后面的线程不用一直盯着叫号。
+ * 自旋的次数由 {@link AdaptiveSpin} 决定，转够了还没叫到就 park，登记在号码对应的格子里，
+ * 解锁时按下一个号码找到它唤醒。
+ * <p>
+ * 缺点也来自公平：下一个号的线程没在运行（被挂起了、park 了），锁就只能空着等它。
+ * 不可重入。
+ */
+public class TicketSpinLock {
+
+    /**
+     * 登记 park 线程的格子数，等待的线程超过这个数，号码会撞到同一个格子上，
+     * 被覆盖的线程靠 park 超时自己醒来
+     */
+    private static final int SLOTS = 64;
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * 前面每多一个人，多退避的次数
+     */
+    private static final int BACKOFF_PER_WAITER = 1 << 5;
+
+    private final AtomicInteger nextTicket = new AtomicInteger();
+
+    /**
+     * 正在叫的号，只有持有锁的线程会修改
+     */
+    private volatile int nowServing;
+
+    private final AtomicReferenceArray<Thread> parked = new AtomicReferenceArray<>(SLOTS);
+
+    private final AdaptiveSpin spin = new AdaptiveSpin();
+
+    public void lock() {
+        int ticket = nextTicket.getAndIncrement();
+        if (nowServing == ticket) {
+            return;
+        }
+        if (!spinLock(ticket)) {
+            parkLock(ticket);
+        }
+    }
+
+    public boolean tryLock() {
+        //只有没人排队时才取号，取了号就得等到叫号
+        int serving = nowServing;
+        return nextTicket.compareAndSet(serving, serving + 1);
+    }
+
+    public void unLock() {
+        int next = nowServing + 1;
+        nowServing = next;
+        Thread thread = parked.get(next & (SLOTS - 1));
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * 在自旋次数用完之前叫到号
+     */
+    private boolean spinLock(int ticket) {
+        int limit = spin.limit();
+        int spins = 0;
+        while (spins < limit) {
+            //号码会溢出，用差值比较
+            int waiters = ticket - nowServing;
+            if (waiters == 0) {
+                spin.succeeded();
+                return true;
+            }
+            spins += backoff(ticket, waiters * BACKOFF_PER_WAITER);
+        }
+        spin.failed();
+        return false;
+    }
+
+    /**
+     * 空转最多 n 次，叫到自己的号就不用再等了
+     */
+    private int backoff(int ticket, int n) {
+        for (int i = 0; i < n; i++) {
+            if (nowServing == ticket) {
+                return i;
+            }
+        }
+        return n;
+    }
+
+    private void parkLock(int ticket) {
+        Thread currentThread = Thread.currentThread();
+        int slot = ticket & (SLOTS - 1);
+        boolean interrupted = false;
+        //先登记再检查叫号，unLock 先叫号再看格子，两边总有一边能看到对方
+        parked.set(slot, currentThread);
+        while (nowServing != ticket) {
+            LockSupport.parkNanos(this, PARK_NANOS);
+            //park 不会因为中断状态一直返回，中断状态先清掉，拿到锁之后再恢复
+            if (Thread.interrupted()) {
+                interrupted = true;
+            }
+        }
+        parked.compareAndSet(slot, currentThread, null);
+        if (interrupted) {
+            currentThread.interrupt();
+        }
+    }
+}
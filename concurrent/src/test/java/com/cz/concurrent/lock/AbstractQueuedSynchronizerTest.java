@@ -0,0 +1,326 @@
+package com.cz.concurrent.lock;
+
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 基于 AQS 的锁、信号量、计数栅栏，和 java.util.concurrent 里对应的实现比较吞吐量，
+ * 再检查超时、中断、条件等待
+ *
+ * @author leishiguang
+ * @since v1.0
+ */
+public class AbstractQueuedSynchronizerTest {
+
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16, 32};
+    private static final int OPERATIONS = 1 << 20;
+
+    /**
+     * 每个线程轮流加锁、累加、解锁，报告每秒完成的次数
+     */
+    @Test
+    public void lockThroughput() throws InterruptedException {
+        //预热，让 JIT 先编译好
+        for (int i = 0; i < 3; i++) {
+            run(new ExclusiveLock(), 4, OPERATIONS / 4);
+            run(new ReentrantLock(), 4, OPERATIONS / 4);
+        }
+        System.out.println("lock             threads      ops/s");
+        for (int threads : THREAD_COUNTS) {
+            report("ExclusiveLock", threads, run(new ExclusiveLock(), threads, OPERATIONS));
+            report("ReentrantLock", threads, run(new ReentrantLock(), threads, OPERATIONS));
+        }
+    }
+
+    /**
+     * 许可数量为线程数的一半，一半线程在等待
+     */
+    @Test
+    public void semaphoreThroughput() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            runSemaphore(false, 4, OPERATIONS / 4);
+            runSemaphore(true, 4, OPERATIONS / 4);
+        }
+        System.out.println("semaphore        threads      ops/s");
+        for (int threads : THREAD_COUNTS) {
+            report("Semaphore", threads, runSemaphore(false, threads, OPERATIONS));
+            report("j.u.c.Semaphore", threads, runSemaphore(true, threads, OPERATIONS));
+        }
+    }
+
+    @Test
+    public void tryLockTimesOut() throws InterruptedException {
+        final ExclusiveLock lock = new ExclusiveLock();
+        lock.lock();
+        final AtomicBoolean acquired = new AtomicBoolean(true);
+        final long[] waited = new long[1];
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long st = System.nanoTime();
+                try {
+                    acquired.set(lock.tryLock(50, TimeUnit.MILLISECONDS));
+                } catch (InterruptedException e) {
+                    fail();
+                }
+                waited[0] = System.nanoTime() - st;
+            }
+        });
+        thread.start();
+        thread.join();
+        lock.unlock();
+        assertFalse(acquired.get());
+        assertTrue(waited[0] >= TimeUnit.MILLISECONDS.toNanos(50));
+        //取消的节点不能挡住后面的线程
+        assertTrue(lock.tryLock(1, TimeUnit.SECONDS));
+        lock.unlock();
+    }
+
+    @Test
+    public void lockInterruptiblyThrows() throws InterruptedException {
+        final ExclusiveLock lock = new ExclusiveLock();
+        lock.lock();
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    lock.lockInterruptibly();
+                } catch (InterruptedException e) {
+                    interrupted.set(true);
+                }
+            }
+        });
+        thread.start();
+        Thread.sleep(20);
+        thread.interrupt();
+        thread.join(1000);
+        assertTrue(interrupted.get());
+        lock.unlock();
+        lock.lock();
+        lock.unlock();
+    }
+
+    /**
+     * 生产者、消费者通过两个条件交替执行
+     */
+    @Test
+    public void conditionsHandOff() throws InterruptedException {
+        final ExclusiveLock lock = new ExclusiveLock();
+        final Condition notEmpty = lock.newCondition();
+        final Condition notFull = lock.newCondition();
+        final int[] slot = {-1};
+        final int count = 10000;
+        final AtomicInteger sum = new AtomicInteger();
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < count; i++) {
+                    lock.lock();
+                    try {
+                        while (slot[0] < 0) {
+                            notEmpty.awaitUninterruptibly();
+                        }
+                        sum.addAndGet(slot[0]);
+                        slot[0] = -1;
+                        notFull.signal();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }
+        });
+        consumer.start();
+        for (int i = 0; i < count; i++) {
+            lock.lock();
+            try {
+                while (slot[0] >= 0) {
+                    notFull.await();
+                }
+                slot[0] = i;
+                notEmpty.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+        consumer.join(10000);
+        assertEquals((long) count * (count - 1) / 2, sum.get());
+
+        //没有持有锁不能 signal，等待超时返回 false
+        try {
+            notEmpty.signal();
+            fail();
+        } catch (IllegalMonitorStateException expected) {
+        }
+        lock.lock();
+        assertFalse(notEmpty.await(10, TimeUnit.MILLISECONDS));
+        assertFalse(notEmpty.awaitUntil(new Date(System.currentTimeMillis() + 10)));
+        lock.unlock();
+    }
+
+    /**
+     * 期限之前收到 signal，期限之后才抢回锁，不算超时
+     */
+    @Test
+    public void signalBeforeDeadlineIsNotTimeout() throws InterruptedException {
+        for (final boolean untilDate : new boolean[]{false, true}) {
+            final ExclusiveLock lock = new ExclusiveLock();
+            final Condition condition = lock.newCondition();
+            final CountDownLatch locked = new CountDownLatch(1);
+            final AtomicBoolean signalled = new AtomicBoolean();
+            Thread waiter = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    lock.lock();
+                    try {
+                        locked.countDown();
+                        signalled.set(untilDate
+                                ? condition.awaitUntil(new Date(System.currentTimeMillis() + 100))
+                                : condition.await(100, TimeUnit.MILLISECONDS));
+                    } catch (InterruptedException e) {
+                        fail();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            });
+            waiter.start();
+            locked.await();
+            //等待者进入条件队列时才释放锁
+            lock.lock();
+            try {
+                condition.signal();
+                Thread.sleep(200);
+            } finally {
+                lock.unlock();
+            }
+            waiter.join(1000);
+            assertTrue(signalled.get());
+        }
+    }
+
+    /**
+     * 共享模式：计数到 0 时所有等待者一起醒来，多余的 countDown 没有影响
+     */
+    @Test
+    public void countDownLatchReleasesAll() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(2);
+        final CountDownLatch done = new CountDownLatch(8);
+        for (int i = 0; i < 8; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    latch.await();
+                    done.countDown();
+                }
+            }).start();
+        }
+        assertFalse(latch.await(10, TimeUnit.MILLISECONDS));
+        latch.countDown();
+        latch.countDown();
+        latch.countDown();
+        assertEquals(0, latch.getCount());
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        latch.await();
+    }
+
+    private static long run(final Lock lock, int threads, int operations) throws InterruptedException {
+        final int perThread = operations / threads;
+        final int[] counter = new int[1];
+        final java.util.concurrent.CountDownLatch start = new java.util.concurrent.CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    await(start);
+                    for (int i = 0; i < perThread; i++) {
+                        lock.lock();
+                        try {
+                            counter[0]++;
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        long st = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - st;
+        assertEquals(perThread * threads, counter[0]);
+        return perThread * threads * TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+
+    private static long runSemaphore(final boolean juc, int threads, int operations) throws InterruptedException {
+        final int perThread = operations / threads;
+        final int permits = Math.max(1, threads / 2);
+        final Semaphore semaphore = new Semaphore(permits);
+        final java.util.concurrent.Semaphore jucSemaphore = new java.util.concurrent.Semaphore(permits);
+        final AtomicInteger inside = new AtomicInteger();
+        final AtomicBoolean overflow = new AtomicBoolean();
+        final java.util.concurrent.CountDownLatch start = new java.util.concurrent.CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    await(start);
+                    for (int i = 0; i < perThread; i++) {
+                        if (juc) {
+                            jucSemaphore.acquireUninterruptibly();
+                        } else {
+                            semaphore.acquire();
+                        }
+                        if (inside.incrementAndGet() > permits) {
+                            overflow.set(true);
+                        }
+                        inside.decrementAndGet();
+                        if (juc) {
+                            jucSemaphore.release();
+                        } else {
+                            semaphore.release();
+                        }
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        long st = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - st;
+        assertFalse("More threads than permits", overflow.get());
+        return perThread * threads * TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+
+    private static void report(String name, int threads, long opsPerSecond) {
+        System.out.println(String.format("%-16s %7d %10d", name, threads, opsPerSecond));
+    }
+
+    private static void await(java.util.concurrent.CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package com.cz.concurrent.lock;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 读多写少的场景下，和 ReentrantReadWriteLock、StampedLock 比较吞吐量，
+ * 再检查写优先、重入、降级、超时
+ *
+ * @author leishiguang
+ * @since v1.0
+ */
+public class MyReadWriteLockTest {
+
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16, 32};
+    private static final int OPERATIONS = 1 << 20;
+
+    /**
+     * 每 100 次操作里 99 次读、1 次写
+     */
+    @Test
+    public void readMostlyThroughput() throws InterruptedException {
+        throughput(99);
+    }
+
+    /**
+     * 每 100 次操作里 90 次读、10 次写
+     */
+    @Test
+    public void readHeavyThroughput() throws InterruptedException {
+        throughput(90);
+    }
+
+    /**
+     * 读线程一直交替持有读锁，读锁从来没有空闲过，写线程也要能拿到写锁
+     */
+    @Test
+    public void writerIsNotStarved() throws InterruptedException {
+        final MyReadWriteLock lock = new MyReadWriteLock();
+        final AtomicBoolean stop = new AtomicBoolean();
+        final CountDownLatch reading = new CountDownLatch(4);
+        Thread[] readers = new Thread[4];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    boolean first = true;
+                    while (!stop.get()) {
+                        lock.readLock().lock();
+                        try {
+                            if (first) {
+                                reading.countDown();
+                                first = false;
+                            }
+                            Thread.sleep(1);
+                        } catch (InterruptedException e) {
+                            return;
+                        } finally {
+                            lock.readLock().unlock();
+                        }
+                    }
+                }
+            });
+            readers[i].start();
+        }
+        reading.await();
+        try {
+            assertTrue(lock.writeLock().tryLock(1, TimeUnit.SECONDS));
+            assertTrue(lock.isWriteLockedByCurrentThread());
+            assertEquals(0, lock.getReadLockCount());
+            lock.writeLock().unlock();
+        } finally {
+            stop.set(true);
+            for (Thread reader : readers) {
+                reader.join(1000);
+            }
+        }
+    }
+
+    @Test
+    public void reentrancyAndDowngrade() throws InterruptedException {
+        final MyReadWriteLock lock = new MyReadWriteLock();
+        lock.writeLock().lock();
+        lock.writeLock().lock();
+        lock.writeLock().unlock();
+        assertTrue(lock.isWriteLocked());
+        //持有写锁时加读锁，再释放写锁，就降级成了读锁
+        lock.readLock().lock();
+        lock.writeLock().unlock();
+        assertFalse(lock.isWriteLocked());
+        lock.readLock().lock();
+        assertEquals(2, lock.getReadHoldCount());
+        assertEquals(2, lock.getReadLockCount());
+
+        //别的线程可以一起读，不能写
+        final boolean[] result = new boolean[2];
+        Thread other = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                result[0] = lock.readLock().tryLock();
+                lock.readLock().unlock();
+                result[1] = lock.writeLock().tryLock();
+            }
+        });
+        other.start();
+        other.join();
+        assertTrue(result[0]);
+        assertFalse(result[1]);
+
+        //读锁不能升级
+        try {
+            lock.writeLock().lock();
+            fail();
+        } catch (IllegalMonitorStateException expected) {
+        }
+        lock.readLock().unlock();
+        lock.readLock().unlock();
+        assertEquals(0, lock.getReadLockCount());
+        try {
+            lock.readLock().unlock();
+            fail();
+        } catch (IllegalMonitorStateException expected) {
+        }
+        assertTrue(lock.writeLock().tryLock());
+        lock.writeLock().unlock();
+    }
+
+    /**
+     * 写线程占了位置，之后的读线程都在等它；它等超时了，要让出位置
+     */
+    @Test
+    public void timedOutWriterLetsReadersIn() throws InterruptedException {
+        final MyReadWriteLock lock = new MyReadWriteLock();
+        lock.readLock().lock();
+        final boolean[] acquired = {true};
+        final long[] waited = new long[1];
+        final CountDownLatch claimed = new CountDownLatch(1);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long st = System.nanoTime();
+                try {
+                    claimed.countDown();
+                    acquired[0] = lock.writeLock().tryLock(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    fail();
+                }
+                waited[0] = System.nanoTime() - st;
+            }
+        });
+        writer.start();
+        claimed.await();
+        Thread.sleep(20);
+
+        final boolean[] read = new boolean[2];
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                //写线程在等，新的读线程让路
+                read[0] = lock.readLock().tryLock();
+                try {
+                    read[1] = lock.readLock().tryLock(1, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    fail();
+                }
+                lock.readLock().unlock();
+            }
+        });
+        reader.start();
+        reader.join(2000);
+        writer.join(2000);
+        lock.readLock().unlock();
+        assertFalse(read[0]);
+        assertTrue(read[1]);
+        assertFalse(acquired[0]);
+        assertTrue(waited[0] >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertTrue(lock.writeLock().tryLock(1, TimeUnit.SECONDS));
+        lock.writeLock().unlock();
+    }
+
+    @Test
+    public void interruptedWriterLetsReadersIn() throws InterruptedException {
+        final MyReadWriteLock lock = new MyReadWriteLock();
+        lock.readLock().lock();
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    lock.writeLock().lockInterruptibly();
+                } catch (InterruptedException e) {
+                    interrupted.set(true);
+                }
+            }
+        });
+        writer.start();
+        Thread.sleep(20);
+        writer.interrupt();
+        writer.join(1000);
+        assertTrue(interrupted.get());
+        final boolean[] read = new boolean[1];
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                read[0] = lock.readLock().tryLock();
+            }
+        });
+        reader.start();
+        reader.join();
+        assertTrue(read[0]);
+        lock.readLock().unlock();
+    }
+
+    private static void throughput(int readPercent) throws InterruptedException {
+        //预热，让 JIT 先编译好
+        for (int i = 0; i < 3; i++) {
+            run(new MyReadWriteLock(), readPercent, 4, OPERATIONS / 4);
+            run(new ReentrantReadWriteLock(), readPercent, 4, OPERATIONS / 4);
+            run(new StampedLock().asReadWriteLock(), readPercent, 4, OPERATIONS / 4);
+        }
+        System.out.println("reads " + readPercent + "%          threads      ops/s");
+        for (int threads : THREAD_COUNTS) {
+            report("MyReadWriteLock", threads, run(new MyReadWriteLock(), readPercent, threads, OPERATIONS));
+            report("ReentrantRWLock", threads, run(new ReentrantReadWriteLock(), readPercent, threads, OPERATIONS));
+            report("StampedLock", threads, run(new StampedLock().asReadWriteLock(), readPercent, threads, OPERATIONS));
+        }
+    }
+
+    /**
+     * 写操作把数组的每一项都加一，读操作检查每一项都相等
+     */
+    private static long run(ReadWriteLock lock, final int readPercent, int threads, int operations)
+            throws InterruptedException {
+        final int perThread = operations / threads;
+        final Lock readLock = lock.readLock();
+        final Lock writeLock = lock.writeLock();
+        final long[] data = new long[8];
+        final AtomicBoolean torn = new AtomicBoolean();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int seed = t;
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    await(start);
+                    for (int i = 0; i < perThread; i++) {
+                        if ((i + seed) % 100 < readPercent) {
+                            readLock.lock();
+                            try {
+                                for (int j = 1; j < data.length; j++) {
+                                    if (data[j] != data[0]) {
+                                        torn.set(true);
+                                    }
+                                }
+                            } finally {
+                                readLock.unlock();
+                            }
+                        } else {
+                            writeLock.lock();
+                            try {
+                                for (int j = 0; j < data.length; j++) {
+                                    data[j]++;
+                                }
+                            } finally {
+                                writeLock.unlock();
+                            }
+                        }
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        long st = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - st;
+        assertFalse("A reader saw a write in progress", torn.get());
+        return (long) perThread * threads * TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+
+    private static void report(String name, int threads, long opsPerSecond) {
+        System.out.println(String.format("%-16s %7d %10d", name, threads, opsPerSecond));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
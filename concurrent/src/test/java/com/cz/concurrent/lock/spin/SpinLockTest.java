@@ -0,0 +1,163 @@
+package com.cz.concurrent.lock.spin;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 三种自旋锁在线程数多于核数时也要互斥、不丢失唤醒，再比较吞吐量和公平性
+ *
+ * @author leishiguang
+ * @since v1.0
+ */
+public class SpinLockTest {
+
+    private static final String[] SPIN_LOCKS = {"SpinLock(TTAS)", "TicketSpinLock", "McsSpinLock"};
+
+    @Test
+    public void throughputAndFairness() throws InterruptedException {
+        new TestSpinLock().compareLocks();
+    }
+
+    /**
+     * 线程数是核数的 4 倍，一部分线程一定会 park
+     */
+    @Test
+    public void mutualExclusionWhenOversubscribed() throws InterruptedException {
+        int threads = Math.max(8, Runtime.getRuntime().availableProcessors() * 4);
+        for (String name : SPIN_LOCKS) {
+            final TestSpinLock.Locker locker = TestSpinLock.newLocker(name);
+            final AtomicInteger inside = new AtomicInteger();
+            final AtomicBoolean overlapped = new AtomicBoolean();
+            final int[] counter = new int[1];
+            final int perThread = 20000;
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                workers[t] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < perThread; i++) {
+                            locker.lock();
+                            if (inside.incrementAndGet() != 1) {
+                                overlapped.set(true);
+                            }
+                            counter[0]++;
+                            inside.decrementAndGet();
+                            locker.unLock();
+                        }
+                    }
+                });
+                workers[t].start();
+            }
+            for (Thread worker : workers) {
+                worker.join(60000);
+                assertFalse(name + " lost a wakeup", worker.isAlive());
+            }
+            assertFalse(name, overlapped.get());
+            assertEquals(name, threads * perThread, counter[0]);
+        }
+    }
+
+    @Test
+    public void tryLockFailsWhileHeld() throws InterruptedException {
+        final SpinLock spinLock = new SpinLock();
+        final TicketSpinLock ticketLock = new TicketSpinLock();
+        final McsSpinLock mcsLock = new McsSpinLock();
+        assertTrue(spinLock.tryLock());
+        assertTrue(ticketLock.tryLock());
+        assertTrue(mcsLock.tryLock());
+        final boolean[] acquired = {true, true, true};
+        Thread other = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acquired[0] = spinLock.tryLock();
+                acquired[1] = ticketLock.tryLock();
+                acquired[2] = mcsLock.tryLock();
+            }
+        });
+        other.start();
+        other.join();
+        assertFalse(acquired[0]);
+        assertFalse(acquired[1]);
+        assertFalse(acquired[2]);
+        spinLock.unLock();
+        ticketLock.unLock();
+        mcsLock.unLock();
+        assertTrue(spinLock.tryLock());
+        assertTrue(ticketLock.tryLock());
+        assertTrue(mcsLock.tryLock());
+    }
+
+    /**
+     * 等锁时被中断，拿到锁之后中断状态还在
+     */
+    @Test
+    public void interruptIsKeptWhileParked() throws InterruptedException {
+        for (String name : SPIN_LOCKS) {
+            final TestSpinLock.Locker locker = TestSpinLock.newLocker(name);
+            locker.lock();
+            final boolean[] interrupted = new boolean[1];
+            final CountDownLatch locked = new CountDownLatch(1);
+            Thread waiter = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    locker.lock();
+                    interrupted[0] = Thread.currentThread().isInterrupted();
+                    locker.unLock();
+                    locked.countDown();
+                }
+            });
+            waiter.start();
+            Thread.sleep(50);
+            waiter.interrupt();
+            Thread.sleep(20);
+            //被中断之后还在等
+            assertEquals(name, 1, locked.getCount());
+            locker.unLock();
+            waiter.join(1000);
+            assertEquals(name, 0, locked.getCount());
+            assertTrue(name, interrupted[0]);
+        }
+    }
+
+    /**
+     * 排号锁、MCS 锁按到达的顺序交出锁
+     */
+    @Test
+    public void queueLocksAreFifo() throws InterruptedException {
+        for (String name : new String[]{"TicketSpinLock", "McsSpinLock"}) {
+            final TestSpinLock.Locker locker = TestSpinLock.newLocker(name);
+            locker.lock();
+            final int[] order = new int[8];
+            final int[] next = new int[1];
+            Thread[] waiters = new Thread[order.length];
+            for (int i = 0; i < waiters.length; i++) {
+                final int id = i;
+                waiters[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        locker.lock();
+                        order[next[0]++] = id;
+                        locker.unLock();
+                    }
+                });
+                waiters[i].start();
+                //等它排上队再启动下一个
+                Thread.sleep(20);
+            }
+            locker.unLock();
+            for (Thread waiter : waiters) {
+                waiter.join(1000);
+            }
+            for (int i = 0; i < order.length; i++) {
+                assertEquals(name, i, order[i]);
+            }
+        }
+    }
+}
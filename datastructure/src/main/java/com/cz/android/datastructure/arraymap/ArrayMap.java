@@ -2,6 +2,7 @@ package com.cz.android.datastructure.arraymap;
 
 import android.util.Log;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
@@ -27,6 +28,11 @@ import java.util.Set;
  * you have no control over this shrinking -- if you set a capacity and then remove an
  * item, it may reduce the capacity to better match the current size.  In the future an
  * explicit call to set the capacity should turn off this aggressive shrinking behavior.</p>
+ *
+ * <p>To build a large map, call {@link #ensureCapacity} and then {@link #append} the
+ * items in any order.  Appended items are sorted into the array all at once by the next
+ * read, which is O(N log N) for N items instead of the O(N^2) of putting them one by one.
+ * {@link #putAll(ArrayMap)} merges the two arrays in the same way.</p>
  */
 public final class ArrayMap<K, V> implements Map<K, V> {
     private static final boolean DEBUG = false;
@@ -61,8 +67,14 @@ public final class ArrayMap<K, V> implements Map<K, V> {
     int[] mHashes;
     Object[] mArray;
     int mSize;
+    /**
+     * The first mSorted items are sorted by hash code.  The items after them were
+     * appended, and are sorted in by {@link #sortAppended} before the next read.
+     */
+    int mSorted;
     MapCollections<K, V> mCollections;
     int indexOf(Object key, int hash) {
+        if (mSorted != mSize) sortAppended();
         final int N = mSize;
         // Important fast case: if nothing is in here, nothing to look for.
         if (N == 0) {
@@ -93,6 +105,7 @@ public final class ArrayMap<K, V> implements Map<K, V> {
         return ~end;
     }
     int indexOfNull() {
+        if (mSorted != mSize) sortAppended();
         final int N = mSize;
         // Important fast case: if nothing is in here, nothing to look for.
         if (N == 0) {
@@ -234,6 +247,7 @@ public final class ArrayMap<K, V> implements Map<K, V> {
             mHashes = EmptyArray.INT;
             mArray = EmptyArray.OBJECT;
             mSize = 0;
+            mSorted = 0;
         }
     }
     /**
@@ -248,6 +262,7 @@ public final class ArrayMap<K, V> implements Map<K, V> {
                 array[i] = null;
             }
             mSize = 0;
+            mSorted = 0;
         }
     }
     /**
@@ -286,6 +301,7 @@ public final class ArrayMap<K, V> implements Map<K, V> {
         return key == null ? indexOfNull() : indexOf(key, key.hashCode());
     }
     int indexOfValue(Object value) {
+        if (mSorted != mSize) sortAppended();
         final int N = mSize*2;
         final Object[] array = mArray;
         if (value == null) {
@@ -331,6 +347,7 @@ public final class ArrayMap<K, V> implements Map<K, V> {
      * @return Returns the key stored at the given index.
      */
     public K keyAt(int index) {
+        if (mSorted != mSize) sortAppended();
         return (K)mArray[index << 1];
     }
     /**
@@ -339,6 +356,7 @@ public final class ArrayMap<K, V> implements Map<K, V> {
      * @return Returns the value stored at the given index.
      */
     public V valueAt(int index) {
+        if (mSorted != mSize) sortAppended();
         return (V)mArray[(index << 1) + 1];
     }
     /**
@@ -348,6 +366,7 @@ public final class ArrayMap<K, V> implements Map<K, V> {
      * @return Returns the previous value at the given index.
      */
     public V setValueAt(int index, V value) {
+        if (mSorted != mSize) sortAppended();
         index = (index << 1) + 1;
         V old = (V)mArray[index];
         mArray[index] = value;
@@ -387,18 +406,7 @@ public final class ArrayMap<K, V> implements Map<K, V> {
         }
         index = ~index;
         if (mSize >= mHashes.length) {
-            final int n = mSize >= (BASE_SIZE*2) ? (mSize+(mSize>>1))
-                    : (mSize >= BASE_SIZE ? (BASE_SIZE*2) : BASE_SIZE);
-            if (DEBUG) Log.d(TAG, "put: grow from " + mHashes.length + " to " + n);
-            final int[] ohashes = mHashes;
-            final Object[] oarray = mArray;
-            allocArrays(n);
-            if (mHashes.length > 0) {
-                if (DEBUG) Log.d(TAG, "put: copy 0-" + mSize + " to 0");
-                System.arraycopy(ohashes, 0, mHashes, 0, ohashes.length);
-                System.arraycopy(oarray, 0, mArray, 0, oarray.length);
-            }
-            freeArrays(ohashes, oarray, mSize);
+            grow();
         }
         if (index < mSize) {
             if (DEBUG) Log.d(TAG, "put: move " + index + "-" + (mSize-index)
@@ -410,27 +418,40 @@ public final class ArrayMap<K, V> implements Map<K, V> {
         mArray[index<<1] = key;
         mArray[(index<<1)+1] = value;
         mSize++;
+        mSorted = mSize;
         return null;
     }
-    /**
-     * Special fast path for appending items to the end of the array without validation.
-     * The array must already be large enough to contain the item.
-     * @hide
+    private void grow() {
+        final int n = mSize >= (BASE_SIZE*2) ? (mSize+(mSize>>1))
+                : (mSize >= BASE_SIZE ? (BASE_SIZE*2) : BASE_SIZE);
+        if (DEBUG) Log.d(TAG, "grow from " + mHashes.length + " to " + n);
+        final int[] ohashes = mHashes;
+        final Object[] oarray = mArray;
+        allocArrays(n);
+        if (mHashes.length > 0) {
+            if (DEBUG) Log.d(TAG, "grow: copy 0-" + mSize + " to 0");
+            System.arraycopy(ohashes, 0, mHashes, 0, ohashes.length);
+            System.arraycopy(oarray, 0, mArray, 0, oarray.length);
+        }
+        freeArrays(ohashes, oarray, mSize);
+    }
+    /**
+     * Fast path for adding items in bulk, best after an {@link #ensureCapacity} for all
+     * of them.  An item whose hash code is above all the others goes straight to the end
+     * of the array.  Any other item is left at the end unsorted, and all of those are
+     * sorted in at once by the next read.  A later item replaces an earlier one with an
+     * equal key, as with {@link #put}.
+     * @param key The key under which to store the value.
+     * @param value The value to store for the given key.
      */
     public void append(K key, V value) {
         int index = mSize;
         final int hash = key == null ? 0 : key.hashCode();
         if (index >= mHashes.length) {
-            throw new IllegalStateException("Array is full");
-        }
-        if (index > 0 && mHashes[index-1] > hash) {
-            RuntimeException e = new RuntimeException("here");
-            e.fillInStackTrace();
-            Log.w(TAG, "New hash " + hash
-                    + " is before end of array hash " + mHashes[index-1]
-                    + " at index " + index + " key " + key, e);
-            put(key, value);
-            return;
+            grow();
+        }
+        if (mSorted == index && (index == 0 || mHashes[index-1] < hash)) {
+            mSorted = index+1;
         }
         mSize = index+1;
         mHashes[index] = hash;
@@ -439,14 +460,71 @@ public final class ArrayMap<K, V> implements Map<K, V> {
         mArray[index+1] = value;
     }
     /**
-     * The use of the {@link #append} function can result in invalid array maps, in particular
-     * an array map where the same key appears multiple times.  This function verifies that
-     * the array map is valid, throwing IllegalArgumentException if a problem is found.  The
-     * main use for this method is validating an array map after unpacking from an IPC, to
-     * protect against malicious callers.
+     * Sorts the items appended since the last read into the sorted ones.  The appended
+     * items are ordered by hash code with a single sort of longs, each holding the hash
+     * code in its high half and the index in its low half, which keeps items with equal
+     * hash codes in the order they were appended.  Then both runs are merged into new
+     * arrays, and an appended item replaces an earlier item with an equal key.
+     */
+    private void sortAppended() {
+        final int sorted = mSorted;
+        final int N = mSize;
+        final int P = N - sorted;
+        final int[] ohashes = mHashes;
+        final Object[] oarray = mArray;
+        final long[] order = new long[P];
+        boolean inOrder = true;
+        for (int i=0; i<P; i++) {
+            order[i] = ((long)ohashes[sorted+i] << 32) | (sorted+i);
+            if (i > 0 && order[i] < order[i-1]) {
+                inOrder = false;
+            }
+        }
+        if (!inOrder) {
+            Arrays.sort(order);
+        }
+        if (DEBUG) Log.d(TAG, "sortAppended: merge " + P + " into " + sorted);
+        allocArrays(ohashes.length);
+        final int[] hashes = mHashes;
+        final Object[] array = mArray;
+        int i = 0, j = 0, out = 0;
+        while (i < sorted || j < P) {
+            final int hash = j == P || (i < sorted && ohashes[i] <= (int)(order[j] >> 32))
+                    ? ohashes[i] : (int)(order[j] >> 32);
+            final int start = out;
+            for (; i < sorted && ohashes[i] == hash; i++, out++) {
+                hashes[out] = hash;
+                array[out<<1] = oarray[i<<1];
+                array[(out<<1)+1] = oarray[(i<<1)+1];
+            }
+            for (; j < P && (int)(order[j] >> 32) == hash; j++) {
+                final int from = (int)order[j];
+                final Object key = oarray[from<<1];
+                int k = start;
+                while (k < out && !Objects.equal(key, array[k<<1])) {
+                    k++;
+                }
+                if (k == out) {
+                    hashes[out] = hash;
+                    array[out<<1] = key;
+                    out++;
+                }
+                array[(k<<1)+1] = oarray[(from<<1)+1];
+            }
+        }
+        freeArrays(ohashes, oarray, N);
+        mSize = out;
+        mSorted = out;
+    }
+    /**
+     * Verifies that the array map is valid, in particular that no key appears multiple
+     * times, throwing IllegalArgumentException if a problem is found.  The main use for
+     * this method is validating an array map after unpacking from an IPC, to protect
+     * against malicious callers.
      * @hide
      */
     public void validate() {
+        if (mSorted != mSize) sortAppended();
         final int N = mSize;
         if (N <= 1) {
             // There can't be dups.
@@ -476,23 +554,27 @@ public final class ArrayMap<K, V> implements Map<K, V> {
         }
     }
     /**
-     * Perform a {@link #put(Object, Object)} of all key/value pairs in <var>array</var>
+     * Perform a {@link #put(Object, Object)} of all key/value pairs in <var>array</var>.
+     * The items of <var>array</var> are copied behind the items of this map, and the
+     * next read merges the two sorted runs in one pass.
      * @param array The array whose contents are to be retrieved.
      */
     public void putAll(ArrayMap<? extends K, ? extends V> array) {
-        final int N = array.mSize;
+        if (array == this) {
+            return;
+        }
+        final int N = array.size();
+        if (N == 0) {
+            return;
+        }
         ensureCapacity(mSize + N);
-        if (mSize == 0) {
-            if (N > 0) {
-                System.arraycopy(array.mHashes, 0, mHashes, 0, N);
-                System.arraycopy(array.mArray, 0, mArray, 0, N<<1);
-                mSize = N;
-            }
-        } else {
-            for (int i=0; i<N; i++) {
-                put(array.keyAt(i), array.valueAt(i));
-            }
+        final int end = mSize;
+        System.arraycopy(array.mHashes, 0, mHashes, end, N);
+        System.arraycopy(array.mArray, 0, mArray, end<<1, N<<1);
+        if (mSorted == end && (end == 0 || mHashes[end-1] < mHashes[end])) {
+            mSorted = end + N;
         }
+        mSize = end + N;
     }
     /**
      * Remove an existing key from the array map.
@@ -514,6 +596,7 @@ public final class ArrayMap<K, V> implements Map<K, V> {
      * @return Returns the value that was stored at this index.
      */
     public V removeAt(int index) {
+        if (mSorted != mSize) sortAppended();
         final Object old = mArray[(index << 1) + 1];
         if (mSize <= 1) {
             // Now empty.
@@ -558,6 +641,7 @@ public final class ArrayMap<K, V> implements Map<K, V> {
                 mArray[(mSize << 1) + 1] = null;
             }
         }
+        mSorted = mSize;
         return (V)old;
     }
     /**
@@ -565,6 +649,7 @@ public final class ArrayMap<K, V> implements Map<K, V> {
      */
     @Override
     public int size() {
+        if (mSorted != mSize) sortAppended();
         return mSize;
     }
     /**
@@ -612,6 +697,7 @@ public final class ArrayMap<K, V> implements Map<K, V> {
      */
     @Override
     public int hashCode() {
+        if (mSorted != mSize) sortAppended();
         final int[] hashes = mHashes;
         final Object[] array = mArray;
         int result = 0;
@@ -630,6 +716,7 @@ public final class ArrayMap<K, V> implements Map<K, V> {
      */
     @Override
     public String toString() {
+        if (mSorted != mSize) sortAppended();
         if (isEmpty()) {
             return "{}";
         }
@@ -665,7 +752,7 @@ public final class ArrayMap<K, V> implements Map<K, V> {
             mCollections = new MapCollections<K, V>() {
                 @Override
                 protected int colGetSize() {
-                    return mSize;
+                    return size();
                 }
                 @Override
                 protected Object colGetEntry(int index, int offset) {
@@ -718,9 +805,13 @@ public final class ArrayMap<K, V> implements Map<K, V> {
      */
     @Override
     public void putAll(Map<? extends K, ? extends V> map) {
+        if (map instanceof ArrayMap) {
+            putAll((ArrayMap<? extends K, ? extends V>) map);
+            return;
+        }
         ensureCapacity(mSize + map.size());
         for (Map.Entry<? extends K, ? extends V> entry : map.entrySet()) {
-            put(entry.getKey(), entry.getValue());
+            append(entry.getKey(), entry.getValue());
         }
     }
     /**
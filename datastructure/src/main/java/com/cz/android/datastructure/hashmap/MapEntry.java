@@ -1,7 +1,5 @@
 package com.cz.android.datastructure.hashmap;
 
-import java.util.Map;
-
 /**
  * MapEntry is an internal class which provides an implementation of Map.Entry.
  */
@@ -0,0 +1,804 @@
+package com.cz.android.datastructure.hashmap;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * OpenHashMap is an implementation of Map that stores its mappings in arrays
+ * instead of in linked entries. It does not allocate anything per mapping.
+ * <p>
+ * A mapping lives in a slot of the table. The key and the value sit side by
+ * side in {@code table}, so a hit reads a single cache line. The spread hash
+ * code of the key sits in the parallel {@code hashes} array, so a probe scans
+ * a dense int array and calls {@code equals} only when the hashes match.
+ * A zero hash marks a free slot.
+ * <p>
+ * Collisions are resolved by linear probing. A removal does not leave a
+ * tombstone. The mappings after the freed slot are shifted back instead, so
+ * lookups never have to skip deleted slots and the table does not degrade
+ * after many removals.
+ * <p>
+ * The iterators of {@link #entrySet()} return themselves as the entry, like
+ * {@code ArrayMap}. An entry must not be kept after the next call to
+ * {@code next()}.
+ */
+public class OpenHashMap<K, V> extends AbstractMap<K, V> implements Map<K, V>,
+        Cloneable, Serializable {
+
+    private static final long serialVersionUID = -1264094418271318542L;
+
+    /*
+     * default number of slots of a map created using the default constructor.
+     */
+    private static final int DEFAULT_SIZE = 16;
+
+    /*
+     * two slots per mapping, so the table can have at most this many slots.
+     */
+    private static final int MAXIMUM_CAPACITY = 1 << 29;
+
+    /*
+     * Linear probing gets slow quickly above this load.
+     */
+    private static final float MAXIMUM_LOAD_FACTOR = 0.9f;
+
+    /*
+     * stands for the null key in the table, where null means a free slot.
+     */
+    private static final Object NULL_KEY = new Object();
+
+    /*
+     * Actual count of mappings
+     */
+    transient int elementCount;
+
+    /*
+     * key of slot i at 2 * i, its value at 2 * i + 1
+     */
+    transient Object[] table;
+
+    /*
+     * spread hash code of the key in slot i, 0 if the slot is free
+     */
+    transient int[] hashes;
+
+    /*
+     * modification count, to keep track of structural modifications between the
+     * map and the iterator
+     */
+    transient int modCount = 0;
+
+    /*
+     * maximum ratio of (stored mappings)/(slots) which does not lead to rehash
+     */
+    final float loadFactor;
+
+    /*
+     * maximum number of mappings that can be put in this map before having to
+     * rehash
+     */
+    transient int threshold;
+
+    /**
+     * Walks the slots from the last one down. Removing through the iterator
+     * shifts the following mappings back, towards slots that were already
+     * visited. Only a mapping that wraps around from the start of the table
+     * lands on an unvisited slot. Those are collected in {@code wrapped} and
+     * returned after the table.
+     */
+    private abstract class AbstractMapIterator {
+        int position;
+        int expectedModCount;
+        int currentSlot = -1;
+        Object[] wrapped;
+        int wrappedCount;
+        int wrappedPosition;
+        Object currentKey;
+
+        AbstractMapIterator() {
+            position = hashes.length;
+            expectedModCount = modCount;
+        }
+
+        public boolean hasNext() {
+            while (position > 0) {
+                if (hashes[position - 1] != 0) {
+                    return true;
+                }
+                position--;
+            }
+            return wrappedPosition < wrappedCount;
+        }
+
+        final void checkConcurrentMod() throws ConcurrentModificationException {
+            if (expectedModCount != modCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        final void makeNext() {
+            checkConcurrentMod();
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (position > 0) {
+                currentSlot = --position;
+                currentKey = table[currentSlot << 1];
+            } else {
+                //the slot of a wrapped mapping may have changed since, look it up again
+                currentKey = wrapped[wrappedPosition++];
+                currentSlot = findSlot(currentKey == NULL_KEY ? null : currentKey);
+            }
+        }
+
+        public final void remove() {
+            checkConcurrentMod();
+            if (currentSlot < 0) {
+                throw new IllegalStateException();
+            }
+            removeSlot(currentSlot, this);
+            currentSlot = -1;
+            expectedModCount = modCount;
+        }
+
+        /**
+         * Called by {@link #removeSlot} for every mapping it moves. Keeps the
+         * ones that move from a slot not reached yet into one already passed.
+         */
+        final void shifted(int from, int to) {
+            if (from < position && to >= position) {
+                if (wrapped == null) {
+                    wrapped = new Object[4];
+                } else if (wrappedCount == wrapped.length) {
+                    wrapped = Arrays.copyOf(wrapped, wrappedCount << 1);
+                }
+                wrapped[wrappedCount++] = table[to << 1];
+            }
+        }
+
+        final void checkEntry() {
+            if (currentSlot < 0) {
+                throw new IllegalStateException(
+                        "This container does not support retaining Map.Entry objects");
+            }
+        }
+    }
+
+    private final class EntryIterator extends AbstractMapIterator
+            implements Iterator<Map.Entry<K, V>>, Map.Entry<K, V> {
+
+        @Override
+        public Map.Entry<K, V> next() {
+            makeNext();
+            return this;
+        }
+
+        @Override
+        public K getKey() {
+            checkEntry();
+            return keyAt(currentSlot);
+        }
+
+        @Override
+        public V getValue() {
+            checkEntry();
+            return valueAt(currentSlot);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V setValue(V object) {
+            checkEntry();
+            int index = (currentSlot << 1) + 1;
+            V result = (V) table[index];
+            table[index] = object;
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            checkEntry();
+            if (!(object instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) object;
+            K key = keyAt(currentSlot);
+            V value = valueAt(currentSlot);
+            return (key == null ? entry.getKey() == null : key.equals(entry.getKey()))
+                    && (value == null ? entry.getValue() == null : value.equals(entry.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            checkEntry();
+            K key = keyAt(currentSlot);
+            V value = valueAt(currentSlot);
+            return (key == null ? 0 : key.hashCode()) ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+
+    private final class KeyIterator extends AbstractMapIterator implements Iterator<K> {
+
+        @Override
+        public K next() {
+            makeNext();
+            return keyAt(currentSlot);
+        }
+    }
+
+    private final class ValueIterator extends AbstractMapIterator implements Iterator<V> {
+
+        @Override
+        public V next() {
+            makeNext();
+            return valueAt(currentSlot);
+        }
+    }
+
+    private final class OpenHashMapEntrySet extends AbstractSet<Map.Entry<K, V>> {
+
+        @Override
+        public int size() {
+            return elementCount;
+        }
+
+        @Override
+        public void clear() {
+            OpenHashMap.this.clear();
+        }
+
+        @Override
+        public boolean remove(Object object) {
+            int slot = findEntry(object);
+            if (slot >= 0) {
+                removeSlot(slot, null);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean contains(Object object) {
+            return findEntry(object) >= 0;
+        }
+
+        private int findEntry(Object object) {
+            if (object instanceof Map.Entry) {
+                Map.Entry<?, ?> entry = (Map.Entry<?, ?>) object;
+                int slot = findSlot(entry.getKey());
+                if (slot >= 0) {
+                    V value = valueAt(slot);
+                    if (value == null ? entry.getValue() == null : areEqualValues(value, entry.getValue())) {
+                        return slot;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return new EntryIterator();
+        }
+    }
+
+    /**
+     * Constructs a new empty {@code OpenHashMap} instance.
+     */
+    public OpenHashMap() {
+        this(DEFAULT_SIZE);
+    }
+
+    /**
+     * Constructs a new {@code OpenHashMap} instance that holds the specified
+     * number of mappings without rehashing.
+     *
+     * @param capacity
+     *            the number of mappings.
+     * @throws IllegalArgumentException
+     *                when the capacity is less than zero.
+     */
+    public OpenHashMap(int capacity) {
+        this(capacity, 0.75f);  // default load factor of 0.75
+    }
+
+    /**
+     * Constructs a new {@code OpenHashMap} instance that holds the specified
+     * number of mappings without rehashing, with the specified load factor.
+     *
+     * @param capacity
+     *            the number of mappings.
+     * @param loadFactor
+     *            the ratio of mappings to slots, at most 0.9.
+     * @throws IllegalArgumentException
+     *                when the capacity is less than zero or the load factor is
+     *                not in (0, 0.9].
+     */
+    public OpenHashMap(int capacity, float loadFactor) {
+        if (capacity >= 0 && loadFactor > 0 && loadFactor <= MAXIMUM_LOAD_FACTOR) {
+            this.loadFactor = loadFactor;
+            allocate(calculateCapacity((int) Math.min(MAXIMUM_CAPACITY, (long) (capacity / loadFactor) + 1)));
+        } else {
+            throw new IllegalArgumentException();
+        }
+    }
+
+    /**
+     * Constructs a new {@code OpenHashMap} instance containing the mappings
+     * from the specified map.
+     *
+     * @param map
+     *            the mappings to add.
+     */
+    public OpenHashMap(Map<? extends K, ? extends V> map) {
+        this(map.size());
+        putAll(map);
+    }
+
+    /**
+     * Calculates the number of slots, a power of two, for the given minimum.
+     */
+    private static int calculateCapacity(int x) {
+        if (x >= MAXIMUM_CAPACITY) {
+            return MAXIMUM_CAPACITY;
+        }
+        if (x <= DEFAULT_SIZE) {
+            return DEFAULT_SIZE;
+        }
+        x = x - 1;
+        x |= x >> 1;
+        x |= x >> 2;
+        x |= x >> 4;
+        x |= x >> 8;
+        x |= x >> 16;
+        return x + 1;
+    }
+
+    private void allocate(int capacity) {
+        table = new Object[capacity << 1];
+        hashes = new int[capacity];
+        //one slot stays free, so a probe always ends
+        threshold = Math.min(capacity - 1, (int) (capacity * loadFactor));
+    }
+
+    /**
+     * Removes all mappings from this map, leaving it empty.
+     *
+     * @see #isEmpty
+     * @see #size
+     */
+    @Override
+    public void clear() {
+        if (elementCount > 0) {
+            elementCount = 0;
+            Arrays.fill(table, null);
+            Arrays.fill(hashes, 0);
+            modCount++;
+        }
+    }
+
+    /**
+     * Returns a shallow copy of this map.
+     *
+     * @return a shallow copy of this map.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object clone() {
+        try {
+            OpenHashMap<K, V> map = (OpenHashMap<K, V>) super.clone();
+            map.table = table.clone();
+            map.hashes = hashes.clone();
+            map.keySet = null;
+            map.valuesCollection = null;
+            map.modCount = 0;
+            return map;
+        } catch (CloneNotSupportedException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns whether this map contains the specified key.
+     *
+     * @param key
+     *            the key to search for.
+     * @return {@code true} if this map contains the specified key,
+     *         {@code false} otherwise.
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        return findSlot(key) >= 0;
+    }
+
+    /**
+     * Returns whether this map contains the specified value.
+     *
+     * @param value
+     *            the value to search for.
+     * @return {@code true} if this map contains the specified value,
+     *         {@code false} otherwise.
+     */
+    @Override
+    public boolean containsValue(Object value) {
+        for (int i = 0; i < hashes.length; i++) {
+            if (hashes[i] != 0) {
+                Object v = table[(i << 1) + 1];
+                if (value == null ? v == null : v != null && areEqualValues(value, v)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns a set containing all of the mappings in this map. As the set is
+     * backed by this map, changes in one will be reflected in the other. The
+     * entries are only valid until the iterator moves on.
+     *
+     * @return a set of the mappings.
+     */
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new OpenHashMapEntrySet();
+    }
+
+    /**
+     * Returns the value of the mapping with the specified key.
+     *
+     * @param key
+     *            the key.
+     * @return the value of the mapping with the specified key, or {@code null}
+     *         if no mapping for the specified key is found.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        int slot = findSlot(key);
+        return slot >= 0 ? (V) table[(slot << 1) + 1] : null;
+    }
+
+    /**
+     * Returns the slot of the specified key, or -1.
+     */
+    final int findSlot(Object key) {
+        Object k = key == null ? NULL_KEY : key;
+        int hash = spreadHash(k);
+        int mask = hashes.length - 1;
+        int slot = hash & mask;
+        int h;
+        while ((h = hashes[slot]) != 0) {
+            if (h == hash && areEqualKeys(k, table[slot << 1])) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns whether this map is empty.
+     *
+     * @return {@code true} if this map has no elements, {@code false}
+     *         otherwise.
+     * @see #size()
+     */
+    @Override
+    public boolean isEmpty() {
+        return elementCount == 0;
+    }
+
+    /**
+     * Returns a set of the keys contained in this map. The set is backed by
+     * this map so changes to one are reflected by the other. The set does not
+     * support adding.
+     *
+     * @return a set of the keys.
+     */
+    @Override
+    public Set<K> keySet() {
+        if (keySet == null) {
+            keySet = new AbstractSet<K>() {
+                @Override
+                public boolean contains(Object object) {
+                    return containsKey(object);
+                }
+
+                @Override
+                public int size() {
+                    return OpenHashMap.this.size();
+                }
+
+                @Override
+                public void clear() {
+                    OpenHashMap.this.clear();
+                }
+
+                @Override
+                public boolean remove(Object key) {
+                    int slot = findSlot(key);
+                    if (slot >= 0) {
+                        removeSlot(slot, null);
+                        return true;
+                    }
+                    return false;
+                }
+
+                @Override
+                public Iterator<K> iterator() {
+                    return new KeyIterator();
+                }
+            };
+        }
+        return keySet;
+    }
+
+    /**
+     * Maps the specified key to the specified value.
+     *
+     * @param key
+     *            the key.
+     * @param value
+     *            the value.
+     * @return the value of any previous mapping with the specified key or
+     *         {@code null} if there was no such mapping.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value) {
+        Object k = key == null ? NULL_KEY : key;
+        int hash = spreadHash(k);
+        int mask = hashes.length - 1;
+        int slot = hash & mask;
+        int h;
+        while ((h = hashes[slot]) != 0) {
+            if (h == hash && areEqualKeys(k, table[slot << 1])) {
+                int index = (slot << 1) + 1;
+                V result = (V) table[index];
+                table[index] = value;
+                return result;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (elementCount >= threshold) {
+            if (hashes.length == MAXIMUM_CAPACITY) {
+                throw new IllegalStateException("OpenHashMap is full");
+            }
+            rehash(hashes.length << 1);
+            slot = hash & (hashes.length - 1);
+            while (hashes[slot] != 0) {
+                slot = (slot + 1) & (hashes.length - 1);
+            }
+        }
+        hashes[slot] = hash;
+        table[slot << 1] = k;
+        table[(slot << 1) + 1] = value;
+        elementCount++;
+        modCount++;
+        return null;
+    }
+
+    /**
+     * Copies all the mappings in the specified map to this map. These mappings
+     * will replace all mappings that this map had for any of the keys currently
+     * in the given map.
+     *
+     * @param map
+     *            the map to copy mappings from.
+     * @throws NullPointerException
+     *             if {@code map} is {@code null}.
+     */
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        if (map.isEmpty()) {
+            return;
+        }
+        int capacity = elementCount + map.size();
+        if (capacity > threshold) {
+            int slots = calculateCapacity((int) Math.min(MAXIMUM_CAPACITY, (long) (capacity / loadFactor) + 1));
+            if (slots > hashes.length) {
+                rehash(slots);
+            }
+        }
+        for (Map.Entry<? extends K, ? extends V> entry : map.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Moves every mapping into a table of the given number of slots, using the
+     * stored hashes, without calling {@code hashCode()}.
+     */
+    void rehash(int capacity) {
+        Object[] oldTable = table;
+        int[] oldHashes = hashes;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldHashes.length; i++) {
+            int hash = oldHashes[i];
+            if (hash != 0) {
+                int slot = hash & mask;
+                while (hashes[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                hashes[slot] = hash;
+                table[slot << 1] = oldTable[i << 1];
+                table[(slot << 1) + 1] = oldTable[(i << 1) + 1];
+            }
+        }
+    }
+
+    /**
+     * Removes the mapping with the specified key from this map.
+     *
+     * @param key
+     *            the key of the mapping to remove.
+     * @return the value of the removed mapping or {@code null} if no mapping
+     *         for the specified key was found.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        int slot = findSlot(key);
+        if (slot < 0) {
+            return null;
+        }
+        V result = (V) table[(slot << 1) + 1];
+        removeSlot(slot, null);
+        return result;
+    }
+
+    /**
+     * Frees the slot, then shifts back each following mapping of the run that
+     * may move into the gap: a mapping can move back as long as the gap is not
+     * before its home slot. This leaves the table as if the removed mapping had
+     * never been put.
+     *
+     * @param iterator
+     *            the iterator removing the mapping, told about every mapping
+     *            that moves, or null.
+     */
+    final void removeSlot(int gap, AbstractMapIterator iterator) {
+        int mask = hashes.length - 1;
+        int slot = (gap + 1) & mask;
+        int hash;
+        while ((hash = hashes[slot]) != 0) {
+            int home = hash & mask;
+            //distance from home to slot, against distance from gap to slot, both cyclic
+            if (((slot - home) & mask) >= ((slot - gap) & mask)) {
+                hashes[gap] = hash;
+                table[gap << 1] = table[slot << 1];
+                table[(gap << 1) + 1] = table[(slot << 1) + 1];
+                if (iterator != null) {
+                    iterator.shifted(slot, gap);
+                }
+                gap = slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        hashes[gap] = 0;
+        table[gap << 1] = null;
+        table[(gap << 1) + 1] = null;
+        elementCount--;
+        modCount++;
+    }
+
+    /**
+     * Returns the number of elements in this map.
+     *
+     * @return the number of elements in this map.
+     */
+    @Override
+    public int size() {
+        return elementCount;
+    }
+
+    /**
+     * Returns a collection of the values contained in this map. The collection
+     * is backed by this map so changes to one are reflected by the other. The
+     * collection supports remove, removeAll, retainAll and clear operations,
+     * and it does not support add or addAll operations.
+     *
+     * @return a collection of the values contained in this map.
+     */
+    @Override
+    public Collection<V> values() {
+        if (valuesCollection == null) {
+            valuesCollection = new AbstractCollection<V>() {
+                @Override
+                public boolean contains(Object object) {
+                    return containsValue(object);
+                }
+
+                @Override
+                public int size() {
+                    return OpenHashMap.this.size();
+                }
+
+                @Override
+                public void clear() {
+                    OpenHashMap.this.clear();
+                }
+
+                @Override
+                public Iterator<V> iterator() {
+                    return new ValueIterator();
+                }
+            };
+        }
+        return valuesCollection;
+    }
+
+    @SuppressWarnings("unchecked")
+    private K keyAt(int slot) {
+        Object key = table[slot << 1];
+        return key == NULL_KEY ? null : (K) key;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V valueAt(int slot) {
+        return (V) table[(slot << 1) + 1];
+    }
+
+    private void writeObject(ObjectOutputStream stream) throws IOException {
+        stream.defaultWriteObject();
+        stream.writeInt(elementCount);
+        for (int i = 0; i < hashes.length; i++) {
+            if (hashes[i] != 0) {
+                stream.writeObject(keyAt(i));
+                stream.writeObject(valueAt(i));
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream stream) throws IOException,
+            ClassNotFoundException {
+        stream.defaultReadObject();
+        int count = stream.readInt();
+        allocate(calculateCapacity((int) Math.min(MAXIMUM_CAPACITY, (long) (count / loadFactor) + 1)));
+        for (int i = 0; i < count; i++) {
+            K key = (K) stream.readObject();
+            put(key, (V) stream.readObject());
+        }
+    }
+
+    /*
+     * Contract-related functionality
+     */
+
+    /**
+     * Scrambles the hash code, so that keys with sequential or patterned hash
+     * codes do not pile up in one run, and never returns 0, which marks a free
+     * slot.
+     */
+    static int spreadHash(Object key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        h ^= h >>> 16;
+        return h == 0 ? 1 : h;
+    }
+
+    static boolean areEqualKeys(Object key1, Object key2) {
+        return (key1 == key2) || key1.equals(key2);
+    }
+
+    static boolean areEqualValues(Object value1, Object value2) {
+        return (value1 == value2) || value1.equals(value2);
+    }
+}
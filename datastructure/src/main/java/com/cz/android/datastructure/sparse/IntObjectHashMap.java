@@ -0,0 +1,435 @@
+package com.cz.android.datastructure.sparse;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+
+/**
+ * IntObjectHashMaps map integers to Objects, like {@link SparseArray}, but
+ * find a key by hashing instead of by binary search. A put or a delete does
+ * not move the other mappings, so it stays fast with millions of keys, where
+ * SparseArray shifts half of its arrays on every insertion. With a few
+ * hundred keys SparseArray is about as fast, smaller, and keeps its keys
+ * sorted.
+ * <p>
+ * Keys and values live in two parallel arrays and nothing is boxed.
+ * Collisions are resolved by linear probing, and a delete shifts the following
+ * mappings back instead of leaving a tombstone. Key 0 marks a free slot, so the
+ * mapping for key 0 is kept aside.
+ * <p>
+ * The mappings are in no particular order, walk them with {@link #iterator()}.
+ */
+public class IntObjectHashMap<E> {
+    private static final int MIN_CAPACITY = 8;
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    private static final int NO_SLOT = -1;
+    private static final int ZERO_SLOT = -2;
+
+    /**
+     * Creates a new IntObjectHashMap containing no mappings.
+     */
+    public IntObjectHashMap() {
+        this(10);
+    }
+
+    /**
+     * Creates a new IntObjectHashMap containing no mappings that will not
+     * require any additional memory allocation to store the specified
+     * number of mappings.
+     */
+    public IntObjectHashMap(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Illegal capacity: " + initialCapacity);
+        }
+        allocate(tableSizeFor(initialCapacity));
+    }
+
+    /**
+     * Gets the Object mapped from the specified key, or <code>null</code>
+     * if no such mapping has been made.
+     */
+    public E get(int key) {
+        return get(key, null);
+    }
+
+    /**
+     * Gets the Object mapped from the specified key, or the specified Object
+     * if no such mapping has been made.
+     */
+    @SuppressWarnings("unchecked")
+    public E get(int key, E valueIfKeyNotFound) {
+        if (key == 0) {
+            return mHasZeroKey ? (E) mZeroValue : valueIfKeyNotFound;
+        }
+        int[] keys = mKeys;
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        int k;
+        while ((k = keys[slot]) != 0) {
+            if (k == key) {
+                return (E) mValues[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return valueIfKeyNotFound;
+    }
+
+    /**
+     * Returns whether a mapping from the specified key has been made.
+     */
+    public boolean containsKey(int key) {
+        return key == 0 ? mHasZeroKey : findSlot(key) >= 0;
+    }
+
+    /**
+     * Adds a mapping from the specified key to the specified value,
+     * replacing the previous mapping from the specified key if there
+     * was one.
+     *
+     * @return the value of the previous mapping, or <code>null</code>.
+     */
+    @SuppressWarnings("unchecked")
+    public E put(int key, E value) {
+        if (key == 0) {
+            Object result = mZeroValue;
+            if (!mHasZeroKey) {
+                mHasZeroKey = true;
+                mModCount++;
+            }
+            mZeroValue = value;
+            return (E) result;
+        }
+        int[] keys = mKeys;
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        int k;
+        while ((k = keys[slot]) != 0) {
+            if (k == key) {
+                Object result = mValues[slot];
+                mValues[slot] = value;
+                return (E) result;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (mSize >= mThreshold) {
+            grow();
+            keys = mKeys;
+            mask = keys.length - 1;
+            slot = hash(key) & mask;
+            while (keys[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+        }
+        keys[slot] = key;
+        mValues[slot] = value;
+        mSize++;
+        mModCount++;
+        return null;
+    }
+
+    /**
+     * Removes the mapping from the specified key, if there was any.
+     */
+    public void delete(int key) {
+        remove(key);
+    }
+
+    /**
+     * Removes the mapping from the specified key, if there was any.
+     *
+     * @return the value of the removed mapping, or <code>null</code>.
+     */
+    @SuppressWarnings("unchecked")
+    public E remove(int key) {
+        if (key == 0) {
+            Object result = mZeroValue;
+            if (mHasZeroKey) {
+                mHasZeroKey = false;
+                mZeroValue = null;
+                mModCount++;
+            }
+            return (E) result;
+        }
+        int slot = findSlot(key);
+        if (slot < 0) {
+            return null;
+        }
+        Object result = mValues[slot];
+        removeSlot(slot, null);
+        return (E) result;
+    }
+
+    /**
+     * Returns the number of key-value mappings that this IntObjectHashMap
+     * currently stores.
+     */
+    public int size() {
+        return mHasZeroKey ? mSize + 1 : mSize;
+    }
+
+    /**
+     * Removes all key-value mappings from this IntObjectHashMap, keeping its
+     * capacity.
+     */
+    public void clear() {
+        if (size() != 0) {
+            Arrays.fill(mKeys, 0);
+            Arrays.fill(mValues, null);
+            mSize = 0;
+            mHasZeroKey = false;
+            mZeroValue = null;
+            mModCount++;
+        }
+    }
+
+    /**
+     * Returns an iterator over the mappings of this IntObjectHashMap.
+     */
+    public EntryIterator iterator() {
+        return new EntryIterator();
+    }
+
+    /**
+     * Walks the mappings of the map without boxing:
+     * <pre>
+     * IntObjectHashMap&lt;E&gt;.EntryIterator iterator = map.iterator();
+     * while (iterator.hasNext()) {
+     *     int key = iterator.next();
+     *     E value = iterator.value();
+     * }
+     * </pre>
+     * The map must not be changed while iterating, other than through
+     * {@link #setValue(Object)} and {@link #remove()} of the iterator.
+     */
+    public final class EntryIterator {
+        private int mPosition;
+        private boolean mZeroPending;
+        private int mCurrentSlot = NO_SLOT;
+        private int mCurrentKey;
+        private int mExpectedModCount;
+        /*
+         * Mappings moved by a removal from a slot not reached yet into one
+         * already passed, visited once the table is done.
+         */
+        private int[] mWrapped;
+        private int mWrappedCount;
+        private int mWrappedPosition;
+
+        EntryIterator() {
+            mPosition = mKeys.length;
+            mZeroPending = mHasZeroKey;
+            mExpectedModCount = mModCount;
+        }
+
+        public boolean hasNext() {
+            if (mZeroPending) {
+                return true;
+            }
+            int[] keys = mKeys;
+            while (mPosition > 0) {
+                if (keys[mPosition - 1] != 0) {
+                    return true;
+                }
+                mPosition--;
+            }
+            return mWrappedPosition < mWrappedCount;
+        }
+
+        /**
+         * Moves to the next mapping and returns its key.
+         */
+        public int next() {
+            checkModCount();
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (mZeroPending) {
+                mZeroPending = false;
+                mCurrentSlot = ZERO_SLOT;
+                mCurrentKey = 0;
+            } else if (mPosition > 0) {
+                mCurrentSlot = --mPosition;
+                mCurrentKey = mKeys[mCurrentSlot];
+            } else {
+                //the slot of a wrapped mapping may have changed since, look it up again
+                mCurrentKey = mWrapped[mWrappedPosition++];
+                mCurrentSlot = findSlot(mCurrentKey);
+            }
+            return mCurrentKey;
+        }
+
+        /**
+         * Returns the key of the current mapping.
+         */
+        public int key() {
+            checkCurrent();
+            return mCurrentKey;
+        }
+
+        /**
+         * Returns the value of the current mapping.
+         */
+        @SuppressWarnings("unchecked")
+        public E value() {
+            checkCurrent();
+            return (E) (mCurrentSlot == ZERO_SLOT ? mZeroValue : mValues[mCurrentSlot]);
+        }
+
+        /**
+         * Replaces the value of the current mapping.
+         */
+        public void setValue(E value) {
+            checkCurrent();
+            if (mCurrentSlot == ZERO_SLOT) {
+                mZeroValue = value;
+            } else {
+                mValues[mCurrentSlot] = value;
+            }
+        }
+
+        /**
+         * Removes the current mapping from the map.
+         */
+        public void remove() {
+            checkCurrent();
+            if (mCurrentSlot == ZERO_SLOT) {
+                mHasZeroKey = false;
+                mZeroValue = null;
+                mModCount++;
+            } else {
+                removeSlot(mCurrentSlot, this);
+            }
+            mCurrentSlot = NO_SLOT;
+            mExpectedModCount = mModCount;
+        }
+
+        void shifted(int from, int to) {
+            if (from < mPosition && to >= mPosition) {
+                if (mWrapped == null) {
+                    mWrapped = new int[4];
+                } else if (mWrappedCount == mWrapped.length) {
+                    mWrapped = Arrays.copyOf(mWrapped, mWrappedCount << 1);
+                }
+                mWrapped[mWrappedCount++] = mKeys[to];
+            }
+        }
+
+        private void checkModCount() {
+            if (mExpectedModCount != mModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        private void checkCurrent() {
+            checkModCount();
+            if (mCurrentSlot == NO_SLOT) {
+                throw new IllegalStateException();
+            }
+        }
+    }
+
+    private int findSlot(int key) {
+        int[] keys = mKeys;
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        int k;
+        while ((k = keys[slot]) != 0) {
+            if (k == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Frees the slot, then shifts back each following mapping of the run that
+     * may move into the gap, as long as the gap is not before its home slot.
+     */
+    private void removeSlot(int gap, EntryIterator iterator) {
+        int[] keys = mKeys;
+        Object[] values = mValues;
+        int mask = keys.length - 1;
+        int slot = (gap + 1) & mask;
+        int k;
+        while ((k = keys[slot]) != 0) {
+            int home = hash(k) & mask;
+            //distance from home to slot, against distance from gap to slot, both cyclic
+            if (((slot - home) & mask) >= ((slot - gap) & mask)) {
+                keys[gap] = k;
+                values[gap] = values[slot];
+                if (iterator != null) {
+                    iterator.shifted(slot, gap);
+                }
+                gap = slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[gap] = 0;
+        values[gap] = null;
+        mSize--;
+        mModCount++;
+    }
+
+    private void grow() {
+        if (mKeys.length == MAX_CAPACITY) {
+            throw new IllegalStateException("IntObjectHashMap is full");
+        }
+        int[] oldKeys = mKeys;
+        Object[] oldValues = mValues;
+        allocate(oldKeys.length << 1);
+        int[] keys = mKeys;
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            int k = oldKeys[i];
+            if (k != 0) {
+                int slot = hash(k) & mask;
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = k;
+                mValues[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new int[capacity];
+        mValues = new Object[capacity];
+        //at most 3/4 of the slots are used, so a probe always ends
+        mThreshold = capacity - (capacity >>> 2);
+    }
+
+    /**
+     * Returns the number of slots, a power of two, that holds the specified
+     * number of mappings without growing.
+     */
+    private static int tableSizeFor(int mappings) {
+        long needed = (long) mappings * 4 / 3 + 1;
+        if (needed >= MAX_CAPACITY) {
+            return MAX_CAPACITY;
+        }
+        int capacity = MIN_CAPACITY;
+        while (capacity < needed) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /**
+     * Scrambles the key, so that sequential keys do not pile up in one run.
+     */
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int[] mKeys;
+    private Object[] mValues;
+    private int mSize;
+    private int mThreshold;
+    private boolean mHasZeroKey;
+    private Object mZeroValue;
+    private int mModCount;
+}
@@ -0,0 +1,175 @@
+package com.cz.android.datastructure;
+
+import com.cz.android.datastructure.arraymap.ArrayMap;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the batch operations of {@link ArrayMap}, {@code append} and
+ * {@code putAll}, against {@code java.util.HashMap}, with keys whose hash
+ * codes collide and with the null key.
+ */
+public class ArrayMapTest {
+
+    /**
+     * Keys whose hash codes collide in groups of four.
+     */
+    static final class CollidingKey {
+        final int value;
+
+        CollidingKey(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int hashCode() {
+            return value / 4;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof CollidingKey && ((CollidingKey) o).value == value;
+        }
+
+        @Override
+        public String toString() {
+            return "#" + value;
+        }
+    }
+
+    @Test
+    public void appendMatchesPut() {
+        Random random = new Random(42);
+        ArrayMap<CollidingKey, Integer> map = new ArrayMap<>();
+        Map<CollidingKey, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 100000; i++) {
+            int k = random.nextInt(1000) - 500;
+            CollidingKey key = k == 0 ? null : new CollidingKey(k);
+            switch (random.nextInt(8)) {
+                case 0:
+                case 1:
+                case 2:
+                case 3:
+                    //a run of appends, read only afterwards
+                    map.append(key, i);
+                    expected.put(key, i);
+                    break;
+                case 4:
+                    assertEquals(expected.put(key, i), map.put(key, i));
+                    break;
+                case 5:
+                    assertEquals(expected.remove(key), map.remove(key));
+                    break;
+                case 6:
+                    assertEquals(expected.get(key), map.get(key));
+                    break;
+                default:
+                    assertEquals(expected.size(), map.size());
+                    break;
+            }
+        }
+        assertSameMappings(expected, map);
+        map.validate();
+    }
+
+    @Test
+    public void appendInAnyOrder() {
+        for (int order = 0; order < 3; order++) {
+            int size = 10000;
+            ArrayMap<Integer, Integer> map = new ArrayMap<>();
+            map.ensureCapacity(size);
+            Random random = new Random(order);
+            for (int i = 0; i < size; i++) {
+                int key = order == 0 ? i : order == 1 ? size - i : random.nextInt(size);
+                map.append(key, i);
+            }
+            //the last value appended for each key wins
+            Map<Integer, Integer> expected = new HashMap<>();
+            random = new Random(order);
+            for (int i = 0; i < size; i++) {
+                int key = order == 0 ? i : order == 1 ? size - i : random.nextInt(size);
+                expected.put(key, i);
+            }
+            assertSameMappings(expected, map);
+            for (int i = 1; i < map.size(); i++) {
+                assertTrue(map.keyAt(i - 1) < map.keyAt(i));
+            }
+        }
+    }
+
+    @Test
+    public void putAllMergesArrayMaps() {
+        Random random = new Random(7);
+        for (int round = 0; round < 200; round++) {
+            ArrayMap<CollidingKey, Integer> map = new ArrayMap<>();
+            ArrayMap<CollidingKey, Integer> other = new ArrayMap<>();
+            Map<CollidingKey, Integer> expected = new HashMap<>();
+            int offset = random.nextInt(3) * 100;
+            int puts = random.nextInt(200);
+            int appends = random.nextInt(20);
+            int others = random.nextInt(200);
+            for (int i = 0; i < puts; i++) {
+                CollidingKey key = new CollidingKey(random.nextInt(200));
+                map.put(key, i);
+                expected.put(key, i);
+            }
+            //sometimes left with appended items not sorted in yet
+            for (int i = 0; i < appends; i++) {
+                CollidingKey key = new CollidingKey(random.nextInt(200));
+                map.append(key, -i);
+                expected.put(key, -i);
+            }
+            for (int i = 0; i < others; i++) {
+                CollidingKey key = new CollidingKey(offset + random.nextInt(200));
+                other.append(key, 1000 + i);
+            }
+            for (int i = 0; i < other.size(); i++) {
+                expected.put(other.keyAt(i), other.valueAt(i));
+            }
+            if (random.nextBoolean()) {
+                map.putAll(other);
+            } else {
+                map.putAll((Map<CollidingKey, Integer>) other);
+            }
+            assertSameMappings(expected, map);
+            map.validate();
+        }
+    }
+
+    @Test
+    public void putAllFromHashMap() {
+        ArrayMap<Integer, String> map = new ArrayMap<>();
+        Map<Integer, String> source = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            map.put(i * 2, "old");
+            source.put(i * 3, "new");
+        }
+        map.putAll(source);
+        Map<Integer, String> expected = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            expected.put(i * 2, "old");
+        }
+        expected.putAll(source);
+        assertEquals(expected.size(), map.size());
+        assertTrue(map.equals(expected));
+        assertEquals(expected.hashCode(), map.hashCode());
+    }
+
+    private static <K, V> void assertSameMappings(Map<K, V> expected, ArrayMap<K, V> map) {
+        assertEquals(expected.size(), map.size());
+        for (int i = 0; i < map.size(); i++) {
+            K key = map.keyAt(i);
+            assertTrue("Unexpected key " + key, expected.containsKey(key));
+            assertEquals(expected.get(key), map.valueAt(i));
+            assertEquals(i, map.indexOfKey(key));
+        }
+        assertTrue(map.equals(expected));
+    }
+}
@@ -1,10 +1,17 @@
 package com.cz.android.datastructure;
 
 import com.cz.android.datastructure.arraymap.ArrayMap;
+import com.cz.android.datastructure.hashmap.Map;
+import com.cz.android.datastructure.hashmap.OpenHashMap;
 
 import org.junit.Test;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Random;
 
 /**
  * @author Created by cz
@@ -13,6 +20,34 @@ import java.util.HashMap;
  */
 public class ArrayMapTester {
 
+    /**
+     * Map sizes for {@link #hashMapSuite()}. 10M needs about 2G of heap and
+     * is left out when there is less.
+     */
+    private static final int[] SIZES = {1000, 10000, 100000, 1000000, 10000000};
+
+    /**
+     * Each measurement repeats until it did at least this many operations.
+     */
+    private static final int MIN_OPERATIONS = 2000000;
+
+    /**
+     * Each memory measurement builds enough maps to hold this many entries.
+     */
+    private static final int MEMORY_ENTRIES = 1000000;
+
+    private static final String[] MAPS = {"java.util.HashMap", "HashMap(chained)", "OpenHashMap"};
+
+    /**
+     * Map sizes for {@link #arrayMapInsertSuite()}. Putting in random or
+     * descending order is O(N^2), so it is only measured up to PUT_LIMIT.
+     */
+    private static final int[] INSERT_SIZES = {1000, 10000, 100000, 1000000};
+    private static final int PUT_LIMIT = 100000;
+    private static final long MAX_NANOS = 1000000000L;
+
+    private static final String[] ORDERS = {"random", "ascending", "descending"};
+
     @Test
     public void hashMapTest(){
         long st = System.currentTimeMillis();
@@ -23,13 +58,343 @@ public class ArrayMapTester {
         System.out.println("time1:"+(System.currentTimeMillis()-st));
 
         st=System.currentTimeMillis();
-        ArrayMap arrayMap=new ArrayMap<Integer,Integer>();
+        ArrayMap<Integer,Integer> arrayMap=new ArrayMap<>();
+        arrayMap.ensureCapacity(1000001);
         for(int i=1000000;i>=0;i--){
-            arrayMap.put(i,i);
+            arrayMap.append(i,i);
         }
+        //the first read sorts the appended entries in
+        arrayMap.size();
         System.out.println("time2:"+(System.currentTimeMillis()-st));
 //        time1:131
 //        time2:64
     }
 
+    /**
+     * ns per entry to build an ArrayMap by put, and by ensureCapacity and
+     * append followed by one read that sorts the appended entries in, with
+     * Integer keys in random, ascending and descending order, against
+     * java.util.HashMap. Then ns per entry of putAll of an ArrayMap into
+     * another one of the same size, with every other key, merged against put
+     * one by one.
+     */
+    @Test
+    public void arrayMapInsertSuite() {
+        for (int i = 0; i < 3; i++) {
+            for (String order : ORDERS) {
+                Integer[] keys = keys(10000, order);
+                measureInsert("put", keys);
+                measureInsert("append", keys);
+                measureInsert("java.util.HashMap", keys);
+                measurePutAll("merge", keys);
+                measurePutAll("put", keys);
+            }
+        }
+        System.out.println("insert       order          size       put    append   HashMap");
+        for (int size : INSERT_SIZES) {
+            for (String order : ORDERS) {
+                Integer[] keys = keys(size, order);
+                String put = "-";
+                if (size <= PUT_LIMIT || "ascending".equals(order)) {
+                    put = String.format("%.1f", measureInsert("put", keys));
+                }
+                System.out.println(String.format("%-12s %-10s %9d %9s %9.1f %9.1f", "build", order, size,
+                        put, measureInsert("append", keys), measureInsert("java.util.HashMap", keys)));
+            }
+        }
+        System.out.println("putAll                      size     merge       put");
+        for (int size : INSERT_SIZES) {
+            Integer[] keys = keys(size, "random");
+            String put = size <= PUT_LIMIT ? String.format("%.1f", measurePutAll("put", keys)) : "-";
+            System.out.println(String.format("%-12s %-10s %9d %9.1f %9s", "putAll", "interleaved", size,
+                    measurePutAll("merge", keys), put));
+        }
+    }
+
+    /**
+     * Returns ns per entry to build a map of the keys, each mapped to itself.
+     */
+    private static double measureInsert(String how, Integer[] keys) {
+        long time = 0;
+        long entries = 0;
+        long check = 0;
+        while (entries < MIN_OPERATIONS && time < MAX_NANOS) {
+            long st = System.nanoTime();
+            if ("put".equals(how)) {
+                ArrayMap<Integer, Integer> map = new ArrayMap<>();
+                for (Integer key : keys) {
+                    map.put(key, key);
+                }
+                check += map.size();
+            } else if ("append".equals(how)) {
+                ArrayMap<Integer, Integer> map = new ArrayMap<>();
+                map.ensureCapacity(keys.length);
+                for (Integer key : keys) {
+                    map.append(key, key);
+                }
+                check += map.size();
+            } else {
+                HashMap<Integer, Integer> map = new HashMap<>();
+                for (Integer key : keys) {
+                    map.put(key, key);
+                }
+                check += map.size();
+            }
+            time += System.nanoTime() - st;
+            entries += keys.length;
+        }
+        if (check != entries) {
+            throw new AssertionError(how + " lost entries");
+        }
+        return time / (double) entries;
+    }
+
+    /**
+     * Returns ns per entry to put all of an ArrayMap with the keys at odd
+     * positions into one with the keys at even positions.
+     */
+    private static double measurePutAll(String how, Integer[] keys) {
+        ArrayMap<Integer, Integer> even = new ArrayMap<>();
+        ArrayMap<Integer, Integer> odd = new ArrayMap<>();
+        even.ensureCapacity(keys.length / 2 + 1);
+        odd.ensureCapacity(keys.length / 2 + 1);
+        for (int i = 0; i < keys.length; i++) {
+            (i % 2 == 0 ? even : odd).append(keys[i], keys[i]);
+        }
+        long time = 0;
+        long entries = 0;
+        long check = 0;
+        while (entries < MIN_OPERATIONS && time < MAX_NANOS) {
+            ArrayMap<Integer, Integer> map = new ArrayMap<>(even);
+            long st = System.nanoTime();
+            if ("merge".equals(how)) {
+                map.putAll(odd);
+            } else {
+                for (int i = 0; i < odd.size(); i++) {
+                    map.put(odd.keyAt(i), odd.valueAt(i));
+                }
+            }
+            check += map.size();
+            time += System.nanoTime() - st;
+            entries += keys.length;
+        }
+        if (check != entries) {
+            throw new AssertionError(how + " lost entries");
+        }
+        return time / (double) entries;
+    }
+
+    /**
+     * 0 to size - 1 in the given order.
+     */
+    private static Integer[] keys(int size, String order) {
+        Integer[] keys = keys(size);
+        if ("ascending".equals(order)) {
+            Arrays.sort(keys);
+        } else if ("descending".equals(order)) {
+            Arrays.sort(keys, Collections.<Integer>reverseOrder());
+        }
+        return keys;
+    }
+
+    /**
+     * Compares java.util.HashMap, the chained HashMap and OpenHashMap: ns per
+     * put into an empty map, get of a present key, remove, and entry visited
+     * by iteration, with keys in random order, then heap bytes per entry,
+     * not counting the keys and values.
+     */
+    @Test
+    public void hashMapSuite() {
+        long maxHeap = Runtime.getRuntime().maxMemory();
+        // Warm up, so the JIT compiled all of them before we measure.
+        for (int i = 0; i < 3; i++) {
+            for (String name : MAPS) {
+                measure(name, keys(100000));
+            }
+        }
+        System.out.println("map                      size     put     get  remove iterate bytes/entry");
+        for (int size : SIZES) {
+            if (size >= 10000000 && maxHeap < (2L << 30)) {
+                System.out.println("skipped " + size + " entries, needs -Xmx2g");
+                continue;
+            }
+            Integer[] keys = keys(size);
+            for (String name : MAPS) {
+                double[] ns = measure(name, keys);
+                double bytes = bytesPerEntry(name, keys);
+                System.out.println(String.format("%-20s %9d %7.1f %7.1f %7.1f %7.1f %11.1f",
+                        name, size, ns[0], ns[1], ns[2], ns[3], bytes));
+            }
+        }
+    }
+
+    /**
+     * The maps under test behind one interface.
+     */
+    private interface Subject {
+        void put(Integer key, Integer value);
+
+        Integer get(Integer key);
+
+        Integer remove(Integer key);
+
+        /**
+         * Visits every entry, returns the sum of the values.
+         */
+        long iterate();
+    }
+
+    private static Subject newSubject(String name) {
+        switch (name) {
+            case "java.util.HashMap": {
+                final HashMap<Integer, Integer> map = new HashMap<>();
+                return new Subject() {
+                    @Override
+                    public void put(Integer key, Integer value) {
+                        map.put(key, value);
+                    }
+
+                    @Override
+                    public Integer get(Integer key) {
+                        return map.get(key);
+                    }
+
+                    @Override
+                    public Integer remove(Integer key) {
+                        return map.remove(key);
+                    }
+
+                    @Override
+                    public long iterate() {
+                        long sum = 0;
+                        for (java.util.Map.Entry<Integer, Integer> entry : map.entrySet()) {
+                            sum += entry.getValue();
+                        }
+                        return sum;
+                    }
+                };
+            }
+            case "HashMap(chained)":
+                return wrap(new com.cz.android.datastructure.hashmap.HashMap<Integer, Integer>());
+            default:
+                return wrap(new OpenHashMap<Integer, Integer>());
+        }
+    }
+
+    private static Subject wrap(final Map<Integer, Integer> map) {
+        return new Subject() {
+            @Override
+            public void put(Integer key, Integer value) {
+                map.put(key, value);
+            }
+
+            @Override
+            public Integer get(Integer key) {
+                return map.get(key);
+            }
+
+            @Override
+            public Integer remove(Integer key) {
+                return map.remove(key);
+            }
+
+            @Override
+            public long iterate() {
+                long sum = 0;
+                for (Map.Entry<Integer, Integer> entry : map.entrySet()) {
+                    sum += entry.getValue();
+                }
+                return sum;
+            }
+        };
+    }
+
+    /**
+     * Returns ns per put, get, remove and iterated entry.
+     */
+    private static double[] measure(String name, Integer[] keys) {
+        int n = keys.length;
+        int rounds = Math.max(1, MIN_OPERATIONS / n);
+        long put = 0;
+        long get = 0;
+        long remove = 0;
+        long iterate = 0;
+        long check = 0;
+        for (int round = 0; round < rounds; round++) {
+            Subject map = newSubject(name);
+            long st = System.nanoTime();
+            for (Integer key : keys) {
+                map.put(key, key);
+            }
+            put += System.nanoTime() - st;
+
+            st = System.nanoTime();
+            for (Integer key : keys) {
+                check += map.get(key);
+            }
+            get += System.nanoTime() - st;
+
+            st = System.nanoTime();
+            check += map.iterate();
+            iterate += System.nanoTime() - st;
+
+            st = System.nanoTime();
+            for (Integer key : keys) {
+                check += map.remove(key);
+            }
+            remove += System.nanoTime() - st;
+        }
+        // Every key is its own value, so get, iterate and remove each add up the keys once a round.
+        long expected = 0;
+        for (Integer key : keys) {
+            expected += key;
+        }
+        if (check != expected * 3 * rounds) {
+            throw new AssertionError(name + " lost entries");
+        }
+        double operations = (double) n * rounds;
+        return new double[]{put / operations, get / operations, remove / operations, iterate / operations};
+    }
+
+    /**
+     * Builds enough maps to hold {@link #MEMORY_ENTRIES} entries and returns
+     * the heap they use per entry. The keys already exist, so they are not
+     * counted.
+     */
+    private static double bytesPerEntry(String name, Integer[] keys) {
+        int copies = Math.max(1, MEMORY_ENTRIES / keys.length);
+        Subject[] maps = new Subject[copies];
+        long before = usedHeap();
+        for (int i = 0; i < copies; i++) {
+            maps[i] = newSubject(name);
+            for (Integer key : keys) {
+                maps[i].put(key, key);
+            }
+        }
+        long after = usedHeap();
+        if (maps[copies - 1].get(keys[0]) == null) {
+            throw new AssertionError();
+        }
+        return (after - before) / ((double) copies * keys.length);
+    }
+
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * 0 to size - 1 in random order.
+     */
+    private static Integer[] keys(int size) {
+        Integer[] keys = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = i;
+        }
+        Collections.shuffle(Arrays.asList(keys), new Random(size));
+        return keys;
+    }
 }
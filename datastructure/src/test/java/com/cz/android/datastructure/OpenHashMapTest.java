@@ -0,0 +1,176 @@
+package com.cz.android.datastructure;
+
+import com.cz.android.datastructure.hashmap.HashMap;
+import com.cz.android.datastructure.hashmap.Map;
+import com.cz.android.datastructure.hashmap.OpenHashMap;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks {@link OpenHashMap} against {@code java.util.HashMap}, with keys that
+ * collide, null keys and values, and removal while iterating.
+ */
+public class OpenHashMapTest {
+
+    /**
+     * Keys whose hash codes collide in groups of four.
+     */
+    static final class CollidingKey implements Serializable {
+        final int value;
+
+        CollidingKey(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int hashCode() {
+            return value / 4;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof CollidingKey && ((CollidingKey) o).value == value;
+        }
+
+        @Override
+        public String toString() {
+            return "#" + value;
+        }
+    }
+
+    @Test
+    public void randomOperationsMatchHashMap() {
+        Random random = new Random(42);
+        OpenHashMap<CollidingKey, Integer> map = new OpenHashMap<>(0);
+        java.util.HashMap<CollidingKey, Integer> expected = new java.util.HashMap<>();
+        for (int i = 0; i < 200000; i++) {
+            int k = random.nextInt(2000);
+            CollidingKey key = k == 0 ? null : new CollidingKey(k);
+            Integer value = random.nextInt(10) == 0 ? null : i;
+            switch (random.nextInt(4)) {
+                case 0:
+                case 1:
+                    assertEquals(expected.put(key, value), map.put(key, value));
+                    break;
+                case 2:
+                    assertEquals(expected.remove(key), map.remove(key));
+                    break;
+                default:
+                    assertEquals(expected.get(key), map.get(key));
+                    assertEquals(expected.containsKey(key), map.containsKey(key));
+                    break;
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        assertSameMappings(expected, map);
+        assertEquals(expected.containsValue(null), map.containsValue(null));
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(new CollidingKey(1)));
+    }
+
+    /**
+     * Removes mappings through the iterator at a load where runs wrap around
+     * the end of the table, which moves mappings into slots already passed.
+     */
+    @Test
+    public void iteratorRemoveVisitsEveryMappingOnce() {
+        Random random = new Random(7);
+        for (int round = 0; round < 2000; round++) {
+            OpenHashMap<Integer, Integer> map = new OpenHashMap<>(0, 0.9f);
+            Set<Integer> keys = new HashSet<>();
+            int count = 1 + random.nextInt(14);
+            while (keys.size() < count) {
+                Integer key = random.nextInt(1000);
+                keys.add(key);
+                map.put(key, key);
+            }
+            Set<Integer> seen = new HashSet<>();
+            Set<Integer> kept = new HashSet<>();
+            Iterator<Map.Entry<Integer, Integer>> iterator = map.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Integer, Integer> entry = iterator.next();
+                assertEquals(entry.getKey(), entry.getValue());
+                assertTrue("Visited twice: " + entry.getKey(), seen.add(entry.getKey()));
+                if (random.nextBoolean()) {
+                    iterator.remove();
+                } else {
+                    kept.add(entry.getKey());
+                }
+            }
+            assertEquals(keys, seen);
+            assertEquals(kept.size(), map.size());
+            for (Integer key : keys) {
+                assertEquals(kept.contains(key), map.containsKey(key));
+            }
+        }
+    }
+
+    @Test
+    public void behavesLikeAMap() throws Exception {
+        OpenHashMap<String, String> map = new OpenHashMap<>();
+        HashMap<String, String> chained = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            map.put("key" + i, "value" + i);
+            chained.put("key" + i, "value" + i);
+        }
+        map.put(null, "null");
+        chained.put(null, "null");
+        assertTrue(map.equals(chained));
+        assertEquals(chained.hashCode(), map.hashCode());
+
+        @SuppressWarnings("unchecked")
+        OpenHashMap<String, String> clone = (OpenHashMap<String, String>) map.clone();
+        clone.remove("key1");
+        assertTrue(map.containsKey("key1"));
+        assertFalse(clone.containsKey("key1"));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(map);
+        out.close();
+        @SuppressWarnings("unchecked")
+        OpenHashMap<String, String> copy = (OpenHashMap<String, String>) new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertTrue(copy.equals(map));
+        assertEquals("null", copy.get(null));
+
+        map.keySet().remove("key2");
+        map.values().remove("value3");
+        assertFalse(map.containsKey("key2"));
+        assertFalse(map.containsKey("key3"));
+        assertEquals(99, map.size());
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            if ("key4".equals(entry.getKey())) {
+                entry.setValue("changed");
+            }
+        }
+        assertEquals("changed", map.get("key4"));
+    }
+
+    private static void assertSameMappings(java.util.Map<CollidingKey, Integer> expected,
+                                           OpenHashMap<CollidingKey, Integer> map) {
+        int count = 0;
+        for (Map.Entry<CollidingKey, Integer> entry : map.entrySet()) {
+            assertTrue(expected.containsKey(entry.getKey()));
+            assertEquals(expected.get(entry.getKey()), entry.getValue());
+            count++;
+        }
+        assertEquals(expected.size(), count);
+    }
+}
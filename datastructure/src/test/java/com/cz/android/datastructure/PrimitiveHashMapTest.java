@@ -0,0 +1,203 @@
+package com.cz.android.datastructure;
+
+import com.cz.android.datastructure.sparse.IntIntHashMap;
+import com.cz.android.datastructure.sparse.IntObjectHashMap;
+import com.cz.android.datastructure.sparse.LongObjectHashMap;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks {@link IntIntHashMap}, {@link IntObjectHashMap} and
+ * {@link LongObjectHashMap} against {@code java.util.HashMap}, with key 0,
+ * negative keys, and removal while iterating.
+ */
+public class PrimitiveHashMapTest {
+
+    @Test
+    public void intIntMatchesHashMap() {
+        Random random = new Random(42);
+        IntIntHashMap map = new IntIntHashMap(0);
+        Map<Integer, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 200000; i++) {
+            int key = random.nextInt(2000) - 1000;
+            switch (random.nextInt(4)) {
+                case 0:
+                case 1:
+                    map.put(key, i);
+                    expected.put(key, i);
+                    break;
+                case 2:
+                    map.delete(key);
+                    expected.remove(key);
+                    break;
+                default:
+                    Integer value = expected.get(key);
+                    assertEquals(value == null ? -1 : value, map.get(key, -1));
+                    assertEquals(value != null, map.containsKey(key));
+                    break;
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        Map<Integer, Integer> visited = new HashMap<>();
+        IntIntHashMap.EntryIterator iterator = map.iterator();
+        while (iterator.hasNext()) {
+            int key = iterator.next();
+            assertNull("Visited twice: " + key, visited.put(key, iterator.value()));
+        }
+        assertEquals(expected, visited);
+        map.clear();
+        assertEquals(0, map.size());
+        assertFalse(map.containsKey(0));
+        assertFalse(map.iterator().hasNext());
+    }
+
+    @Test
+    public void intObjectMatchesHashMap() {
+        Random random = new Random(43);
+        IntObjectHashMap<String> map = new IntObjectHashMap<>();
+        Map<Integer, String> expected = new HashMap<>();
+        for (int i = 0; i < 200000; i++) {
+            //multiples of a large power of two, which collide without a good hash
+            int key = (random.nextInt(2000) - 1000) << 16;
+            String value = random.nextInt(10) == 0 ? null : "v" + i;
+            switch (random.nextInt(4)) {
+                case 0:
+                case 1:
+                    assertEquals(expected.put(key, value), map.put(key, value));
+                    break;
+                case 2:
+                    assertEquals(expected.remove(key), map.remove(key));
+                    break;
+                default:
+                    assertEquals(expected.get(key), map.get(key));
+                    assertEquals(expected.containsKey(key), map.containsKey(key));
+                    break;
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        Map<Integer, String> visited = new HashMap<>();
+        IntObjectHashMap<String>.EntryIterator iterator = map.iterator();
+        while (iterator.hasNext()) {
+            int key = iterator.next();
+            assertFalse("Visited twice: " + key, visited.containsKey(key));
+            visited.put(key, iterator.value());
+        }
+        assertEquals(expected, visited);
+    }
+
+    @Test
+    public void longObjectMatchesHashMap() {
+        Random random = new Random(44);
+        LongObjectHashMap<Long> map = new LongObjectHashMap<>();
+        Map<Long, Long> expected = new HashMap<>();
+        for (int i = 0; i < 200000; i++) {
+            //keys that differ only in the high half
+            long key = (long) (random.nextInt(2000) - 1000) << 32;
+            switch (random.nextInt(4)) {
+                case 0:
+                case 1:
+                    assertEquals(expected.put(key, (long) i), map.put(key, (long) i));
+                    break;
+                case 2:
+                    assertEquals(expected.remove(key), map.remove(key));
+                    break;
+                default:
+                    assertEquals(expected.get(key), map.get(key));
+                    assertEquals(expected.containsKey(key), map.containsKey(key));
+                    break;
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        Map<Long, Long> visited = new HashMap<>();
+        LongObjectHashMap<Long>.EntryIterator iterator = map.iterator();
+        while (iterator.hasNext()) {
+            long key = iterator.next();
+            assertNull("Visited twice: " + key, visited.put(key, iterator.value()));
+        }
+        assertEquals(expected, visited);
+    }
+
+    /**
+     * Removes mappings through the iterator of small, full tables, where runs
+     * wrap around the end of the table and a removal moves mappings into
+     * slots already passed.
+     */
+    @Test
+    public void iteratorRemoveVisitsEveryMappingOnce() {
+        Random random = new Random(7);
+        for (int round = 0; round < 2000; round++) {
+            IntIntHashMap map = new IntIntHashMap(0);
+            LongObjectHashMap<Integer> longMap = new LongObjectHashMap<>(0);
+            Set<Integer> keys = new HashSet<>();
+            //up to the threshold of the smallest table, 3/4 of 8 slots
+            int count = 1 + random.nextInt(6);
+            while (keys.size() < count) {
+                int key = random.nextInt(64);
+                keys.add(key);
+                map.put(key, -key);
+                longMap.put(key, key);
+            }
+            Set<Integer> seen = new HashSet<>();
+            Set<Integer> kept = new HashSet<>();
+            IntIntHashMap.EntryIterator iterator = map.iterator();
+            while (iterator.hasNext()) {
+                int key = iterator.next();
+                assertEquals(-key, iterator.value());
+                assertTrue("Visited twice: " + key, seen.add(key));
+                if (random.nextBoolean()) {
+                    iterator.remove();
+                } else {
+                    kept.add(key);
+                }
+            }
+            assertEquals(keys, seen);
+            assertEquals(kept.size(), map.size());
+            for (int key : keys) {
+                assertEquals(kept.contains(key), map.containsKey(key));
+            }
+
+            seen.clear();
+            kept.clear();
+            LongObjectHashMap<Integer>.EntryIterator longIterator = longMap.iterator();
+            while (longIterator.hasNext()) {
+                long key = longIterator.next();
+                assertEquals(Integer.valueOf((int) key), longIterator.value());
+                assertTrue("Visited twice: " + key, seen.add((int) key));
+                if (random.nextBoolean()) {
+                    longIterator.remove();
+                } else {
+                    kept.add((int) key);
+                }
+            }
+            assertEquals(keys, seen);
+            assertEquals(kept.size(), longMap.size());
+        }
+    }
+
+    @Test
+    public void setValueThroughIterator() {
+        IntIntHashMap map = new IntIntHashMap();
+        for (int i = 0; i < 100; i++) {
+            map.put(i, i);
+        }
+        IntIntHashMap.EntryIterator iterator = map.iterator();
+        while (iterator.hasNext()) {
+            iterator.next();
+            iterator.setValue(iterator.value() * 2);
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i * 2, map.get(i));
+        }
+    }
+}
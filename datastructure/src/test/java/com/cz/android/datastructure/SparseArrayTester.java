@@ -0,0 +1,368 @@
+package com.cz.android.datastructure;
+
+import com.cz.android.datastructure.sparse.IntIntHashMap;
+import com.cz.android.datastructure.sparse.IntObjectHashMap;
+import com.cz.android.datastructure.sparse.LongObjectHashMap;
+import com.cz.android.datastructure.sparse.SparseArray;
+import com.cz.android.datastructure.sparse.SparseIntArray;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Where the primitive hash maps overtake SparseArray and SparseIntArray.
+ */
+public class SparseArrayTester {
+
+    private static final int[] SIZES = {100, 10000, 1000000};
+
+    private static final String[] MAPS = {"SparseArray", "IntObjectHashMap", "LongObjectHashMap",
+            "SparseIntArray", "IntIntHashMap"};
+
+    /**
+     * Each measurement repeats until it did this many operations, or ran this
+     * long: SparseArray takes milliseconds per put at 1M keys.
+     */
+    private static final int MIN_OPERATIONS = 1000000;
+    private static final long MAX_NANOS = 500000000L;
+
+    /**
+     * Keys put into the full map per round, at most a tenth of its size, so
+     * that the map does not outgrow the size measured. The keys of the round
+     * before are deleted. Every round puts keys never used before, otherwise
+     * SparseArray would only put a value back next to the key it lazily
+     * deleted.
+     */
+    private static final int CHURN = 1000;
+
+    private static final int MEMORY_ENTRIES = 1000000;
+
+    /**
+     * ns per get of a present key, per put of a new key into a map that holds
+     * size keys, per delete of that key, and per entry visited by iteration,
+     * then heap bytes per entry. The keys are random ints, in random order.
+     */
+    @Test
+    public void crossover() {
+        int[] warmUp = keys(10000 + MIN_OPERATIONS + churn(10000), 0);
+        for (int i = 0; i < 3; i++) {
+            for (String name : MAPS) {
+                measure(name, warmUp, 10000);
+            }
+        }
+        System.out.println("map                     size     get     put  delete iterate bytes/entry");
+        for (int size : SIZES) {
+            int[] keys = keys(size + MIN_OPERATIONS + churn(size), size);
+            for (String name : MAPS) {
+                double[] ns = measure(name, keys, size);
+                System.out.println(String.format("%-18s %9d %7.1f %7.1f %7.1f %7.1f %11.1f",
+                        name, size, ns[0], ns[1], ns[2], ns[3], bytesPerEntry(name, keys, size)));
+            }
+        }
+    }
+
+    /**
+     * The maps under test behind one interface.
+     */
+    private interface Subject {
+        void put(int key, Integer value);
+
+        int get(int key);
+
+        void delete(int key);
+
+        /**
+         * Visits every entry, returns the sum of the values.
+         */
+        long iterate();
+    }
+
+    private static Subject newSubject(String name) {
+        switch (name) {
+            case "SparseArray": {
+                final SparseArray<Integer> map = new SparseArray<>();
+                return new Subject() {
+                    @Override
+                    public void put(int key, Integer value) {
+                        map.put(key, value);
+                    }
+
+                    @Override
+                    public int get(int key) {
+                        return map.get(key);
+                    }
+
+                    @Override
+                    public void delete(int key) {
+                        map.delete(key);
+                    }
+
+                    @Override
+                    public long iterate() {
+                        long sum = 0;
+                        for (int i = 0; i < map.size(); i++) {
+                            sum += map.valueAt(i);
+                        }
+                        return sum;
+                    }
+                };
+            }
+            case "IntObjectHashMap": {
+                final IntObjectHashMap<Integer> map = new IntObjectHashMap<>();
+                return new Subject() {
+                    @Override
+                    public void put(int key, Integer value) {
+                        map.put(key, value);
+                    }
+
+                    @Override
+                    public int get(int key) {
+                        return map.get(key);
+                    }
+
+                    @Override
+                    public void delete(int key) {
+                        map.delete(key);
+                    }
+
+                    @Override
+                    public long iterate() {
+                        long sum = 0;
+                        IntObjectHashMap<Integer>.EntryIterator iterator = map.iterator();
+                        while (iterator.hasNext()) {
+                            iterator.next();
+                            sum += iterator.value();
+                        }
+                        return sum;
+                    }
+                };
+            }
+            case "LongObjectHashMap": {
+                final LongObjectHashMap<Integer> map = new LongObjectHashMap<>();
+                return new Subject() {
+                    @Override
+                    public void put(int key, Integer value) {
+                        map.put(key, value);
+                    }
+
+                    @Override
+                    public int get(int key) {
+                        return map.get(key);
+                    }
+
+                    @Override
+                    public void delete(int key) {
+                        map.delete(key);
+                    }
+
+                    @Override
+                    public long iterate() {
+                        long sum = 0;
+                        LongObjectHashMap<Integer>.EntryIterator iterator = map.iterator();
+                        while (iterator.hasNext()) {
+                            iterator.next();
+                            sum += iterator.value();
+                        }
+                        return sum;
+                    }
+                };
+            }
+            case "SparseIntArray": {
+                final SparseIntArray map = new SparseIntArray();
+                return new Subject() {
+                    @Override
+                    public void put(int key, Integer value) {
+                        map.put(key, value);
+                    }
+
+                    @Override
+                    public int get(int key) {
+                        return map.get(key);
+                    }
+
+                    @Override
+                    public void delete(int key) {
+                        map.delete(key);
+                    }
+
+                    @Override
+                    public long iterate() {
+                        long sum = 0;
+                        for (int i = 0; i < map.size(); i++) {
+                            sum += map.valueAt(i);
+                        }
+                        return sum;
+                    }
+                };
+            }
+            default: {
+                final IntIntHashMap map = new IntIntHashMap();
+                return new Subject() {
+                    @Override
+                    public void put(int key, Integer value) {
+                        map.put(key, value);
+                    }
+
+                    @Override
+                    public int get(int key) {
+                        return map.get(key);
+                    }
+
+                    @Override
+                    public void delete(int key) {
+                        map.delete(key);
+                    }
+
+                    @Override
+                    public long iterate() {
+                        long sum = 0;
+                        IntIntHashMap.EntryIterator iterator = map.iterator();
+                        while (iterator.hasNext()) {
+                            iterator.next();
+                            sum += iterator.value();
+                        }
+                        return sum;
+                    }
+                };
+            }
+        }
+    }
+
+    private static int churn(int size) {
+        return Math.max(1, Math.min(CHURN, size / 10));
+    }
+
+    /**
+     * Fills the map with the first size keys. The sparse arrays get them in
+     * ascending order, the cheapest way to build them.
+     */
+    private static Subject build(String name, int[] keys, Integer[] values, int size) {
+        Subject map = newSubject(name);
+        int[] sorted = Arrays.copyOf(keys, size);
+        Arrays.sort(sorted);
+        for (int key : name.startsWith("Sparse") ? sorted : Arrays.copyOf(keys, size)) {
+            map.put(key, values[key & 0xFFFF]);
+        }
+        return map;
+    }
+
+    /**
+     * Returns ns per get, put, delete and iterated entry.
+     */
+    private static double[] measure(String name, int[] keys, int size) {
+        Integer[] values = new Integer[0x10000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i;
+        }
+        Subject map = build(name, keys, values, size);
+        long check = 0;
+
+        long get = 0;
+        long gets = 0;
+        while (gets < MIN_OPERATIONS && get < MAX_NANOS) {
+            long st = System.nanoTime();
+            for (int i = 0; i < size; i++) {
+                check += map.get(keys[i]);
+            }
+            get += System.nanoTime() - st;
+            gets += size;
+        }
+
+        int churn = churn(size);
+        int previous = size;
+        for (int i = previous; i < previous + churn; i++) {
+            map.put(keys[i], values[keys[i] & 0xFFFF]);
+        }
+        long put = 0;
+        long delete = 0;
+        long churns = 0;
+        while (churns < MIN_OPERATIONS && put + delete < MAX_NANOS) {
+            int current = previous + churn;
+            long st = System.nanoTime();
+            for (int i = current; i < current + churn; i++) {
+                map.put(keys[i], values[keys[i] & 0xFFFF]);
+            }
+            put += System.nanoTime() - st;
+            st = System.nanoTime();
+            for (int i = previous; i < previous + churn; i++) {
+                map.delete(keys[i]);
+            }
+            delete += System.nanoTime() - st;
+            churns += churn;
+            previous = current;
+        }
+        for (int i = previous; i < previous + churn; i++) {
+            map.delete(keys[i]);
+        }
+
+        long iterate = 0;
+        long iterated = 0;
+        while (iterated < MIN_OPERATIONS && iterate < MAX_NANOS) {
+            long st = System.nanoTime();
+            check += map.iterate();
+            iterate += System.nanoTime() - st;
+            iterated += size;
+        }
+        long expected = 0;
+        for (int i = 0; i < size; i++) {
+            expected += keys[i] & 0xFFFF;
+        }
+        if (check != expected * (gets / size + iterated / size)) {
+            throw new AssertionError(name + " lost entries");
+        }
+        return new double[]{get / (double) gets, put / (double) churns, delete / (double) churns,
+                iterate / (double) iterated};
+    }
+
+    /**
+     * Builds enough maps to hold {@link #MEMORY_ENTRIES} entries and returns
+     * the heap they use per entry. The values are shared, so they are not
+     * counted.
+     */
+    private static double bytesPerEntry(String name, int[] keys, int size) {
+        Integer[] values = new Integer[0x10000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i;
+        }
+        int copies = Math.max(1, MEMORY_ENTRIES / size);
+        Subject[] maps = new Subject[copies];
+        long before = usedHeap();
+        for (int i = 0; i < copies; i++) {
+            maps[i] = build(name, keys, values, size);
+        }
+        long after = usedHeap();
+        if (maps[copies - 1].get(keys[0]) != (keys[0] & 0xFFFF)) {
+            throw new AssertionError();
+        }
+        return (after - before) / ((double) copies * size);
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Distinct random ints, none of them 0.
+     */
+    private static int[] keys(int count, long seed) {
+        Random random = new Random(seed);
+        Set<Integer> seen = new HashSet<>();
+        int[] keys = new int[count];
+        int i = 0;
+        while (i < count) {
+            int key = random.nextInt();
+            if (key != 0 && seen.add(key)) {
+                keys[i++] = key;
+            }
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,160 @@
+package com.cz.android.message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A {@link SimpleLooper.Observer} that sums up what a looper does in
+ * {@link Histogram histograms}: how long messages wait, how long their
+ * handlers take, how many messages are queued behind them, and how long the
+ * idle handlers take.  A message whose handler takes longer than the slow
+ * dispatch threshold is kept as a {@link SlowDispatch}, the last
+ * {@link #SLOW_DISPATCH_COUNT} of them.
+ *
+ * <pre>
+ *  LooperStats stats = new LooperStats(16);
+ *  looper.setObserver(stats);
+ *  ...
+ *  Log.i(TAG, "handlers: " + stats.getExecutionNanos());
+ *  for (LooperStats.SlowDispatch slow : stats.getSlowDispatches()) {
+ *      Log.w(TAG, slow.toString());
+ *  }</pre>
+ *
+ * <p>It may be shared by several loopers and read from any thread.
+ */
+public final class LooperStats implements SimpleLooper.Observer {
+    public static final int SLOW_DISPATCH_COUNT = 16;
+
+    private final Histogram mDelayNanos = new Histogram();
+    private final Histogram mExecutionNanos = new Histogram();
+    private final Histogram mQueueDepth = new Histogram();
+    private final Histogram mIdleNanos = new Histogram();
+    private volatile long mSlowDispatchThresholdNanos;
+    private final AtomicReferenceArray<SlowDispatch> mSlowDispatches =
+            new AtomicReferenceArray<SlowDispatch>(SLOW_DISPATCH_COUNT);
+    private final AtomicLong mSlowDispatchCount = new AtomicLong();
+
+    /**
+     * A message whose handler took longer than the threshold.
+     */
+    public static final class SlowDispatch {
+        public final Class<?> targetClass;
+        public final int what;
+        /** The class of the message's Runnable, or null if it had none. */
+        public final Class<?> callbackClass;
+        public final long delayNanos;
+        public final long executionNanos;
+
+        SlowDispatch(SimpleMessage msg, long delayNanos, long executionNanos) {
+            this.targetClass = msg.target.getClass();
+            this.what = msg.what;
+            this.callbackClass = msg.callback != null ? msg.callback.getClass() : null;
+            this.delayNanos = delayNanos;
+            this.executionNanos = executionNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "{ target=" + targetClass.getName() + " what=" + what
+                    + (callbackClass != null ? " callback=" + callbackClass.getName() : "")
+                    + " took=" + TimeUnit.NANOSECONDS.toMillis(executionNanos) + "ms"
+                    + " waited=" + TimeUnit.NANOSECONDS.toMillis(delayNanos) + "ms }";
+        }
+    }
+
+    /**
+     * @param slowDispatchThresholdMillis A handler that takes longer is slow,
+     * 0 for none.
+     */
+    public LooperStats(long slowDispatchThresholdMillis) {
+        setSlowDispatchThresholdMillis(slowDispatchThresholdMillis);
+    }
+
+    public void setSlowDispatchThresholdMillis(long slowDispatchThresholdMillis) {
+        mSlowDispatchThresholdNanos = slowDispatchThresholdMillis > 0
+                ? TimeUnit.MILLISECONDS.toNanos(slowDispatchThresholdMillis) : Long.MAX_VALUE;
+    }
+
+    @Override
+    public void messageDispatched(SimpleMessage msg, long delayNanos, long executionNanos, int queueDepth) {
+        if (delayNanos >= 0) {
+            mDelayNanos.record(delayNanos);
+        }
+        mExecutionNanos.record(executionNanos);
+        mQueueDepth.record(queueDepth);
+        if (executionNanos > mSlowDispatchThresholdNanos) {
+            final long n = mSlowDispatchCount.getAndIncrement();
+            mSlowDispatches.set((int) (n % SLOW_DISPATCH_COUNT), new SlowDispatch(msg, delayNanos, executionNanos));
+        }
+    }
+
+    @Override
+    public void idleHandlersRan(int count, long nanos) {
+        mIdleNanos.record(nanos);
+    }
+
+    /**
+     * How long messages waited after they were due.
+     */
+    public Histogram getDelayNanos() {
+        return mDelayNanos;
+    }
+
+    /**
+     * How long the handlers took.
+     */
+    public Histogram getExecutionNanos() {
+        return mExecutionNanos;
+    }
+
+    /**
+     * How many messages were left in the queue when one was dispatched.
+     */
+    public Histogram getQueueDepth() {
+        return mQueueDepth;
+    }
+
+    /**
+     * How long the idle handlers took each time the queue ran out of messages.
+     */
+    public Histogram getIdleNanos() {
+        return mIdleNanos;
+    }
+
+    /**
+     * How many dispatches were slow, including the ones no longer kept.
+     */
+    public long getSlowDispatchCount() {
+        return mSlowDispatchCount.get();
+    }
+
+    /**
+     * Returns the last slow dispatches, oldest first.
+     */
+    public List<SlowDispatch> getSlowDispatches() {
+        final long count = mSlowDispatchCount.get();
+        final List<SlowDispatch> slowDispatches = new ArrayList<SlowDispatch>();
+        for (long n = Math.max(0, count - SLOW_DISPATCH_COUNT); n < count; n++) {
+            final SlowDispatch slowDispatch = mSlowDispatches.get((int) (n % SLOW_DISPATCH_COUNT));
+            // Null while the one that counted it is still storing it.
+            if (slowDispatch != null) {
+                slowDispatches.add(slowDispatch);
+            }
+        }
+        return slowDispatches;
+    }
+
+    public void reset() {
+        mDelayNanos.reset();
+        mExecutionNanos.reset();
+        mQueueDepth.reset();
+        mIdleNanos.reset();
+        mSlowDispatchCount.set(0);
+        for (int i = 0; i < SLOW_DISPATCH_COUNT; i++) {
+            mSlowDispatches.set(i, null);
+        }
+    }
+}
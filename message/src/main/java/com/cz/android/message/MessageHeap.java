@@ -0,0 +1,406 @@
+package com.cz.android.message;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+
+/**
+ * The messages of a {@link SimpleMessageQueue}: a binary heap ordered by
+ * <em>when</em>, plus an index of every handler's messages by <em>what</em>
+ * and by callback.
+ *
+ * <p>Messages with the same <em>when</em> come out in the order they were
+ * added, except the ones sent to the front of the queue (<em>when</em> 0):
+ * the last of those comes out first. That is the order the linked list this
+ * replaced kept. Adding and removing a message is O(log n), and removing the
+ * messages of a handler only visits the ones that match. Once the index has
+ * grown to the number of messages in flight it allocates nothing.
+ *
+ * <p>Not thread-safe, the queue guards it with its lock. A message must not
+ * change its <em>target</em>, <em>what</em> or <em>callback</em> while it is
+ * queued, they are the keys of the index.
+ */
+final class MessageHeap {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private SimpleMessage[] mHeap = new SimpleMessage[INITIAL_CAPACITY];
+    private int mSize;
+    /** Orders the messages with the same when. */
+    private long mSequence;
+    private final IdentityHashMap<SimpleHandler, HandlerIndex> mHandlers =
+            new IdentityHashMap<SimpleHandler, HandlerIndex>();
+    /**
+     * The index of the last handler that ran out of messages, for the next
+     * one. A queue that empties all the time doesn't build a new one each time.
+     */
+    private HandlerIndex mSpareIndex;
+
+    /**
+     * The queued messages of one handler. Each map holds the first message of
+     * a list linked through {@link SimpleMessage#whatNext} or
+     * {@link SimpleMessage#callbackNext}.
+     */
+    private static final class HandlerIndex {
+        final WhatMap whats = new WhatMap();
+        IdentityHashMap<Runnable, SimpleMessage> callbacks;
+        int count;
+
+        void clear() {
+            whats.clear();
+            if (callbacks != null) {
+                callbacks.clear();
+            }
+            count = 0;
+        }
+    }
+
+    /**
+     * The first message of each <em>what</em>: an open-addressing table of int
+     * keys, so neither put nor remove boxes the key or allocates an entry.
+     */
+    private static final class WhatMap {
+        private int[] mKeys = new int[INITIAL_CAPACITY];
+        private SimpleMessage[] mValues = new SimpleMessage[INITIAL_CAPACITY];
+        private int mSize;
+
+        int size() {
+            return mSize;
+        }
+
+        SimpleMessage get(int what) {
+            final int mask = mValues.length - 1;
+            for (int i = slot(what, mask); mValues[i] != null; i = (i + 1) & mask) {
+                if (mKeys[i] == what) {
+                    return mValues[i];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Returns the message it replaced, or null.
+         */
+        SimpleMessage put(int what, SimpleMessage msg) {
+            final int mask = mValues.length - 1;
+            int i = slot(what, mask);
+            for (; mValues[i] != null; i = (i + 1) & mask) {
+                if (mKeys[i] == what) {
+                    final SimpleMessage old = mValues[i];
+                    mValues[i] = msg;
+                    return old;
+                }
+            }
+            mKeys[i] = what;
+            mValues[i] = msg;
+            // At most half full, so a miss ends soon.
+            if (++mSize > mValues.length >>> 1) {
+                resize();
+            }
+            return null;
+        }
+
+        void remove(int what) {
+            final int mask = mValues.length - 1;
+            int i = slot(what, mask);
+            while (mValues[i] != null && mKeys[i] != what) {
+                i = (i + 1) & mask;
+            }
+            if (mValues[i] == null) {
+                return;
+            }
+            mSize--;
+            // Move back the keys behind it that can't be found past the hole.
+            int hole = i;
+            for (i = (i + 1) & mask; mValues[i] != null; i = (i + 1) & mask) {
+                final int home = slot(mKeys[i], mask);
+                if (((i - home) & mask) >= ((i - hole) & mask)) {
+                    mKeys[hole] = mKeys[i];
+                    mValues[hole] = mValues[i];
+                    hole = i;
+                }
+            }
+            mValues[hole] = null;
+        }
+
+        /**
+         * Copies the messages into an array, they change while we remove.
+         */
+        SimpleMessage[] values() {
+            final SimpleMessage[] values = new SimpleMessage[mSize];
+            int n = 0;
+            for (SimpleMessage value : mValues) {
+                if (value != null) {
+                    values[n++] = value;
+                }
+            }
+            return values;
+        }
+
+        void clear() {
+            if (mSize > 0) {
+                Arrays.fill(mValues, null);
+                mSize = 0;
+            }
+        }
+
+        private void resize() {
+            final int[] keys = mKeys;
+            final SimpleMessage[] values = mValues;
+            mKeys = new int[keys.length * 2];
+            mValues = new SimpleMessage[values.length * 2];
+            final int mask = mValues.length - 1;
+            for (int j = 0; j < values.length; j++) {
+                if (values[j] != null) {
+                    int i = slot(keys[j], mask);
+                    while (mValues[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    mKeys[i] = keys[j];
+                    mValues[i] = values[j];
+                }
+            }
+        }
+
+        private static int slot(int what, int mask) {
+            // Spread the small consecutive codes handlers use.
+            final int h = what * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the message due first, or null.
+     */
+    SimpleMessage peek() {
+        return mHeap[0];
+    }
+
+    /**
+     * Removes and returns the message due first, or null.
+     */
+    SimpleMessage poll() {
+        final SimpleMessage msg = mHeap[0];
+        if (msg != null) {
+            remove(msg);
+        }
+        return msg;
+    }
+
+    void add(SimpleMessage msg) {
+        if (mSize == mHeap.length) {
+            mHeap = Arrays.copyOf(mHeap, mSize * 2);
+        }
+        msg.sequence = mSequence++;
+        siftUp(mSize++, msg);
+        index(msg);
+    }
+
+    /**
+     * Removes every message of the handler with the <em>what</em> and, if
+     * <var>object</var> isn't null, the object. With <var>doRemove</var> false
+     * it only tells whether there is one.
+     */
+    boolean removeMessages(SimpleHandler h, int what, Object object, boolean doRemove) {
+        final HandlerIndex index = mHandlers.get(h);
+        if (index == null) {
+            return false;
+        }
+        boolean found = false;
+        SimpleMessage p = index.whats.get(what);
+        while (p != null) {
+            final SimpleMessage n = p.whatNext;
+            if (object == null || p.obj == object) {
+                if (!doRemove) return true;
+                found = true;
+                remove(p);
+                p.recycle();
+            }
+            p = n;
+        }
+        return found;
+    }
+
+    void removeMessages(SimpleHandler h, Runnable r, Object object) {
+        final HandlerIndex index = mHandlers.get(h);
+        if (index == null || index.callbacks == null) {
+            return;
+        }
+        SimpleMessage p = index.callbacks.get(r);
+        while (p != null) {
+            final SimpleMessage n = p.callbackNext;
+            if (object == null || p.obj == object) {
+                remove(p);
+                p.recycle();
+            }
+            p = n;
+        }
+    }
+
+    void removeCallbacksAndMessages(SimpleHandler h, Object object) {
+        final HandlerIndex index = mHandlers.get(h);
+        if (index == null) {
+            return;
+        }
+        // Every message of the handler is in one of the what lists.
+        final SimpleMessage[] lists = index.whats.values();
+        for (SimpleMessage p : lists) {
+            while (p != null) {
+                final SimpleMessage n = p.whatNext;
+                if (object == null || p.obj == object) {
+                    remove(p);
+                    p.recycle();
+                }
+                p = n;
+            }
+        }
+    }
+
+    /**
+     * Returns the messages in the order they are due, for dump().
+     */
+    SimpleMessage[] toSortedArray() {
+        final SimpleMessage[] messages = Arrays.copyOf(mHeap, mSize);
+        Arrays.sort(messages, new Comparator<SimpleMessage>() {
+            @Override
+            public int compare(SimpleMessage a, SimpleMessage b) {
+                return before(a, b) ? -1 : before(b, a) ? 1 : 0;
+            }
+        });
+        return messages;
+    }
+
+    private void remove(SimpleMessage msg) {
+        final int i = msg.heapIndex;
+        final SimpleMessage last = mHeap[--mSize];
+        mHeap[mSize] = null;
+        if (last != msg) {
+            siftDown(i, last);
+            if (mHeap[i] == last) {
+                siftUp(i, last);
+            }
+        }
+        msg.heapIndex = -1;
+        unindex(msg);
+    }
+
+    private void siftUp(int i, SimpleMessage msg) {
+        while (i > 0) {
+            final int parent = (i - 1) >>> 1;
+            final SimpleMessage p = mHeap[parent];
+            if (!before(msg, p)) {
+                break;
+            }
+            mHeap[i] = p;
+            p.heapIndex = i;
+            i = parent;
+        }
+        mHeap[i] = msg;
+        msg.heapIndex = i;
+    }
+
+    private void siftDown(int i, SimpleMessage msg) {
+        final int half = mSize >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            SimpleMessage c = mHeap[child];
+            final int right = child + 1;
+            if (right < mSize && before(mHeap[right], c)) {
+                child = right;
+                c = mHeap[child];
+            }
+            if (!before(c, msg)) {
+                break;
+            }
+            mHeap[i] = c;
+            c.heapIndex = i;
+            i = child;
+        }
+        mHeap[i] = msg;
+        msg.heapIndex = i;
+    }
+
+    /**
+     * True if <var>a</var> comes out before <var>b</var>.
+     */
+    private static boolean before(SimpleMessage a, SimpleMessage b) {
+        if (a.when != b.when) {
+            return a.when < b.when;
+        }
+        // sendMessageAtFrontOfQueue() puts the newest message first.
+        return a.when == 0 ? a.sequence > b.sequence : a.sequence < b.sequence;
+    }
+
+    private void index(SimpleMessage msg) {
+        if (msg.target == null) {
+            // The quit message, nobody removes it.
+            return;
+        }
+        HandlerIndex index = mHandlers.get(msg.target);
+        if (index == null) {
+            index = mSpareIndex != null ? mSpareIndex : new HandlerIndex();
+            mSpareIndex = null;
+            mHandlers.put(msg.target, index);
+        }
+        index.count++;
+
+        final SimpleMessage first = index.whats.put(msg.what, msg);
+        msg.whatNext = first;
+        if (first != null) {
+            first.whatPrev = msg;
+        }
+        if (msg.callback != null) {
+            if (index.callbacks == null) {
+                index.callbacks = new IdentityHashMap<Runnable, SimpleMessage>();
+            }
+            final SimpleMessage firstCallback = index.callbacks.put(msg.callback, msg);
+            msg.callbackNext = firstCallback;
+            if (firstCallback != null) {
+                firstCallback.callbackPrev = msg;
+            }
+        }
+    }
+
+    private void unindex(SimpleMessage msg) {
+        if (msg.target == null) {
+            return;
+        }
+        final HandlerIndex index = mHandlers.get(msg.target);
+        if (--index.count == 0) {
+            // Don't keep the handler alive once it has no messages.
+            mHandlers.remove(msg.target);
+            index.clear();
+            mSpareIndex = index;
+        } else {
+            if (msg.whatPrev != null) {
+                msg.whatPrev.whatNext = msg.whatNext;
+            } else if (msg.whatNext != null) {
+                index.whats.put(msg.what, msg.whatNext);
+            } else {
+                index.whats.remove(msg.what);
+            }
+            if (msg.whatNext != null) {
+                msg.whatNext.whatPrev = msg.whatPrev;
+            }
+            if (msg.callback != null) {
+                if (msg.callbackPrev != null) {
+                    msg.callbackPrev.callbackNext = msg.callbackNext;
+                } else if (msg.callbackNext != null) {
+                    index.callbacks.put(msg.callback, msg.callbackNext);
+                } else {
+                    index.callbacks.remove(msg.callback);
+                }
+                if (msg.callbackNext != null) {
+                    msg.callbackNext.callbackPrev = msg.callbackPrev;
+                }
+            }
+        }
+        msg.whatPrev = null;
+        msg.whatNext = null;
+        msg.callbackPrev = null;
+        msg.callbackNext = null;
+    }
+}
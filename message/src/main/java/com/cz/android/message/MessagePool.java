@@ -0,0 +1,222 @@
+package com.cz.android.message;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The recycled messages behind {@link SimpleMessage#obtain()}: a small cache
+ * per thread, and a shared stack the caches hand their overflow to.
+ *
+ * <p>Messages are usually obtained on the threads that send them and
+ * recycled on the looper's thread, so the looper's cache fills up and the
+ * senders' caches run dry. A full cache pushes all of its messages to the
+ * shared stack as one chain, an empty one takes the whole stack. Both are a
+ * single atomic operation, and taking everything at once can't suffer from
+ * ABA like popping one message with compareAndSet would. Neither allocates,
+ * so as long as the messages in flight fit in the pool, a steady stream of
+ * messages allocates nothing.
+ *
+ * <p>The messages are linked through {@link SimpleMessage#next}. The shared
+ * stack holds at most {@link #setMaxSize(int) the maximum size}. A chain that
+ * doesn't fit is cut, and the part past the maximum is left to the garbage
+ * collector. A burst larger than the pool, such as a looper that falls more
+ * than that many messages behind, allocates again.
+ */
+final class MessagePool {
+    /** The messages a thread keeps before it hands them to the shared stack. */
+    static final int LOCAL_CAPACITY = 32;
+    static final int DEFAULT_MAX_SIZE = 1024;
+
+    private static final ThreadLocal<LocalCache> sLocalCache = new ThreadLocal<LocalCache>() {
+        @Override
+        protected LocalCache initialValue() {
+            LocalCache cache = new LocalCache();
+            synchronized (sCaches) {
+                retireDeadCaches();
+                sCaches.add(new CacheReference(cache, sDeadCaches));
+            }
+            return cache;
+        }
+    };
+
+    /**
+     * Every live thread's cache, for the counters. The references are weak so
+     * a thread that ends takes its cache with it, the counts it made are
+     * added to the retired ones when the reference is cleared.
+     */
+    private static final ArrayList<CacheReference> sCaches = new ArrayList<CacheReference>();
+    private static final ReferenceQueue<LocalCache> sDeadCaches = new ReferenceQueue<LocalCache>();
+    // Guarded by sCaches.
+    private static long sRetiredHits;
+    private static long sRetiredMisses;
+
+    private static final AtomicReference<SimpleMessage> sShared = new AtomicReference<SimpleMessage>();
+    // Lags behind sShared while a chain is pushed or taken, it is only a cap.
+    private static final AtomicInteger sSharedSize = new AtomicInteger();
+    private static volatile int sMaxSize = DEFAULT_MAX_SIZE;
+
+    private static final class LocalCache {
+        SimpleMessage head;
+        SimpleMessage tail;
+        int size;
+        final Counters counters = new Counters();
+    }
+
+    /** Kept apart from the cache so the counts outlive its thread. */
+    private static final class Counters {
+        // Only the owning thread writes them, so the ++ that isn't atomic
+        // loses no update. Volatile so hitCount() sees recent values.
+        volatile long hits;
+        volatile long misses;
+    }
+
+    private static final class CacheReference extends WeakReference<LocalCache> {
+        final Counters counters;
+
+        CacheReference(LocalCache cache, ReferenceQueue<LocalCache> queue) {
+            super(cache, queue);
+            counters = cache.counters;
+        }
+    }
+
+    /**
+     * Returns a recycled message, or null if there is none.
+     */
+    static SimpleMessage obtain() {
+        final LocalCache cache = sLocalCache.get();
+        if (cache.head == null && sShared.get() != null) {
+            takeShared(cache);
+        }
+        final SimpleMessage m = cache.head;
+        if (m == null) {
+            cache.counters.misses++;
+            return null;
+        }
+        cache.counters.hits++;
+        cache.head = m.next;
+        m.next = null;
+        if (--cache.size == 0) {
+            cache.tail = null;
+        }
+        return m;
+    }
+
+    /**
+     * Keeps a message that was cleared for the next obtain().
+     */
+    static void recycle(SimpleMessage m) {
+        final LocalCache cache = sLocalCache.get();
+        if (cache.size >= LOCAL_CAPACITY) {
+            flush(cache);
+        }
+        m.next = cache.head;
+        cache.head = m;
+        if (cache.size++ == 0) {
+            cache.tail = m;
+        }
+    }
+
+    static void setMaxSize(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize < 0: " + maxSize);
+        }
+        sMaxSize = maxSize;
+    }
+
+    static long hitCount() {
+        synchronized (sCaches) {
+            retireDeadCaches();
+            long hits = sRetiredHits;
+            for (CacheReference reference : sCaches) {
+                hits += reference.counters.hits;
+            }
+            return hits;
+        }
+    }
+
+    static long missCount() {
+        synchronized (sCaches) {
+            retireDeadCaches();
+            long misses = sRetiredMisses;
+            for (CacheReference reference : sCaches) {
+                misses += reference.counters.misses;
+            }
+            return misses;
+        }
+    }
+
+    /**
+     * Drops the caches of the threads that ended and keeps their counts.
+     * Must be called with the lock on sCaches held.
+     */
+    private static void retireDeadCaches() {
+        if (sDeadCaches.poll() == null) {
+            return;
+        }
+        while (sDeadCaches.poll() != null) {
+            // The cleared references are found below, empty the queue.
+        }
+        for (Iterator<CacheReference> it = sCaches.iterator(); it.hasNext(); ) {
+            final CacheReference reference = it.next();
+            if (reference.get() == null) {
+                sRetiredHits += reference.counters.hits;
+                sRetiredMisses += reference.counters.misses;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Moves the messages of the cache to the shared stack, as many as fit,
+     * and drops the rest.
+     */
+    private static void flush(LocalCache cache) {
+        final SimpleMessage head = cache.head;
+        SimpleMessage tail = cache.tail;
+        int size = cache.size;
+        cache.head = null;
+        cache.tail = null;
+        cache.size = 0;
+        final int room = sMaxSize - sSharedSize.get();
+        if (room <= 0) {
+            return;
+        }
+        if (size > room) {
+            tail = head;
+            for (int i = 1; i < room; i++) {
+                tail = tail.next;
+            }
+            tail.next = null;
+            size = room;
+        }
+        sSharedSize.addAndGet(size);
+        SimpleMessage first;
+        do {
+            first = sShared.get();
+            tail.next = first;
+        } while (!sShared.compareAndSet(first, head));
+    }
+
+    private static void takeShared(LocalCache cache) {
+        SimpleMessage p = sShared.getAndSet(null);
+        if (p == null) {
+            return;
+        }
+        cache.head = p;
+        int size = 1;
+        while (p.next != null) {
+            p = p.next;
+            size++;
+        }
+        cache.tail = p;
+        cache.size = size;
+        sSharedSize.addAndGet(-size);
+    }
+
+    private MessagePool() {
+    }
+}
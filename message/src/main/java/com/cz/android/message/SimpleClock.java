@@ -0,0 +1,50 @@
+package com.cz.android.message;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The monotonic time base of {@link SimpleMessageQueue}. It never jumps when
+ * the wall clock is changed, so a message's <em>when</em> can be turned into
+ * a deadline the looper can sleep until.
+ *
+ * <p>On Android both {@link System#nanoTime()} and
+ * {@link android.os.SystemClock#uptimeMillis()} read CLOCK_MONOTONIC, so the
+ * times you pass to {@link SimpleHandler#postAtTime(Runnable, long)} may come
+ * from either of them.
+ */
+public final class SimpleClock {
+    private static final long NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long MAX_MILLIS = Long.MAX_VALUE / NANOS_PER_MILLI;
+
+    /**
+     * Milliseconds in the same time base as {@link #uptimeNanos()}.
+     */
+    public static long uptimeMillis() {
+        return System.nanoTime() / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Nanoseconds of the monotonic clock, only meaningful as a difference.
+     */
+    public static long uptimeNanos() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Converts a time in {@link #uptimeMillis()} to the same instant in
+     * {@link #uptimeNanos()}, saturating at {@link Long#MAX_VALUE} for the
+     * ones that never come.
+     */
+    static long millisToNanos(long uptimeMillis) {
+        if (uptimeMillis >= MAX_MILLIS) {
+            return Long.MAX_VALUE;
+        }
+        if (uptimeMillis <= -MAX_MILLIS) {
+            return Long.MIN_VALUE;
+        }
+        return uptimeMillis * NANOS_PER_MILLI;
+    }
+
+    private SimpleClock() {
+    }
+}
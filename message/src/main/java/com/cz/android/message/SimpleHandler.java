@@ -16,7 +16,6 @@
 
 package com.cz.android.message;
 
-import android.os.SystemClock;
 import android.util.Log;
 import android.util.Printer;
 
@@ -252,12 +251,12 @@ public class SimpleHandler {
     /**
      * Causes the Runnable r to be added to the message queue, to be run
      * at a specific time given by <var>uptimeMillis</var>.
-     * <b>The time-base is {@link android.os.SystemClock#uptimeMillis}.</b>
+     * <b>The time-base is {@link SimpleClock#uptimeMillis}.</b>
      * The runnable will be run on the thread to which this handler is attached.
      *
      * @param r The Runnable that will be executed.
      * @param uptimeMillis The absolute time at which the callback should run,
-     *         using the {@link android.os.SystemClock#uptimeMillis} time-base.
+     *         using the {@link SimpleClock#uptimeMillis} time-base.
      *
      * @return Returns true if the Runnable was successfully placed in to the
      *         message queue.  Returns false on failure, usually because the
@@ -274,12 +273,12 @@ public class SimpleHandler {
     /**
      * Causes the Runnable r to be added to the message queue, to be run
      * at a specific time given by <var>uptimeMillis</var>.
-     * <b>The time-base is {@link android.os.SystemClock#uptimeMillis}.</b>
+     * <b>The time-base is {@link SimpleClock#uptimeMillis}.</b>
      * The runnable will be run on the thread to which this handler is attached.
      *
      * @param r The Runnable that will be executed.
      * @param uptimeMillis The absolute time at which the callback should run,
-     *         using the {@link android.os.SystemClock#uptimeMillis} time-base.
+     *         using the {@link SimpleClock#uptimeMillis} time-base.
      *
      * @return Returns true if the Runnable was successfully placed in to the
      *         message queue.  Returns false on failure, usually because the
@@ -288,7 +287,7 @@ public class SimpleHandler {
      *         the looper is quit before the delivery time of the message
      *         occurs then the message will be dropped.
      *
-     * @see android.os.SystemClock#uptimeMillis
+     * @see SimpleClock#uptimeMillis
      */
     public final boolean postAtTime(Runnable r, Object token, long uptimeMillis)
     {
@@ -428,19 +427,19 @@ public class SimpleHandler {
         if (delayMillis < 0) {
             delayMillis = 0;
         }
-        return sendMessageAtTime(msg, SystemClock.uptimeMillis() + delayMillis);
+        return sendMessageAtTime(msg, SimpleClock.uptimeMillis() + delayMillis);
     }
 
     /**
      * Enqueue a message into the message queue after all pending messages
      * before the absolute time (in milliseconds) <var>uptimeMillis</var>.
-     * <b>The time-base is {@link SystemClock#uptimeMillis}.</b>
+     * <b>The time-base is {@link SimpleClock#uptimeMillis}.</b>
      * You will receive it in {@link #handleMessage}, in the thread attached
      * to this handler.
      * 
      * @param uptimeMillis The absolute time at which the message should be
      *         delivered, using the
-     *         {@link SystemClock#uptimeMillis} time-base.
+     *         {@link SimpleClock#uptimeMillis} time-base.
      *         
      * @return Returns true if the message was successfully placed in to the 
      *         message queue.  Returns false on failure, usually because the
@@ -540,7 +539,7 @@ public class SimpleHandler {
     }
 
     public final void dump(Printer pw, String prefix) {
-        pw.println(prefix + this + " @ " + SystemClock.uptimeMillis());
+        pw.println(prefix + this + " @ " + SimpleClock.uptimeMillis());
         if (mLooper == null) {
             pw.println(prefix + "looper uninitialized");
         } else {
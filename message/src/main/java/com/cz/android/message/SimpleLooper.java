@@ -1,6 +1,5 @@
 package com.cz.android.message;
 
-import android.os.SystemClock;
 import android.util.Config;
 import android.util.Printer;
 
@@ -45,6 +44,32 @@ public class SimpleLooper {
     volatile boolean mRun;
     Thread mThread;
     private Printer mLogging = null;
+
+    /**
+     * Watches every message a looper dispatches.  Called on the looper's
+     * thread, so it adds to the time of each message: it should only count.
+     */
+    public interface Observer {
+        /**
+         * Called after <var>msg</var> was dispatched, before it is recycled.
+         * Don't keep it.
+         *
+         * @param delayNanos How long the message waited after it was due: after
+         * it was enqueued, or after its time if that was later.  -1 if it was
+         * enqueued before the observer was set.
+         * @param executionNanos How long its handler took.
+         * @param queueDepth The messages that were left in the queue.
+         */
+        void messageDispatched(SimpleMessage msg, long delayNanos, long executionNanos, int queueDepth);
+
+        /**
+         * Called after the queue ran its idle handlers.
+         *
+         * @param count How many idle handlers ran.
+         * @param nanos How long they took together.
+         */
+        void idleHandlersRan(int count, long nanos);
+    }
     
      /** Initialize the current thread as a looper.
       * This gives you a chance to create handlers that then reference
@@ -77,7 +102,12 @@ public class SimpleLooper {
                         ">>>>> Dispatching to " + msg.target + " "
                         + msg.callback + ": " + msg.what
                         );
-                msg.target.dispatchMessage(msg);
+                final Observer observer = queue.mObserver;
+                if (observer == null) {
+                    msg.target.dispatchMessage(msg);
+                } else {
+                    dispatchObserved(observer, queue, msg);
+                }
                 if (me.mLogging!= null) me.mLogging.println(
                         "<<<<< Finished to    " + msg.target + " "
                         + msg.callback);
@@ -86,6 +116,19 @@ public class SimpleLooper {
         }
     }
 
+    private static void dispatchObserved(Observer observer, SimpleMessageQueue queue, SimpleMessage msg) {
+        final long start = SimpleClock.uptimeNanos();
+        msg.target.dispatchMessage(msg);
+        final long end = SimpleClock.uptimeNanos();
+        long delay = -1;
+        if (msg.enqueueNanos != 0) {
+            final long due = Math.max(msg.enqueueNanos, SimpleClock.millisToNanos(msg.when));
+            // The time is in whole milliseconds, it may be due a little before now.
+            delay = Math.max(0, start - due);
+        }
+        observer.messageDispatched(msg, delay, end - start, queue.mDispatchDepth);
+    }
+
     /**
      * Return the Looper object associated with the current thread.  Returns
      * null if the calling thread is not associated with a Looper.
@@ -106,6 +149,17 @@ public class SimpleLooper {
     public void setMessageLogging(Printer printer) {
         mLogging = printer;
     }
+
+    /**
+     * Reports every message this looper dispatches to <var>observer</var>,
+     * for instance a {@link LooperStats}.  Without one the looper only checks
+     * for null.
+     *
+     * @param observer The observer, or null to stop observing.
+     */
+    public void setObserver(Observer observer) {
+        mQueue.mObserver = observer;
+    }
     
     /**
      * Return the {@link SimpleMessageQueue} object associated with the current
@@ -148,17 +202,14 @@ public class SimpleLooper {
         pw.println(prefix + "mThread=" + mThread);
         pw.println(prefix + "mQueue=" + ((mQueue != null) ? mQueue : "(null"));
         if (mQueue != null) {
-            synchronized (mQueue) {
-                long now = SystemClock.uptimeMillis();
-                SimpleMessage msg = mQueue.mMessages;
-                int n = 0;
-                while (msg != null) {
-                    pw.println(prefix + "  Message " + n + ": " + msg.toString(now));
-                    n++;
-                    msg = msg.next;
-                }
-                pw.println(prefix + "(Total messages: " + n + ")");
+            long now = SimpleClock.uptimeMillis();
+            SimpleMessage[] messages = mQueue.messagesInOrder();
+            int n = 0;
+            for (SimpleMessage msg : messages) {
+                pw.println(prefix + "  Message " + n + ": " + msg.toString(now));
+                n++;
             }
+            pw.println(prefix + "(Total messages: " + n + ")");
         }
     }
 
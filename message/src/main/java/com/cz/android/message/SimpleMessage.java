@@ -20,7 +20,6 @@ import android.os.Bundle;
 import android.os.Messenger;
 import android.os.Parcel;
 import android.os.Parcelable;
-import android.os.SystemClock;
 
 /**
  *
@@ -86,28 +85,52 @@ public final class SimpleMessage implements Parcelable {
     // sometimes we store linked lists of these things
     /*package*/ SimpleMessage next;
 
-    private static Object mPoolSync = new Object();
-    private static SimpleMessage mPool;
-    private static int mPoolSize = 0;
+    // Where the message sits in its queue's MessageHeap, and the lists of the
+    // queue's index it is linked in while it is queued.
+    /*package*/ long sequence;
+    /*package*/ int heapIndex;
+    /*package*/ SimpleMessage whatPrev;
+    /*package*/ SimpleMessage whatNext;
+    /*package*/ SimpleMessage callbackPrev;
+    /*package*/ SimpleMessage callbackNext;
 
-    private static final int MAX_POOL_SIZE = 10;
+    // When it was enqueued, only while the looper has an observer.
+    /*package*/ long enqueueNanos;
 
     /**
      * Return a new Message instance from the global pool. Allows us to
      * avoid allocating new objects in many cases.
      */
     public static SimpleMessage obtain() {
-        synchronized (mPoolSync) {
-            if (mPool != null) {
-                SimpleMessage m = mPool;
-                mPool = m.next;
-                m.next = null;
-                return m;
-            }
+        SimpleMessage m = MessagePool.obtain();
+        if (m != null) {
+            return m;
         }
         return new SimpleMessage();
     }
 
+    /**
+     * Sets how many recycled messages the threads share at most.  Each
+     * thread keeps a few more of its own.
+     */
+    public static void setMaxPoolSize(int maxPoolSize) {
+        MessagePool.setMaxSize(maxPoolSize);
+    }
+
+    /**
+     * Returns how many times {@link #obtain()} found a recycled message.
+     */
+    public static long getPoolHitCount() {
+        return MessagePool.hitCount();
+    }
+
+    /**
+     * Returns how many times {@link #obtain()} had to allocate a message.
+     */
+    public static long getPoolMissCount() {
+        return MessagePool.missCount();
+    }
+
     /**
      * Same as {@link #obtain()}, but copies the values of an existing
      * message (including its target) into the new one.
@@ -238,14 +261,8 @@ public final class SimpleMessage implements Parcelable {
      * freed.
      */
     public void recycle() {
-        synchronized (mPoolSync) {
-            if (mPoolSize < MAX_POOL_SIZE) {
-                clearForRecycle();
-
-                next = mPool;
-                mPool = this;
-            }
-        }
+        clearForRecycle();
+        MessagePool.recycle(this);
     }
 
     /**
@@ -360,6 +377,7 @@ public final class SimpleMessage implements Parcelable {
         target = null;
         callback = null;
         data = null;
+        enqueueNanos = 0;
     }
 
     /** Constructor (but the preferred way to get a Message is to call {@link #obtain() Message.obtain()}).
@@ -368,7 +386,7 @@ public final class SimpleMessage implements Parcelable {
     }
 
     public String toString() {
-        return toString(SystemClock.uptimeMillis());
+        return toString(SimpleClock.uptimeMillis());
     }
 
     String toString(long now) {
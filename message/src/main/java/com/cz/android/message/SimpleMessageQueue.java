@@ -17,11 +17,13 @@
 package com.cz.android.message;
 
 import android.os.Looper;
-import android.os.SystemClock;
 import android.util.AndroidRuntimeException;
 import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Low-level class holding the list of messages to be dispatched by a
@@ -32,11 +34,28 @@ import java.util.ArrayList;
  * {@link Looper#myQueue() Looper.myQueue()}.
  */
 public class SimpleMessageQueue {
-    SimpleMessage mMessages;
+    final MessageHeap mMessages = new MessageHeap();
     private final ArrayList<IdleHandler> mIdleHandlers = new ArrayList<IdleHandler>();
     private IdleHandler[] mPendingIdleHandlers;
-    private boolean mQuiting;
+    private volatile boolean mQuiting;
     boolean mQuitAllowed = true;
+
+    volatile SimpleLooper.Observer mObserver;
+    // The messages left behind the one next() returned last.
+    int mDispatchDepth;
+
+    // Messages that are due already, pushed by any thread without the lock.
+    // A stack linked through next, newest first.  Whoever holds the lock
+    // takes all of them at once and moves them to mMessages.  Once quitting
+    // it holds INBOX_CLOSED, and senders take the lock to be refused.
+    private final AtomicReference<SimpleMessage> mInbox = new AtomicReference<SimpleMessage>();
+    private static final SimpleMessage INBOX_CLOSED = new SimpleMessage();
+    final boolean mUseInbox;
+
+    // Indicates whether next() is parked waiting for a message, and who to
+    // unpark.  Whoever clears mBlocked unparks the thread.
+    private final AtomicBoolean mBlocked = new AtomicBoolean();
+    private volatile Thread mBlockedThread;
     /**
      * Callback interface for discovering when a thread is going to block
      * waiting for more messages.
@@ -85,6 +104,15 @@ public class SimpleMessageQueue {
     }
     
     SimpleMessageQueue() {
+        this(true);
+    }
+
+    /**
+     * @param useInbox false to take the lock for every message, as the queue
+     * did before it had the inbox.  Only benchmarks want that.
+     */
+    SimpleMessageQueue(boolean useInbox) {
+        mUseInbox = useInbox;
     }
     
     @Override
@@ -94,29 +122,50 @@ public class SimpleMessageQueue {
 
     final SimpleMessage next() {
         int pendingIdleHandlerCount = -1; // -1 only during first iteration
-        int nextPollTimeoutMillis = 0;
+        long nextPollTimeoutNanos = 0;
 
         for (;;) {
+            if (nextPollTimeoutNanos != 0 && hasInboxMessages()) {
+                // A message was pushed after we looked.  Either we see it
+                // here, or its sender saw mBlocked and unparks us.
+                mBlocked.set(false);
+            } else if (nextPollTimeoutNanos < 0) {
+                // Nothing to do until enqueueMessage() wakes us up.
+                LockSupport.park(this);
+            } else if (nextPollTimeoutNanos > 0) {
+                LockSupport.parkNanos(this, nextPollTimeoutNanos);
+            }
+
             synchronized (this) {
+                drainInbox();
                 // Try to retrieve the next message.  Return if found.
-                final long now = SystemClock.uptimeMillis();
-                final SimpleMessage msg = mMessages;
+                final long now = SimpleClock.uptimeNanos();
+                final SimpleMessage msg = mMessages.peek();
                 if (msg != null) {
-                    final long when = msg.when;
-                    if (now >= when) {
-                        mMessages = msg.next;
-                        msg.next = null;
+                    final long when = SimpleClock.millisToNanos(msg.when);
+                    if (msg.when == 0 || now >= when) {
+                        if (mBlocked.get()) {
+                            mBlocked.set(false);
+                        }
+                        mMessages.poll();
+                        mDispatchDepth = mMessages.size();
                         return msg;
                     }
+                    // Next message is not ready.  Sleep until it is.
+                    nextPollTimeoutNanos = when - now;
+                } else {
+                    // No more messages.
+                    nextPollTimeoutNanos = -1;
                 }
 
-                Log.v("MessageQueue", "Returning message: " + msg);
                 // If first time, then get the number of idlers to run.
                 if (pendingIdleHandlerCount < 0) {
                     pendingIdleHandlerCount = mIdleHandlers.size();
                 }
                 if (pendingIdleHandlerCount == 0) {
                     // No idle handlers to run.  Loop and wait some more.
+                    mBlockedThread = Thread.currentThread();
+                    mBlocked.set(true);
                     continue;
                 }
 
@@ -128,6 +177,8 @@ public class SimpleMessageQueue {
 
             // Run the idle handlers.
             // We only ever reach this code block during the first iteration.
+            final SimpleLooper.Observer observer = mObserver;
+            final long idleStart = observer != null ? SimpleClock.uptimeNanos() : 0;
             for (int i = 0; i < pendingIdleHandlerCount; i++) {
                 final IdleHandler idler = mPendingIdleHandlers[i];
                 mPendingIdleHandlers[i] = null; // release the reference to the handler
@@ -146,8 +197,16 @@ public class SimpleMessageQueue {
                 }
             }
 
+            if (observer != null) {
+                observer.idleHandlersRan(pendingIdleHandlerCount, SimpleClock.uptimeNanos() - idleStart);
+            }
+
             // Reset the idle handler count to 0 so we do not run them again.
             pendingIdleHandlerCount = 0;
+
+            // While calling an idle handler, a new message could have been delivered
+            // so go back and look again for a pending message without waiting.
+            nextPollTimeoutNanos = 0;
         }
     }
 
@@ -159,70 +218,128 @@ public class SimpleMessageQueue {
         if (msg.target == null && !mQuitAllowed) {
             throw new RuntimeException("Main thread not allowed to quit");
         }
+        if (mObserver != null) {
+            msg.enqueueNanos = SimpleClock.uptimeNanos();
+        }
+        if (mUseInbox && msg.target != null && when != 0 && !mQuiting
+                && when <= SimpleClock.uptimeMillis()) {
+            // Due already, so the looper has to take it the next time it
+            // looks: no need to take the lock, next() sorts it in then.
+            msg.when = when;
+            SimpleMessage head;
+            do {
+                head = mInbox.get();
+                if (head == INBOX_CLOSED) {
+                    break;
+                }
+                msg.next = head;
+            } while (!mInbox.compareAndSet(head, msg));
+            if (head != INBOX_CLOSED) {
+                wake();
+                return true;
+            }
+            // quit() closed the inbox after we looked at mQuiting, the
+            // locked path refuses the message.
+            msg.next = null;
+            msg.when = 0;
+        }
+
+        final boolean needWake;
         synchronized (this) {
             if (mQuiting) {
                 RuntimeException e = new RuntimeException(
                     msg.target + " sending message to a Handler on a dead thread");
                 Log.w("MessageQueue", e.getMessage(), e);
                 return false;
-            } else if (msg.target == null) {
-                mQuiting = true;
             }
 
             msg.when = when;
             //Log.d("MessageQueue", "Enqueing: " + msg);
-            SimpleMessage p = mMessages;
-            if (p == null || when == 0 || when < p.when) {
-                msg.next = p;
-                mMessages = msg;
+            // The inbox holds messages sent before this one, they go first
+            // when their time is the same.
+            if (msg.target == null) {
+                mQuiting = true;
+                // A sender that saw mQuiting false may still be pushing.  It
+                // either got in before this and is treated like any message
+                // sent before quit(), or it sees the inbox closed.
+                moveToMessages(mInbox.getAndSet(INBOX_CLOSED));
             } else {
-                SimpleMessage prev = null;
-                while (p != null && p.when <= when) {
-                    prev = p;
-                    p = p.next;
-                }
-                msg.next = prev.next;
-                prev.next = msg;
+                drainInbox();
             }
+            mMessages.add(msg);
+            // Wake up the event queue if blocked and the message is the new
+            // head.  Behind the head the looper is sleeping until an earlier
+            // deadline anyway.
+            needWake = mMessages.peek() == msg;
+        }
+        if (needWake) {
+            wake();
         }
         return true;
     }
 
+    private void wake() {
+        // Only the first one unparks it, the looper sets the flag again
+        // before it parks the next time.
+        if (mBlocked.get() && mBlocked.compareAndSet(true, false)) {
+            LockSupport.unpark(mBlockedThread);
+        }
+    }
+
+    /**
+     * Moves the messages of the inbox into mMessages, in the order they were
+     * pushed.  Called with the lock held.
+     */
+    private void drainInbox() {
+        if (hasInboxMessages()) {
+            // Only quit() closes the inbox, and it holds the lock as well.
+            moveToMessages(mInbox.getAndSet(null));
+        }
+    }
+
+    private boolean hasInboxMessages() {
+        final SimpleMessage head = mInbox.get();
+        return head != null && head != INBOX_CLOSED;
+    }
+
+    /**
+     * Adds a stack taken from the inbox to mMessages, oldest first.  Called
+     * with the lock held.
+     */
+    private void moveToMessages(SimpleMessage p) {
+        if (p == INBOX_CLOSED) {
+            return;
+        }
+        SimpleMessage reversed = null;
+        while (p != null) {
+            final SimpleMessage n = p.next;
+            p.next = reversed;
+            reversed = p;
+            p = n;
+        }
+        while (reversed != null) {
+            final SimpleMessage n = reversed.next;
+            reversed.next = null;
+            mMessages.add(reversed);
+            reversed = n;
+        }
+    }
+
+    /**
+     * Returns the queued messages in the order they are due, for dump().
+     */
+    final SimpleMessage[] messagesInOrder() {
+        synchronized (this) {
+            drainInbox();
+            return mMessages.toSortedArray();
+        }
+    }
+
     final boolean removeMessages(SimpleHandler h, int what, Object object,
                                  boolean doRemove) {
         synchronized (this) {
-            SimpleMessage p = mMessages;
-            boolean found = false;
-
-            // Remove all messages at front.
-            while (p != null && p.target == h && p.what == what
-                   && (object == null || p.obj == object)) {
-                if (!doRemove) return true;
-                found = true;
-                SimpleMessage n = p.next;
-                mMessages = n;
-                p.recycle();
-                p = n;
-            }
-
-            // Remove all messages after front.
-            while (p != null) {
-                SimpleMessage n = p.next;
-                if (n != null) {
-                    if (n.target == h && n.what == what
-                        && (object == null || n.obj == object)) {
-                        if (!doRemove) return true;
-                        found = true;
-                        SimpleMessage nn = n.next;
-                        n.recycle();
-                        p.next = nn;
-                        continue;
-                    }
-                }
-                p = n;
-            }
-            
-            return found;
+            drainInbox();
+            return mMessages.removeMessages(h, what, object, doRemove);
         }
     }
 
@@ -232,60 +349,15 @@ public class SimpleMessageQueue {
         }
 
         synchronized (this) {
-            SimpleMessage p = mMessages;
-
-            // Remove all messages at front.
-            while (p != null && p.target == h && p.callback == r
-                   && (object == null || p.obj == object)) {
-                SimpleMessage n = p.next;
-                mMessages = n;
-                p.recycle();
-                p = n;
-            }
-
-            // Remove all messages after front.
-            while (p != null) {
-                SimpleMessage n = p.next;
-                if (n != null) {
-                    if (n.target == h && n.callback == r
-                        && (object == null || n.obj == object)) {
-                        SimpleMessage nn = n.next;
-                        n.recycle();
-                        p.next = nn;
-                        continue;
-                    }
-                }
-                p = n;
-            }
+            drainInbox();
+            mMessages.removeMessages(h, r, object);
         }
     }
 
     final void removeCallbacksAndMessages(SimpleHandler h, Object object) {
         synchronized (this) {
-            SimpleMessage p = mMessages;
-
-            // Remove all messages at front.
-            while (p != null && p.target == h
-                    && (object == null || p.obj == object)) {
-                SimpleMessage n = p.next;
-                mMessages = n;
-                p.recycle();
-                p = n;
-            }
-
-            // Remove all messages after front.
-            while (p != null) {
-                SimpleMessage n = p.next;
-                if (n != null) {
-                    if (n.target == h && (object == null || n.obj == object)) {
-                        SimpleMessage nn = n.next;
-                        n.recycle();
-                        p.next = nn;
-                        continue;
-                    }
-                }
-                p = n;
-            }
+            drainInbox();
+            mMessages.removeCallbacksAndMessages(h, object);
         }
     }
 }
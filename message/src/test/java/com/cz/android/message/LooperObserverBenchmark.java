@@ -0,0 +1,222 @@
+package com.cz.android.message;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs a chain of messages, each one sending the next, through
+ * {@link SimpleLooper#loop()} without an observer and with a
+ * {@link LooperStats}, and through a copy of the loop from before it had
+ * observers. Without an observer it should cost what the old loop did.
+ */
+public class LooperObserverBenchmark {
+    private static final int MESSAGE_COUNT = 1 << 21;
+    private static final int ROUNDS = 5;
+
+    private static final int LEGACY = 0;
+    private static final int NO_OBSERVER = 1;
+    private static final int STATS = 2;
+    private static final String[] NAMES = {"loop before observers", "no observer", "LooperStats"};
+
+    @Test
+    public void disabledObserverCostsABranch() throws InterruptedException {
+        // Warm up, so the JIT compiled all of them before we measure.
+        for (int mode = 0; mode < NAMES.length; mode++) {
+            run(mode, MESSAGE_COUNT / 4);
+        }
+        long[] best = {Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE};
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int mode = 0; mode < NAMES.length; mode++) {
+                best[mode] = Math.min(best[mode], run(mode, MESSAGE_COUNT));
+            }
+        }
+        System.out.println("looper                  ns/message (best of " + ROUNDS + ")");
+        for (int mode = 0; mode < NAMES.length; mode++) {
+            System.out.println(String.format("%-23s %10.1f", NAMES[mode], best[mode] / (double) MESSAGE_COUNT));
+        }
+    }
+
+    @Test
+    public void slowDispatchIsCaptured() throws InterruptedException {
+        SimpleLooper looper = startLooper();
+        LooperStats stats = new LooperStats(10);
+        looper.setObserver(stats);
+        SimpleHandler handler = new SimpleHandler(looper);
+        final CountDownLatch done = new CountDownLatch(1);
+        Runnable slow = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(30);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+        handler.post(slow);
+        handler.sendEmptyMessage(7);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        quitAndJoin(looper);
+
+        System.out.println("Execution(ns):" + stats.getExecutionNanos() + " delay(ns):" + stats.getDelayNanos()
+                + " depth:" + stats.getQueueDepth());
+        assertEquals(4, stats.getExecutionNanos().getCount());
+        assertEquals(4, stats.getDelayNanos().getCount());
+        // The second message waited behind the first at least as long as the slow one took.
+        assertTrue(stats.getDelayNanos().getMax() >= TimeUnit.MILLISECONDS.toNanos(30));
+        assertEquals(1, stats.getSlowDispatchCount());
+        List<LooperStats.SlowDispatch> slowDispatches = stats.getSlowDispatches();
+        assertEquals(1, slowDispatches.size());
+        LooperStats.SlowDispatch slowDispatch = slowDispatches.get(0);
+        System.out.println("Slow dispatch:" + slowDispatch);
+        assertEquals(SimpleHandler.class, slowDispatch.targetClass);
+        assertEquals(slow.getClass(), slowDispatch.callbackClass);
+        assertTrue(slowDispatch.executionNanos >= TimeUnit.MILLISECONDS.toNanos(30));
+    }
+
+    @Test
+    public void idleHandlersAreTimed() throws InterruptedException {
+        SimpleLooper looper = startLooper();
+        LooperStats stats = new LooperStats(0);
+        looper.setObserver(stats);
+        final CountDownLatch idle = new CountDownLatch(1);
+        looper.getQueue().addIdleHandler(new SimpleMessageQueue.IdleHandler() {
+            @Override
+            public boolean queueIdle() {
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                idle.countDown();
+                return false;
+            }
+        });
+        // Wake the looper, so it goes idle again after the message.
+        new SimpleHandler(looper).sendEmptyMessage(1);
+        assertTrue(idle.await(1, TimeUnit.SECONDS));
+        quitAndJoin(looper);
+        System.out.println("Idle(ns):" + stats.getIdleNanos());
+        assertEquals(1, stats.getIdleNanos().getCount());
+        assertTrue(stats.getIdleNanos().getMax() >= TimeUnit.MILLISECONDS.toNanos(5));
+        assertEquals(0, stats.getSlowDispatchCount());
+    }
+
+    @Test
+    public void histogramPercentiles() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getPercentile(99));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500500, histogram.getSum());
+        assertEquals(1000, histogram.getMax());
+        // 500 is in the bucket from 256 to 511, 990 in the last one, which ends at the max.
+        assertEquals(511, histogram.getPercentile(50));
+        assertEquals(1000, histogram.getPercentile(99));
+        assertEquals(1, histogram.getPercentile(0));
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+    }
+
+    /**
+     * Returns how long the chain of messages took.
+     */
+    private static long run(final int mode, final int count) throws InterruptedException {
+        final SimpleLooper[] looper = new SimpleLooper[1];
+        final CountDownLatch prepared = new CountDownLatch(1);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                SimpleLooper.prepare();
+                looper[0] = SimpleLooper.myLooper();
+                if (mode == STATS) {
+                    looper[0].setObserver(new LooperStats(0));
+                }
+                prepared.countDown();
+                if (mode == LEGACY) {
+                    legacyLoop(looper[0].getQueue());
+                } else {
+                    SimpleLooper.loop();
+                }
+            }
+        }, "SimpleLooper");
+        thread.start();
+        prepared.await();
+        final CountDownLatch done = new CountDownLatch(1);
+        final SimpleHandler handler = new SimpleHandler(looper[0]) {
+            @Override
+            public void handleMessage(SimpleMessage msg) {
+                if (msg.what < count) {
+                    sendEmptyMessage(msg.what + 1);
+                } else {
+                    done.countDown();
+                }
+            }
+        };
+        long st = System.nanoTime();
+        handler.sendEmptyMessage(1);
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        long elapsed = System.nanoTime() - st;
+        quitAndJoin(looper[0]);
+        return elapsed;
+    }
+
+    /**
+     * {@link SimpleLooper#loop()} before it had observers, without logging.
+     */
+    private static void legacyLoop(SimpleMessageQueue queue) {
+        while (true) {
+            SimpleMessage msg = queue.next(); // might block
+            if (msg != null) {
+                if (msg.target == null) {
+                    return;
+                }
+                msg.target.dispatchMessage(msg);
+                msg.recycle();
+            }
+        }
+    }
+
+    private static SimpleLooper startLooper() throws InterruptedException {
+        final SimpleLooper[] looper = new SimpleLooper[1];
+        final CountDownLatch prepared = new CountDownLatch(1);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                SimpleLooper.prepare();
+                looper[0] = SimpleLooper.myLooper();
+                prepared.countDown();
+                SimpleLooper.loop();
+            }
+        }, "SimpleLooper");
+        thread.start();
+        prepared.await();
+        return looper[0];
+    }
+
+    private static void quitAndJoin(SimpleLooper looper) throws InterruptedException {
+        looper.quit();
+        looper.getThread().join(1000);
+        assertFalse("The looper did not quit", looper.getThread().isAlive());
+    }
+}
@@ -0,0 +1,279 @@
+package com.cz.android.message;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Messages obtained on the senders' threads and recycled on the looper's go
+ * back to the senders through the pool, so a steady stream of messages
+ * allocates nothing while the messages in flight fit in the pool.
+ */
+public class MessagePoolTest {
+    private static final int MESSAGES_PER_SECOND = 1000000;
+    // Sent in bursts, the shortest park is some tens of microseconds.
+    private static final long BURST_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final int MESSAGES_PER_BURST = (int) (MESSAGES_PER_SECOND * BURST_NANOS / TimeUnit.SECONDS.toNanos(1));
+
+    /**
+     * One sender at 1M messages per second for a second, after a second to
+     * warm up. The sender waits for the looper after every burst, so no more
+     * than a burst is in flight and the pool always has the messages the
+     * sender needs. The sender and the looper may allocate a few bytes per
+     * thousand messages, for the heap and the index growing.
+     */
+    @Test
+    public void steadyStreamAllocatesNothing() throws InterruptedException {
+        SimpleLooper looper = startLooper();
+        try {
+            long[] stats = stream(looper, true);
+            long sent = stats[0];
+            assertTrue("The sender allocated " + stats[1] + "B", stats[1] < sent / 100);
+            assertTrue("The looper allocated " + stats[2] + "B", stats[2] < sent / 100);
+            assertTrue("The pool missed " + stats[4] + " times", stats[4] < sent / 1000);
+        } finally {
+            quitAndJoin(looper);
+        }
+    }
+
+    /**
+     * The same stream without waiting for the looper. When the looper's
+     * thread is descheduled for a few milliseconds thousands of messages are
+     * in flight, more than the pool holds, and the sender allocates until
+     * the looper catches up. That depends on the scheduler, so this only
+     * prints how much and checks every message arrives.
+     */
+    @Test
+    public void freeRunningStream() throws InterruptedException {
+        SimpleMessage.setMaxPoolSize(MESSAGES_PER_SECOND / 64);
+        SimpleLooper looper = startLooper();
+        try {
+            stream(looper, false);
+        } finally {
+            quitAndJoin(looper);
+            SimpleMessage.setMaxPoolSize(MessagePool.DEFAULT_MAX_SIZE);
+        }
+    }
+
+    /**
+     * Sends for a second to warm up, then for a second measured. Returns the
+     * messages sent, the bytes allocated by the sender and by the looper,
+     * and the pool's hits and misses, all of the measured second.
+     */
+    private long[] stream(SimpleLooper looper, boolean lockstep) throws InterruptedException {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        final AtomicInteger received = new AtomicInteger();
+        SimpleHandler handler = new SimpleHandler(looper) {
+            @Override
+            public void handleMessage(SimpleMessage msg) {
+                received.lazySet(received.get() + 1);
+            }
+        };
+        send(handler, 1000, lockstep ? received : null);
+        long hits = SimpleMessage.getPoolHitCount();
+        long misses = SimpleMessage.getPoolMissCount();
+        long senderBytes = allocatedBytes(threadMXBean, Thread.currentThread());
+        long looperBytes = allocatedBytes(threadMXBean, looper.getThread());
+        long st = System.nanoTime();
+        int sent = send(handler, 1000, lockstep ? received : null);
+        long elapsed = System.nanoTime() - st;
+        senderBytes = allocatedBytes(threadMXBean, Thread.currentThread()) - senderBytes;
+        looperBytes = allocatedBytes(threadMXBean, looper.getThread()) - looperBytes;
+        hits = SimpleMessage.getPoolHitCount() - hits;
+        misses = SimpleMessage.getPoolMissCount() - misses;
+        System.out.println((lockstep ? "Lockstep: sent " : "Free running: sent ") + sent
+                + " messages in(ms):" + elapsed / 1000000
+                + " sender allocated(B):" + senderBytes + " looper allocated(B):" + looperBytes
+                + " pool hits:" + hits + " misses:" + misses);
+
+        final CountDownLatch done = new CountDownLatch(1);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(2 * sent, received.get());
+        return new long[]{sent, senderBytes, looperBytes, hits, misses};
+    }
+
+    /**
+     * Every message is handed out once at a time: a sender numbers its
+     * messages, and the looper must see each number once, in order, while
+     * other senders recycle and obtain the same messages.
+     */
+    @Test
+    public void messagesAreNotSharedBetweenThreads() throws InterruptedException {
+        final int senders = 4;
+        final int count = 200000;
+        SimpleLooper looper = startLooper();
+        final int[] next = new int[senders];
+        final boolean[] failed = new boolean[1];
+        final SimpleHandler handler = new SimpleHandler(looper) {
+            @Override
+            public void handleMessage(SimpleMessage msg) {
+                if (msg.arg2 != next[msg.arg1]++) {
+                    failed[0] = true;
+                }
+            }
+        };
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            Thread[] threads = new Thread[senders];
+            for (int s = 0; s < senders; s++) {
+                final int sender = s;
+                threads[s] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        for (int i = 0; i < count; i++) {
+                            SimpleMessage msg = SimpleMessage.obtain(handler, 0, sender, i);
+                            assertEquals(0, msg.when);
+                            handler.sendMessage(msg);
+                            // Recycle some on this thread as well.
+                            SimpleMessage.obtain().recycle();
+                        }
+                    }
+                });
+                threads[s].start();
+            }
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            final CountDownLatch done = new CountDownLatch(1);
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    done.countDown();
+                }
+            });
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertFalse("A message was handed out twice", failed[0]);
+            for (int s = 0; s < senders; s++) {
+                assertEquals(count, next[s]);
+            }
+        } finally {
+            quitAndJoin(looper);
+        }
+    }
+
+    /**
+     * With no room in the shared stack a full cache drops its messages, and
+     * obtain() allocates once the cache is empty.
+     */
+    @Test
+    public void fullPoolDropsMessages() {
+        SimpleMessage.setMaxPoolSize(0);
+        try {
+            // Empty this thread's cache and the shared stack.
+            while (MessagePool.obtain() != null) {
+            }
+            for (int i = 0; i <= MessagePool.LOCAL_CAPACITY; i++) {
+                new SimpleMessage().recycle();
+            }
+            long hits = SimpleMessage.getPoolHitCount();
+            long misses = SimpleMessage.getPoolMissCount();
+            // The last one is left, the others had nowhere to go.
+            assertTrue(MessagePool.obtain() != null);
+            assertTrue(MessagePool.obtain() == null);
+            assertEquals(hits + 1, SimpleMessage.getPoolHitCount());
+            assertEquals(misses + 1, SimpleMessage.getPoolMissCount());
+        } finally {
+            SimpleMessage.setMaxPoolSize(MessagePool.DEFAULT_MAX_SIZE);
+        }
+    }
+
+    /**
+     * With some room left in the shared stack a full cache pushes as many
+     * messages as fit, instead of dropping all of them.
+     */
+    @Test
+    public void fullCacheKeepsWhatFits() {
+        SimpleMessage.setMaxPoolSize(10);
+        try {
+            while (MessagePool.obtain() != null) {
+            }
+            for (int i = 0; i <= MessagePool.LOCAL_CAPACITY; i++) {
+                new SimpleMessage().recycle();
+            }
+            long hits = SimpleMessage.getPoolHitCount();
+            // The last one is left in the cache, 10 of the others in the shared stack.
+            int obtained = 0;
+            while (MessagePool.obtain() != null) {
+                obtained++;
+            }
+            assertEquals(11, obtained);
+            assertEquals(hits + 11, SimpleMessage.getPoolHitCount());
+        } finally {
+            SimpleMessage.setMaxPoolSize(MessagePool.DEFAULT_MAX_SIZE);
+        }
+    }
+
+    /**
+     * Sends MESSAGES_PER_SECOND for the milliseconds, returns how many. With
+     * a received counter, waits after each burst until the looper handled it.
+     */
+    private static int send(SimpleHandler handler, int millis, AtomicInteger received) {
+        final int before = received == null ? 0 : received.get();
+        long next = System.nanoTime();
+        int sent = 0;
+        final long bursts = TimeUnit.MILLISECONDS.toNanos(millis) / BURST_NANOS;
+        for (long i = 0; i < bursts; i++) {
+            for (int j = 0; j < MESSAGES_PER_BURST; j++) {
+                handler.sendMessage(SimpleMessage.obtain(handler, j));
+                sent++;
+            }
+            while (received != null && received.get() - before < sent) {
+                LockSupport.parkNanos(10000);
+            }
+            next += BURST_NANOS;
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+        return sent;
+    }
+
+    private static long allocatedBytes(ThreadMXBean threadMXBean, Thread thread) {
+        return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(thread.getId());
+    }
+
+    private static SimpleLooper startLooper() throws InterruptedException {
+        final SimpleLooper[] looper = new SimpleLooper[1];
+        final CountDownLatch prepared = new CountDownLatch(1);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                SimpleLooper.prepare();
+                looper[0] = SimpleLooper.myLooper();
+                prepared.countDown();
+                SimpleLooper.loop();
+            }
+        }, "SimpleLooper");
+        thread.start();
+        prepared.await();
+        return looper[0];
+    }
+
+    private static void quitAndJoin(SimpleLooper looper) throws InterruptedException {
+        looper.quit();
+        looper.getThread().join(1000);
+        assertFalse("The looper did not quit", looper.getThread().isAlive());
+    }
+}
@@ -0,0 +1,338 @@
+package com.cz.android.message;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Posts and cancels delayed messages on {@link SimpleMessageQueue} and on the
+ * sorted linked list it used before, which is copied below as
+ * {@link LinkedMessageQueue}. The linked list walks half the queue for every
+ * post and all of it for every cancel, so it only gets the smaller rounds.
+ */
+public class MessageQueueBenchmark {
+    private static final int MESSAGE_COUNT = 100000;
+    private static final int LINKED_MESSAGE_COUNT = 10000;
+    private static final long MAX_DELAY = 60 * 1000;
+    private static final int WHAT_COUNT = 100;
+
+    private static SimpleHandler handler() {
+        if (SimpleLooper.myLooper() == null) {
+            SimpleLooper.prepare();
+        }
+        return new SimpleHandler(SimpleLooper.myLooper());
+    }
+
+    @Test
+    public void postAndCancelCallbacks() {
+        SimpleHandler handler = handler();
+        // Warm up, so the JIT compiled both of them before we measure.
+        for (int i = 0; i < 3; i++) {
+            postAndCancelCallbacks(handler, new HeapQueue(), LINKED_MESSAGE_COUNT, false);
+            postAndCancelCallbacks(handler, new LinkedMessageQueue(), LINKED_MESSAGE_COUNT / 10, false);
+        }
+        System.out.println("post and removeCallbacks(r)   messages  post(ns)  cancel(ns)");
+        postAndCancelCallbacks(handler, new LinkedMessageQueue(), LINKED_MESSAGE_COUNT, true);
+        postAndCancelCallbacks(handler, new HeapQueue(), LINKED_MESSAGE_COUNT, true);
+        postAndCancelCallbacks(handler, new HeapQueue(), MESSAGE_COUNT, true);
+    }
+
+    @Test
+    public void postAndRemoveMessages() {
+        SimpleHandler handler = handler();
+        for (int i = 0; i < 3; i++) {
+            postAndRemoveMessages(handler, new HeapQueue(), LINKED_MESSAGE_COUNT, false);
+            postAndRemoveMessages(handler, new LinkedMessageQueue(), LINKED_MESSAGE_COUNT / 10, false);
+        }
+        System.out.println("post and removeMessages(what) messages  post(ns)  cancel(ns)");
+        postAndRemoveMessages(handler, new LinkedMessageQueue(), LINKED_MESSAGE_COUNT, true);
+        postAndRemoveMessages(handler, new HeapQueue(), LINKED_MESSAGE_COUNT, true);
+        postAndRemoveMessages(handler, new HeapQueue(), MESSAGE_COUNT, true);
+    }
+
+    /**
+     * Random posts, front posts, ties and removals must leave both queues
+     * with the same messages in the same order.
+     */
+    @Test
+    public void heapKeepsLinkedListOrder() {
+        SimpleHandler[] handlers = {handler(), handler()};
+        Runnable[] callbacks = new Runnable[4];
+        for (int i = 0; i < callbacks.length; i++) {
+            callbacks[i] = new Runnable() {
+                @Override
+                public void run() {
+                }
+            };
+        }
+        Object[] objects = {null, new Object(), new Object()};
+        Random random = new Random(1);
+        HeapQueue heap = new HeapQueue();
+        LinkedMessageQueue linked = new LinkedMessageQueue();
+        for (int i = 0; i < 20000; i++) {
+            SimpleHandler h = handlers[random.nextInt(handlers.length)];
+            int what = random.nextInt(5);
+            Runnable r = random.nextInt(3) == 0 ? callbacks[random.nextInt(callbacks.length)] : null;
+            Object obj = objects[random.nextInt(objects.length)];
+            switch (random.nextInt(40)) {
+                case 0:
+                    assertEquals(linked.removeMessages(h, what, obj, false), heap.removeMessages(h, what, obj, false));
+                    break;
+                case 1:
+                    assertEquals(linked.removeMessages(h, what, obj, true), heap.removeMessages(h, what, obj, true));
+                    break;
+                case 2:
+                    linked.removeMessages(h, callbacks[what % callbacks.length], obj);
+                    heap.removeMessages(h, callbacks[what % callbacks.length], obj);
+                    break;
+                case 3:
+                    if (random.nextInt(20) == 0) {
+                        linked.removeCallbacksAndMessages(h, obj);
+                        heap.removeCallbacksAndMessages(h, obj);
+                    }
+                    break;
+                default:
+                    // A few distinct times, so there are many ties, and the front of the queue.
+                    long when = random.nextInt(4) == 0 ? 0 : 1 + random.nextInt(50);
+                    linked.enqueue(message(h, what, r, obj, i), when);
+                    heap.enqueue(message(h, what, r, obj, i), when);
+                    break;
+            }
+        }
+        List<Integer> expected = linked.drain();
+        List<Integer> actual = heap.drain();
+        System.out.println("Messages left after the random operations:" + actual.size());
+        assertEquals(expected, actual);
+    }
+
+    private static SimpleMessage message(SimpleHandler h, int what, Runnable r, Object obj, int id) {
+        SimpleMessage msg = r != null ? SimpleMessage.obtain(h, r) : SimpleMessage.obtain(h, what);
+        msg.what = what;
+        msg.obj = obj;
+        msg.arg1 = id;
+        return msg;
+    }
+
+    private static void postAndCancelCallbacks(SimpleHandler handler, Queue queue, int count, boolean report) {
+        Random random = new Random(count);
+        Runnable[] callbacks = new Runnable[count];
+        for (int i = 0; i < count; i++) {
+            callbacks[i] = new Runnable() {
+                @Override
+                public void run() {
+                }
+            };
+        }
+        long now = SimpleClock.uptimeMillis();
+        long st = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            queue.enqueue(SimpleMessage.obtain(handler, callbacks[i]), now + 1 + random.nextInt((int) MAX_DELAY));
+        }
+        long postNs = System.nanoTime() - st;
+        st = System.nanoTime();
+        for (int i = count - 1; i >= 0; i--) {
+            queue.removeMessages(handler, callbacks[i], null);
+        }
+        long cancelNs = System.nanoTime() - st;
+        assertEquals(0, queue.drain().size());
+        if (report) {
+            report(queue, count, postNs, cancelNs);
+        }
+    }
+
+    private static void postAndRemoveMessages(SimpleHandler handler, Queue queue, int count, boolean report) {
+        Random random = new Random(count);
+        long now = SimpleClock.uptimeMillis();
+        long st = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            queue.enqueue(SimpleMessage.obtain(handler, i % WHAT_COUNT), now + 1 + random.nextInt((int) MAX_DELAY));
+        }
+        long postNs = System.nanoTime() - st;
+        st = System.nanoTime();
+        for (int what = 0; what < WHAT_COUNT; what++) {
+            if (queue.removeMessages(handler, what, null, false)) {
+                queue.removeMessages(handler, what, null, true);
+            }
+        }
+        long cancelNs = System.nanoTime() - st;
+        assertEquals(0, queue.drain().size());
+        if (report) {
+            report(queue, count, postNs, cancelNs);
+        }
+    }
+
+    private static void report(Queue queue, int count, long postNs, long cancelNs) {
+        System.out.println(String.format("%-29s %8d %9d %11d", queue.getClass().getSimpleName(), count,
+                postNs / count, cancelNs / count));
+    }
+
+    interface Queue {
+        void enqueue(SimpleMessage msg, long when);
+
+        boolean removeMessages(SimpleHandler h, int what, Object object, boolean doRemove);
+
+        void removeMessages(SimpleHandler h, Runnable r, Object object);
+
+        void removeCallbacksAndMessages(SimpleHandler h, Object object);
+
+        /**
+         * Removes everything in order, and returns the arg1 of each message.
+         */
+        List<Integer> drain();
+    }
+
+    static final class HeapQueue implements Queue {
+        private final SimpleMessageQueue queue = new SimpleMessageQueue();
+
+        @Override
+        public void enqueue(SimpleMessage msg, long when) {
+            queue.enqueueMessage(msg, when);
+        }
+
+        @Override
+        public boolean removeMessages(SimpleHandler h, int what, Object object, boolean doRemove) {
+            return queue.removeMessages(h, what, object, doRemove);
+        }
+
+        @Override
+        public void removeMessages(SimpleHandler h, Runnable r, Object object) {
+            queue.removeMessages(h, r, object);
+        }
+
+        @Override
+        public void removeCallbacksAndMessages(SimpleHandler h, Object object) {
+            queue.removeCallbacksAndMessages(h, object);
+        }
+
+        @Override
+        public List<Integer> drain() {
+            List<Integer> ids = new ArrayList<Integer>();
+            // The ones that are due already wait in the inbox, this sorts them in.
+            for (SimpleMessage msg : queue.messagesInOrder()) {
+                ids.add(msg.arg1);
+            }
+            return ids;
+        }
+    }
+
+    /**
+     * The sorted linked list {@link SimpleMessageQueue} kept before.
+     */
+    static final class LinkedMessageQueue implements Queue {
+        private SimpleMessage mMessages;
+
+        @Override
+        public void enqueue(SimpleMessage msg, long when) {
+            msg.when = when;
+            SimpleMessage p = mMessages;
+            if (p == null || when == 0 || when < p.when) {
+                msg.next = p;
+                mMessages = msg;
+            } else {
+                SimpleMessage prev = null;
+                while (p != null && p.when <= when) {
+                    prev = p;
+                    p = p.next;
+                }
+                msg.next = prev.next;
+                prev.next = msg;
+            }
+        }
+
+        @Override
+        public boolean removeMessages(SimpleHandler h, int what, Object object, boolean doRemove) {
+            SimpleMessage p = mMessages;
+            boolean found = false;
+            while (p != null && p.target == h && p.what == what
+                    && (object == null || p.obj == object)) {
+                if (!doRemove) return true;
+                found = true;
+                SimpleMessage n = p.next;
+                mMessages = n;
+                p.recycle();
+                p = n;
+            }
+            while (p != null) {
+                SimpleMessage n = p.next;
+                if (n != null) {
+                    if (n.target == h && n.what == what
+                            && (object == null || n.obj == object)) {
+                        if (!doRemove) return true;
+                        found = true;
+                        SimpleMessage nn = n.next;
+                        n.recycle();
+                        p.next = nn;
+                        continue;
+                    }
+                }
+                p = n;
+            }
+            return found;
+        }
+
+        @Override
+        public void removeMessages(SimpleHandler h, Runnable r, Object object) {
+            SimpleMessage p = mMessages;
+            while (p != null && p.target == h && p.callback == r
+                    && (object == null || p.obj == object)) {
+                SimpleMessage n = p.next;
+                mMessages = n;
+                p.recycle();
+                p = n;
+            }
+            while (p != null) {
+                SimpleMessage n = p.next;
+                if (n != null) {
+                    if (n.target == h && n.callback == r
+                            && (object == null || n.obj == object)) {
+                        SimpleMessage nn = n.next;
+                        n.recycle();
+                        p.next = nn;
+                        continue;
+                    }
+                }
+                p = n;
+            }
+        }
+
+        @Override
+        public void removeCallbacksAndMessages(SimpleHandler h, Object object) {
+            SimpleMessage p = mMessages;
+            while (p != null && p.target == h
+                    && (object == null || p.obj == object)) {
+                SimpleMessage n = p.next;
+                mMessages = n;
+                p.recycle();
+                p = n;
+            }
+            while (p != null) {
+                SimpleMessage n = p.next;
+                if (n != null) {
+                    if (n.target == h && (object == null || n.obj == object)) {
+                        SimpleMessage nn = n.next;
+                        n.recycle();
+                        p.next = nn;
+                        continue;
+                    }
+                }
+                p = n;
+            }
+        }
+
+        @Override
+        public List<Integer> drain() {
+            List<Integer> ids = new ArrayList<Integer>();
+            while (mMessages != null) {
+                ids.add(mMessages.arg1);
+                SimpleMessage n = mMessages.next;
+                mMessages.next = null;
+                mMessages = n;
+            }
+            return ids;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.cz.android.message;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Many threads send messages that are due now to one looper, through the
+ * lock-free inbox of {@link SimpleMessageQueue} and through its lock alone,
+ * as every message went before. It reports the messages dispatched per second
+ * and the time from enqueueMessage() to dispatchMessage(). Each producer has at
+ * most {@link #WINDOW} messages in the queue, so the latency is the handoff and
+ * not a backlog the looper never catches up with.
+ */
+public class MessageQueueContentionBenchmark {
+    private static final int MESSAGE_COUNT = 1 << 20;
+    private static final int[] PRODUCER_COUNTS = {1, 2, 4, 8, 16};
+    private static final int WINDOW = 64;
+
+    @Test
+    public void producersToOneLooper() throws InterruptedException {
+        // Warm up, so the JIT compiled both of them before we measure.
+        for (int i = 0; i < 3; i++) {
+            run(new SimpleMessageQueue(true), 4, MESSAGE_COUNT / 8, false);
+            run(new SimpleMessageQueue(false), 4, MESSAGE_COUNT / 8, false);
+        }
+        System.out.println("queue   producers    messages/s  median(us)  p99(us)");
+        for (int producers : PRODUCER_COUNTS) {
+            run(new SimpleMessageQueue(false), producers, MESSAGE_COUNT, true);
+            run(new SimpleMessageQueue(true), producers, MESSAGE_COUNT, true);
+        }
+    }
+
+    /**
+     * The messages of one producer come out in the order it sent them, with
+     * the other producers and the timed messages in between.
+     */
+    @Test
+    public void inboxKeepsOrderOfEachProducer() throws InterruptedException {
+        final int producers = 8;
+        final int count = 100000;
+        final SimpleMessageQueue queue = new SimpleMessageQueue(true);
+        final SimpleHandler handler = new SimpleHandler(prepare());
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            threads[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    await(start);
+                    for (int i = 0; i < count; i++) {
+                        SimpleMessage msg = SimpleMessage.obtain(handler, producer);
+                        msg.arg1 = i;
+                        // Every so often take the locked path, with a time that is due as well.
+                        long when = SimpleClock.uptimeMillis() - (i % 64 == 0 ? 1 : 0);
+                        queue.enqueueMessage(msg, when);
+                    }
+                }
+            });
+            threads[p].start();
+        }
+        start.countDown();
+        int[] next = new int[producers];
+        for (int received = 0; received < producers * count; received++) {
+            SimpleMessage msg = queue.next();
+            if (msg.arg1 % 64 != 0) {
+                // The locked ones are a millisecond earlier, so they may pass the others.
+                assertTrue("Producer " + msg.what + " sent " + msg.arg1 + " after " + next[msg.what],
+                        msg.arg1 >= next[msg.what]);
+                next[msg.what] = msg.arg1;
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, queue.messagesInOrder().length);
+    }
+
+    private static void run(final SimpleMessageQueue queue, int producers, int messageCount, boolean report)
+            throws InterruptedException {
+        final int perProducer = messageCount / producers;
+        final long[][] sent = new long[producers][perProducer];
+        final long[][] latencies = new long[producers][perProducer];
+        final AtomicIntegerArray dispatched = new AtomicIntegerArray(producers);
+        final SimpleHandler handler = new SimpleHandler(prepare()) {
+            @Override
+            public void dispatchMessage(SimpleMessage msg) {
+                latencies[msg.arg1][msg.arg2] = System.nanoTime() - sent[msg.arg1][msg.arg2];
+                dispatched.lazySet(msg.arg1, msg.arg2 + 1);
+            }
+        };
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread looper = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // The loop of SimpleLooper.loop(), on a queue of our own.
+                for (;;) {
+                    SimpleMessage msg = queue.next();
+                    if (msg.target == null) {
+                        return;
+                    }
+                    msg.target.dispatchMessage(msg);
+                    msg.recycle();
+                }
+            }
+        }, "SimpleLooper");
+        looper.start();
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            threads[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    await(start);
+                    long[] times = sent[producer];
+                    for (int i = 0; i < perProducer; i++) {
+                        while (i - dispatched.get(producer) >= WINDOW) {
+                            Thread.yield();
+                        }
+                        SimpleMessage msg = SimpleMessage.obtain(handler, 0);
+                        msg.arg1 = producer;
+                        msg.arg2 = i;
+                        times[i] = System.nanoTime();
+                        queue.enqueueMessage(msg, SimpleClock.uptimeMillis());
+                    }
+                }
+            }, "Producer-" + p);
+            threads[p].start();
+        }
+        long st = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // The quit message goes behind everything that was sent.
+        SimpleMessage quit = SimpleMessage.obtain();
+        queue.enqueueMessage(quit, SimpleClock.uptimeMillis());
+        looper.join();
+        long elapsed = System.nanoTime() - st;
+
+        long[] all = new long[producers * perProducer];
+        for (int p = 0; p < producers; p++) {
+            System.arraycopy(latencies[p], 0, all, p * perProducer, perProducer);
+        }
+        Arrays.sort(all);
+        // A message that never came would have a latency of 0.
+        assertTrue("A message was not dispatched", all[0] > 0);
+        if (report) {
+            System.out.println(String.format("%-7s %9d %13.0f %11d %8d", queue.mUseInbox ? "inbox" : "locked",
+                    producers, all.length / (elapsed / 1e9), all[all.length / 2] / 1000,
+                    all[all.length * 99 / 100] / 1000));
+        }
+    }
+
+    private static SimpleLooper prepare() {
+        if (SimpleLooper.myLooper() == null) {
+            SimpleLooper.prepare();
+        }
+        return SimpleLooper.myLooper();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
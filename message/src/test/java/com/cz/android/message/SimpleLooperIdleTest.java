@@ -0,0 +1,174 @@
+package com.cz.android.message;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The looper parks while its queue has nothing due, and wakes up for a new
+ * head, a deadline, or quit.
+ */
+public class SimpleLooperIdleTest {
+    private static final int LOOPER_COUNT = 4;
+    private static final int MESSAGE_COUNT = 500;
+
+    @Test
+    public void idleLoopersDoNotBurnCpu() throws InterruptedException {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        Thread[] threads = new Thread[LOOPER_COUNT];
+        SimpleLooper[] loopers = new SimpleLooper[LOOPER_COUNT];
+        for (int i = 0; i < LOOPER_COUNT; i++) {
+            loopers[i] = startLooper();
+            threads[i] = loopers[i].getThread();
+        }
+        // One of them waits for a message far ahead, the others for nothing.
+        new SimpleHandler(loopers[0]).postDelayed(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, TimeUnit.HOURS.toMillis(1));
+        Thread.sleep(100);
+
+        long[] cpuTimes = new long[LOOPER_COUNT];
+        for (int i = 0; i < LOOPER_COUNT; i++) {
+            cpuTimes[i] = threadMXBean.getThreadCpuTime(threads[i].getId());
+        }
+        Thread.sleep(1000);
+        for (int i = 0; i < LOOPER_COUNT; i++) {
+            long cpuNanos = threadMXBean.getThreadCpuTime(threads[i].getId()) - cpuTimes[i];
+            System.out.println("Idle looper " + i + " cpu time in 1s(us):" + cpuNanos / 1000);
+            assertTrue("An idle looper used " + cpuNanos + "ns of cpu", cpuNanos < TimeUnit.MILLISECONDS.toNanos(20));
+        }
+        for (SimpleLooper looper : loopers) {
+            quitAndJoin(looper);
+        }
+    }
+
+    @Test
+    public void enqueueToDispatchLatency() throws InterruptedException {
+        SimpleLooper looper = startLooper();
+        final AtomicLong postNanos = new AtomicLong();
+        final long[] latencies = new long[MESSAGE_COUNT];
+        final CountDownLatch[] dispatched = new CountDownLatch[1];
+        SimpleHandler handler = new SimpleHandler(looper) {
+            @Override
+            public void handleMessage(SimpleMessage msg) {
+                latencies[msg.what] = System.nanoTime() - postNanos.get();
+                dispatched[0].countDown();
+            }
+        };
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            // Give the looper time to park, so each message has to wake it.
+            Thread.sleep(1);
+            dispatched[0] = new CountDownLatch(1);
+            postNanos.set(System.nanoTime());
+            handler.sendEmptyMessage(i);
+            assertTrue(dispatched[0].await(1, TimeUnit.SECONDS));
+        }
+        Arrays.sort(latencies);
+        long median = latencies[MESSAGE_COUNT / 2];
+        long p99 = latencies[MESSAGE_COUNT * 99 / 100];
+        System.out.println("Enqueue to dispatch(us) median:" + median / 1000 + " p99:" + p99 / 1000
+                + " max:" + latencies[MESSAGE_COUNT - 1] / 1000);
+        assertTrue("Median latency " + median + "ns", median < TimeUnit.MILLISECONDS.toNanos(2));
+        quitAndJoin(looper);
+    }
+
+    @Test
+    public void delayedMessageWakesAtItsDeadline() throws InterruptedException {
+        SimpleLooper looper = startLooper();
+        final CountDownLatch dispatched = new CountDownLatch(1);
+        final AtomicLong dispatchNanos = new AtomicLong();
+        SimpleHandler handler = new SimpleHandler(looper);
+        long st = System.nanoTime();
+        handler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                dispatchNanos.set(System.nanoTime());
+                dispatched.countDown();
+            }
+        }, 50);
+        // A later message must not wake the looper early, an earlier one must run first.
+        handler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, 80);
+        assertTrue(dispatched.await(1, TimeUnit.SECONDS));
+        long delayMillis = TimeUnit.NANOSECONDS.toMillis(dispatchNanos.get() - st);
+        System.out.println("Delayed 50ms, dispatched after(ms):" + delayMillis);
+        // The deadline is in whole milliseconds of the same clock, so it can be up to 1ms early.
+        assertTrue("Dispatched after " + delayMillis + "ms", delayMillis >= 49 && delayMillis < 70);
+        quitAndJoin(looper);
+    }
+
+    @Test
+    public void newHeadWakesParkedLooper() throws InterruptedException {
+        SimpleLooper looper = startLooper();
+        final CountDownLatch dispatched = new CountDownLatch(1);
+        SimpleHandler handler = new SimpleHandler(looper);
+        handler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, TimeUnit.SECONDS.toMillis(10));
+        Thread.sleep(20);
+        long st = System.nanoTime();
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                dispatched.countDown();
+            }
+        });
+        assertTrue(dispatched.await(1, TimeUnit.SECONDS));
+        System.out.println("New head dispatched after(us):" + (System.nanoTime() - st) / 1000);
+        quitAndJoin(looper);
+    }
+
+    @Test
+    public void quitWakesParkedLooper() throws InterruptedException {
+        SimpleLooper looper = startLooper();
+        new SimpleHandler(looper).postDelayed(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, TimeUnit.HOURS.toMillis(1));
+        Thread.sleep(20);
+        long st = System.nanoTime();
+        quitAndJoin(looper);
+        long quitMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - st);
+        System.out.println("Quit took(ms):" + quitMillis);
+        assertTrue("Quit took " + quitMillis + "ms", quitMillis < 100);
+    }
+
+    private static SimpleLooper startLooper() throws InterruptedException {
+        final SimpleLooper[] looper = new SimpleLooper[1];
+        final CountDownLatch prepared = new CountDownLatch(1);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                SimpleLooper.prepare();
+                looper[0] = SimpleLooper.myLooper();
+                prepared.countDown();
+                SimpleLooper.loop();
+            }
+        }, "SimpleLooper");
+        thread.start();
+        prepared.await();
+        return looper[0];
+    }
+
+    private static void quitAndJoin(SimpleLooper looper) throws InterruptedException {
+        looper.quit();
+        looper.getThread().join(1000);
+        assertFalse("The looper did not quit", looper.getThread().isAlive());
+    }
+}
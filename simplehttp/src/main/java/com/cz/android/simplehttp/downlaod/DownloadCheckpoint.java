@@ -0,0 +1,85 @@
+package com.cz.android.simplehttp.downlaod;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The progress of a download in a small fixed-size binary file. It replaces the serialized {@link java.util.List} of chunks.
+ * <pre>
+ * int  magic
+ * int  version
+ * long content length
+ * int  slot count
+ * slot count * (long progress, long end)
+ * </pre>
+ * Every byte we have not downloaded belongs to exactly one slot, The range [progress, end) of the slot.
+ * An empty slot has progress == end. The file never changes its size, So we update it in place with one positional write.
+ */
+public class DownloadCheckpoint implements Closeable {
+    private static final int MAGIC = 0x444C4350;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4;
+    private static final int SLOT_SIZE = 8 + 8;
+
+    private final FileChannel fileChannel;
+    private final ByteBuffer buffer;
+    private final int slotCount;
+
+    public DownloadCheckpoint(File file, int slotCount) throws IOException {
+        this.fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.slotCount = slotCount;
+        this.buffer = ByteBuffer.allocate(HEADER_SIZE + slotCount * SLOT_SIZE);
+    }
+
+    /**
+     * Read the slots we saved before.
+     * @return The progress and end of each slot, Or null if the file is empty or it belongs to another content length.
+     */
+    public long[] read(long contentLength) throws IOException {
+        if(fileChannel.size() != buffer.capacity()){
+            return null;
+        }
+        buffer.clear();
+        while(buffer.hasRemaining()){
+            if(0 > fileChannel.read(buffer, buffer.position())){
+                return null;
+            }
+        }
+        buffer.flip();
+        if(MAGIC != buffer.getInt() || VERSION != buffer.getInt() ||
+                contentLength != buffer.getLong() || slotCount != buffer.getInt()){
+            return null;
+        }
+        long[] slots = new long[slotCount * 2];
+        for(int i=0;i<slots.length;i++){
+            slots[i] = buffer.getLong();
+        }
+        return slots;
+    }
+
+    /**
+     * Write all the slots in place.
+     * @param slots The progress and end of each slot.
+     */
+    public void write(long contentLength, long[] slots) throws IOException {
+        buffer.clear();
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(contentLength).putInt(slotCount);
+        for(int i=0;i<slotCount * 2;i++){
+            buffer.putLong(slots[i]);
+        }
+        buffer.flip();
+        long position = 0;
+        while(buffer.hasRemaining()){
+            position += fileChannel.write(buffer, position);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        fileChannel.close();
+    }
+}
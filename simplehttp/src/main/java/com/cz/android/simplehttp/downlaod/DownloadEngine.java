@@ -0,0 +1,352 @@
+package com.cz.android.simplehttp.downlaod;
+
+import com.cz.android.simplehttp.pool.Util;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.*;
+
+/**
+ * A reusable segmented downloader.
+ *
+ * <ul>
+ *     <li>All the downloads share a bounded pool of workers. Each worker holds one connection at a time.</li>
+ *     <li>When a worker finishes its segment it steals half of the largest remaining segment.
+ *     So a fast connection takes over the work of a slow one instead of waiting for it.</li>
+ *     <li>All the workers write to one shared {@link FileChannel} with positional writes.</li>
+ *     <li>The progress goes to a fixed-size {@link DownloadCheckpoint} at a throttled rate.
+ *     If the download was interrupted, The next download of the same file continues from the checkpoint.</li>
+ * </ul>
+ */
+public class DownloadEngine implements Closeable {
+    private static final String TMP_SUFFIX = "tmp";
+    private static final String CHECKPOINT_SUFFIX = "checkpoint";
+    /**
+     * The number of the slots in the checkpoint. We never have more segments than this.
+     */
+    private static final int MAX_SEGMENTS = 64;
+    /**
+     * We do not split a segment into pieces smaller than this. The cost of a new connection is not worth it.
+     */
+    private static final long MIN_SPLIT_SIZE = 512 * 1024;
+
+    private final int maxConnections;
+    private final boolean workStealing;
+    private final long checkpointIntervalMs;
+    private final int bufferSize;
+    private final ExecutorService executorService;
+    private final ScheduledExecutorService checkpointExecutor;
+
+    public DownloadEngine(int maxConnections) {
+        this(maxConnections, true, 1000, 256 * 1024);
+    }
+
+    /**
+     * @param workStealing false if each connection only downloads the segment we gave it at the beginning.
+     * @param checkpointIntervalMs How often we save the progress.
+     */
+    public DownloadEngine(int maxConnections, boolean workStealing, long checkpointIntervalMs, int bufferSize) {
+        if(0 >= maxConnections || MAX_SEGMENTS < maxConnections){
+            throw new IllegalArgumentException("maxConnections out of range: "+maxConnections);
+        }
+        this.maxConnections = maxConnections;
+        this.workStealing = workStealing;
+        this.checkpointIntervalMs = checkpointIntervalMs;
+        this.bufferSize = bufferSize;
+        this.executorService = new ThreadPoolExecutor(maxConnections, maxConnections, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), Util.daemonThreadFactory("DownloadEngine worker"));
+        this.checkpointExecutor = Executors.newSingleThreadScheduledExecutor(Util.daemonThreadFactory("DownloadEngine checkpoint"));
+    }
+
+    /**
+     * Download the file and wait until it completes. If a checkpoint of the same file exists we continue from it.
+     * The content goes to destFile.tmp first, And we rename it to destFile at the end.
+     */
+    public void download(String downloadUrl, File destFile, ProgressListener listener) throws IOException, InterruptedException {
+        long contentLength = contentLength(downloadUrl);
+        File tmpFile = new File(destFile.getPath() + "." + TMP_SUFFIX);
+        File checkpointFile = new File(destFile.getPath() + "." + CHECKPOINT_SUFFIX);
+        File parentFile = destFile.getAbsoluteFile().getParentFile();
+        if(null!=parentFile&&!parentFile.exists()){
+            parentFile.mkdirs();
+        }
+        DownloadTask task = new DownloadTask(downloadUrl, contentLength, tmpFile, checkpointFile, listener);
+        try {
+            task.execute();
+        } finally {
+            task.close();
+        }
+        checkpointFile.delete();
+        if(destFile.exists()){
+            destFile.delete();
+        }
+        if(!tmpFile.renameTo(destFile)){
+            throw new IOException("Rename the file failed:"+tmpFile);
+        }
+    }
+
+    private static long contentLength(String downloadUrl) throws IOException {
+        HttpURLConnection httpURLConnection = (HttpURLConnection) new URL(downloadUrl).openConnection();
+        try {
+            httpURLConnection.setRequestMethod("HEAD");
+            int responseCode = httpURLConnection.getResponseCode();
+            // always check HTTP response code first
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Unexpected response code:"+responseCode);
+            }
+            long contentLength = httpURLConnection.getContentLengthLong();
+            if(0 > contentLength){
+                throw new IOException("The server did not tell us the content length.");
+            }
+            return contentLength;
+        } finally {
+            httpURLConnection.disconnect();
+        }
+    }
+
+    @Override
+    public void close() {
+        executorService.shutdownNow();
+        checkpointExecutor.shutdownNow();
+    }
+
+    public interface ProgressListener {
+        /**
+         * Called from the checkpoint thread at the checkpoint interval.
+         */
+        void onProgress(long downloaded, long contentLength);
+    }
+
+    /**
+     * The bytes [progress, end) we still need. The end moves back when another worker steals the second half.
+     * Both fields only change while holding the lock of the segment.
+     */
+    private static class Segment {
+        final int slot;
+        volatile long progress;
+        volatile long end;
+
+        Segment(int slot, long progress, long end) {
+            this.slot = slot;
+            this.progress = progress;
+            this.end = end;
+        }
+
+        long remaining(){
+            return end - progress;
+        }
+    }
+
+    private class DownloadTask implements Closeable {
+        private final String downloadUrl;
+        private final long contentLength;
+        private final ProgressListener listener;
+        private final FileChannel fileChannel;
+        private final DownloadCheckpoint checkpoint;
+        private final Segment[] slots = new Segment[MAX_SEGMENTS];
+        private final long[] checkpointState = new long[MAX_SEGMENTS * 2];
+        private final ConcurrentLinkedQueue<Segment> pendingSegments = new ConcurrentLinkedQueue<>();
+        /**
+         * Guards the slots. Splitting a segment and saving the checkpoint both hold it,
+         * So the checkpoint never sees the shorter segment without the new one.
+         */
+        private final Object slotLock = new Object();
+        private volatile IOException failure;
+
+        DownloadTask(String downloadUrl, long contentLength, File tmpFile, File checkpointFile, ProgressListener listener) throws IOException {
+            this.downloadUrl = downloadUrl;
+            this.contentLength = contentLength;
+            this.listener = listener;
+            boolean resume = tmpFile.exists();
+            RandomAccessFile randomAccessFile = new RandomAccessFile(tmpFile, "rw");
+            randomAccessFile.setLength(contentLength);
+            this.fileChannel = randomAccessFile.getChannel();
+            this.checkpoint = new DownloadCheckpoint(checkpointFile, MAX_SEGMENTS);
+            long[] savedSlots = resume ? checkpoint.read(contentLength) : null;
+            if(null!=savedSlots){
+                //Interrupt downloading before, Now continue to downloading.
+                for(int i=0;i<MAX_SEGMENTS;i++){
+                    long progress = savedSlots[i * 2];
+                    long end = savedSlots[i * 2 + 1];
+                    if(progress < end){
+                        slots[i] = new Segment(i, progress, end);
+                        pendingSegments.offer(slots[i]);
+                    }
+                }
+            } else {
+                long pieceSize = contentLength / maxConnections;
+                long start = 0;
+                for(int i=0;i<maxConnections;i++){
+                    long end = i == maxConnections - 1 ? contentLength : start + pieceSize;
+                    if(start < end){
+                        slots[i] = new Segment(i, start, end);
+                        pendingSegments.offer(slots[i]);
+                    }
+                    start = end;
+                }
+            }
+        }
+
+        void execute() throws IOException, InterruptedException {
+            int workerCount = workStealing ? maxConnections : Math.min(maxConnections, pendingSegments.size());
+            final CountDownLatch countDownLatch = new CountDownLatch(workerCount);
+            for(int i=0;i<workerCount;i++){
+                executorService.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            Segment segment;
+                            while(null==failure&&null!=(segment=nextSegment())){
+                                downloadSegment(segment);
+                            }
+                        } catch (IOException e) {
+                            failure = e;
+                        } finally {
+                            countDownLatch.countDown();
+                        }
+                    }
+                });
+            }
+            ScheduledFuture<?> checkpointFuture = checkpointExecutor.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        saveCheckpoint();
+                    } catch (IOException e) {
+                        System.err.println("Update the download process failed!");
+                    }
+                }
+            }, checkpointIntervalMs, checkpointIntervalMs, TimeUnit.MILLISECONDS);
+            try {
+                countDownLatch.await();
+            } finally {
+                checkpointFuture.cancel(false);
+                //Save what we have, So we could continue even if we were interrupted.
+                saveCheckpoint();
+            }
+            if(null!=failure){
+                throw failure;
+            }
+        }
+
+        private Segment nextSegment(){
+            Segment segment = pendingSegments.poll();
+            if(null==segment&&workStealing){
+                segment = steal();
+            }
+            return segment;
+        }
+
+        /**
+         * Split the largest remaining segment. The owner keeps the first half and we take the second half.
+         */
+        private Segment steal(){
+            synchronized (slotLock){
+                Segment victim = null;
+                int freeSlot = -1;
+                for(int i=0;i<MAX_SEGMENTS;i++){
+                    Segment segment = slots[i];
+                    if(null==segment||0 >= segment.remaining()){
+                        if(0 > freeSlot){
+                            freeSlot = i;
+                        }
+                    } else if(null==victim||segment.remaining() > victim.remaining()){
+                        victim = segment;
+                    }
+                }
+                if(null==victim||0 > freeSlot){
+                    return null;
+                }
+                synchronized (victim){
+                    long remaining = victim.remaining();
+                    if(remaining < MIN_SPLIT_SIZE * 2){
+                        return null;
+                    }
+                    long middle = victim.progress + remaining / 2;
+                    Segment segment = new Segment(freeSlot, middle, victim.end);
+                    victim.end = middle;
+                    slots[freeSlot] = segment;
+                    return segment;
+                }
+            }
+        }
+
+        private void downloadSegment(Segment segment) throws IOException {
+            long start = segment.progress;
+            long end = segment.end;
+            if(start >= end){
+                return;
+            }
+            HttpURLConnection httpURLConnection = (HttpURLConnection) new URL(downloadUrl).openConnection();
+            httpURLConnection.setRequestProperty("Range", "bytes=" + start + "-" + (end - 1));
+            int responseCode = httpURLConnection.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_PARTIAL) {
+                httpURLConnection.disconnect();
+                throw new IOException("The server does not support the range request, Response code:"+responseCode);
+            }
+            byte[] bytes = new byte[bufferSize];
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            boolean complete = false;
+            try(InputStream inputStream = httpURLConnection.getInputStream()){
+                int read;
+                while(null==failure&&-1!=(read=inputStream.read(bytes))){
+                    synchronized (segment){
+                        //Another worker may have taken the end of the segment. We drop the bytes after the new end.
+                        int length = (int) Math.min(read, segment.remaining());
+                        buffer.clear();
+                        buffer.limit(length);
+                        long position = segment.progress;
+                        while(buffer.hasRemaining()){
+                            position += fileChannel.write(buffer, position);
+                        }
+                        segment.progress = position;
+                        complete = 0 >= segment.remaining();
+                    }
+                    if(complete){
+                        break;
+                    }
+                }
+            } finally {
+                if(!complete||segment.end < end){
+                    //We stopped in the middle of the response, The connection could not be reused.
+                    httpURLConnection.disconnect();
+                }
+            }
+            if(!complete&&null==failure){
+                throw new IOException("The connection closed before the segment completed:"+segment.progress+"/"+segment.end);
+            }
+        }
+
+        private void saveCheckpoint() throws IOException {
+            long remaining = 0;
+            synchronized (slotLock){
+                for(int i=0;i<MAX_SEGMENTS;i++){
+                    Segment segment = slots[i];
+                    long progress = null!=segment ? segment.progress : 0;
+                    long end = null!=segment ? Math.max(progress, segment.end) : 0;
+                    checkpointState[i * 2] = progress;
+                    checkpointState[i * 2 + 1] = end;
+                    remaining += end - progress;
+                }
+                //The content must reach the disk before the progress that describes it.
+                fileChannel.force(false);
+                checkpoint.write(contentLength, checkpointState);
+            }
+            if(null!=listener){
+                listener.onProgress(contentLength - remaining, contentLength);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                fileChannel.close();
+            } finally {
+                checkpoint.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.cz.android.simplehttp.downlaod;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Download a generated file from {@link HttpDownloadNioServer} through a throttling proxy.
+ * The proxy gives every connection its own speed, One connection out of four is slow.
+ *
+ * <ul>
+ *     <li>fixed: The old way, Each connection keeps the piece we gave it at the beginning. The slowest piece decides the time.</li>
+ *     <li>stealing: A connection that finished splits the largest remaining segment.</li>
+ *     <li>resume: The proxy breaks every connection after a few megabytes. The second try continues from the checkpoint.</li>
+ * </ul>
+ * Arguments: [MB] [connections] [fast KB/s] [slow KB/s]
+ */
+public class DownloadEngineBenchmark {
+    private static final String HOST = "localhost";
+    private static final int SERVER_PORT = 8095;
+    private static final int PROXY_PORT = 8096;
+    private static final int BLOCK_SIZE = 16 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        long fileSize = (0 < args.length ? Long.parseLong(args[0]) : 32) * 1024 * 1024;
+        int connections = 1 < args.length ? Integer.parseInt(args[1]) : 4;
+        long fastRate = (2 < args.length ? Long.parseLong(args[2]) : 16 * 1024) * 1024;
+        long slowRate = (3 < args.length ? Long.parseLong(args[3]) : 1024) * 1024;
+
+        File directory = Files.createTempDirectory("download").toFile();
+        File sourceFile = new File(directory, "source.bin");
+        long checksum = generate(sourceFile, fileSize);
+        final HttpDownloadNioServer server = new HttpDownloadNioServer(new InetSocketAddress(HOST, SERVER_PORT), directory);
+        Thread serverThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                server.startServer();
+            }
+        }, "HttpDownloadNioServer");
+        serverThread.setDaemon(true);
+        serverThread.start();
+        ThrottlingProxy proxy = new ThrottlingProxy(PROXY_PORT, SERVER_PORT, fastRate, slowRate);
+        proxy.start();
+        Thread.sleep(500);
+
+        String url = "http://" + HOST + ":" + PROXY_PORT + "/source.bin";
+        System.out.println(String.format("File:%dMB connections:%d fast:%dKB/s slow:%dKB/s",
+                fileSize / 1024 / 1024, connections, fastRate / 1024, slowRate / 1024));
+        int failures = 0;
+        for(boolean workStealing:new boolean[]{false, true}){
+            File destFile = new File(directory, "dest-" + workStealing + ".bin");
+            proxy.reset(-1);
+            try(DownloadEngine downloadEngine = new DownloadEngine(connections, workStealing, 200, 64 * 1024)){
+                long st = System.nanoTime();
+                downloadEngine.download(url, destFile, null);
+                long elapsedNs = System.nanoTime() - st;
+                System.out.println(String.format("%-8s %6dms %6.1fMB/s connections opened:%d",
+                        workStealing ? "stealing" : "fixed", elapsedNs / 1000000,
+                        fileSize * 1e9 / elapsedNs / 1024 / 1024, proxy.connectionCount.get()));
+            }
+            if(checksum != checksum(destFile)){
+                System.err.println("The file is broken:"+destFile);
+                failures++;
+            }
+            destFile.delete();
+        }
+
+        //Break the connections in the middle, Then continue from the checkpoint.
+        File destFile = new File(directory, "dest-resume.bin");
+        proxy.reset(fileSize / connections / 2);
+        try(DownloadEngine downloadEngine = new DownloadEngine(connections, true, 200, 64 * 1024)){
+            downloadEngine.download(url, destFile, null);
+            System.err.println("The download should fail.");
+            failures++;
+        } catch (IOException e) {
+            System.out.println("Interrupted:"+e.getMessage());
+        }
+        proxy.reset(-1);
+        final AtomicLong resumed = new AtomicLong(-1);
+        try(DownloadEngine downloadEngine = new DownloadEngine(connections, true, 50, 64 * 1024)){
+            downloadEngine.download(url, destFile, new DownloadEngine.ProgressListener() {
+                @Override
+                public void onProgress(long downloaded, long contentLength) {
+                    resumed.compareAndSet(-1, downloaded);
+                }
+            });
+        }
+        System.out.println(String.format("resume   continued from %.1fMB", resumed.get() / 1024f / 1024f));
+        if(checksum != checksum(destFile)){
+            System.err.println("The file is broken:"+destFile);
+            failures++;
+        }
+        destFile.delete();
+        sourceFile.delete();
+        directory.delete();
+        proxy.close();
+        System.out.println("Failures:"+failures);
+        System.exit(0);
+    }
+
+    private static long generate(File file, long fileSize) throws IOException {
+        CRC32 crc32 = new CRC32();
+        byte[] block = new byte[BLOCK_SIZE];
+        Random random = new Random(1);
+        try(OutputStream outputStream = new FileOutputStream(file)){
+            long written = 0;
+            while(written < fileSize){
+                int length = (int) Math.min(block.length, fileSize - written);
+                random.nextBytes(block);
+                crc32.update(block, 0, length);
+                outputStream.write(block, 0, length);
+                written += length;
+            }
+        }
+        return crc32.getValue();
+    }
+
+    private static long checksum(File file) throws IOException {
+        CRC32 crc32 = new CRC32();
+        byte[] buffer = new byte[BLOCK_SIZE];
+        try(InputStream inputStream = new FileInputStream(file)){
+            int read;
+            while(-1 != (read = inputStream.read(buffer))){
+                crc32.update(buffer, 0, read);
+            }
+        }
+        return crc32.getValue();
+    }
+
+    /**
+     * Forward the connections to the server. The response of every fourth connection is slow.
+     * The HEAD request takes one connection too, So the slow one moves around between the runs.
+     */
+    private static class ThrottlingProxy extends Thread implements Closeable {
+        private final ServerSocket serverSocket;
+        private final int serverPort;
+        private final long fastRate;
+        private final long slowRate;
+        final AtomicInteger connectionCount = new AtomicInteger();
+        private volatile long breakAfter = -1;
+
+        ThrottlingProxy(int port, int serverPort, long fastRate, long slowRate) throws IOException {
+            super("ThrottlingProxy");
+            setDaemon(true);
+            this.serverSocket = new ServerSocket(port);
+            this.serverPort = serverPort;
+            this.fastRate = fastRate;
+            this.slowRate = slowRate;
+        }
+
+        /**
+         * @param breakAfter Close the connection after this many bytes, -1 never.
+         */
+        void reset(long breakAfter){
+            this.breakAfter = breakAfter;
+            connectionCount.set(0);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while(true){
+                    Socket client = serverSocket.accept();
+                    int index = connectionCount.getAndIncrement();
+                    Socket server = new Socket(HOST, serverPort);
+                    pump(client.getInputStream(), server.getOutputStream(), -1, -1, client, server);
+                    pump(server.getInputStream(), client.getOutputStream(), 3 == index % 4 ? slowRate : fastRate, breakAfter, client, server);
+                }
+            } catch (IOException e) {
+                //Closed.
+            }
+        }
+
+        private void pump(final InputStream inputStream, final OutputStream outputStream, final long rate, final long breakAfter,
+                          final Socket client, final Socket server){
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    byte[] buffer = new byte[BLOCK_SIZE];
+                    long st = System.nanoTime();
+                    long transferred = 0;
+                    try {
+                        int read;
+                        while(-1 != (read = inputStream.read(buffer))){
+                            if(0 <= breakAfter && transferred + read > breakAfter){
+                                break;
+                            }
+                            outputStream.write(buffer, 0, read);
+                            transferred += read;
+                            if(0 < rate){
+                                //Sleep until the average speed drops back to the rate.
+                                long aheadNs = transferred * 1000000000L / rate - (System.nanoTime() - st);
+                                if(0 < aheadNs){
+                                    Thread.sleep(aheadNs / 1000000, (int) (aheadNs % 1000000));
+                                }
+                            }
+                        }
+                    } catch (IOException | InterruptedException e) {
+                        //The other side closed.
+                    } finally {
+                        closeQuietly(client);
+                        closeQuietly(server);
+                    }
+                }
+            }, "ThrottlingProxy pump");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private static void closeQuietly(Closeable closeable){
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                //Ignore.
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+    }
+}
@@ -1,5 +1,11 @@
 package com.cz.android.simplehttp.downlaod;
 
+import com.cz.android.simplehttp.nio.ByteRange;
+import com.cz.android.simplehttp.nio.FileRegion;
+import com.cz.android.simplehttp.nio.HttpRequestHead;
+import com.cz.android.simplehttp.nio.PendingHead;
+import com.cz.android.simplehttp.nio.PendingResponse;
+
 import java.io.*;
 import java.net.*;
 import java.nio.ByteBuffer;
@@ -16,9 +22,15 @@ import java.util.*;
 public class HttpDownloadNioServer {
     private static final String METHOD_GET="GET";
     private static final String METHOD_HEAD="HEAD";
-    private static final String LINE_FEEDS = "\r\n";
-    private final ByteBuffer byteBuffer = ByteBuffer.allocate(1024);
-    private ByteBuffer largeByteBuffer;
+    private static final int MAX_HEAD_SIZE = 8 * 1024;
+    /**
+     * We response the request in the same readable event, So one head and one buffer serve all the connections.
+     * A head that needs more than one readable event moves to a {@link PendingHead} on its key.
+     */
+    private final HttpRequestHead requestHead = new HttpRequestHead();
+    private final ByteBuffer headBuffer = ByteBuffer.allocate(MAX_HEAD_SIZE);
+    private final InetSocketAddress socketAddress;
+    private final File documentRoot;
     private int requestCount=0;
 
     public static void main(String[] args) {
@@ -26,9 +38,17 @@ public class HttpDownloadNioServer {
         httpNioServer.startServer();
     }
 
+    public HttpDownloadNioServer() {
+        this(new InetSocketAddress("localhost", 8090),new File("."));
+    }
+
+    public HttpDownloadNioServer(InetSocketAddress socketAddress, File documentRoot) {
+        this.socketAddress = socketAddress;
+        this.documentRoot = documentRoot;
+    }
+
     public void startServer(){
         try(ServerSocketChannel serverSocketChannel=ServerSocketChannel.open()){
-            InetSocketAddress socketAddress = new InetSocketAddress("localhost", 8090);
             serverSocketChannel.bind(socketAddress);
             serverSocketChannel.configureBlocking(false);
             Selector selector = Selector.open();
@@ -50,13 +70,22 @@ public class HttpDownloadNioServer {
                             acceptChanel(selector, selectionKey);
                         } else if(selectionKey.isReadable()){
                             //Read something from channel.
-                            SocketChannel channel= (SocketChannel) selectionKey.channel();
-                            response(channel);
+                            response(selectionKey);
                         } else if(selectionKey.isWritable()){
-                            //Write
+                            //Continue the response that the client did not take all at once.
+                            SocketChannel channel= (SocketChannel) selectionKey.channel();
+                            PendingResponse pendingResponse = (PendingResponse) selectionKey.attachment();
+                            if(null!=pendingResponse&&pendingResponse.writeTo(channel)){
+                                pendingResponse.close();
+                                channel.close();
+                            }
                         }
                     } catch (IOException e) {
                         System.err.println("The channel interrupted!");
+                        Object attachment = selectionKey.attachment();
+                        if(attachment instanceof PendingResponse){
+                            ((PendingResponse) attachment).close();
+                        }
                         SelectableChannel channel = selectionKey.channel();
                         channel.close();
                     }
@@ -71,127 +100,128 @@ public class HttpDownloadNioServer {
         ServerSocketChannel channel= (ServerSocketChannel) selectionKey.channel();
         SocketChannel socketChannel = channel.accept();
         socketChannel.configureBlocking(false);
-        socketChannel.register(selector,SelectionKey.OP_READ|SelectionKey.OP_WRITE);
+        socketChannel.register(selector,SelectionKey.OP_READ);
     }
 
-    private void response(SocketChannel channel) throws IOException {
-        DownloadBufferedChannelReader channelReader = new DownloadBufferedChannelReader(channel,100);
-        String protocolLine = channelReader.readLine();
-        if(null!=protocolLine){
-            String[] requestLine = protocolLine.trim().split(" ");
-            String method = requestLine[0];
-            String path = requestLine[1];
-            String version = requestLine[2];
+    private void response(SelectionKey selectionKey) throws IOException {
+        SocketChannel channel= (SocketChannel) selectionKey.channel();
+        if(selectionKey.attachment() instanceof PendingHead){
+            PendingHead pendingHead = (PendingHead) selectionKey.attachment();
+            int headEnd = pendingHead.readFrom(channel);
+            if(HttpRequestHead.NEED_MORE!=headEnd){
+                selectionKey.attach(null);
+                response(selectionKey, pendingHead.requestHead, headEnd);
+            }
+        } else {
+            int headEnd = requestHead.readFrom(channel, headBuffer);
+            if(HttpRequestHead.NEED_MORE==headEnd){
+                //The rest of the head comes with the next readable event.
+                selectionKey.attach(new PendingHead(headBuffer));
+            } else {
+                response(selectionKey, requestHead, headEnd);
+            }
+        }
+    }
 
-            String headerLine;
-            Map<String,String> headers = new HashMap<>();
-            while(!LINE_FEEDS.equals(headerLine=channelReader.readLine())){
-                if(0 < headerLine.trim().length()){
-                    String[] strings = headerLine.split(": ");
-                    headers.put(strings[0],strings[1].trim());
-                }
+    private void response(SelectionKey selectionKey, HttpRequestHead requestHead, int headEnd) throws IOException {
+        SocketChannel channel= (SocketChannel) selectionKey.channel();
+        if(0 > headEnd){
+            channel.close();
+            return;
+        }
+        boolean isKeepAlive = Boolean.valueOf(requestHead.header(HttpRequestHead.KEEP_ALIVE));
+        if(requestHead.isMethod(METHOD_GET)){
+            Path filePath = getFilePath(requestHead.target());
+            if (Files.exists(filePath)) {
+                SocketAddress remoteAddress = channel.getRemoteAddress();
+                System.out.println("Response client:"+remoteAddress+" process:"+(requestCount++)+" times");
+                File file = filePath.toFile();
+                String contentType = URLConnection.guessContentTypeFromName(file.getName());
+                ByteRange byteRange = ByteRange.parse(requestHead.header(HttpRequestHead.RANGE), file.length());
+                outputDownloadFile(selectionKey,file,contentType,byteRange);
+            } else {
+                // 404
+                byte[] notFoundContent = "<h1>Not found :(</h1>".getBytes();
+                sendResponse(selectionKey, "404 Not Found", "text/html", notFoundContent,notFoundContent.length,isKeepAlive);
             }
-            boolean isKeepAlive = Boolean.valueOf(headers.get("keep-alive"));
-            if(METHOD_GET.equalsIgnoreCase(method)){
-                Path filePath = getFilePath(path);
-                if (Files.exists(filePath)) {
-                    SocketAddress remoteAddress = channel.getRemoteAddress();
-                    System.out.println("Response client:"+remoteAddress+" process:"+(requestCount++)+" times");
-                    File file = filePath.toFile();
-                    String contentType = URLConnection.guessContentTypeFromName(file.getName());
-                    String range = headers.get("Range");
-                    long start=0;
-                    long end=file.length();
-                    if(null!=range){
-                        String[] splitArray = range.substring("bytes:".length()).split("-");
-                        start = Long.valueOf(splitArray[0]);
-                        end = Long.valueOf(splitArray[1]);
-                    }
-                    outputDownloadFile(channel,file,contentType,start,end);
-                } else {
-                    // 404
-                    byte[] notFoundContent = "<h1>Not found :(</h1>".getBytes();
-                    sendResponse(channel, "404 Not Found", "text/html", notFoundContent,notFoundContent.length,isKeepAlive);
-                }
-            } else if(METHOD_HEAD.equalsIgnoreCase(method)){
-                Path filePath = getFilePath(path);
-                if (Files.exists(filePath)) {
-                    File file = filePath.toFile();
-                    String contentType = URLConnection.guessContentTypeFromName(file.getName());
-                    //We won't really return the content back.
-                    sendResponse(channel,"200 OK",contentType,null,file.length(),isKeepAlive);
-                } else {
-                    // 404
-                    byte[] notFoundContent = "<h1>Not found :(</h1>".getBytes();
-                    sendResponse(channel, "404 Not Found", "text/html", notFoundContent,notFoundContent.length,isKeepAlive);
-                }
+        } else if(requestHead.isMethod(METHOD_HEAD)){
+            Path filePath = getFilePath(requestHead.target());
+            if (Files.exists(filePath)) {
+                File file = filePath.toFile();
+                String contentType = URLConnection.guessContentTypeFromName(file.getName());
+                //We won't really return the content back.
+                sendResponse(selectionKey,"200 OK",contentType,null,file.length(),isKeepAlive);
+            } else {
+                // 404
+                byte[] notFoundContent = "<h1>Not found :(</h1>".getBytes();
+                sendResponse(selectionKey, "404 Not Found", "text/html", notFoundContent,notFoundContent.length,isKeepAlive);
             }
         }
     }
 
-    private void outputDownloadFile(SocketChannel channel,File file,String contentType, long start, long end) throws IOException {
+    /**
+     * Send the file with {@link FileRegion}. The file content goes to the socket without passing through the heap.
+     * If the client could not take all of it now, We keep the rest as a {@link PendingResponse} and wait for OP_WRITE.
+     */
+    private void outputDownloadFile(SelectionKey selectionKey,File file,String contentType, ByteRange byteRange) throws IOException {
+        long fileLength = file.length();
+        if(null!=byteRange&&!byteRange.isSatisfiable(fileLength)){
+            String lineSeparator = "\r\n";
+            String head = "HTTP/1.1 416 Range Not Satisfiable" + lineSeparator +
+                    "Content-Range: bytes */" + fileLength + lineSeparator +
+                    "Content-Length: 0" + lineSeparator + lineSeparator;
+            sendPendingResponse(selectionKey,new PendingResponse(ByteBuffer.wrap(head.getBytes()),null));
+            return;
+        }
+        long start = null!=byteRange ? byteRange.start : 0;
+        long end = null!=byteRange ? byteRange.end : fileLength;
         String lineSeparator = "\r\n";
-        byteBuffer.clear();
-        byteBuffer.put(("HTTP/1.1"+" "+ HttpURLConnection.HTTP_PARTIAL+" OK" + lineSeparator).getBytes());
-        byteBuffer.put(("Content-Type: " + contentType + lineSeparator).getBytes());
-        byteBuffer.put(("Content-Length: " + (end-start) + lineSeparator).getBytes());
-        byteBuffer.put(("keep-alive: " + "true" + lineSeparator).getBytes());
-        byteBuffer.put(lineSeparator.getBytes());
-        byteBuffer.flip();
-        channel.write(byteBuffer);
-        if(null==largeByteBuffer){
-             largeByteBuffer = ByteBuffer.allocate(10*1024*1024);
+        StringBuilder head = new StringBuilder();
+        if(null!=byteRange){
+            head.append("HTTP/1.1 "+ HttpURLConnection.HTTP_PARTIAL+" Partial Content" + lineSeparator);
+            head.append("Content-Range: " + byteRange.contentRange(fileLength) + lineSeparator);
+        } else {
+            head.append("HTTP/1.1 "+ HttpURLConnection.HTTP_OK+" OK" + lineSeparator);
         }
-        largeByteBuffer.clear();
-        try(FileChannel fileChannel=new FileInputStream(file).getChannel()){
-            int read=0;
-            long offset=start;
-            fileChannel.position(offset);
-            while(fileChannel.position() <= end&&-1!=(read=fileChannel.read(largeByteBuffer))){
-                if(offset + largeByteBuffer.capacity() > end){
-                    largeByteBuffer.limit((int) (end-offset));
-                }
-                largeByteBuffer.flip();
-                while(largeByteBuffer.hasRemaining()){
-                    offset+=channel.write(largeByteBuffer);
-                }
-                largeByteBuffer.clear();
-            }
-            System.out.println("Read size:"+read);
+        head.append("Content-Type: " + contentType + lineSeparator);
+        head.append("Content-Length: " + (end-start) + lineSeparator);
+        head.append("Accept-Ranges: bytes" + lineSeparator);
+        head.append(lineSeparator);
+        FileRegion fileRegion = FileRegion.open(file, start, end);
+        sendPendingResponse(selectionKey,new PendingResponse(ByteBuffer.wrap(head.toString().getBytes()),fileRegion));
+    }
+
+    private void sendPendingResponse(SelectionKey selectionKey,PendingResponse pendingResponse) throws IOException {
+        SocketChannel channel = (SocketChannel) selectionKey.channel();
+        if(pendingResponse.writeTo(channel)){
+            System.out.println("Send completed!");
+            pendingResponse.close();
+            channel.close();
+        } else {
+            selectionKey.attach(pendingResponse);
+            selectionKey.interestOps(SelectionKey.OP_WRITE);
         }
-        System.out.println("Send completed!");
-        byteBuffer.clear();
-        byteBuffer.put((lineSeparator+lineSeparator).getBytes());
-        byteBuffer.flip();
-        channel.write(byteBuffer);
-        channel.close();
     }
 
     private Path getFilePath(String path) throws UnsupportedEncodingException {
         if ("/".equals(path)) {
             path = "/index.html";
         }
-        File file = new File(".", URLDecoder.decode(path, StandardCharsets.UTF_8.toString()));
+        File file = new File(documentRoot, URLDecoder.decode(path, StandardCharsets.UTF_8.toString()));
         return file.toPath();
     }
 
-    private void sendResponse(SocketChannel channel, String status, String contentType, byte[] content,long contentLength,boolean isKeepAlive) throws IOException {
+    private void sendResponse(SelectionKey selectionKey, String status, String contentType, byte[] content,long contentLength,boolean isKeepAlive) throws IOException {
         String feedLines = "\r\n";
-        byteBuffer.clear();
-        byteBuffer.put(("HTTP/1.1"+" "+status + feedLines).getBytes());
-        byteBuffer.put(("Content-Type: " + contentType + feedLines).getBytes());
-        byteBuffer.put(("Content-Length: " + contentLength + feedLines).getBytes());
-        byteBuffer.put(("keep-alive: " + "true" + feedLines).getBytes());
-        byteBuffer.put(feedLines.getBytes());
+        byte[] head = ("HTTP/1.1"+" "+status + feedLines +
+                "Content-Type: " + contentType + feedLines +
+                "Content-Length: " + contentLength + feedLines + feedLines).getBytes();
+        ByteBuffer byteBuffer = ByteBuffer.allocate(head.length + (null!=content ? content.length : 0));
+        byteBuffer.put(head);
         if(null!=content){
             byteBuffer.put(content);
         }
-        byteBuffer.put((feedLines+feedLines).getBytes());
         byteBuffer.flip();
-        channel.write(byteBuffer);
-        byteBuffer.clear();
-        channel.close();
-//        if(isKeepAlive){
-//        }
+        sendPendingResponse(selectionKey,new PendingResponse(byteBuffer,null));
     }
 }
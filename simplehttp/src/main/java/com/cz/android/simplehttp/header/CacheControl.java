@@ -0,0 +1,123 @@
+package com.cz.android.simplehttp.header;
+
+/**
+ * The directives of the Cache-Control and Pragma fields of one message, parsed
+ * once by {@link RawHeaders#getCacheControl}. Request and response directives
+ * share this class; the ones that don't apply to a message are simply unset.
+ */
+public final class CacheControl {
+  /** The directives of a message without any Cache-Control or Pragma field. */
+  static final CacheControl EMPTY = new Builder().build();
+
+  private final boolean noCache;
+  private final boolean noStore;
+  private final int maxAgeSeconds;
+  private final int sMaxAgeSeconds;
+  private final boolean isPublic;
+  private final boolean mustRevalidate;
+  private final int maxStaleSeconds;
+  private final int minFreshSeconds;
+  private final boolean onlyIfCached;
+
+  private CacheControl(Builder builder) {
+    this.noCache = builder.noCache;
+    this.noStore = builder.noStore;
+    this.maxAgeSeconds = builder.maxAgeSeconds;
+    this.sMaxAgeSeconds = builder.sMaxAgeSeconds;
+    this.isPublic = builder.isPublic;
+    this.mustRevalidate = builder.mustRevalidate;
+    this.maxStaleSeconds = builder.maxStaleSeconds;
+    this.minFreshSeconds = builder.minFreshSeconds;
+    this.onlyIfCached = builder.onlyIfCached;
+  }
+
+  /** True for "no-cache", or "Pragma: no-cache". */
+  public boolean isNoCache() {
+    return noCache;
+  }
+
+  public boolean isNoStore() {
+    return noStore;
+  }
+
+  /** Returns the "max-age" seconds, or -1. */
+  public int getMaxAgeSeconds() {
+    return maxAgeSeconds;
+  }
+
+  /** Returns the "s-maxage" seconds, or -1. */
+  public int getSMaxAgeSeconds() {
+    return sMaxAgeSeconds;
+  }
+
+  public boolean isPublic() {
+    return isPublic;
+  }
+
+  public boolean isMustRevalidate() {
+    return mustRevalidate;
+  }
+
+  /** Returns the "max-stale" seconds, or -1. */
+  public int getMaxStaleSeconds() {
+    return maxStaleSeconds;
+  }
+
+  /** Returns the "min-fresh" seconds, or -1. */
+  public int getMinFreshSeconds() {
+    return minFreshSeconds;
+  }
+
+  public boolean isOnlyIfCached() {
+    return onlyIfCached;
+  }
+
+  /** Collects the directives of every field. A later directive wins. */
+  static final class Builder implements HeaderParser.CacheControlHandler {
+    boolean noCache;
+    boolean noStore;
+    int maxAgeSeconds = -1;
+    int sMaxAgeSeconds = -1;
+    boolean isPublic;
+    boolean mustRevalidate;
+    int maxStaleSeconds = -1;
+    int minFreshSeconds = -1;
+    boolean onlyIfCached;
+
+    void parseCacheControl(String value) {
+      HeaderParser.parseCacheControl(value, this);
+    }
+
+    void parsePragma(String value) {
+      if ("no-cache".equalsIgnoreCase(value)) {
+        noCache = true;
+      }
+    }
+
+    @Override public void handle(String directive, String parameter) {
+      if ("no-cache".equalsIgnoreCase(directive)) {
+        noCache = true;
+      } else if ("no-store".equalsIgnoreCase(directive)) {
+        noStore = true;
+      } else if ("max-age".equalsIgnoreCase(directive)) {
+        maxAgeSeconds = HeaderParser.parseSeconds(parameter);
+      } else if ("s-maxage".equalsIgnoreCase(directive)) {
+        sMaxAgeSeconds = HeaderParser.parseSeconds(parameter);
+      } else if ("public".equalsIgnoreCase(directive)) {
+        isPublic = true;
+      } else if ("must-revalidate".equalsIgnoreCase(directive)) {
+        mustRevalidate = true;
+      } else if ("max-stale".equalsIgnoreCase(directive)) {
+        maxStaleSeconds = HeaderParser.parseSeconds(parameter);
+      } else if ("min-fresh".equalsIgnoreCase(directive)) {
+        minFreshSeconds = HeaderParser.parseSeconds(parameter);
+      } else if ("only-if-cached".equalsIgnoreCase(directive)) {
+        onlyIfCached = true;
+      }
+    }
+
+    CacheControl build() {
+      return new CacheControl(this);
+    }
+  }
+}
@@ -0,0 +1,160 @@
+package com.cz.android.simplehttp.header;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Counts the bytes allocated to read a typical cacheable response: {@link RawHeaders#fromBytes},
+ * {@link ResponseHeaders} and the lookups a client does after that. It also checks that looking up
+ * a header allocates nothing at all, and that the header store behaves like a list of fields.
+ *
+ * <p>Arguments: [responses]
+ */
+public class HeaderAllocationTest {
+  private static final String RESPONSE = "HTTP/1.1 200 OK\r\n"
+      + "Date: Sat, 17 Oct 2026 05:03:57 GMT\r\n"
+      + "Server: nginx/1.25.3\r\n"
+      + "Content-Type: text/html; charset=utf-8\r\n"
+      + "Content-Length: 48213\r\n"
+      + "Connection: keep-alive\r\n"
+      + "Cache-Control: public, max-age=3600, must-revalidate\r\n"
+      + "Expires: Sat, 17 Oct 2026 06:03:57 GMT\r\n"
+      + "Last-Modified: Wed, 21 Oct 2015 07:28:00 GMT\r\n"
+      + "ETag: \"5f3c-18a2b\"\r\n"
+      + "Vary: Accept-Encoding\r\n"
+      + "Accept-Ranges: bytes\r\n"
+      + "x-frame-options: SAMEORIGIN\r\n"
+      + "\r\n";
+  /** What the client looks up after it read the response. */
+  private static final String[] LOOKUPS = {
+      "Content-Type", "Content-Length", "Transfer-Encoding", "Connection", "content-encoding",
+  };
+  /** The most a response may take, with some room for the JVM we run on. */
+  private static final long MAX_BYTES_PER_RESPONSE = 4 * 1024;
+
+  public static void main(String[] args) throws IOException {
+    int responseCount = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+    byte[] response = RESPONSE.getBytes(StandardCharsets.ISO_8859_1);
+    URI uri = URI.create("http://localhost/index.html");
+    int failures = checkHeaders(response, uri);
+
+    // Warm up, so the JIT could remove what escape analysis allows before we count.
+    readResponses(response, uri, responseCount / 2);
+    long allocatedBytes = allocatedBytes();
+    long checksum = readResponses(response, uri, responseCount);
+    long bytesPerResponse = (allocatedBytes() - allocatedBytes) / responseCount;
+
+    RawHeaders headers = RawHeaders.fromBytes(new ByteArrayInputStream(response));
+    lookup(headers, responseCount / 2);
+    // Asking for the counter allocates a little itself.
+    allocatedBytes = allocatedBytes();
+    long overhead = allocatedBytes() - allocatedBytes;
+    allocatedBytes = allocatedBytes();
+    checksum += lookup(headers, responseCount);
+    long lookupBytes = allocatedBytes() - allocatedBytes - overhead;
+
+    System.out.println("Responses:" + responseCount + " headers:" + headers.length());
+    System.out.println("allocated per response(B):" + bytesPerResponse
+        + " allocated by " + (long) responseCount * LOOKUPS.length + " lookups(B):" + lookupBytes);
+    if (bytesPerResponse > MAX_BYTES_PER_RESPONSE) {
+      System.err.println("A response allocated " + bytesPerResponse + " bytes.");
+      failures++;
+    }
+    if (lookupBytes > 0) {
+      System.err.println("The lookups allocated " + lookupBytes + " bytes.");
+      failures++;
+    }
+    System.out.println("Checksum:" + checksum + " Failures:" + failures);
+  }
+
+  private static long readResponses(byte[] response, URI uri, int count) throws IOException {
+    long checksum = 0;
+    for (int i = 0; i < count; i++) {
+      RawHeaders headers = RawHeaders.fromBytes(new ByteArrayInputStream(response));
+      ResponseHeaders responseHeaders = new ResponseHeaders(uri, headers);
+      checksum += responseHeaders.getContentLength() + responseHeaders.getMaxAgeSeconds();
+      checksum += lookup(headers, 1);
+    }
+    return checksum;
+  }
+
+  private static long lookup(RawHeaders headers, int count) {
+    long checksum = 0;
+    for (int i = 0; i < count; i++) {
+      for (String fieldName : LOOKUPS) {
+        String value = headers.get(fieldName);
+        checksum += value != null ? value.length() : 0;
+      }
+    }
+    return checksum;
+  }
+
+  private static int checkHeaders(byte[] response, URI uri) throws IOException {
+    int failures = 0;
+    RawHeaders headers = RawHeaders.fromBytes(new ByteArrayInputStream(response));
+    ResponseHeaders responseHeaders = new ResponseHeaders(uri, headers);
+    failures += check("max-age", 3600, responseHeaders.getMaxAgeSeconds());
+    failures += check("public", true, responseHeaders.isPublic());
+    failures += check("must-revalidate", true, responseHeaders.isMustRevalidate());
+    failures += check("content length", 48213, responseHeaders.getContentLength());
+    failures += check("etag", "\"5f3c-18a2b\"", responseHeaders.getEtag());
+    failures += check("vary", true, responseHeaders.getVaryFields().contains("accept-encoding"));
+    failures += check("served date", 1792213437000L, responseHeaders.getServedDate().getTime());
+    failures += check("lower case name", "SAMEORIGIN", headers.get("X-Frame-Options"));
+    failures += check("name as sent", "x-frame-options", headers.getFieldName(11));
+
+    // The last value wins, and removing keeps the order of the others.
+    headers.add("Cache-Control", "no-store");
+    headers.add("x-custom", "1");
+    headers.add("X-Custom", " 2 ");
+    failures += check("last value", "2", headers.get("x-CUSTOM"));
+    failures += check("values", Arrays.asList("1", "2"), headers.values("X-Custom"));
+    failures += check("parsed again", true, headers.getCacheControl().isNoStore());
+    headers.removeAll("cache-control");
+    headers.removeAll("Content-Length");
+    failures += check("removed", null, headers.get("Cache-Control"));
+    failures += check("not cached", false, headers.getCacheControl().isNoStore());
+    failures += check("removed length", null, headers.get("Content-Length"));
+    failures += check("length", 12, headers.length());
+    failures += check("order", "Connection", headers.getFieldName(3));
+    failures += check("index", "keep-alive", headers.get("connection"));
+    headers.set("Connection", "close");
+    failures += check("set", "close", headers.get("Connection"));
+    failures += check("copy", "close", new RawHeaders(headers).get("CONNECTION"));
+
+    RawHeaders request = new RawHeaders();
+    request.add("Cache-Control", "max-stale=60, only-if-cached");
+    request.add("Pragma", "no-cache");
+    RequestHeaders requestHeaders = new RequestHeaders(uri, request);
+    failures += check("max-stale", 60, requestHeaders.getMaxStaleSeconds());
+    failures += check("only-if-cached", true, requestHeaders.isOnlyIfCached());
+    failures += check("pragma", true, requestHeaders.isNoCache());
+    return failures;
+  }
+
+  private static int check(String name, Object expected, Object actual) {
+    if (expected == null ? actual != null : !expected.equals(actual)) {
+      System.err.println(name + ": expected " + expected + " but was " + actual);
+      return 1;
+    }
+    return 0;
+  }
+
+  /**
+   * The bytes the current thread allocated in the heap. Only HotSpot supports this, otherwise we
+   * return 0.
+   */
+  private static long allocatedBytes() {
+    ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) threadMXBean)
+          .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return 0;
+  }
+}
@@ -16,8 +16,9 @@
 
 package com.cz.android.simplehttp.header;
 
+import java.nio.charset.StandardCharsets;
 import java.text.DateFormat;
-import java.text.ParseException;
+import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
@@ -25,21 +26,24 @@ import java.util.TimeZone;
 
 /**
  * Best-effort parser for HTTP dates.
+ *
+ * <p>The three formats of RFC 7231 section 7.1.1.1 are parsed by hand straight from the characters,
+ * without allocating. Only the odd formats some servers use for cookies fall back to {@link
+ * SimpleDateFormat}. Formatting is done by hand too, and the current second is cached so a server
+ * could write its {@code Date} header for free.
  */
-final class HttpDate {
+public final class HttpDate {
 
-  /**
-   * Most websites serve cookies in the blessed format. Eagerly create the parser to ensure such
-   * cookies are on the fast path.
-   */
-  private static final ThreadLocal<DateFormat> STANDARD_DATE_FORMAT =
-      new ThreadLocal<DateFormat>() {
-        @Override protected DateFormat initialValue() {
-          DateFormat rfc1123 = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
-          rfc1123.setTimeZone(TimeZone.getTimeZone("UTC"));
-          return rfc1123;
-        }
-      };
+  /** Returned by {@link #parseMillis} if the value couldn't be parsed. */
+  public static final long INVALID = Long.MIN_VALUE;
+
+  private static final String[] DAY_NAMES = {"Sun", "Mon", "Tue", "Wed", "Thu", "Fri", "Sat"};
+  private static final String[] MONTH_NAMES =
+      {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+  private static final TimeZone GMT = TimeZone.getTimeZone("GMT");
+  /** Every fallback format has at least 5 numbers: the day, the year and the time. */
+  private static final int MIN_DIGITS = 5;
+  private static final int FORMATTED_LENGTH = "Sun, 06 Nov 1994 08:49:37 GMT".length();
 
   /** If we fail to parse a date in a non-standard format, try each of these formats in sequence. */
   private static final String[] BROWSER_COMPATIBLE_DATE_FORMATS = new String[] {
@@ -54,27 +58,377 @@ final class HttpDate {
             /* RI bug 6641315 claims a cookie of this format was once served by www.yahoo.com */
       "EEE MMM d yyyy HH:mm:ss z", };
 
+  /**
+   * The fallback formats are slow to create, so each thread creates them once. The standard format
+   * comes first in case the hand written parser rejected something only it accepts.
+   */
+  private static final ThreadLocal<DateFormat[]> BROWSER_COMPATIBLE_PARSERS =
+      new ThreadLocal<DateFormat[]>() {
+        @Override protected DateFormat[] initialValue() {
+          DateFormat[] parsers = new DateFormat[BROWSER_COMPATIBLE_DATE_FORMATS.length + 1];
+          parsers[0] = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+          for (int i = 0; i < BROWSER_COMPATIBLE_DATE_FORMATS.length; i++) {
+            parsers[i + 1] = new SimpleDateFormat(BROWSER_COMPATIBLE_DATE_FORMATS[i], Locale.US);
+          }
+          return parsers;
+        }
+      };
+
+  /** The formatted date of the last second somebody asked for. */
+  private static volatile CachedDate cachedDate = new CachedDate(Long.MIN_VALUE, null);
+
   /**
    * Returns the date for {@code value}. Returns null if the value couldn't be
    * parsed.
    */
   public static Date parse(String value) {
-    try {
-      return STANDARD_DATE_FORMAT.get().parse(value);
-    } catch (ParseException ignore) {
-    }
-    for (String formatString : BROWSER_COMPATIBLE_DATE_FORMATS) {
-      try {
-        return new SimpleDateFormat(formatString, Locale.US).parse(value);
-      } catch (ParseException ignore) {
+    long millis = parseMillis(value);
+    return millis != INVALID ? new Date(millis) : null;
+  }
+
+  /**
+   * Returns the milliseconds since the epoch for {@code value}, or {@link #INVALID} if the value
+   * couldn't be parsed. The standard formats don't allocate.
+   */
+  public static long parseMillis(String value) {
+    if (value == null) {
+      return INVALID;
+    }
+    long millis = parseStandard(value);
+    if (millis != INVALID) {
+      return millis;
+    }
+    if (countDigits(value) < MIN_DIGITS) {
+      // None of the fallback formats could match, don't bother SimpleDateFormat.
+      return INVALID;
+    }
+    DateFormat[] parsers = BROWSER_COMPATIBLE_PARSERS.get();
+    ParsePosition position = new ParsePosition(0);
+    for (int i = 0; i < parsers.length; i++) {
+      // Parsing a zone changes the zone of the format, put it back so the formats stay reusable.
+      parsers[i].setTimeZone(i == 0 ? GMT : TimeZone.getDefault());
+      position.setIndex(0);
+      position.setErrorIndex(-1);
+      Date date = parsers[i].parse(value, position);
+      if (date != null) {
+        return date.getTime();
       }
     }
-    return null;
+    return INVALID;
   }
 
   /** Returns the string for {@code value}. */
   public static String format(Date value) {
-    return STANDARD_DATE_FORMAT.get().format(value);
+    return format(value.getTime());
+  }
+
+  /** Returns the RFC 1123 string for {@code millis}, like {@code Sun, 06 Nov 1994 08:49:37 GMT}. */
+  public static String format(long millis) {
+    CachedDate cached = cachedDate;
+    if (cached.second == Math.floorDiv(millis, 1000L)) {
+      return cached.text;
+    }
+    char[] chars = new char[FORMATTED_LENGTH];
+    formatTo(millis, chars);
+    return new String(chars);
+  }
+
+  /** Returns the current date, formatted at most once per second. */
+  public static String currentDate() {
+    return currentCachedDate().text;
+  }
+
+  /**
+   * Returns the whole {@code Date} header line of the current second, ending with CRLF. The array
+   * is shared, don't modify it.
+   */
+  public static byte[] currentDateHeader() {
+    return currentCachedDate().header;
+  }
+
+  private static CachedDate currentCachedDate() {
+    long now = System.currentTimeMillis();
+    CachedDate cached = cachedDate;
+    if (cached.second != Math.floorDiv(now, 1000L)) {
+      char[] chars = new char[FORMATTED_LENGTH];
+      formatTo(now, chars);
+      cached = new CachedDate(Math.floorDiv(now, 1000L), new String(chars));
+      // Racing threads format the same second, any of them is fine.
+      cachedDate = cached;
+    }
+    return cached;
+  }
+
+  private static void formatTo(long millis, char[] chars) {
+    long epochDay = Math.floorDiv(millis, 86400000L);
+    int secondOfDay = (int) (Math.floorMod(millis, 86400000L) / 1000);
+    // Howard Hinnant's civil_from_days, with the era starting on March 1st.
+    long z = epochDay + 719468;
+    long era = Math.floorDiv(z, 146097);
+    int dayOfEra = (int) (z - era * 146097);
+    int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+    int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    int mp = (5 * dayOfYear + 2) / 153;
+    int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+    int month = mp < 10 ? mp + 3 : mp - 9;
+    long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+    String dayName = DAY_NAMES[(int) Math.floorMod(epochDay + 4, 7L)];
+    String monthName = MONTH_NAMES[month - 1];
+    chars[0] = dayName.charAt(0);
+    chars[1] = dayName.charAt(1);
+    chars[2] = dayName.charAt(2);
+    chars[3] = ',';
+    chars[4] = ' ';
+    putTwoDigits(chars, 5, day);
+    chars[7] = ' ';
+    chars[8] = monthName.charAt(0);
+    chars[9] = monthName.charAt(1);
+    chars[10] = monthName.charAt(2);
+    chars[11] = ' ';
+    putTwoDigits(chars, 12, (int) (year / 100 % 100));
+    putTwoDigits(chars, 14, (int) (year % 100));
+    chars[16] = ' ';
+    putTwoDigits(chars, 17, secondOfDay / 3600);
+    chars[19] = ':';
+    putTwoDigits(chars, 20, secondOfDay / 60 % 60);
+    chars[22] = ':';
+    putTwoDigits(chars, 23, secondOfDay % 60);
+    chars[25] = ' ';
+    chars[26] = 'G';
+    chars[27] = 'M';
+    chars[28] = 'T';
+  }
+
+  private static void putTwoDigits(char[] chars, int offset, int value) {
+    chars[offset] = (char) ('0' + value / 10);
+    chars[offset + 1] = (char) ('0' + value % 10);
+  }
+
+  /**
+   * Parses the three formats HTTP/1.1 servers must accept, and the usual variations: the weekday is
+   * skipped, the day could have one digit, the year two digits, and the zone could be an offset.
+   * <pre>
+   *   Sun, 06 Nov 1994 08:49:37 GMT   RFC 1123
+   *   Sunday, 06-Nov-94 08:49:37 GMT  RFC 850
+   *   Sun Nov  6 08:49:37 1994        ANSI C asctime()
+   * </pre>
+   */
+  private static long parseStandard(String value) {
+    int length = value.length();
+    int pos = HeaderParser.skipWhitespace(value, 0);
+
+    // The weekday isn't checked against the date, SimpleDateFormat doesn't either.
+    int weekdayStart = pos;
+    while (pos < length && isLetter(value.charAt(pos))) {
+      pos++;
+    }
+    if (pos - weekdayStart < 3) {
+      return INVALID;
+    }
+    if (pos < length && value.charAt(pos) == ',') {
+      pos++;
+    }
+    pos = HeaderParser.skipWhitespace(value, pos);
+
+    int day;
+    int month;
+    long year = -1;
+    boolean asctime = pos < length && isLetter(value.charAt(pos));
+    if (asctime) {
+      // asctime: the month comes first and the year last.
+      month = parseMonth(value, pos);
+      pos = skipLetters(value, pos);
+      pos = HeaderParser.skipWhitespace(value, pos);
+      int dayStart = pos;
+      day = (int) parseNumber(value, pos, 2);
+      pos = skipDigits(value, pos);
+      if (pos == dayStart) {
+        return INVALID;
+      }
+    } else {
+      int dayStart = pos;
+      day = (int) parseNumber(value, pos, 2);
+      pos = skipDigits(value, pos);
+      if (pos == dayStart || pos >= length || !isDateSeparator(value.charAt(pos))) {
+        return INVALID;
+      }
+      pos++;
+      month = parseMonth(value, pos);
+      pos = skipLetters(value, pos);
+      if (pos >= length || !isDateSeparator(value.charAt(pos))) {
+        return INVALID;
+      }
+      pos++;
+      int yearStart = pos;
+      year = parseNumber(value, pos, 4);
+      pos = skipDigits(value, pos);
+      year = fullYear(year, pos - yearStart);
+    }
+    if (month < 0 || day < 1 || day > 31) {
+      return INVALID;
+    }
+
+    pos = HeaderParser.skipWhitespace(value, pos);
+    int hourStart = pos;
+    int hour = (int) parseNumber(value, pos, 2);
+    pos = skipDigits(value, pos);
+    if (pos == hourStart || pos >= length || value.charAt(pos) != ':') {
+      return INVALID;
+    }
+    int minuteStart = ++pos;
+    int minute = (int) parseNumber(value, pos, 2);
+    pos = skipDigits(value, pos);
+    if (pos == minuteStart || pos >= length || value.charAt(pos) != ':') {
+      return INVALID;
+    }
+    int secondStart = ++pos;
+    int second = (int) parseNumber(value, pos, 2);
+    pos = skipDigits(value, pos);
+    if (pos == secondStart || hour < 0 || hour > 23 || minute < 0 || minute > 59
+        || second < 0 || second > 60) {
+      return INVALID;
+    }
+    pos = HeaderParser.skipWhitespace(value, pos);
+
+    if (asctime) {
+      int yearStart = pos;
+      year = parseNumber(value, pos, 4);
+      pos = skipDigits(value, pos);
+      year = fullYear(year, pos - yearStart);
+      pos = HeaderParser.skipWhitespace(value, pos);
+    }
+    if (year < 0) {
+      return INVALID;
+    }
+
+    // The zone. asctime() has none, it is GMT.
+    long offsetMillis = 0;
+    if (pos == length && !asctime) {
+      return INVALID;
+    }
+    if (pos < length) {
+      char c = value.charAt(pos);
+      if (c == '+' || c == '-') {
+        int offsetStart = pos + 1;
+        int offset = (int) parseNumber(value, offsetStart, 4);
+        if (skipDigits(value, offsetStart) - offsetStart != 4 || offset % 100 > 59) {
+          return INVALID;
+        }
+        offsetMillis = (offset / 100 * 60 + offset % 100) * 60000L;
+        if (c == '-') {
+          offsetMillis = -offsetMillis;
+        }
+        pos = offsetStart + 4;
+      } else if (value.regionMatches(true, pos, "GMT", 0, 3)
+          || value.regionMatches(true, pos, "UTC", 0, 3)) {
+        pos += 3;
+      } else if (value.regionMatches(true, pos, "UT", 0, 2)) {
+        pos += 2;
+      } else if (c == 'Z' || c == 'z') {
+        pos += 1;
+      } else {
+        return INVALID;
+      }
+      pos = HeaderParser.skipWhitespace(value, pos);
+      if (pos != length) {
+        return INVALID;
+      }
+    }
+
+    long epochDay = epochDay(year, month + 1, day);
+    return ((epochDay * 24 + hour) * 60 + minute) * 60000L + second * 1000L - offsetMillis;
+  }
+
+  /** Howard Hinnant's days_from_civil. */
+  private static long epochDay(long year, int month, int day) {
+    year -= month <= 2 ? 1 : 0;
+    long era = Math.floorDiv(year, 400);
+    int yearOfEra = (int) (year - era * 400);
+    int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+    int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+    return era * 146097 + dayOfEra - 719468;
+  }
+
+  /** Two digit years follow RFC 6265: 70 to 99 are 1970 to 1999, 0 to 69 are 2000 to 2069. */
+  private static long fullYear(long year, int digits) {
+    if (digits == 4) {
+      return year;
+    } else if (digits == 2) {
+      return year < 70 ? year + 2000 : year + 1900;
+    }
+    return -1;
+  }
+
+  /** Returns the month from 0 to 11, or -1. The full name is accepted too. */
+  private static int parseMonth(String value, int pos) {
+    if (pos + 3 > value.length()) {
+      return -1;
+    }
+    for (int i = 0; i < MONTH_NAMES.length; i++) {
+      if (value.regionMatches(true, pos, MONTH_NAMES[i], 0, 3)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** Parses at most {@code maxDigits} digits. Returns -1 if there are more. */
+  private static long parseNumber(String value, int pos, int maxDigits) {
+    long result = 0;
+    int end = skipDigits(value, pos);
+    if (end - pos > maxDigits) {
+      return -1;
+    }
+    for (int i = pos; i < end; i++) {
+      result = result * 10 + (value.charAt(i) - '0');
+    }
+    return result;
+  }
+
+  private static int countDigits(String value) {
+    int count = 0;
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c >= '0' && c <= '9') {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static int skipDigits(String value, int pos) {
+    while (pos < value.length() && value.charAt(pos) >= '0' && value.charAt(pos) <= '9') {
+      pos++;
+    }
+    return pos;
+  }
+
+  private static int skipLetters(String value, int pos) {
+    while (pos < value.length() && isLetter(value.charAt(pos))) {
+      pos++;
+    }
+    return pos;
+  }
+
+  private static boolean isLetter(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+
+  private static boolean isDateSeparator(char c) {
+    return c == ' ' || c == '-';
+  }
+
+  private static final class CachedDate {
+    final long second;
+    final String text;
+    final byte[] header;
+
+    CachedDate(long second, String text) {
+      this.second = second;
+      this.text = text;
+      this.header = text != null ? ("Date: " + text + "\r\n").getBytes(StandardCharsets.US_ASCII) : null;
+    }
   }
 
   private HttpDate() {
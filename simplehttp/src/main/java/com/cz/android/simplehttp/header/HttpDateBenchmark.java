@@ -0,0 +1,249 @@
+package com.cz.android.simplehttp.header;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Compares {@link HttpDate} with the {@link SimpleDateFormat} version it replaced, which is copied
+ * below as {@link LegacyHttpDate}. The corpus has the dates real servers send in {@code Date},
+ * {@code Expires}, {@code Last-Modified} and cookies, and the malformed ones that make the old
+ * parser try every fallback format. It reports the time and the bytes allocated for each call.
+ *
+ * <p>Arguments: [calls per row]
+ */
+public class HttpDateBenchmark {
+  private static final String[] VALID_DATES = {
+      "Sun, 06 Nov 1994 08:49:37 GMT",
+      "Sunday, 06-Nov-94 08:49:37 GMT",
+      "Sun Nov  6 08:49:37 1994",
+      "Thu, 01 Jan 1970 00:00:00 GMT",
+      "Wed, 21 Oct 2015 07:28:00 GMT",
+      "Tue, 15 Nov 1994 12:45:26 +0000",
+      "Tue, 10 Jun 2025 06:35:22 -0700",
+      "Mon, 31 Dec 2035 23:59:59 GMT",
+      "Wed, 09 Jun 2021 10:18:14 GMT",
+      "Sat, 1 Jan 2000 00:00:00 GMT",
+      "Thu, 18-Dec-2031 21:01:22 GMT",
+      "Fri, 17 Oct 2026 12:00:00 UTC",
+      "Sun, 32 Nov 1994 08:49:37 GMT",
+      "Thu, 01 Jan 1970 00:00:00 PST",
+      "Mon, 01-Jan-2001 00:00:00 GMT",
+  };
+  /** The three formats of RFC 7231, the ones that never need SimpleDateFormat. */
+  private static final String[] STANDARD_DATES = {
+      "Sun, 06 Nov 1994 08:49:37 GMT", "Sunday, 06-Nov-94 08:49:37 GMT", "Sun Nov  6 08:49:37 1994",
+  };
+  private static final String[] MALFORMED_DATES = {
+      "",
+      "0",
+      "-1",
+      "never",
+      "Sun, 06 Nov 1994",
+      "Sun, 06 Foo 1994 08:49:37 GMT",
+      "Thu, 01 Jan 1970 00:00:00",
+      "2021-06-09T10:18:14Z",
+      "Wed, 09 Jun 2021 10:18",
+      "Expires=Thu, 01 Jan 1970",
+  };
+
+  public static void main(String[] args) {
+    int callCount = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+    int failures = checkDates();
+
+    // Warm up both of them, so the JIT compiled them before we measure.
+    for (int i = 0; i < 3; i++) {
+      parseLegacy(VALID_DATES, callCount / 10);
+      parseLegacy(MALFORMED_DATES, callCount / 100);
+      parse(VALID_DATES, callCount / 10);
+      parse(MALFORMED_DATES, callCount / 10);
+      formatLegacy(callCount / 10);
+      format(callCount / 10);
+      currentDate(callCount / 10);
+    }
+    System.out.println("Calls:" + callCount);
+    System.out.println("operation                    ns/call   allocated/call(B)");
+    long checksum = 0;
+    long[] result = new long[2];
+
+    measure(result);
+    checksum += parseLegacy(VALID_DATES, callCount);
+    report("parse valid, legacy", result, callCount);
+    measure(result);
+    checksum += parse(VALID_DATES, callCount);
+    report("parse valid", result, callCount);
+    measure(result);
+    checksum += parse(STANDARD_DATES, callCount);
+    report("parse standard", result, callCount);
+
+    // The legacy parser throws up to 15 exceptions for each of these, so it gets fewer calls.
+    measure(result);
+    checksum += parseLegacy(MALFORMED_DATES, callCount / 10);
+    report("parse malformed, legacy", result, callCount / 10);
+    measure(result);
+    checksum += parse(MALFORMED_DATES, callCount);
+    report("parse malformed", result, callCount);
+
+    measure(result);
+    checksum += formatLegacy(callCount);
+    report("format, legacy", result, callCount);
+    measure(result);
+    checksum += format(callCount);
+    report("format", result, callCount);
+    measure(result);
+    checksum += currentDate(callCount);
+    report("current date header", result, callCount);
+
+    System.out.println("Checksum:" + checksum + " Failures:" + failures);
+  }
+
+  /** Both parsers must agree on the whole corpus, and format must round trip. */
+  private static int checkDates() {
+    int failures = 0;
+    for (String[] dates : new String[][] {VALID_DATES, MALFORMED_DATES}) {
+      for (String date : dates) {
+        Date expected = LegacyHttpDate.parse(date);
+        Date actual = HttpDate.parse(date);
+        if (expected == null ? actual != null : !expected.equals(actual)) {
+          System.err.println("Parsed " + date + " as " + actual + " instead of " + expected);
+          failures++;
+        }
+        if ((dates == VALID_DATES) != (actual != null)) {
+          System.err.println("Unexpected result for " + date + ": " + actual);
+          failures++;
+        }
+      }
+    }
+    DateFormat gmtFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+    gmtFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+    long[] millis = {0L, 784111777000L, 951782400000L, 2082758399000L, -86400000L,
+        System.currentTimeMillis() / 1000 * 1000};
+    for (long value : millis) {
+      String formatted = HttpDate.format(value);
+      // Not the legacy format, its zone changes after it parsed a zone.
+      String expected = gmtFormat.format(new Date(value));
+      if (!formatted.equals(expected) || HttpDate.parseMillis(formatted) != value) {
+        System.err.println("Formatted " + value + " as " + formatted + " instead of " + expected);
+        failures++;
+      }
+    }
+    String header = new String(HttpDate.currentDateHeader(), StandardCharsets.US_ASCII);
+    if (!header.equals("Date: " + HttpDate.currentDate() + "\r\n")) {
+      System.err.println("Bad date header:" + header);
+      failures++;
+    }
+    return failures;
+  }
+
+  private static long parseLegacy(String[] dates, int callCount) {
+    long checksum = 0;
+    for (int i = 0; i < callCount; i++) {
+      Date date = LegacyHttpDate.parse(dates[i % dates.length]);
+      checksum += date != null ? date.getTime() : 1;
+    }
+    return checksum;
+  }
+
+  private static long parse(String[] dates, int callCount) {
+    long checksum = 0;
+    for (int i = 0; i < callCount; i++) {
+      long millis = HttpDate.parseMillis(dates[i % dates.length]);
+      checksum += millis != HttpDate.INVALID ? millis : 1;
+    }
+    return checksum;
+  }
+
+  /** Formats a different second each time, so the cache doesn't help. */
+  private static long formatLegacy(int callCount) {
+    long checksum = 0;
+    for (int i = 0; i < callCount; i++) {
+      checksum += LegacyHttpDate.format(new Date(i * 1000L)).length();
+    }
+    return checksum;
+  }
+
+  private static long format(int callCount) {
+    long checksum = 0;
+    for (int i = 0; i < callCount; i++) {
+      checksum += HttpDate.format(i * 1000L).length();
+    }
+    return checksum;
+  }
+
+  /** What a server does for each response. */
+  private static long currentDate(int callCount) {
+    long checksum = 0;
+    for (int i = 0; i < callCount; i++) {
+      checksum += HttpDate.currentDateHeader().length;
+    }
+    return checksum;
+  }
+
+  private static void measure(long[] result) {
+    result[0] = System.nanoTime();
+    result[1] = allocatedBytes();
+  }
+
+  private static void report(String name, long[] start, int callCount) {
+    long elapsedNs = System.nanoTime() - start[0];
+    long allocatedBytes = allocatedBytes() - start[1];
+    System.out.println(String.format("%-26s %9d %19d", name, elapsedNs / callCount,
+        allocatedBytes / callCount));
+  }
+
+  /**
+   * The bytes the current thread allocated in the heap. Only HotSpot supports this, otherwise we
+   * return 0.
+   */
+  private static long allocatedBytes() {
+    ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) threadMXBean)
+          .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return 0;
+  }
+
+  /** The {@link SimpleDateFormat} version of {@link HttpDate}. */
+  static final class LegacyHttpDate {
+    private static final ThreadLocal<DateFormat> STANDARD_DATE_FORMAT =
+        new ThreadLocal<DateFormat>() {
+          @Override protected DateFormat initialValue() {
+            DateFormat rfc1123 = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            rfc1123.setTimeZone(TimeZone.getTimeZone("UTC"));
+            return rfc1123;
+          }
+        };
+
+    private static final String[] BROWSER_COMPATIBLE_DATE_FORMATS = new String[] {
+        "EEEE, dd-MMM-yy HH:mm:ss zzz", "EEE MMM d HH:mm:ss yyyy",
+        "EEE, dd-MMM-yyyy HH:mm:ss z", "EEE, dd-MMM-yyyy HH-mm-ss z", "EEE, dd MMM yy HH:mm:ss z",
+        "EEE dd-MMM-yyyy HH:mm:ss z", "EEE dd MMM yyyy HH:mm:ss z", "EEE dd-MMM-yyyy HH-mm-ss z",
+        "EEE dd-MMM-yy HH:mm:ss z", "EEE dd MMM yy HH:mm:ss z", "EEE,dd-MMM-yy HH:mm:ss z",
+        "EEE,dd-MMM-yyyy HH:mm:ss z", "EEE, dd-MM-yyyy HH:mm:ss z", "EEE MMM d yyyy HH:mm:ss z", };
+
+    static Date parse(String value) {
+      try {
+        return STANDARD_DATE_FORMAT.get().parse(value);
+      } catch (ParseException ignore) {
+      }
+      for (String formatString : BROWSER_COMPATIBLE_DATE_FORMATS) {
+        try {
+          return new SimpleDateFormat(formatString, Locale.US).parse(value);
+        } catch (ParseException ignore) {
+        }
+      }
+      return null;
+    }
+
+    static String format(Date value) {
+      return STANDARD_DATE_FORMAT.get().format(value);
+    }
+  }
+}
@@ -0,0 +1,87 @@
+package com.cz.android.simplehttp.header;
+
+/**
+ * The header names {@link RawHeaders} indexes. Looking one of them up takes a hash and one
+ * comparison, however many fields the message has. Parsed lines whose name is spelled exactly like
+ * one of these share the constant instead of allocating a substring.
+ */
+final class KnownHeaders {
+  static final String[] NAMES = {
+      "Cache-Control", "Pragma", "Connection", "Keep-Alive", "Content-Length", "Content-Type",
+      "Content-Encoding", "Transfer-Encoding", "Date", "Expires", "Last-Modified", "ETag", "Age",
+      "Vary", "Host", "User-Agent", "Accept", "Accept-Encoding", "Authorization",
+      "Proxy-Authorization", "If-None-Match", "If-Modified-Since", "Location", "Set-Cookie",
+      "Server", "Accept-Ranges", "Warning", "X-Android-Sent-Millis", "X-Android-Received-Millis",
+      "X-Android-Response-Source",
+  };
+  static final int CACHE_CONTROL = 0;
+  static final int PRAGMA = 1;
+
+  static final int COUNT = NAMES.length;
+  private static final int[] HASHES = new int[COUNT];
+
+  /** Open addressing table of ids + 1, keyed by the folded hash of the name. 0 is empty. */
+  private static final byte[] TABLE = new byte[64];
+
+  static {
+    for (int id = 0; id < COUNT; id++) {
+      int hash = foldedHash(NAMES[id], 0, NAMES[id].length());
+      HASHES[id] = hash;
+      int slot = hash & (TABLE.length - 1);
+      while (TABLE[slot] != 0) {
+        slot = (slot + 1) & (TABLE.length - 1);
+      }
+      TABLE[slot] = (byte) (id + 1);
+    }
+  }
+
+  /** Returns the hash of {@code value[start..end)} with ASCII letters in lower case. */
+  static int foldedHash(CharSequence value, int start, int end) {
+    int hash = 0;
+    for (int i = start; i < end; i++) {
+      hash = 31 * hash + toLowerCase(value.charAt(i));
+    }
+    return hash;
+  }
+
+  static int hash(int id) {
+    return HASHES[id];
+  }
+
+  /** Returns the id of the name {@code value[start..end)} ignoring case, or -1. */
+  static int id(CharSequence value, int start, int end, int hash) {
+    int slot = hash & (TABLE.length - 1);
+    int entry;
+    while ((entry = TABLE[slot]) != 0) {
+      int id = entry - 1;
+      if (HASHES[id] == hash && regionMatches(value, start, end, NAMES[id], true)) {
+        return id;
+      }
+      slot = (slot + 1) & (TABLE.length - 1);
+    }
+    return -1;
+  }
+
+  /** Returns true if {@code value[start..end)} is {@code name}. */
+  static boolean regionMatches(CharSequence value, int start, int end, String name,
+      boolean ignoreCase) {
+    if (end - start != name.length()) {
+      return false;
+    }
+    for (int i = 0; i < name.length(); i++) {
+      char a = value.charAt(start + i);
+      char b = name.charAt(i);
+      if (a != b && (!ignoreCase || toLowerCase(a) != toLowerCase(b))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int toLowerCase(char c) {
+    return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+  }
+
+  private KnownHeaders() {
+  }
+}
@@ -18,11 +18,14 @@
 package com.cz.android.simplehttp.header;
 
 import com.cz.android.simplehttp.pool.Util;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.ProtocolException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
@@ -42,6 +45,11 @@ import java.util.Set;
  *
  * <p>This class trims whitespace from values. It never returns values with
  * leading or trailing whitespace.
+ *
+ * <p>Names and values alternate in one flat array. Each name also keeps its
+ * hash with ASCII folded to lower case, so a lookup compares ints before it
+ * compares strings. The last field of each of the {@link KnownHeaders} is
+ * indexed, so {@link #get} of a common header doesn't scan at all.
  */
 public final class RawHeaders {
   public static final int HTTP_CONTINUE = 100;
@@ -61,7 +69,14 @@ public final class RawHeaders {
     }
   };
 
-  private final List<String> namesAndValues = new ArrayList<String>(20);
+  private String[] namesAndValues = new String[32];
+  /** The folded hash of each field name. */
+  private int[] nameHashes = new int[16];
+  private int fieldCount;
+  /** The index + 1 of the last field of each known header, 0 if absent. */
+  private char[] knownFields = new char[KnownHeaders.COUNT];
+  /** Parsed on demand, null after any change. */
+  private CacheControl cacheControl;
   private String requestLine;
   private String statusLine;
   private int httpMinorVersion = 1;
@@ -72,7 +87,11 @@ public final class RawHeaders {
   }
 
   public RawHeaders(RawHeaders copyFrom) {
-    namesAndValues.addAll(copyFrom.namesAndValues);
+    namesAndValues = copyFrom.namesAndValues.clone();
+    nameHashes = copyFrom.nameHashes.clone();
+    fieldCount = copyFrom.fieldCount;
+    knownFields = copyFrom.knownFields.clone();
+    cacheControl = copyFrom.cacheControl;
     requestLine = copyFrom.requestLine;
     statusLine = copyFrom.statusLine;
     httpMinorVersion = copyFrom.httpMinorVersion;
@@ -121,12 +140,12 @@ public final class RawHeaders {
   public void computeResponseStatusLineFromSpdyHeaders() throws IOException {
     String status = null;
     String version = null;
-    for (int i = 0; i < namesAndValues.size(); i += 2) {
-      String name = namesAndValues.get(i);
+    for (int i = 0; i < fieldCount * 2; i += 2) {
+      String name = namesAndValues[i];
       if (":status".equals(name)) {
-        status = namesAndValues.get(i + 1);
+        status = namesAndValues[i + 1];
       } else if (":version".equals(name)) {
-        version = namesAndValues.get(i + 1);
+        version = namesAndValues[i + 1];
       }
     }
     if (status == null || version == null) {
@@ -162,12 +181,32 @@ public final class RawHeaders {
    * value.
    */
   public void addLine(String line) {
-    int index = line.indexOf(":");
+    addLine((CharSequence) line);
+  }
+
+  private void addLine(CharSequence line) {
+    int index = indexOf(line, ':');
     if (index == -1) {
-      addLenient("", line);
-    } else {
-      addLenient(line.substring(0, index), line.substring(index + 1));
+      addLenient("", 0, line, 0);
+      return;
+    }
+    int hash = KnownHeaders.foldedHash(line, 0, index);
+    int id = KnownHeaders.id(line, 0, index, hash);
+    // Most servers spell the common names like we do, share the constant.
+    String fieldName = id != -1
+        && KnownHeaders.regionMatches(line, 0, index, KnownHeaders.NAMES[id], false)
+        ? KnownHeaders.NAMES[id]
+        : line.subSequence(0, index).toString();
+    addLenient(fieldName, hash, line, index + 1);
+  }
+
+  private static int indexOf(CharSequence value, char c) {
+    for (int i = 0; i < value.length(); i++) {
+      if (value.charAt(i) == c) {
+        return i;
+      }
     }
+    return -1;
   }
 
   /** Add a field with the specified value. */
@@ -177,25 +216,64 @@ public final class RawHeaders {
     if (fieldName.length() == 0 || fieldName.indexOf('\0') != -1 || value.indexOf('\0') != -1) {
       throw new IllegalArgumentException("Unexpected header: " + fieldName + ": " + value);
     }
-    addLenient(fieldName, value);
+    addLenient(fieldName, KnownHeaders.foldedHash(fieldName, 0, fieldName.length()), value, 0);
   }
 
   /**
-   * Add a field with the specified value without any validation. Only
-   * appropriate for headers from the remote peer.
+   * Add a field with the value {@code value[valueStart..]} without any
+   * validation. Only appropriate for headers from the remote peer.
    */
-  private void addLenient(String fieldName, String value) {
-    namesAndValues.add(fieldName);
-    namesAndValues.add(value.trim());
+  private void addLenient(String fieldName, int hash, CharSequence line, int valueStart) {
+    int valueEnd = line.length();
+    while (valueStart < valueEnd && line.charAt(valueStart) <= ' ') valueStart++;
+    while (valueEnd > valueStart && line.charAt(valueEnd - 1) <= ' ') valueEnd--;
+    String value = valueStart == 0 && valueEnd == line.length() && line instanceof String
+        ? (String) line
+        : line.subSequence(valueStart, valueEnd).toString();
+    if (fieldCount == nameHashes.length) {
+      namesAndValues = Arrays.copyOf(namesAndValues, namesAndValues.length * 2);
+      nameHashes = Arrays.copyOf(nameHashes, nameHashes.length * 2);
+    }
+    namesAndValues[fieldCount * 2] = fieldName;
+    namesAndValues[fieldCount * 2 + 1] = value;
+    nameHashes[fieldCount] = hash;
+    fieldCount++;
+    index(fieldCount - 1);
+    cacheControl = null;
+  }
+
+  /** Remembers the field at {@code index} if it is the last of a known header. */
+  private void index(int index) {
+    String fieldName = namesAndValues[index * 2];
+    int id = KnownHeaders.id(fieldName, 0, fieldName.length(), nameHashes[index]);
+    if (id != -1) {
+      // An index that doesn't fit is left out, get() scans for it instead.
+      knownFields[id] = index < Character.MAX_VALUE ? (char) (index + 1) : 0;
+    }
   }
 
   public void removeAll(String fieldName) {
-    for (int i = 0; i < namesAndValues.size(); i += 2) {
-      if (fieldName.equalsIgnoreCase(namesAndValues.get(i))) {
-        namesAndValues.remove(i); // field name
-        namesAndValues.remove(i); // value
+    int hash = KnownHeaders.foldedHash(fieldName, 0, fieldName.length());
+    int count = 0;
+    for (int i = 0; i < fieldCount; i++) {
+      if (nameHashes[i] == hash && fieldName.equalsIgnoreCase(namesAndValues[i * 2])) {
+        continue;
       }
+      namesAndValues[count * 2] = namesAndValues[i * 2];
+      namesAndValues[count * 2 + 1] = namesAndValues[i * 2 + 1];
+      nameHashes[count] = nameHashes[i];
+      count++;
+    }
+    if (count == fieldCount) {
+      return;
+    }
+    Arrays.fill(namesAndValues, count * 2, fieldCount * 2, null);
+    fieldCount = count;
+    Arrays.fill(knownFields, (char) 0);
+    for (int i = 0; i < fieldCount; i++) {
+      index(i);
     }
+    cacheControl = null;
   }
 
   public void addAll(String fieldName, List<String> headerFields) {
@@ -215,44 +293,91 @@ public final class RawHeaders {
 
   /** Returns the number of field values. */
   public int length() {
-    return namesAndValues.size() / 2;
+    return fieldCount;
   }
 
   /** Returns the field at {@code position} or null if that is out of range. */
   public String getFieldName(int index) {
-    int fieldNameIndex = index * 2;
-    if (fieldNameIndex < 0 || fieldNameIndex >= namesAndValues.size()) {
+    if (index < 0 || index >= fieldCount) {
       return null;
     }
-    return namesAndValues.get(fieldNameIndex);
+    return namesAndValues[index * 2];
   }
 
   /** Returns the value at {@code index} or null if that is out of range. */
   public String getValue(int index) {
-    int valueIndex = index * 2 + 1;
-    if (valueIndex < 0 || valueIndex >= namesAndValues.size()) {
+    if (index < 0 || index >= fieldCount) {
       return null;
     }
-    return namesAndValues.get(valueIndex);
+    return namesAndValues[index * 2 + 1];
   }
 
   /** Returns the last value corresponding to the specified field, or null. */
   public String get(String fieldName) {
-    for (int i = namesAndValues.size() - 2; i >= 0; i -= 2) {
-      if (fieldName.equalsIgnoreCase(namesAndValues.get(i))) {
-        return namesAndValues.get(i + 1);
+    int hash = KnownHeaders.foldedHash(fieldName, 0, fieldName.length());
+    int id = KnownHeaders.id(fieldName, 0, fieldName.length(), hash);
+    if (id != -1 && (knownFields[id] != 0 || fieldCount < Character.MAX_VALUE)) {
+      int index = knownFields[id] - 1;
+      return index != -1 ? namesAndValues[index * 2 + 1] : null;
+    }
+    for (int i = fieldCount - 1; i >= 0; i--) {
+      if (nameHashes[i] == hash && fieldName.equalsIgnoreCase(namesAndValues[i * 2])) {
+        return namesAndValues[i * 2 + 1];
       }
     }
     return null;
   }
 
+  /** Returns all the values of the specified field in order, or an empty list. */
+  public List<String> values(String fieldName) {
+    int hash = KnownHeaders.foldedHash(fieldName, 0, fieldName.length());
+    List<String> result = null;
+    for (int i = 0; i < fieldCount; i++) {
+      if (nameHashes[i] == hash && fieldName.equalsIgnoreCase(namesAndValues[i * 2])) {
+        if (result == null) {
+          result = new ArrayList<String>(2);
+        }
+        result.add(namesAndValues[i * 2 + 1]);
+      }
+    }
+    return result != null ? Collections.unmodifiableList(result) : Collections.<String>emptyList();
+  }
+
+  /**
+   * Returns the directives of all the Cache-Control and Pragma fields. They are
+   * parsed the first time this is called, and again only after a change.
+   */
+  public CacheControl getCacheControl() {
+    CacheControl result = cacheControl;
+    if (result == null) {
+      int cacheControlHash = KnownHeaders.hash(KnownHeaders.CACHE_CONTROL);
+      int pragmaHash = KnownHeaders.hash(KnownHeaders.PRAGMA);
+      CacheControl.Builder builder = null;
+      for (int i = 0; i < fieldCount; i++) {
+        String fieldName = namesAndValues[i * 2];
+        if (nameHashes[i] == cacheControlHash
+            && KnownHeaders.NAMES[KnownHeaders.CACHE_CONTROL].equalsIgnoreCase(fieldName)) {
+          if (builder == null) builder = new CacheControl.Builder();
+          builder.parseCacheControl(namesAndValues[i * 2 + 1]);
+        } else if (nameHashes[i] == pragmaHash
+            && KnownHeaders.NAMES[KnownHeaders.PRAGMA].equalsIgnoreCase(fieldName)) {
+          if (builder == null) builder = new CacheControl.Builder();
+          builder.parsePragma(namesAndValues[i * 2 + 1]);
+        }
+      }
+      result = builder != null ? builder.build() : CacheControl.EMPTY;
+      cacheControl = result;
+    }
+    return result;
+  }
+
   /** @param fieldNames a case-insensitive set of HTTP header field names. */
   public RawHeaders getAll(Set<String> fieldNames) {
     RawHeaders result = new RawHeaders();
-    for (int i = 0; i < namesAndValues.size(); i += 2) {
-      String fieldName = namesAndValues.get(i);
+    for (int i = 0; i < fieldCount * 2; i += 2) {
+      String fieldName = namesAndValues[i];
       if (fieldNames.contains(fieldName)) {
-        result.add(fieldName, namesAndValues.get(i + 1));
+        result.add(fieldName, namesAndValues[i + 1]);
       }
     }
     return result;
@@ -260,12 +385,20 @@ public final class RawHeaders {
 
   /** Returns bytes of a request header for sending on an HTTP transport. */
   public byte[] toBytes() throws UnsupportedEncodingException {
+    return toBytes(requestLine);
+  }
+
+  /**
+   * Returns bytes of a request header that starts with {@code requestLine} instead of the one set
+   * on these headers, So the headers can be sent without being modified.
+   */
+  public byte[] toBytes(String requestLine) throws UnsupportedEncodingException {
     StringBuilder result = new StringBuilder(256);
     result.append(requestLine).append("\r\n");
-    for (int i = 0; i < namesAndValues.size(); i += 2) {
-      result.append(namesAndValues.get(i))
+    for (int i = 0; i < fieldCount * 2; i += 2) {
+      result.append(namesAndValues[i])
           .append(": ")
-          .append(namesAndValues.get(i + 1))
+          .append(namesAndValues[i + 1])
           .append("\r\n");
     }
     result.append("\r\n");
@@ -275,21 +408,49 @@ public final class RawHeaders {
   /** Parses bytes of a response header from an HTTP transport. */
   public static RawHeaders fromBytes(InputStream in) throws IOException {
     RawHeaders headers;
+    StringBuilder line = new StringBuilder(80);
     do {
       headers = new RawHeaders();
-      headers.setStatusLine(Util.readAsciiLine(in));
-      readHeaders(in, headers);
+      headers.setStatusLine(readAsciiLine(in, line).toString());
+      readHeaders(in, headers, line);
     } while (headers.getResponseCode() == HTTP_CONTINUE);
     return headers;
   }
 
   /** Reads headers or trailers into {@code out}. */
   public static void readHeaders(InputStream in, RawHeaders out) throws IOException {
+    readHeaders(in, out, new StringBuilder(80));
+  }
+
+  /**
+   * Reads each line into the same {@code line}, only the names and values
+   * become strings.
+   */
+  private static void readHeaders(InputStream in, RawHeaders out, StringBuilder line)
+      throws IOException {
     // parse the result headers until the first blank line
-    String line;
-    while ((line = Util.readAsciiLine(in)).length() != 0) {
+    while (readAsciiLine(in, line).length() != 0) {
       out.addLine(line);
     }
   }
 
+  /** Like {@link Util#readAsciiLine}, but into {@code result}. */
+  private static StringBuilder readAsciiLine(InputStream in, StringBuilder result)
+      throws IOException {
+    result.setLength(0);
+    while (true) {
+      int c = in.read();
+      if (c == -1) {
+        throw new EOFException();
+      } else if (c == '\n') {
+        break;
+      }
+      result.append((char) c);
+    }
+    int length = result.length();
+    if (length > 0 && result.charAt(length - 1) == '\r') {
+      result.setLength(length - 1);
+    }
+    return result;
+  }
 }
@@ -48,58 +48,30 @@ public final class RequestHeaders {
     this.uri = uri;
     this.headers = headers;
 
-    HeaderParser.CacheControlHandler handler = new HeaderParser.CacheControlHandler() {
-      @Override public void handle(String directive, String parameter) {
-        if ("no-cache".equalsIgnoreCase(directive)) {
-          noCache = true;
-        } else if ("max-age".equalsIgnoreCase(directive)) {
-          maxAgeSeconds = HeaderParser.parseSeconds(parameter);
-        } else if ("max-stale".equalsIgnoreCase(directive)) {
-          maxStaleSeconds = HeaderParser.parseSeconds(parameter);
-        } else if ("min-fresh".equalsIgnoreCase(directive)) {
-          minFreshSeconds = HeaderParser.parseSeconds(parameter);
-        } else if ("only-if-cached".equalsIgnoreCase(directive)) {
-          onlyIfCached = true;
-        }
-      }
-    };
-
-    for (int i = 0; i < headers.length(); i++) {
-      String fieldName = headers.getFieldName(i);
-      String value = headers.getValue(i);
-      if ("Cache-Control".equalsIgnoreCase(fieldName)) {
-        HeaderParser.parseCacheControl(value, handler);
-      } else if ("Pragma".equalsIgnoreCase(fieldName)) {
-        if ("no-cache".equalsIgnoreCase(value)) {
-          noCache = true;
-        }
-      } else if ("If-None-Match".equalsIgnoreCase(fieldName)) {
-        ifNoneMatch = value;
-      } else if ("If-Modified-Since".equalsIgnoreCase(fieldName)) {
-        ifModifiedSince = value;
-      } else if ("Authorization".equalsIgnoreCase(fieldName)) {
-        hasAuthorization = true;
-      } else if ("Content-Length".equalsIgnoreCase(fieldName)) {
-        try {
-          contentLength = Integer.parseInt(value);
-        } catch (NumberFormatException ignored) {
-        }
-      } else if ("Transfer-Encoding".equalsIgnoreCase(fieldName)) {
-        transferEncoding = value;
-      } else if ("User-Agent".equalsIgnoreCase(fieldName)) {
-        userAgent = value;
-      } else if ("Host".equalsIgnoreCase(fieldName)) {
-        host = value;
-      } else if ("Connection".equalsIgnoreCase(fieldName)) {
-        connection = value;
-      } else if ("Accept-Encoding".equalsIgnoreCase(fieldName)) {
-        acceptEncoding = value;
-      } else if ("Content-Type".equalsIgnoreCase(fieldName)) {
-        contentType = value;
-      } else if ("Proxy-Authorization".equalsIgnoreCase(fieldName)) {
-        proxyAuthorization = value;
+    CacheControl cacheControl = headers.getCacheControl();
+    noCache = cacheControl.isNoCache();
+    maxAgeSeconds = cacheControl.getMaxAgeSeconds();
+    maxStaleSeconds = cacheControl.getMaxStaleSeconds();
+    minFreshSeconds = cacheControl.getMinFreshSeconds();
+    onlyIfCached = cacheControl.isOnlyIfCached();
+
+    ifNoneMatch = headers.get("If-None-Match");
+    ifModifiedSince = headers.get("If-Modified-Since");
+    hasAuthorization = headers.get("Authorization") != null;
+    String contentLength = headers.get("Content-Length");
+    if (contentLength != null) {
+      try {
+        this.contentLength = Integer.parseInt(contentLength);
+      } catch (NumberFormatException ignored) {
       }
     }
+    transferEncoding = headers.get("Transfer-Encoding");
+    userAgent = headers.get("User-Agent");
+    host = headers.get("Host");
+    connection = headers.get("Connection");
+    acceptEncoding = headers.get("Accept-Encoding");
+    contentType = headers.get("Content-Type");
+    proxyAuthorization = headers.get("Proxy-Authorization");
   }
 
   public boolean isChunked() {
@@ -0,0 +1,325 @@
+package com.cz.android.simplehttp.io.remote;
+
+import com.cz.android.simplehttp.nio.DirectBufferPool;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.ShutdownChannelGroupException;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Receives the files of {@link BulkFileSender}s into one directory, Many files on each connection.
+ * <p>
+ * Unlike {@link FileReceiverAsync} there's no metadata round trip before each file: we parse the
+ * {@link FileMetaData} frame and write the bytes after it, then acknowledge the file with its index
+ * on the connection and a status. Each connection reads into one direct buffer from a shared
+ * {@link DirectBufferPool}, and the bytes go to the file with positional writes straight from it.
+ * {@link java.nio.channels.FileChannel#transferFrom} needs a blocking channel, So this is the way
+ * to skip the heap copy for an asynchronous one.
+ */
+final class BulkFileReceiver {
+
+    static final int ACK_LENGTH = 4 + 1;
+    static final byte ACK_OK = 0;
+    static final byte ACK_FAILED = 1;
+    static final int BUFFER_SIZE = 256 * 1024;
+
+    private final AsynchronousServerSocketChannel server;
+    private final AsynchronousChannelGroup group;
+    private final String path;
+    private final OnComplete onFileComplete;
+    /** Guarded by itself, The completion handlers of different connections run on different threads. */
+    private final DirectBufferPool bufferPool;
+
+    BulkFileReceiver(final int port, final int poolSize, final String path, final OnComplete onFileComplete) {
+        assert !Objects.isNull(path) && !Objects.isNull(onFileComplete);
+
+        this.path = path;
+        this.onFileComplete = onFileComplete;
+        this.bufferPool = new DirectBufferPool(BUFFER_SIZE, poolSize * 2);
+
+        try {
+            this.group = AsynchronousChannelGroup.withThreadPool(Executors.newFixedThreadPool(poolSize));
+            this.server = AsynchronousServerSocketChannel.open(this.group).bind(new InetSocketAddress(port));
+        } catch (IOException e) {
+            throw new IllegalStateException("unable to start BulkFileReceiver", e);
+        }
+    }
+
+    void start() {
+        accept();
+    }
+
+    void stop(long wait) {
+        try {
+            this.group.shutdownNow();
+            this.group.awaitTermination(wait, TimeUnit.MILLISECONDS);
+        } catch (IOException | InterruptedException e) {
+            throw new RuntimeException("unable to stop BulkFileReceiver", e);
+        }
+    }
+
+    private void accept() {
+        this.server.accept(null, new CompletionHandler<AsynchronousSocketChannel, Void>() {
+            public void completed(final AsynchronousSocketChannel channel, final Void attachment) {
+                accept();
+
+                final ByteBuffer buffer;
+                synchronized (BulkFileReceiver.this.bufferPool) {
+                    buffer = BulkFileReceiver.this.bufferPool.take();
+                }
+                new Connection(channel, buffer).read();
+            }
+
+            public void failed(final Throwable exc, final Void attachment) {
+                if (BulkFileReceiver.this.server.isOpen()) {
+                    throw new RuntimeException("unable to accept new connection", exc);
+                }
+            }
+        });
+    }
+
+    /**
+     * One sender. Only one read is outstanding at a time, So the read side needs no lock. The
+     * acknowledgements are written while we read, They are guarded by the connection.
+     */
+    private final class Connection implements CompletionHandler<Integer, Void> {
+
+        private final AsynchronousSocketChannel channel;
+        private final ByteBuffer buffer;
+        /** Acknowledgements waiting for the one in {@link #ackWriting} to go out. */
+        private final ByteBuffer ackPending = ByteBuffer.allocate(ACK_LENGTH * BulkFileSender.MAX_IN_FLIGHT);
+        private final ByteBuffer ackWriting = ByteBuffer.allocate(ACK_LENGTH * BulkFileSender.MAX_IN_FLIGHT);
+        private final CompletionHandler<Integer, Void> ackHandler = new CompletionHandler<Integer, Void>() {
+
+            @Override
+            public void completed(final Integer result, final Void attachment) {
+                synchronized (Connection.this) {
+                    if (Connection.this.ackWriting.hasRemaining()) {
+                        Connection.this.channel.write(Connection.this.ackWriting, null, this);
+                        return;
+                    }
+                    Connection.this.writingAck = false;
+                }
+                writeAcks();
+            }
+
+            @Override
+            public void failed(final Throwable exc, final Void attachment) {
+                close();
+            }
+        };
+        private boolean writingAck;
+        private boolean closeAfterAcks;
+        private boolean closed;
+
+        private int fileIndex;
+        /** The file we are receiving, Or null between files and while we drop a file we could not create. */
+        private FileWriterProxy proxy;
+        private long remaining = -1l;
+        private boolean failed;
+
+        Connection(final AsynchronousSocketChannel channel, final ByteBuffer buffer) {
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        void read() {
+            try {
+                this.channel.read(this.buffer, null, this);
+            } catch (ShutdownChannelGroupException e) {
+                // stop() raced with the read we were about to start.
+                failed(e, null);
+            }
+        }
+
+        @Override
+        public void completed(final Integer result, final Void attachment) {
+            if (result < 0) {
+                if (this.remaining >= 0 || this.buffer.position() > 0) {
+                    // The sender went away in the middle of a file.
+                    abortFile();
+                    close();
+                } else {
+                    closeAfterAcks();
+                }
+                recycle();
+                return;
+            }
+
+            this.buffer.flip();
+            try {
+                consume();
+            } catch (IOException e) {
+                abortFile();
+                close();
+                recycle();
+                return;
+            }
+            this.buffer.compact();
+            read();
+        }
+
+        @Override
+        public void failed(final Throwable exc, final Void attachment) {
+            abortFile();
+            close();
+            recycle();
+        }
+
+        private void consume() throws IOException {
+            while (this.buffer.hasRemaining()) {
+                if (this.remaining < 0) {
+                    final FileMetaData metaData = FileMetaData.from(this.buffer);
+                    if (Objects.isNull(metaData)) {
+                        return;
+                    }
+                    startFile(metaData);
+                } else {
+                    final int count = (int) Math.min(this.remaining, this.buffer.remaining());
+                    final int limit = this.buffer.limit();
+                    this.buffer.limit(this.buffer.position() + count);
+                    if (!Objects.isNull(this.proxy)) {
+                        writeToFile();
+                    }
+                    this.buffer.position(this.buffer.limit()).limit(limit);
+                    this.remaining -= count;
+                }
+
+                if (this.remaining == 0) {
+                    finishFile();
+                }
+            }
+        }
+
+        private void startFile(final FileMetaData metaData) {
+            this.remaining = metaData.getSize();
+            this.failed = !isPlainName(metaData.getFileName());
+            if (!this.failed) {
+                try {
+                    this.proxy = new FileWriterProxy(BulkFileReceiver.this.path, metaData);
+                } catch (IOException e) {
+                    // Drop the bytes of this file and tell the sender, The next file may still work.
+                    this.failed = true;
+                }
+            }
+        }
+
+        private void writeToFile() {
+            try {
+                final long bytesWritten = this.proxy.getFileWriter().write(this.buffer, this.proxy.getPosition().get());
+                this.proxy.getPosition().addAndGet(bytesWritten);
+            } catch (IOException e) {
+                abortFile();
+                this.failed = true;
+            }
+        }
+
+        private void finishFile() throws ProtocolException {
+            final FileWriterProxy proxy = this.proxy;
+            this.proxy = null;
+            this.remaining = -1l;
+            if (!Objects.isNull(proxy)) {
+                try {
+                    proxy.getFileWriter().close();
+                } catch (IOException e) {
+                    this.failed = true;
+                }
+            }
+
+            ack(this.fileIndex++, this.failed ? ACK_FAILED : ACK_OK);
+            if (!this.failed) {
+                BulkFileReceiver.this.onFileComplete.onComplete(proxy);
+            }
+            this.failed = false;
+        }
+
+        private void abortFile() {
+            if (!Objects.isNull(this.proxy)) {
+                try {
+                    this.proxy.getFileWriter().close();
+                } catch (IOException ignore) {
+                }
+                this.proxy = null;
+            }
+        }
+
+        private void ack(final int index, final byte status) throws ProtocolException {
+            synchronized (this) {
+                if (this.ackPending.remaining() < ACK_LENGTH) {
+                    throw new ProtocolException("more than " + BulkFileSender.MAX_IN_FLIGHT + " files in flight");
+                }
+                this.ackPending.putInt(index).put(status);
+            }
+            writeAcks();
+        }
+
+        /**
+         * Starts writing the pending acknowledgements unless a write is outstanding, Its handler calls
+         * this again when it's done.
+         */
+        private synchronized void writeAcks() {
+            if (this.closed || this.writingAck) {
+                return;
+            }
+            if (this.ackPending.position() == 0) {
+                if (this.closeAfterAcks) {
+                    close();
+                }
+                return;
+            }
+            this.ackPending.flip();
+            this.ackWriting.clear();
+            this.ackWriting.put(this.ackPending).flip();
+            this.ackPending.clear();
+            this.writingAck = true;
+            this.channel.write(this.ackWriting, null, this.ackHandler);
+        }
+
+        private void closeAfterAcks() {
+            synchronized (this) {
+                this.closeAfterAcks = true;
+            }
+            writeAcks();
+        }
+
+        private void close() {
+            synchronized (this) {
+                if (this.closed) {
+                    return;
+                }
+                this.closed = true;
+            }
+            try {
+                this.channel.close();
+            } catch (IOException ignore) {
+            }
+        }
+
+        /**
+         * Called once the read side is done with the buffer. Closing fails an outstanding read, So
+         * we never hand out a buffer a read may still fill.
+         */
+        private void recycle() {
+            synchronized (BulkFileReceiver.this.bufferPool) {
+                BulkFileReceiver.this.bufferPool.recycle(this.buffer);
+            }
+        }
+    }
+
+    /**
+     * The sender names a file in our directory, Not a path.
+     */
+    private static boolean isPlainName(final String fileName) {
+        return fileName.indexOf('/') < 0 && fileName.indexOf('\\') < 0 && fileName.indexOf('\0') < 0
+                && !".".equals(fileName) && !"..".equals(fileName);
+    }
+}
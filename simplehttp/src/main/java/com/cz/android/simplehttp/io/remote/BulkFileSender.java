@@ -0,0 +1,156 @@
+package com.cz.android.simplehttp.io.remote;
+
+import com.cz.android.simplehttp.io.Constants;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Objects;
+
+/**
+ * Sends many files over one connection to a {@link BulkFileReceiver}. Each file is a
+ * {@link FileMetaData} frame followed by its bytes, and the receiver acknowledges every file once it
+ * is written.
+ * <p>
+ * The sender doesn't wait for a file to be acknowledged before it sends the next one, it keeps up to
+ * {@code maxInFlight} files unacknowledged. Small files are copied into one direct buffer with their
+ * frames and go out in a single write, large ones go with {@link FileChannel#transferTo}.
+ * <p>
+ * Not thread-safe, one thread sends the files.
+ */
+final class BulkFileSender implements Closeable {
+
+    /** The receiver keeps room for this many acknowledgements. */
+    static final int MAX_IN_FLIGHT = 1024;
+    static final int BUFFER_SIZE = 256 * 1024;
+
+    private final SocketChannel client;
+    private final int maxInFlight;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final ByteBuffer ackBuffer = ByteBuffer.allocateDirect(BulkFileReceiver.ACK_LENGTH * 64);
+    /** The names of the files that are not acknowledged yet, in the order we sent them. */
+    private final ArrayDeque<String> inFlight = new ArrayDeque<>();
+    private int nextAckIndex;
+    private long sentBytes;
+
+    BulkFileSender(final int port, final int maxInFlight) throws IOException {
+        if (maxInFlight <= 0 || maxInFlight > MAX_IN_FLIGHT) {
+            throw new IllegalArgumentException("maxInFlight out of range: " + maxInFlight);
+        }
+
+        this.maxInFlight = maxInFlight;
+        this.client = SocketChannel.open(new InetSocketAddress(port));
+        this.client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    }
+
+    /**
+     * Sends the file under its own name. Returns once the file is handed to the connection, or
+     * buffered, it may not have reached the receiver yet.
+     */
+    void send(final File file) throws IOException {
+        assert !Objects.isNull(file);
+
+        while (this.inFlight.size() >= this.maxInFlight) {
+            flush();
+            readAck();
+        }
+
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            final FileMetaData metaData = FileMetaData.of(file.getName(), size);
+            if (this.buffer.remaining() < FileMetaData.MAX_FRAME_LENGTH + size) {
+                flush();
+            }
+            metaData.writeTo(this.buffer);
+
+            if (this.buffer.remaining() >= size) {
+                // Small enough, It goes out together with the frames around it.
+                final int limit = this.buffer.limit();
+                this.buffer.limit(this.buffer.position() + (int) size);
+                long position = 0l;
+                while (this.buffer.hasRemaining()) {
+                    final int read = channel.read(this.buffer, position);
+                    if (read < 0) {
+                        throw new EOFException("file shrank while sending: " + file);
+                    }
+                    position += read;
+                }
+                this.buffer.limit(limit);
+            } else {
+                flush();
+                long position = 0l;
+                while (position < size) {
+                    // Never past the size in the frame, And the blocking channel sends 0 bytes only at the end of the file.
+                    final long sent = channel.transferTo(position, Math.min(Constants.TRANSFER_MAX_SIZE, size - position), this.client);
+                    if (sent <= 0) {
+                        throw new EOFException("file shrank while sending: " + file);
+                    }
+                    position += sent;
+                }
+                this.sentBytes += size;
+            }
+        }
+        this.inFlight.addLast(file.getName());
+    }
+
+    /**
+     * Sends what is buffered and waits until the receiver acknowledged every file.
+     */
+    void finish() throws IOException {
+        flush();
+        while (!this.inFlight.isEmpty()) {
+            readAck();
+        }
+    }
+
+    long getSentBytes() {
+        return this.sentBytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.client.close();
+    }
+
+    private void flush() throws IOException {
+        this.buffer.flip();
+        this.sentBytes += this.buffer.remaining();
+        while (this.buffer.hasRemaining()) {
+            this.client.write(this.buffer);
+        }
+        this.buffer.clear();
+    }
+
+    private void readAck() throws IOException {
+        while (this.ackBuffer.position() < BulkFileReceiver.ACK_LENGTH) {
+            if (this.client.read(this.ackBuffer) < 0) {
+                throw new EOFException("receiver closed with " + this.inFlight.size() + " files in flight");
+            }
+        }
+
+        this.ackBuffer.flip();
+        while (this.ackBuffer.remaining() >= BulkFileReceiver.ACK_LENGTH) {
+            final int index = this.ackBuffer.getInt();
+            final byte status = this.ackBuffer.get();
+            final String fileName = this.inFlight.pollFirst();
+            if (Objects.isNull(fileName) || index != this.nextAckIndex) {
+                throw new ProtocolException("unexpected acknowledgement: " + index);
+            }
+            this.nextAckIndex++;
+
+            if (status != BulkFileReceiver.ACK_OK) {
+                throw new IOException("receiver failed to write " + fileName);
+            }
+        }
+        this.ackBuffer.compact();
+    }
+}
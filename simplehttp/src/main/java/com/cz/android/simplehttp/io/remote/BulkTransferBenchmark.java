@@ -0,0 +1,227 @@
+package com.cz.android.simplehttp.io.remote;
+
+import com.cz.android.simplehttp.io.Constants;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends many small files and a few large ones over localhost, With {@link BulkFileSender} to a
+ * {@link BulkFileReceiver}, And the old way: one connection per file, a string metadata message and
+ * a confirmation before the bytes, to a {@link FileReceiverAsync}. It reports the files and megabytes
+ * per second, And checks every file arrived with the same bytes.
+ * <p>
+ * Arguments: [small files] [small file KB] [large files] [large file MB] [files in flight]
+ */
+public final class BulkTransferBenchmark {
+
+    private static final int PORT = 8092;
+    private static final int LEGACY_PORT = 8093;
+    private static final int THREADS = 4;
+
+    public static void main(final String[] args) throws Exception {
+        final int smallCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        final int smallSize = (args.length > 1 ? Integer.parseInt(args[1]) : 4) * 1024;
+        final int largeCount = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+        final long largeSize = (args.length > 3 ? Long.parseLong(args[3]) : 2048) * 1024 * 1024;
+        final int maxInFlight = args.length > 4 ? Integer.parseInt(args[4]) : 64;
+
+        final File root = Files.createTempDirectory("bulk-transfer").toFile();
+        final File source = new File(root, "source");
+        final File smallSource = new File(source, "small");
+        final File largeSource = new File(source, "large");
+        smallSource.mkdirs();
+        largeSource.mkdirs();
+        final File[] smallFiles = createFiles(smallSource, "small-", smallCount, smallSize);
+        final File[] largeFiles = createFiles(largeSource, "large-", largeCount, largeSize);
+        System.out.println("Small files:" + smallCount + " x " + smallSize + "B, Large files:" + largeCount
+                + " x " + largeSize / (1024 * 1024) + "MB, In flight:" + maxInFlight);
+
+        int failures = 0;
+        try {
+            // Warm up on a few small files, So the JIT compiled both paths before we measure.
+            final File[] warmUp = Arrays.copyOf(smallFiles, Math.min(500, smallFiles.length));
+            sendBulk(warmUp, new File(root, "warm-bulk"), maxInFlight);
+            sendLegacy(warmUp, new File(root, "warm-legacy"));
+
+            System.out.println("transfer                 files/s        MB/s");
+            File target = new File(root, "bulk-small");
+            report("bulk small", smallFiles, sendBulk(smallFiles, target, maxInFlight));
+            failures += verify(smallFiles, target);
+            deleteAll(target);
+
+            target = new File(root, "legacy-small");
+            report("legacy small", smallFiles, sendLegacy(smallFiles, target));
+            failures += verify(smallFiles, target);
+            deleteAll(target);
+
+            target = new File(root, "bulk-large");
+            report("bulk large", largeFiles, sendBulk(largeFiles, target, maxInFlight));
+            failures += verify(largeFiles, target);
+            deleteAll(target);
+
+            target = new File(root, "legacy-large");
+            report("legacy large", largeFiles, sendLegacy(largeFiles, target));
+            failures += verify(largeFiles, target);
+        } finally {
+            deleteAll(root);
+        }
+        System.out.println("Failures:" + failures);
+    }
+
+    private static long sendBulk(final File[] files, final File target, final int maxInFlight) throws Exception {
+        target.mkdirs();
+        final CountDownLatch latch = new CountDownLatch(files.length);
+        final BulkFileReceiver receiver = new BulkFileReceiver(PORT, THREADS, target.getPath(), new OnComplete() {
+            @Override
+            public void onComplete(final FileWriterProxy fileWriter) {
+                latch.countDown();
+            }
+        });
+        receiver.start();
+        try {
+            final long st = System.nanoTime();
+            try (final BulkFileSender sender = new BulkFileSender(PORT, maxInFlight)) {
+                for (final File file : files) {
+                    sender.send(file);
+                }
+                sender.finish();
+            }
+            // Every file is acknowledged, So they are all written.
+            if (!latch.await(10, TimeUnit.SECONDS)) {
+                throw new IllegalStateException(latch.getCount() + " files never completed");
+            }
+            return System.nanoTime() - st;
+        } finally {
+            receiver.stop(1000);
+        }
+    }
+
+    private static long sendLegacy(final File[] files, final File target) throws Exception {
+        target.mkdirs();
+        final CountDownLatch latch = new CountDownLatch(files.length);
+        final FileReceiverAsync receiver = new FileReceiverAsync(LEGACY_PORT, THREADS, target.getPath(), new OnComplete() {
+            @Override
+            public void onComplete(final FileWriterProxy fileWriter) {
+                latch.countDown();
+            }
+        });
+        receiver.start();
+        try {
+            final long st = System.nanoTime();
+            final ByteBuffer confirmation = ByteBuffer.allocate(Constants.CONFIRMATION.length());
+            for (final File file : files) {
+                final FileSender sender = new FileSender(LEGACY_PORT);
+                final String meta = file.getName() + Constants.MESSAGE_DELIMITTER + file.length()
+                        + Constants.END_MESSAGE_MARKER;
+                final ByteBuffer metaBuffer = ByteBuffer.wrap(meta.getBytes());
+                while (metaBuffer.hasRemaining()) {
+                    sender.getChannel().write(metaBuffer);
+                }
+                confirmation.clear();
+                while (confirmation.hasRemaining()) {
+                    if (sender.getChannel().read(confirmation) < 0) {
+                        throw new IOException("no confirmation for " + file);
+                    }
+                }
+                new FileReader(sender, file.getPath()).read();
+            }
+            if (!latch.await(60, TimeUnit.SECONDS)) {
+                throw new IllegalStateException(latch.getCount() + " files never completed");
+            }
+            return System.nanoTime() - st;
+        } finally {
+            receiver.stop(1000);
+        }
+    }
+
+    private static void report(final String name, final File[] files, final long elapsedNs) {
+        long bytes = 0;
+        for (final File file : files) {
+            bytes += file.length();
+        }
+        final double seconds = elapsedNs / 1e9;
+        System.out.println(String.format("%-20s %12.0f %11.1f", name, files.length / seconds,
+                bytes / (1024.0 * 1024.0) / seconds));
+    }
+
+    private static File[] createFiles(final File dir, final String prefix, final int count, final long size)
+            throws IOException {
+        final Random random = new Random(count);
+        final ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.min(size, 1024 * 1024));
+        final byte[] bytes = new byte[buffer.capacity()];
+        final File[] files = new File[count];
+        for (int i = 0; i < count; i++) {
+            files[i] = new File(dir, prefix + i);
+            try (final FileChannel channel = FileChannel.open(files[i].toPath(), StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE)) {
+                long position = 0;
+                while (position < size) {
+                    random.nextBytes(bytes);
+                    buffer.clear();
+                    buffer.put(bytes, 0, (int) Math.min(bytes.length, size - position)).flip();
+                    while (buffer.hasRemaining()) {
+                        position += channel.write(buffer);
+                    }
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Compares every byte of every file, Read through the same direct buffers.
+     */
+    private static int verify(final File[] files, final File target) throws IOException {
+        int failures = 0;
+        final ByteBuffer expected = ByteBuffer.allocateDirect(1024 * 1024);
+        final ByteBuffer actual = ByteBuffer.allocateDirect(1024 * 1024);
+        for (final File file : files) {
+            final File copy = new File(target, file.getName());
+            if (!copy.exists() || copy.length() != file.length()) {
+                System.err.println("Missing or wrong size:" + copy);
+                failures++;
+                continue;
+            }
+            try (final FileChannel source = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                 final FileChannel destination = FileChannel.open(copy.toPath(), StandardOpenOption.READ)) {
+                long position = 0;
+                while (position < file.length()) {
+                    expected.clear();
+                    actual.clear();
+                    source.read(expected, position);
+                    while (actual.position() < expected.position()) {
+                        destination.read(actual, position + actual.position());
+                    }
+                    expected.flip();
+                    actual.flip().limit(expected.limit());
+                    if (!expected.equals(actual)) {
+                        System.err.println("Different bytes in " + copy + " after " + position);
+                        failures++;
+                        break;
+                    }
+                    position += expected.limit();
+                }
+            }
+        }
+        return failures;
+    }
+
+    private static void deleteAll(final File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                deleteAll(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -4,8 +4,28 @@ package com.cz.android.simplehttp.io.remote;
 import com.cz.android.simplehttp.io.Constants;
 import com.cz.android.simplehttp.io.StringUtils;
 
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
 final class FileMetaData {
 
+    /**
+     * The binary frame {@link BulkFileSender} puts before each file:
+     * <pre>
+     * int   FRAME_MAGIC
+     * long  size
+     * short name length
+     * byte[] name, UTF-8
+     * </pre>
+     * The bytes of the file follow right after it.
+     */
+    static final int FRAME_MAGIC = 0x46524d31;
+    static final int FRAME_FIXED_LENGTH = 4 + 8 + 2;
+    static final int MAX_NAME_LENGTH = 1024;
+    static final int MAX_FRAME_LENGTH = FRAME_FIXED_LENGTH + MAX_NAME_LENGTH;
+
     private final String fileName;
     private final long size;
 
@@ -16,6 +36,53 @@ final class FileMetaData {
         return new FileMetaData(contents[0], Long.valueOf(contents[1]));
     }
 
+    static FileMetaData of(final String fileName, final long size) {
+        return new FileMetaData(fileName, size);
+    }
+
+    /**
+     * Decodes a frame from the buffer in read mode. Returns null and leaves the buffer alone if the
+     * whole frame is not there yet.
+     */
+    static FileMetaData from(final ByteBuffer buffer) throws ProtocolException {
+        assert !Objects.isNull(buffer);
+
+        if (buffer.remaining() < FRAME_FIXED_LENGTH) {
+            return null;
+        }
+
+        final int start = buffer.position();
+        if (buffer.getInt(start) != FRAME_MAGIC) {
+            throw new ProtocolException("bad frame magic: " + Integer.toHexString(buffer.getInt(start)));
+        }
+        final long size = buffer.getLong(start + 4);
+        final int nameLength = buffer.getShort(start + 12) & 0xffff;
+        if (size < 0 || nameLength == 0 || nameLength > MAX_NAME_LENGTH) {
+            throw new ProtocolException("bad frame: size=" + size + " name length=" + nameLength);
+        }
+        if (buffer.remaining() < FRAME_FIXED_LENGTH + nameLength) {
+            return null;
+        }
+
+        final byte[] name = new byte[nameLength];
+        buffer.position(start + FRAME_FIXED_LENGTH);
+        buffer.get(name);
+        return new FileMetaData(new String(name, StandardCharsets.UTF_8), size);
+    }
+
+    /**
+     * Encodes the frame into the buffer in write mode. It must have {@link #MAX_FRAME_LENGTH} bytes left.
+     */
+    void writeTo(final ByteBuffer buffer) throws ProtocolException {
+        assert !Objects.isNull(buffer);
+
+        final byte[] name = this.fileName.getBytes(StandardCharsets.UTF_8);
+        if (name.length > MAX_NAME_LENGTH) {
+            throw new ProtocolException("file name too long: " + this.fileName);
+        }
+        buffer.putInt(FRAME_MAGIC).putLong(this.size).putShort((short) name.length).put(name);
+    }
+
     private FileMetaData(final String fileName, final long size) {
         assert StringUtils.isNotEmpty(fileName);
 
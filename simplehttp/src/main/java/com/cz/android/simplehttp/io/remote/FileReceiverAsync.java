@@ -42,9 +42,10 @@ final class FileReceiverAsync {
     void stop(long wait) {
         
         try {            
+            this.server.close();
             this.group.shutdown();            
             this.group.awaitTermination(wait, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException e) {
+        } catch (IOException | InterruptedException e) {
             throw new RuntimeException("unable to stop FileReceiver", e);
         }
     }
@@ -161,6 +162,10 @@ final class FileReceiverAsync {
             }
 
             public void failed(final Throwable exc, final Void attachment) {
+                if (!FileReceiverAsync.this.server.isOpen()) {
+                    // Stopped.
+                    return;
+                }
                 throw new RuntimeException("unable to accept new connection", exc);
             }
         });
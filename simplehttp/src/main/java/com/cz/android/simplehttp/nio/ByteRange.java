@@ -0,0 +1,89 @@
+package com.cz.android.simplehttp.nio;
+
+/**
+ * The byte range of a request. We only support one range in the Range header.
+ * <pre>
+ * Range: bytes=0-499     the first 500 bytes
+ * Range: bytes=500-      from the 500th byte to the end
+ * Range: bytes=-500      the last 500 bytes
+ * Range: bytes:0-500     the old form our first downloader sent, The end is exclusive.
+ * </pre>
+ */
+public class ByteRange {
+    /**
+     * The first byte of the range.
+     */
+    public final long start;
+    /**
+     * The position after the last byte of the range.
+     */
+    public final long end;
+
+    public ByteRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * @return null if there is no range or we could not understand it. The whole file should be sent.
+     * A range that {@link #isSatisfiable(long)} returns false should be answered with 416.
+     */
+    public static ByteRange parse(String range, long length){
+        if(null==range){
+            return null;
+        }
+        range = range.trim();
+        if(!range.regionMatches(true,0,"bytes",0,5)||range.length() < 7){
+            return null;
+        }
+        char separator = range.charAt(5);
+        if('='!=separator&&':'!=separator){
+            return null;
+        }
+        String spec = range.substring(6).trim();
+        if(0 <= spec.indexOf(',')){
+            //Multiple ranges, We just send the whole file.
+            return null;
+        }
+        int index = spec.indexOf('-');
+        if(0 > index){
+            return null;
+        }
+        try {
+            String first = spec.substring(0, index).trim();
+            String last = spec.substring(index + 1).trim();
+            if(first.isEmpty()){
+                //The suffix range.
+                long suffix = Long.parseLong(last);
+                return new ByteRange(Math.max(0, length - suffix), length);
+            }
+            long start = Long.parseLong(first);
+            long end;
+            if(last.isEmpty()){
+                end = length;
+            } else if(':'==separator){
+                end = Math.min(length, Long.parseLong(last));
+            } else {
+                end = Math.min(length, Long.parseLong(last) + 1);
+            }
+            return new ByteRange(start, end);
+        } catch (NumberFormatException e){
+            return null;
+        }
+    }
+
+    public long length(){
+        return end - start;
+    }
+
+    public boolean isSatisfiable(long length){
+        return 0 <= start && start < end && start < length;
+    }
+
+    /**
+     * The value of the Content-Range header.
+     */
+    public String contentRange(long length){
+        return "bytes " + start + "-" + (end - 1) + "/" + length;
+    }
+}
@@ -0,0 +1,67 @@
+package com.cz.android.simplehttp.nio;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * A pool of direct buffers of the same size. Allocating a direct buffer is slow and its memory is only
+ * freed by the GC, So we keep the buffers we are done with and hand them out again.
+ *
+ * The pool is not thread-safe. Each selector thread should own its own pool, Then a buffer never needs a lock.
+ * The pool never holds more than {@code maxPooled} buffers, The ones over that are left to the GC.
+ */
+public class DirectBufferPool {
+    private final ArrayDeque<ByteBuffer> buffers = new ArrayDeque<>();
+    private final int bufferSize;
+    private final int maxPooled;
+    private long allocatedCount;
+
+    public DirectBufferPool(int bufferSize, int maxPooled) {
+        if(0 >= bufferSize){
+            throw new IllegalArgumentException("bufferSize <= 0: "+bufferSize);
+        }
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * Take a cleared buffer from the pool, Or allocate a new one if the pool is empty.
+     */
+    public ByteBuffer take(){
+        ByteBuffer buffer = buffers.pollFirst();
+        if(null==buffer){
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+            allocatedCount++;
+        }
+        return buffer;
+    }
+
+    /**
+     * Give the buffer back. Nobody should touch the buffer after this.
+     */
+    public void recycle(ByteBuffer buffer){
+        if(buffers.size() < maxPooled){
+            buffer.clear();
+            //The last recycled buffer is still in the cache, So we hand it out first.
+            buffers.offerFirst(buffer);
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * The buffers waiting in the pool.
+     */
+    public int getPooledCount() {
+        return buffers.size();
+    }
+
+    /**
+     * How many buffers this pool allocated since it was created.
+     */
+    public long getAllocatedCount() {
+        return allocatedCount;
+    }
+}
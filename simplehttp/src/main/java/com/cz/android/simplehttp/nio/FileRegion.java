@@ -0,0 +1,81 @@
+package com.cz.android.simplehttp.nio;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A part of a file that we send to the socket with {@link FileChannel#transferTo(long, long, WritableByteChannel)}.
+ * The bytes go from the page cache to the socket directly, They never get into the java heap.
+ * So the memory we use stays the same no matter how large the file is.
+ *
+ * The socket channel is non-blocking, One transfer may only send a part of the region.
+ * Call {@link #transferTo(WritableByteChannel)} again when the channel is writable until {@link #isComplete()}.
+ */
+public class FileRegion implements Closeable {
+    /**
+     * Some platforms could not transfer more than 2G at once. We transfer a slice each time.
+     */
+    private static final long MAX_TRANSFER_SIZE = 8 * 1024 * 1024;
+
+    private final FileChannel fileChannel;
+    private final long end;
+    private long position;
+
+    public static FileRegion open(File file, long start, long end) throws IOException {
+        FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        return new FileRegion(fileChannel, start, end);
+    }
+
+    /**
+     * @param start The first byte of the region.
+     * @param end The position after the last byte of the region.
+     */
+    public FileRegion(FileChannel fileChannel, long start, long end) {
+        if(start > end){
+            throw new IllegalArgumentException("start > end: "+start+" "+end);
+        }
+        this.fileChannel = fileChannel;
+        this.position = start;
+        this.end = end;
+    }
+
+    /**
+     * Transfer as many bytes as the channel accepts now.
+     * @return How many bytes we transferred this time. 0 means the socket buffer is full.
+     */
+    public long transferTo(WritableByteChannel channel) throws IOException {
+        long transferred=0;
+        while(position < end){
+            long count = channel.isOpen() ? fileChannel.transferTo(position, Math.min(MAX_TRANSFER_SIZE, end - position), channel) : -1;
+            if(0 > count){
+                throw new IOException("The channel was closed.");
+            } else if(0 == count){
+                if(position >= fileChannel.size()){
+                    throw new IOException("The file was truncated while we were sending it.");
+                }
+                //The socket buffer is full, Wait for OP_WRITE.
+                break;
+            }
+            position+=count;
+            transferred+=count;
+        }
+        return transferred;
+    }
+
+    public long remaining(){
+        return end - position;
+    }
+
+    public boolean isComplete(){
+        return position >= end;
+    }
+
+    @Override
+    public void close() throws IOException {
+        fileChannel.close();
+    }
+}
@@ -0,0 +1,239 @@
+package com.cz.android.simplehttp.nio;
+
+import com.cz.android.simplehttp.header.HttpDate;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+
+/**
+ * The state of one client connection inside a {@link HttpReactorServer} worker.
+ * Unlike {@link HttpNioServer} we keep everything that belongs to the connection here, So a request that
+ * arrives in several partial reads continues from where the last read stopped.
+ *
+ * One connection could carry many requests(keep-alive), and the client could send the next request
+ * before the previous response arrived(pipelining). The responses always go out in the order of the requests.
+ */
+public class HttpConnection {
+    /**
+     * The maximum size of the request line and all the headers. The read buffer never grows over this size.
+     */
+    static final int MAX_HEAD_SIZE = 8 * 1024;
+    /**
+     * When the pending output reaches this size we stop reading the channel until the client consumes the responses.
+     */
+    private static final int MAX_PENDING_WRITE = 64 * 1024;
+    /**
+     * The file regions do not take any heap, But each of them holds an open file. We limit how many of them could wait.
+     */
+    private static final int MAX_PENDING_REGIONS = 16;
+
+    private final HttpReactorServer server;
+    private final SocketChannel channel;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(MAX_HEAD_SIZE);
+    /**
+     * The head of the current request. It remembers how far it parsed, So we never scan the same bytes twice.
+     */
+    private final HttpRequestHead requestHead = new HttpRequestHead();
+    /**
+     * The output in the order of the requests. Each element is a {@link ByteBuffer} or a {@link FileRegion}.
+     */
+    private final ArrayDeque<Object> writeQueue = new ArrayDeque<>();
+    private SelectionKey selectionKey;
+    /**
+     * The request body we do not support yet. We skip these bytes to find the next request.
+     */
+    private long discardRemaining;
+    private long pendingWrite;
+    private int pendingRegions;
+    private boolean closeAfterWrite;
+
+    HttpConnection(HttpReactorServer server, SocketChannel channel) {
+        this.server = server;
+        this.channel = channel;
+    }
+
+    void attach(SelectionKey selectionKey){
+        this.selectionKey=selectionKey;
+    }
+
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Read everything we could from the channel and response all the complete requests.
+     * @return false if the connection should be closed.
+     */
+    boolean onReadable() throws IOException {
+        int read = channel.read(readBuffer);
+        if(0 > read){
+            return false;
+        }
+        return serve();
+    }
+
+    /**
+     * The channel could accept more bytes. The requests we left in the read buffer continue once the output drains.
+     * @return false if the connection should be closed.
+     */
+    boolean onWritable() throws IOException {
+        return serve();
+    }
+
+    /**
+     * Response the requests in the read buffer and flush. A pipelined read could hold more requests than the output
+     * limits allow, So we stop parsing at the limits and keep the rest in the buffer. The client already sent those
+     * bytes, No OP_READ would come for them, So we continue here whenever a flush took the output under the limits.
+     */
+    private boolean serve() throws IOException {
+        while(true){
+            boolean stopped = parseRequests();
+            if(!flush()){
+                return false;
+            }
+            if(!stopped||isBacklogged()){
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return true if we stopped at the output limits with requests left in the buffer.
+     */
+    private boolean parseRequests() throws IOException {
+        readBuffer.flip();
+        boolean stopped = false;
+        while(!closeAfterWrite&&readBuffer.hasRemaining()){
+            if(0 < discardRemaining){
+                int skip = (int) Math.min(discardRemaining, readBuffer.remaining());
+                readBuffer.position(readBuffer.position()+skip);
+                discardRemaining-=skip;
+                continue;
+            }
+            if(isBacklogged()){
+                stopped = true;
+                break;
+            }
+            int headEnd = requestHead.parse(readBuffer);
+            if(HttpRequestHead.NEED_MORE==headEnd){
+                break;
+            }
+            if(HttpRequestHead.BAD_REQUEST==headEnd){
+                readBuffer.position(readBuffer.limit());
+                sendError("400 Bad Request");
+            } else {
+                //The head points into the read buffer, So we serve the request before we move on.
+                discardRemaining=Math.max(0, requestHead.contentLength());
+                server.service(this,requestHead);
+                readBuffer.position(headEnd);
+            }
+        }
+        readBuffer.compact();
+        if(!stopped&&!closeAfterWrite&&!readBuffer.hasRemaining()){
+            //The head is bigger than we could hold.
+            readBuffer.clear();
+            sendError("431 Request Header Fields Too Large");
+        }
+        return stopped;
+    }
+
+    /**
+     * The client is too slow, The responses waiting for it reached one of the limits.
+     */
+    private boolean isBacklogged(){
+        return pendingWrite >= MAX_PENDING_WRITE||pendingRegions >= MAX_PENDING_REGIONS;
+    }
+
+    /**
+     * Append the response to the output queue. We do not write it immediately, All the responses of one read go out together.
+     */
+    public void write(ByteBuffer buffer){
+        pendingWrite+=buffer.remaining();
+        writeQueue.addLast(buffer);
+    }
+
+    /**
+     * Append a file region to the output queue. The region is sent by {@link FileRegion#transferTo} and closed after that.
+     */
+    public void write(FileRegion region){
+        pendingRegions++;
+        writeQueue.addLast(region);
+    }
+
+    /**
+     * Close the connection after all the responses we have now are sent.
+     */
+    public void closeAfterWrite(){
+        closeAfterWrite=true;
+    }
+
+    private boolean flush() throws IOException {
+        while(!writeQueue.isEmpty()){
+            Object output = writeQueue.peekFirst();
+            if(output instanceof FileRegion){
+                FileRegion region = (FileRegion) output;
+                region.transferTo(channel);
+                if(!region.isComplete()){
+                    break;
+                }
+                region.close();
+                pendingRegions--;
+            } else {
+                ByteBuffer buffer = (ByteBuffer) output;
+                pendingWrite-=channel.write(buffer);
+                if(buffer.hasRemaining()){
+                    break;
+                }
+            }
+            writeQueue.pollFirst();
+        }
+        if(writeQueue.isEmpty()){
+            if(closeAfterWrite){
+                return false;
+            }
+            selectionKey.interestOps(SelectionKey.OP_READ);
+        } else if(!isBacklogged()){
+            selectionKey.interestOps(SelectionKey.OP_READ|SelectionKey.OP_WRITE);
+        } else {
+            //The client is too slow, Stop reading more requests until it catch up.
+            selectionKey.interestOps(SelectionKey.OP_WRITE);
+        }
+        return true;
+    }
+
+    private void sendError(String status){
+        byte[] content = status.getBytes(StandardCharsets.US_ASCII);
+        write(ByteBuffer.wrap(("HTTP/1.1 " + status + "\r\n").getBytes(StandardCharsets.US_ASCII)));
+        //The Date line of this second is shared by all the responses, We write the bytes as they are.
+        write(ByteBuffer.wrap(HttpDate.currentDateHeader()));
+        String head = "Content-Type: text/plain\r\n" +
+                "Content-Length: " + content.length + "\r\n" +
+                "Connection: close\r\n\r\n";
+        write(ByteBuffer.wrap(head.getBytes(StandardCharsets.US_ASCII)));
+        write(ByteBuffer.wrap(content));
+        closeAfterWrite();
+    }
+
+    void close(){
+        Object output;
+        while(null!=(output=writeQueue.pollFirst())){
+            if(output instanceof FileRegion){
+                closeQuietly((FileRegion) output);
+            }
+        }
+        closeQuietly(channel);
+    }
+
+    private static void closeQuietly(Closeable closeable){
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            //Ignore the exception.
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package com.cz.android.simplehttp.nio;
 
+import com.cz.android.simplehttp.upload.MultipartParser;
+import com.cz.android.simplehttp.upload.UploadRequest;
+
 import java.io.*;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
@@ -9,33 +12,50 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * The simplest http server. Only support the method: GET.
  * Cooperate with the class {@link java.net.HttpURLConnection} which is the client use {@link java.net.HttpURLConnection} fetch something from this server.
  */
 public class HttpNioServer {
-    private static final int FORM_DATA_TEXT=0;
-    private static final int FORM_DATA_FILE=1;
-
-    private static final Pattern FORM_FILE_FIELD_PATTERN = Pattern.compile("([\\w-]+):\\s+([\\w-]+);\\s+(\\w+)=\"([^\"]+)\"(;\\s+(\\w+)=\"([^\"]+)\")?");
-    private static final Pattern FORM_FIELD_PATTERN = Pattern.compile("([\\w-]+):\\s+([^;]+);\\s+(\\w+)=(.+)");
     private static final String METHOD_GET="GET";
     private static final String METHOD_POST="POST";
-    private static final String LINE_FEEDS = "\r\n";
     private final ByteBuffer byteBuffer = ByteBuffer.allocate(1024);
+    private final ByteBuffer uploadBuffer = ByteBuffer.allocate(64 * 1024);
+    /**
+     * We response the request in the same readable event, So one head and one buffer serve all the connections.
+     * A head that needs more than one readable event moves to a {@link PendingHead} on its key.
+     */
+    private final HttpRequestHead requestHead = new HttpRequestHead();
+    private final ByteBuffer headBuffer = ByteBuffer.allocate(HttpConnection.MAX_HEAD_SIZE);
+    private final File uploadDirectory = new File("upload");
+    private final InetSocketAddress socketAddress;
+    private final File documentRoot;
     private int requestCount=0;
 
+    /**
+     * Start the single selector server. If you want to use all the cores try {@link HttpReactorServer}.
+     * Arguments: [host] [port] [document root]
+     */
     public static void main(String[] args) {
-        HttpNioServer httpNioServer = new HttpNioServer();
+        String host = 0 < args.length ? args[0] : "localhost";
+        int port = 1 < args.length ? Integer.parseInt(args[1]) : 8090;
+        File documentRoot = new File(2 < args.length ? args[2] : "resources/report");
+        HttpNioServer httpNioServer = new HttpNioServer(new InetSocketAddress(host, port),documentRoot);
         httpNioServer.startServer();
     }
 
+    public HttpNioServer() {
+        this(new InetSocketAddress("localhost", 8090),new File("resources/report"));
+    }
+
+    public HttpNioServer(InetSocketAddress socketAddress, File documentRoot) {
+        this.socketAddress = socketAddress;
+        this.documentRoot = documentRoot;
+    }
+
     public void startServer(){
         try(ServerSocketChannel serverSocketChannel=ServerSocketChannel.open()){
-            InetSocketAddress socketAddress = new InetSocketAddress("localhost", 8090);
             serverSocketChannel.bind(socketAddress);
             serverSocketChannel.configureBlocking(false);
             Selector selector = Selector.open();
@@ -48,19 +68,34 @@ public class HttpNioServer {
                 while(iterator.hasNext()){
                     SelectionKey selectionKey = iterator.next();
                     iterator.remove();
-                    if(selectionKey.isConnectable()){
-                        SocketChannel channel= (SocketChannel) selectionKey.channel();
-                        if(channel.finishConnect()){
-                            channel.close();
+                    try {
+                        if(selectionKey.isConnectable()){
+                            SocketChannel channel= (SocketChannel) selectionKey.channel();
+                            if(channel.finishConnect()){
+                                channel.close();
+                            }
+                        } else if(selectionKey.isAcceptable()){
+                            acceptChanel(selector, selectionKey);
+                        } else if(selectionKey.isReadable()){
+                            //Read something from channel.
+                            if(selectionKey.attachment() instanceof UploadRequest){
+                                readUploadBody(selectionKey);
+                            } else {
+                                response(selectionKey);
+                            }
+                        } else if(selectionKey.isWritable()){
+                            //Continue the file that the client did not take all at once.
+                            writePendingResponse(selectionKey);
+                        }
+                    } catch (IOException e) {
+                        System.err.println("The channel interrupted!");
+                        Object attachment = selectionKey.attachment();
+                        if(attachment instanceof PendingResponse){
+                            ((PendingResponse) attachment).close();
+                        } else if(attachment instanceof UploadRequest){
+                            ((UploadRequest) attachment).close();
                         }
-                    } else if(selectionKey.isAcceptable()){
-                        acceptChanel(selector, selectionKey);
-                    } else if(selectionKey.isReadable()){
-                        //Read something from channel.
-                        SocketChannel channel= (SocketChannel) selectionKey.channel();
-                        response(channel);
-                    } else if(selectionKey.isWritable()){
-                        //Write
+                        selectionKey.channel().close();
                     }
                 }
             }
@@ -73,57 +108,111 @@ public class HttpNioServer {
         ServerSocketChannel channel= (ServerSocketChannel) selectionKey.channel();
         SocketChannel socketChannel = channel.accept();
         socketChannel.configureBlocking(false);
-        socketChannel.register(selector,SelectionKey.OP_READ|SelectionKey.OP_WRITE);
+        socketChannel.register(selector,SelectionKey.OP_READ);
     }
 
-    private void response(SocketChannel channel) throws IOException {
-        BufferedChannelReader channelReader = new BufferedChannelReader(channel,100);
-        String protocolLine = channelReader.readLine();
-        if(null!=protocolLine){
-            String[] requestLine = protocolLine.trim().split(" ");
-            String method = requestLine[0];
-            String path = requestLine[1];
-            String version = requestLine[2];
-
-            String headerLine;
-            Map<String,String> headers = new HashMap<>();
-            while(!LINE_FEEDS.equals(headerLine=channelReader.readLine())){
-                if(0 < headerLine.trim().length()){
-                    String[] strings = headerLine.split(": ");
-                    headers.put(strings[0],strings[1].trim());
-                }
+    private void response(SelectionKey selectionKey) throws IOException {
+        SocketChannel channel= (SocketChannel) selectionKey.channel();
+        if(selectionKey.attachment() instanceof PendingHead){
+            PendingHead pendingHead = (PendingHead) selectionKey.attachment();
+            int headEnd = pendingHead.readFrom(channel);
+            if(HttpRequestHead.NEED_MORE!=headEnd){
+                selectionKey.attach(null);
+                response(selectionKey, pendingHead.requestHead, pendingHead.buffer, headEnd);
             }
-            boolean isKeepAlive = Boolean.valueOf(headers.get("keep-alive"));
-            if(METHOD_GET.equalsIgnoreCase(method)){
-                Path filePath = getFilePath(path);
-                if (Files.exists(filePath)) {
-                    SocketAddress remoteAddress = channel.getRemoteAddress();
-                    System.out.println("Response client:"+remoteAddress+" process:"+(requestCount++)+" times");
-//                    String contentType = fileTypeMap.getContentType(filePath.toFile());
-                    String contentType = "text/html";
-                    sendResponse(channel,"200 OK",contentType,Files.readAllBytes(filePath),isKeepAlive);
-                } else {
-                    // 404
-                    byte[] notFoundContent = "<h1>Not found :(</h1>".getBytes();
-                    sendResponse(channel, "404 Not Found", "text/html", notFoundContent,isKeepAlive);
-                }
-            } else if(METHOD_POST.equalsIgnoreCase(method)){
-                String transferEncoding = headers.get("Transfer-Encoding");
-                if("chunked".equalsIgnoreCase(transferEncoding)){
-                    handlePostMethodWithChunked(headers,channelReader);
-                } else {
-                    handlePostMethodWithoutChunked(headers,channelReader);
-                }
+        } else {
+            int headEnd = requestHead.readFrom(channel, headBuffer);
+            if(HttpRequestHead.NEED_MORE==headEnd){
+                //The rest of the head comes with the next readable event.
+                selectionKey.attach(new PendingHead(headBuffer));
+            } else {
+                response(selectionKey, requestHead, headBuffer, headEnd);
             }
         }
     }
 
+    private void response(SelectionKey selectionKey, HttpRequestHead requestHead, ByteBuffer headBuffer, int headEnd) throws IOException {
+        SocketChannel channel= (SocketChannel) selectionKey.channel();
+        if(0 > headEnd){
+            channel.close();
+            return;
+        }
+        boolean isKeepAlive = Boolean.valueOf(requestHead.header(HttpRequestHead.KEEP_ALIVE));
+        if(requestHead.isMethod(METHOD_GET)){
+            Path filePath = getFilePath(requestHead.target());
+            if (Files.exists(filePath)) {
+                SocketAddress remoteAddress = channel.getRemoteAddress();
+                System.out.println("Response client:"+remoteAddress+" process:"+(requestCount++)+" times");
+//                String contentType = fileTypeMap.getContentType(filePath.toFile());
+                String contentType = "text/html";
+                sendFile(selectionKey,filePath.toFile(),contentType,requestHead.header(HttpRequestHead.RANGE));
+            } else {
+                // 404
+                byte[] notFoundContent = "<h1>Not found :(</h1>".getBytes();
+                sendResponse(channel, "404 Not Found", "text/html", notFoundContent,isKeepAlive);
+            }
+        } else if(requestHead.isMethod(METHOD_POST)){
+            //The body may take many readable events. We keep the upload state on the key until it completes.
+            UploadRequest uploadRequest = new UploadRequest(requestHead, uploadDirectory);
+            selectionKey.attach(uploadRequest);
+            headBuffer.position(headEnd);
+            continueUpload(selectionKey, headBuffer);
+        }
+    }
+
     private Path getFilePath(String path) {
         if ("/".equals(path)) {
             path = "/index.html";
         }
-        File file=new File("resources/report");
-        return Paths.get(file.getAbsolutePath(), path);
+        return Paths.get(documentRoot.getAbsolutePath(), path);
+    }
+
+    /**
+     * Send the file with {@link FileRegion} instead of copying it into the heap. Support a single byte range.
+     */
+    private void sendFile(SelectionKey selectionKey, File file, String contentType, String range) throws IOException {
+        String lineSeparator = "\r\n";
+        long fileLength = file.length();
+        ByteRange byteRange = ByteRange.parse(range, fileLength);
+        StringBuilder head = new StringBuilder();
+        FileRegion fileRegion = null;
+        if(null!=byteRange&&!byteRange.isSatisfiable(fileLength)){
+            head.append("HTTP/1.1 416 Range Not Satisfiable" + lineSeparator);
+            head.append("Content-Range: bytes */" + fileLength + lineSeparator);
+            head.append("Content-Length: 0" + lineSeparator);
+        } else {
+            long start = null!=byteRange ? byteRange.start : 0;
+            long end = null!=byteRange ? byteRange.end : fileLength;
+            if(null!=byteRange){
+                head.append("HTTP/1.1 206 Partial Content" + lineSeparator);
+                head.append("Content-Range: " + byteRange.contentRange(fileLength) + lineSeparator);
+            } else {
+                head.append("HTTP/1.1 200 OK" + lineSeparator);
+            }
+            head.append("Content-Type: " + contentType + lineSeparator);
+            head.append("Content-Length: " + (end - start) + lineSeparator);
+            head.append("Accept-Ranges: bytes" + lineSeparator);
+            fileRegion = FileRegion.open(file, start, end);
+        }
+        head.append(lineSeparator);
+        PendingResponse pendingResponse = new PendingResponse(ByteBuffer.wrap(head.toString().getBytes()), fileRegion);
+        selectionKey.attach(pendingResponse);
+        writePendingResponse(selectionKey);
+    }
+
+    private void writePendingResponse(SelectionKey selectionKey) throws IOException {
+        SocketChannel channel = (SocketChannel) selectionKey.channel();
+        PendingResponse pendingResponse = (PendingResponse) selectionKey.attachment();
+        if(null==pendingResponse){
+            return;
+        }
+        if(pendingResponse.writeTo(channel)){
+            pendingResponse.close();
+            channel.close();
+        } else {
+            //Wait until the client takes the bytes in the socket buffer.
+            selectionKey.interestOps(SelectionKey.OP_WRITE);
+        }
     }
 
     private void sendResponse(SocketChannel channel, String method, String contentType, byte[] content,boolean isKeepAlive) throws IOException {
@@ -144,280 +233,31 @@ public class HttpNioServer {
 //        }
     }
 
-    private void handlePostMethodWithChunked(Map<String,String> headers, BufferedChannelReader channelReader) throws IOException {
-        String contentType = headers.get("Content-Type");
-//        List<MultiPart> multiPartList=new ArrayList<>();
-        if(contentType.startsWith("multipart/form-data")) {
-            //found form data
-            int i = contentType.indexOf("boundary=");
-            String boundary = contentType.substring(i + "boundary=".length());
-            String line;
-            boolean consumeLineFeed=false;
-            while (null != (line = channelReader.readLine())) {
-                if(LINE_FEEDS.equals(line)){
-                    //Start process chunked data.
-                    line = channelReader.readLine();
-                    if(null != line){
-                        int size =  Integer.parseInt(line.trim(),16);
-                        if(0 < size){
-                            System.out.println("ChunkSize:"+size);
-                            StringBuilder output=new StringBuilder();
-                            ChunkSize chunkSize = new ChunkSize(0, 0,size);
-                            while(0 < chunkSize.chunkSize){
-                                channelReader.readChunk(channelReader,chunkSize);
-                                ByteBuffer buffer = channelReader.getBuffer();
-                                int remaining = chunkSize.getRemaining();
-                                int position = buffer.position();
-                                String s = new String(buffer.array(), position, chunkSize.getRemaining());
-                                output.append(s);
-                                buffer.position(position+remaining);
-                            }
-                            System.out.println(output);
-                        }
-                    }
-                }
-            }
-//            MultiPart multiPart = null;
-//            while (null != (line = channelReader.readLine())) {
-//                if (line.startsWith("--") && line.contains(boundary)) {
-//                    //collect all the information that we already have.
-//                    consumeLineFeed=false;
-//                    if(line.endsWith("--")){
-//                        //The end of the form's boundary
-//                        //--===1595490884216===--
-//                        break;
-//                    } else {
-//                        if(null!=multiPart){
-//                            multiPartList.add(multiPart);
-//                        }
-//                        multiPart=new MultiPart();
-//                    }
-//                } else if (line.startsWith("Content-Disposition")) {
-//                    //Content-Disposition: form-data; name="description"
-//                    Matcher matcher = FORM_FILE_FIELD_PATTERN.matcher(line);
-//                    if (matcher.find()) {
-//                        multiPart.name=matcher.group(4);
-//                        String filename=matcher.group(7);
-//                        if(null!=filename){
-//                            multiPart.filename=filename;
-//                            multiPart.type= FORM_DATA_FILE;
-//                        } else {
-//                            multiPart.type= FORM_DATA_TEXT;
-//                        }
-//                    }
-//                } else if (line.startsWith("Content-Type")) {
-//                    //Content-Type: text/plain; charset=UTF-8
-//                    Matcher matcher = FORM_FIELD_PATTERN.matcher(line.trim());
-//                    if (matcher.find()) {
-//                        multiPart.contentType=matcher.group(2);
-//                        multiPart.charter = matcher.group(4);
-//                    }
-//                } else if (line.startsWith("Content-Transfer-Encoding")) {
-//                    //Content-Transfer-Encoding: binary
-//                    String[] splitArray = line.trim().split(": ");
-//                    String transferEncoding = splitArray[1];
-//                    if("binary".equalsIgnoreCase(transferEncoding)){
-//                        //This means the following data is binary data. But sometimes we do not have this header.
-//                    }
-//                } else if (line.startsWith("Content-Length")) {
-//                    //Content-Length: 120
-//                    String[] splitArray = line.trim().split(": ");
-//                    multiPart.contentLength=Long.valueOf(splitArray[1]);
-//                } else if (!consumeLineFeed&&LINE_FEEDS.equals(line)) {
-//                    //Start output the body.
-//                    if(null!=multiPart.filename){
-//                        //After we save the file. It will comes with a linefeed for standard, However not always.
-//                        //So we have to consume the linefeed if it existed.
-//                        consumeLineFeed=true;
-//                        //Save the file.
-//                        writeUploadFile(multiPart.filename,multiPart.contentLength,channelReader);
-//                    } else {
-//                        line=channelReader.readLine();
-//                        //The normal form value.
-//                        if(null==multiPart.value){
-//                            multiPart.value=line;
-//                        } else {
-//                            multiPart.value+=line;
-//                        }
-//                    }
-//                }
-//            }
+    private void readUploadBody(SelectionKey selectionKey) throws IOException {
+        SocketChannel channel = (SocketChannel) selectionKey.channel();
+        uploadBuffer.clear();
+        if(0 > channel.read(uploadBuffer)){
+            ((UploadRequest) selectionKey.attachment()).close();
+            channel.close();
+            return;
         }
-
-        SocketChannel channel = channelReader.getSocketChannel();
-        sendResponse(channel,"200 OK","text/plain","Upload success.".getBytes(),false);
-    }
-
-    private void readChunk(BufferedChannelReader channelReader,ChunkSize chunkSize) throws IOException {
-        ByteBuffer byteBuffer = channelReader.getBuffer();
-        int remaining = byteBuffer.remaining();
-        if(chunkSize.chunkSize < remaining){
-            chunkSize.start = byteBuffer.position();
-            byteBuffer.position(chunkSize.start+chunkSize.chunkSize);
-            chunkSize.end=byteBuffer.position();
-        } else {
-            int read;
-            chunkSize.chunkSize-=remaining;
-            chunkSize.start = byteBuffer.position();
-            chunkSize.end = byteBuffer.remaining();
-
-            byteBuffer.clear();
-            while(0 < chunkSize.chunkSize && 0 < (read = channelReader.readBuffer())){
-                if(0 > chunkSize.chunkSize - read){
-                    //Out of the boundary, Move to the new position.
-                    byteBuffer.flip();
-                    byteBuffer.position(chunkSize.chunkSize);
-                    chunkSize.start=0;
-                    chunkSize.end=chunkSize.chunkSize;
-                    chunkSize.chunkSize=0;
-                } else {
-                    chunkSize.chunkSize-=read;
-                    chunkSize.start=0;
-                    chunkSize.end=byteBuffer.position();
-                    byteBuffer.clear();
-                }
-            }
-        }
-    }
-
-    private void handlePostMethodWithoutChunked(Map<String,String> headers, BufferedChannelReader channelReader) throws IOException {
-        String contentType = headers.get("Content-Type");
-        List<MultiPart> multiPartList=new ArrayList<>();
-        if(contentType.startsWith("multipart/form-data")) {
-            //found form data
-            int i = contentType.indexOf("boundary=");
-            String boundary = contentType.substring(i + "boundary=".length());
-            String line;
-            boolean consumeLineFeed=false;
-            MultiPart multiPart = null;
-            while (null != (line = channelReader.readLine())) {
-                if (line.startsWith("--") && line.contains(boundary)) {
-                    //collect all the information that we already have.
-                    consumeLineFeed=false;
-                    if(line.endsWith("--")){
-                        //The end of the form's boundary
-                        //--===1595490884216===--
-                        break;
-                    } else {
-                        if(null!=multiPart){
-                            multiPartList.add(multiPart);
-                        }
-                        multiPart=new MultiPart();
-                    }
-                } else if (line.startsWith("Content-Disposition")) {
-                    //Content-Disposition: form-data; name="description"
-                    Matcher matcher = FORM_FILE_FIELD_PATTERN.matcher(line);
-                    if (matcher.find()) {
-                        multiPart.name=matcher.group(4);
-                        String filename=matcher.group(7);
-                        if(null!=filename){
-                            multiPart.filename=filename;
-                            multiPart.type= FORM_DATA_FILE;
-                        } else {
-                            multiPart.type= FORM_DATA_TEXT;
-                        }
-                    }
-                } else if (line.startsWith("Content-Type")) {
-                    //Content-Type: text/plain; charset=UTF-8
-                    Matcher matcher = FORM_FIELD_PATTERN.matcher(line.trim());
-                    if (matcher.find()) {
-                        multiPart.contentType=matcher.group(2);
-                        multiPart.charter = matcher.group(4);
-                    }
-                } else if (line.startsWith("Content-Transfer-Encoding")) {
-                    //Content-Transfer-Encoding: binary
-                    String[] splitArray = line.trim().split(": ");
-                    String transferEncoding = splitArray[1];
-                    if("binary".equalsIgnoreCase(transferEncoding)){
-                        //This means the following data is binary data. But sometimes we do not have this header.
-                    }
-                } else if (line.startsWith("Content-Length")) {
-                    //Content-Length: 120
-                    String[] splitArray = line.trim().split(": ");
-                    multiPart.contentLength=Long.valueOf(splitArray[1]);
-                } else if (!consumeLineFeed&& LINE_FEEDS.equals(line)) {
-                    //Start output the body.
-                    if(null!=multiPart.filename){
-                        //After we save the file. It will comes with a linefeed for standard, However not always.
-                        //So we have to consume the linefeed if it existed.
-                        consumeLineFeed=true;
-                        //Save the file.
-                        writeUploadFile(multiPart.filename,multiPart.contentLength,channelReader);
-                    } else {
-                        line=channelReader.readLine();
-                        //The normal form value.
-                        if(null==multiPart.value){
-                            multiPart.value=line;
-                        } else {
-                            multiPart.value+=line;
-                        }
-                    }
-                }
-            }
-            System.out.println();
-        }
-
-        SocketChannel channel = channelReader.getSocketChannel();
-        sendResponse(channel,"200 OK","text/plain","Upload success.".getBytes(),false);
+        uploadBuffer.flip();
+        continueUpload(selectionKey, uploadBuffer);
     }
 
-    private void writeUploadFile(String filename,long contentLength, BufferedChannelReader channelReader) {
-        File file=new File(filename);
-        try(FileChannel channel = new FileOutputStream(file).getChannel()){
-            ByteBuffer buffer = channelReader.getBuffer();
-            int fileSize=0;
-            if(buffer.hasRemaining()){
-                //We should only read data in the boundary
-                if(fileSize>contentLength){
-                    buffer.limit((int) (buffer.position()+contentLength));
-                }
-                int write = channel.write(buffer);
-                fileSize+=write;
-            }
-            int read;
-            while(fileSize < contentLength&&0 < (read=channelReader.readBuffer())){
-                buffer = channelReader.getBuffer();
-                int limit=buffer.limit();
-                if(fileSize+read>contentLength){
-                    //We should only read data in the boundary
-                    buffer.limit((int) (contentLength-fileSize));
-                }
-                int write = channel.write(buffer);
-                //Restore the limit position of the buffer.
-                if(limit!=buffer.limit()){
-                    buffer.limit(limit);
-                }
-                fileSize+=write;
+    /**
+     * Feed the body bytes to the {@link UploadRequest}. The files go to the disk while we are reading.
+     */
+    private void continueUpload(SelectionKey selectionKey, ByteBuffer buffer) throws IOException {
+        UploadRequest uploadRequest = (UploadRequest) selectionKey.attachment();
+        uploadRequest.consume(buffer);
+        if(uploadRequest.isComplete()){
+            selectionKey.attach(null);
+            for(MultipartParser.Part part:uploadRequest.getParts()){
+                System.out.println("Received the "+(null!=part.file ? "file:"+part.file : "field:"+part.name)+" size:"+part.size);
             }
-        } catch (IOException e){
-            System.err.println("The connection interrupted!");
-        }
-        System.out.println("Received the file:"+filename);
-    }
-
-    class MultiPart {
-        public int type;
-        public String contentType;
-        public String charter;
-        public String name;
-        public String filename;
-        public String value;
-        public long contentLength;
-    }
-
-    class ChunkSize{
-        int start;
-        int end;
-        int chunkSize;
-
-        public ChunkSize(int start, int end,int chunkSize) {
-            this.start = start;
-            this.end = end;
-            this.chunkSize = chunkSize;
-        }
-
-        public int getRemaining(){
-            return end-start;
+            SocketChannel channel = (SocketChannel) selectionKey.channel();
+            sendResponse(channel,"200 OK","text/plain","Upload success.".getBytes(),false);
         }
     }
 }
@@ -0,0 +1,318 @@
+package com.cz.android.simplehttp.nio;
+
+import com.cz.android.simplehttp.header.HttpDate;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The multi-reactor version of {@link HttpNioServer}.
+ * One acceptor thread accepts the connections and hands them to N workers in turn. Each worker owns one {@link Selector}
+ * and all the connections registered to it, So a connection is only touched by one thread during its whole life.
+ *
+ * The connections support HTTP/1.1 keep-alive and pipelining. See {@link HttpConnection}.
+ */
+public class HttpReactorServer {
+    private static final String METHOD_GET="GET";
+    private static final String METHOD_HEAD="HEAD";
+    private static final String LINE_FEEDS = "\r\n";
+
+    private final InetSocketAddress address;
+    private final File documentRoot;
+    private final Worker[] workers;
+    private ServerSocketChannel serverSocketChannel;
+    private Thread acceptorThread;
+    private volatile boolean running;
+
+    public static void main(String[] args) throws IOException {
+        String host = 0 < args.length ? args[0] : "localhost";
+        int port = 1 < args.length ? Integer.parseInt(args[1]) : 8090;
+        File documentRoot = new File(2 < args.length ? args[2] : "resources/report");
+        int workerCount = 3 < args.length ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        HttpReactorServer server = new HttpReactorServer(new InetSocketAddress(host, port), documentRoot, workerCount);
+        server.start();
+    }
+
+    public HttpReactorServer(InetSocketAddress address, File documentRoot) {
+        this(address, documentRoot, Runtime.getRuntime().availableProcessors());
+    }
+
+    public HttpReactorServer(InetSocketAddress address, File documentRoot, int workerCount) {
+        if(0 >= workerCount){
+            throw new IllegalArgumentException("workerCount <= 0: "+workerCount);
+        }
+        this.address = address;
+        this.documentRoot = documentRoot.getAbsoluteFile();
+        this.workers = new Worker[workerCount];
+    }
+
+    public synchronized void start() throws IOException {
+        if(running){
+            throw new IllegalStateException("The server already started.");
+        }
+        running=true;
+        for(int i=0;i<workers.length;i++){
+            workers[i]=new Worker(i);
+            workers[i].start();
+        }
+        serverSocketChannel = ServerSocketChannel.open();
+        serverSocketChannel.bind(address);
+        acceptorThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "HttpReactorServer-acceptor");
+        acceptorThread.start();
+        System.out.println("Start the server at:"+address+" workers:"+workers.length);
+    }
+
+    public synchronized void stop() {
+        if(!running){
+            return;
+        }
+        running=false;
+        try {
+            serverSocketChannel.close();
+        } catch (IOException e) {
+            //Ignore the exception.
+        }
+        for(Worker worker:workers){
+            worker.selector.wakeup();
+        }
+    }
+
+    /**
+     * The acceptor use a blocking server channel. It does nothing but accept, So it never needs a selector.
+     */
+    private void accept(){
+        int next=0;
+        while(running){
+            try {
+                SocketChannel socketChannel = serverSocketChannel.accept();
+                socketChannel.configureBlocking(false);
+                socketChannel.socket().setTcpNoDelay(true);
+                workers[next].register(socketChannel);
+                next = (next + 1) % workers.length;
+            } catch (ClosedChannelException e){
+                break;
+            } catch (IOException e) {
+                System.err.println("Accept the connection failed:"+e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Handle a complete request. This method always runs on the worker thread that owns the connection.
+     */
+    void service(HttpConnection connection, HttpRequestHead request) throws IOException {
+        boolean isKeepAlive = request.isKeepAlive();
+        boolean isHead = request.isMethod(METHOD_HEAD);
+        if(!request.isMethod(METHOD_GET)&&!isHead){
+            byte[] content = "<h1>Method not allowed :(</h1>".getBytes();
+            sendResponse(connection,"405 Method Not Allowed","text/html",content,isHead,isKeepAlive);
+            return;
+        }
+        Path filePath;
+        try {
+            filePath = getFilePath(request.target());
+        } catch (InvalidPathException e){
+            byte[] content = "<h1>Bad request :(</h1>".getBytes();
+            sendResponse(connection,"400 Bad Request","text/html",content,isHead,false);
+            return;
+        }
+        if (null!=filePath&&Files.isRegularFile(filePath)) {
+            File file = filePath.toFile();
+            String contentType = URLConnection.guessContentTypeFromName(file.getName());
+            if(null==contentType){
+                contentType="application/octet-stream";
+            }
+            sendFile(connection,file,contentType,request.header(HttpRequestHead.RANGE),isHead,isKeepAlive);
+        } else {
+            // 404
+            byte[] notFoundContent = "<h1>Not found :(</h1>".getBytes();
+            sendResponse(connection, "404 Not Found", "text/html", notFoundContent,isHead,isKeepAlive);
+        }
+    }
+
+    /**
+     * Send the file or a range of the file with {@link FileRegion}. The file content never gets into the heap.
+     */
+    private void sendFile(HttpConnection connection, File file, String contentType, String range, boolean isHead, boolean isKeepAlive) throws IOException {
+        long fileLength = file.length();
+        ByteRange byteRange = ByteRange.parse(range, fileLength);
+        if(null!=byteRange&&!byteRange.isSatisfiable(fileLength)){
+            StringBuilder head = new StringBuilder(128);
+            head.append("HTTP/1.1 416 Range Not Satisfiable").append(LINE_FEEDS);
+            head.append("Content-Range: bytes */").append(fileLength).append(LINE_FEEDS);
+            head.append("Content-Length: 0").append(LINE_FEEDS);
+            head.append("Date: ").append(HttpDate.currentDate()).append(LINE_FEEDS);
+            head.append("Connection: ").append(isKeepAlive ? "keep-alive" : "close").append(LINE_FEEDS);
+            head.append(LINE_FEEDS);
+            connection.write(ByteBuffer.wrap(head.toString().getBytes(StandardCharsets.US_ASCII)));
+            if(!isKeepAlive){
+                connection.closeAfterWrite();
+            }
+            return;
+        }
+        long start = null!=byteRange ? byteRange.start : 0;
+        long end = null!=byteRange ? byteRange.end : fileLength;
+        StringBuilder head = new StringBuilder(128);
+        if(null!=byteRange){
+            head.append("HTTP/1.1 206 Partial Content").append(LINE_FEEDS);
+            head.append("Content-Range: ").append(byteRange.contentRange(fileLength)).append(LINE_FEEDS);
+        } else {
+            head.append("HTTP/1.1 200 OK").append(LINE_FEEDS);
+        }
+        head.append("Content-Type: ").append(contentType).append(LINE_FEEDS);
+        head.append("Content-Length: ").append(end - start).append(LINE_FEEDS);
+        head.append("Accept-Ranges: bytes").append(LINE_FEEDS);
+        head.append("Date: ").append(HttpDate.currentDate()).append(LINE_FEEDS);
+        head.append("Connection: ").append(isKeepAlive ? "keep-alive" : "close").append(LINE_FEEDS);
+        head.append(LINE_FEEDS);
+        connection.write(ByteBuffer.wrap(head.toString().getBytes(StandardCharsets.US_ASCII)));
+        if(!isHead&&start < end){
+            connection.write(FileRegion.open(file, start, end));
+        }
+        if(!isKeepAlive){
+            connection.closeAfterWrite();
+        }
+    }
+
+    /**
+     * Resolve the request path under the document root.
+     * @return null if the path tries to get out of the document root.
+     * @throws InvalidPathException if the path has characters the file system does not allow.
+     */
+    private Path getFilePath(String path) {
+        int queryIndex = path.indexOf('?');
+        if(0 <= queryIndex){
+            path = path.substring(0,queryIndex);
+        }
+        if ("/".equals(path)) {
+            path = "/index.html";
+        }
+        Path rootPath = documentRoot.toPath();
+        Path filePath = rootPath.resolve(path.substring(1)).normalize();
+        if(!filePath.startsWith(rootPath)){
+            return null;
+        }
+        return filePath;
+    }
+
+    private void sendResponse(HttpConnection connection, String status, String contentType, byte[] content,boolean isHead,boolean isKeepAlive) {
+        StringBuilder head = new StringBuilder(128);
+        head.append("HTTP/1.1 ").append(status).append(LINE_FEEDS);
+        head.append("Content-Type: ").append(contentType).append(LINE_FEEDS);
+        head.append("Content-Length: ").append(content.length).append(LINE_FEEDS);
+        head.append("Date: ").append(HttpDate.currentDate()).append(LINE_FEEDS);
+        head.append("Connection: ").append(isKeepAlive ? "keep-alive" : "close").append(LINE_FEEDS);
+        head.append(LINE_FEEDS);
+        connection.write(ByteBuffer.wrap(head.toString().getBytes(StandardCharsets.US_ASCII)));
+        if(!isHead){
+            connection.write(ByteBuffer.wrap(content));
+        }
+        if(!isKeepAlive){
+            connection.closeAfterWrite();
+        }
+    }
+
+    /**
+     * The sub reactor. Each worker runs its own selector on its own thread.
+     */
+    private class Worker implements Runnable {
+        private final ConcurrentLinkedQueue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+        private final Selector selector;
+        private final Thread thread;
+
+        Worker(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "HttpReactorServer-worker-" + index);
+        }
+
+        void start(){
+            thread.start();
+        }
+
+        /**
+         * Called by the acceptor thread. We could not register the channel from another thread while the selector is selecting,
+         * So we queue it and wake the selector up.
+         */
+        void register(SocketChannel socketChannel){
+            pendingChannels.offer(socketChannel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while(running){
+                    selector.select();
+                    registerPendingChannels();
+                    Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                    while(iterator.hasNext()){
+                        SelectionKey selectionKey = iterator.next();
+                        iterator.remove();
+                        HttpConnection connection = (HttpConnection) selectionKey.attachment();
+                        try {
+                            boolean keepConnection = true;
+                            if(selectionKey.isReadable()){
+                                keepConnection = connection.onReadable();
+                            }
+                            if(keepConnection&&selectionKey.isValid()&&selectionKey.isWritable()){
+                                keepConnection = connection.onWritable();
+                            }
+                            if(!keepConnection){
+                                connection.close();
+                            }
+                        } catch (IOException | RuntimeException e) {
+                            //Close the connection that failed, The worker keeps serving the others.
+                            connection.close();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                for(SelectionKey selectionKey:selector.keys()){
+                    Object attachment = selectionKey.attachment();
+                    if(attachment instanceof HttpConnection){
+                        ((HttpConnection) attachment).close();
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    //Ignore the exception.
+                }
+            }
+        }
+
+        private void registerPendingChannels() {
+            SocketChannel socketChannel;
+            while(null!=(socketChannel=pendingChannels.poll())){
+                HttpConnection connection = new HttpConnection(HttpReactorServer.this, socketChannel);
+                try {
+                    SelectionKey selectionKey = socketChannel.register(selector, SelectionKey.OP_READ, connection);
+                    connection.attach(selectionKey);
+                } catch (ClosedChannelException e) {
+                    connection.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,555 @@
+package com.cz.android.simplehttp.nio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The request line and the headers of a request, Parsed straight from the bytes of a {@link ByteBuffer}.
+ * All the servers share this parser instead of reading lines into strings and splitting them.
+ *
+ * We only remember where each part starts and ends in the buffer. Nothing becomes a {@link String} until someone
+ * asks for it, The common methods and header names are constants, So parsing a head allocates nothing.
+ * One instance belongs to one connection and it is reused for every request of the connection.
+ *
+ * The parser is incremental. Call {@link #parse(ByteBuffer)} each time more bytes arrived, It continues from the
+ * line it stopped at. The bytes of the head must stay in the buffer while the request is being served, The buffer
+ * could be compacted between the calls as long as the head still starts at its position.
+ */
+public class HttpRequestHead {
+    /**
+     * {@link #parse(ByteBuffer)} needs more bytes.
+     */
+    public static final int NEED_MORE = -1;
+    /**
+     * {@link #parse(ByteBuffer)} found something that is not a request head.
+     */
+    public static final int BAD_REQUEST = -2;
+    /**
+     * {@link #readFrom(ReadableByteChannel, ByteBuffer)} reached the end of the stream before the head was complete.
+     */
+    public static final int END_OF_STREAM = -3;
+
+    /**
+     * The header names we look up by their index instead of comparing the names again.
+     */
+    public static final int HOST = 0;
+    public static final int CONNECTION = 1;
+    public static final int CONTENT_LENGTH = 2;
+    public static final int CONTENT_TYPE = 3;
+    public static final int TRANSFER_ENCODING = 4;
+    public static final int RANGE = 5;
+    public static final int KEEP_ALIVE = 6;
+    public static final int USER_AGENT = 7;
+    public static final int ACCEPT = 8;
+    public static final int ACCEPT_ENCODING = 9;
+    public static final int ACCEPT_LANGUAGE = 10;
+    public static final int COOKIE = 11;
+    public static final int EXPECT = 12;
+    public static final int IF_MODIFIED_SINCE = 13;
+    public static final int IF_NONE_MATCH = 14;
+    public static final int CACHE_CONTROL = 15;
+    public static final int PROXY_CONNECTION = 16;
+    public static final int REFERER = 17;
+    public static final int UNKNOWN = -1;
+
+    private static final String[] HEADER_NAMES = {
+            "Host", "Connection", "Content-Length", "Content-Type", "Transfer-Encoding", "Range", "Keep-Alive",
+            "User-Agent", "Accept", "Accept-Encoding", "Accept-Language", "Cookie", "Expect", "If-Modified-Since",
+            "If-None-Match", "Cache-Control", "Proxy-Connection", "Referer"
+    };
+    private static final String[] METHODS = {"GET", "HEAD", "POST", "PUT", "DELETE", "OPTIONS", "CONNECT", "PATCH", "TRACE"};
+    private static final String[] VERSIONS = {"HTTP/1.1", "HTTP/1.0"};
+    /**
+     * The lower case bytes of the header names, And the header indexes for each name length.
+     */
+    private static final byte[][] HEADER_NAME_BYTES = new byte[HEADER_NAMES.length][];
+    private static final int[][] HEADERS_BY_LENGTH;
+    private static final int MAX_HEADER_COUNT = 128;
+
+    static {
+        int maxLength = 0;
+        for(int i=0;i<HEADER_NAMES.length;i++){
+            HEADER_NAME_BYTES[i] = HEADER_NAMES[i].toLowerCase().getBytes(StandardCharsets.US_ASCII);
+            maxLength = Math.max(maxLength, HEADER_NAME_BYTES[i].length);
+        }
+        HEADERS_BY_LENGTH = new int[maxLength + 1][];
+        for(int length=0;length<=maxLength;length++){
+            int count = 0;
+            for(byte[] name:HEADER_NAME_BYTES){
+                if(length==name.length) count++;
+            }
+            HEADERS_BY_LENGTH[length] = new int[count];
+            count = 0;
+            for(int i=0;i<HEADER_NAME_BYTES.length;i++){
+                if(length==HEADER_NAME_BYTES[i].length) HEADERS_BY_LENGTH[length][count++] = i;
+            }
+        }
+    }
+
+    private ByteBuffer buffer;
+    /**
+     * The buffer index the head starts at. All the other offsets are relative to it.
+     */
+    private int start;
+    private boolean complete;
+    /**
+     * The incremental state. Where the current line starts and how far we already looked for its end.
+     */
+    private int lineStart;
+    private int scanned;
+    private boolean hasRequestLine;
+
+    private int methodEnd;
+    private int targetStart;
+    private int targetEnd;
+    private int versionStart;
+    private int versionEnd;
+    private int headersStart;
+    private int headerCount;
+    /**
+     * For each header: the name start, name end, value start and value end.
+     */
+    private int[] offsets = new int[16 * 4];
+    private int[] headerIds = new int[16];
+    private int length;
+
+    /**
+     * Continue parsing the head that starts at the position of the buffer.
+     * The position of the buffer does not change.
+     *
+     * @return the buffer index right after the blank line that ends the head, Or {@link #NEED_MORE} or {@link #BAD_REQUEST}.
+     */
+    public int parse(ByteBuffer buffer){
+        if(complete){
+            reset();
+        }
+        this.buffer = buffer;
+        this.start = buffer.position();
+        int limit = buffer.limit() - start;
+        for(int i=scanned;i<limit;i++){
+            if('\n'!=buffer.get(start+i)){
+                continue;
+            }
+            int lineEnd = 0 < i && '\r'==buffer.get(start+i-1) ? i-1 : i;
+            if(lineEnd==lineStart){
+                if(hasRequestLine){
+                    complete = true;
+                    length = i + 1;
+                    scanned = length;
+                    return start + length;
+                }
+                //Ignore the blank lines in front of the request line.
+            } else if(!(hasRequestLine ? parseHeader(lineStart, lineEnd) : parseRequestLine(lineStart, lineEnd))){
+                scanned = i + 1;
+                return BAD_REQUEST;
+            } else if(0==headerCount){
+                headersStart = i + 1;
+            }
+            lineStart = i + 1;
+        }
+        scanned = limit;
+        return NEED_MORE;
+    }
+
+    /**
+     * Forget the last head. {@link #parse(ByteBuffer)} calls it when the last head was complete.
+     */
+    public void reset(){
+        buffer = null;
+        complete = false;
+        lineStart = 0;
+        scanned = 0;
+        hasRequestLine = false;
+        headerCount = 0;
+        length = 0;
+    }
+
+    /**
+     * Read the channel into the buffer until the head is complete.
+     * The servers that only look at one request per connection use it. The bytes after the head stay in the buffer.
+     *
+     * @return the same as {@link #parse(ByteBuffer)}, {@link #NEED_MORE} if the channel has no more bytes for now,
+     * {@link #END_OF_STREAM} if the client closed it. After {@link #NEED_MORE} call
+     * {@link #continueReadFrom(ReadableByteChannel, ByteBuffer)} with the same buffer on the next readable event.
+     */
+    public int readFrom(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        reset();
+        buffer.clear();
+        buffer.limit(0);
+        return continueReadFrom(channel, buffer);
+    }
+
+    /**
+     * Continue the head {@link #readFrom(ReadableByteChannel, ByteBuffer)} returned {@link #NEED_MORE} for.
+     * The buffer is the way the last call left it, The bytes read so far from 0 to its limit.
+     */
+    public int continueReadFrom(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.position(buffer.limit());
+        buffer.limit(buffer.capacity());
+        while(true){
+            int read = channel.read(buffer);
+            int limit = buffer.position();
+            buffer.flip();
+            int headEnd = parse(buffer);
+            if(NEED_MORE!=headEnd){
+                return headEnd;
+            } else if(limit==buffer.capacity()){
+                return BAD_REQUEST;
+            } else if(0 > read){
+                return END_OF_STREAM;
+            } else if(0 == read){
+                return NEED_MORE;
+            }
+            buffer.position(limit);
+            buffer.limit(buffer.capacity());
+        }
+    }
+
+    /**
+     * The blocking version of {@link #readFrom(ReadableByteChannel, ByteBuffer)}.
+     */
+    public int readFrom(InputStream inputStream, ByteBuffer buffer) throws IOException {
+        reset();
+        buffer.clear();
+        byte[] array = buffer.array();
+        while(true){
+            int read = inputStream.read(array, buffer.position(), buffer.remaining());
+            if(0 < read){
+                buffer.position(buffer.position() + read);
+            }
+            int limit = buffer.position();
+            buffer.flip();
+            int headEnd = parse(buffer);
+            if(NEED_MORE!=headEnd){
+                return headEnd;
+            } else if(limit==buffer.capacity()){
+                return BAD_REQUEST;
+            } else if(0 > read){
+                return END_OF_STREAM;
+            }
+            buffer.position(limit);
+            buffer.limit(buffer.capacity());
+        }
+    }
+
+    private boolean parseRequestLine(int from, int to){
+        if(hasControlByte(from, to, false)){
+            return false;
+        }
+        int firstSpace = indexOf(' ', from, to);
+        int lastSpace = lastIndexOf(' ', from, to);
+        if(0 > firstSpace||firstSpace==lastSpace||from==firstSpace){
+            return false;
+        }
+        methodEnd = firstSpace;
+        targetStart = firstSpace + 1;
+        targetEnd = lastSpace;
+        versionStart = lastSpace + 1;
+        versionEnd = to;
+        if(targetStart==targetEnd||0 <= indexOf(' ', targetStart, targetEnd)||!regionStartsWith(versionStart, versionEnd, "HTTP/")){
+            return false;
+        }
+        hasRequestLine = true;
+        return true;
+    }
+
+    private boolean parseHeader(int from, int to){
+        byte first = buffer.get(start + from);
+        if(' '==first||'\t'==first){
+            //The obsolete line folding, RFC 7230 allows us to reject it.
+            return false;
+        }
+        if(hasControlByte(from, to, true)){
+            return false;
+        }
+        int colon = indexOf(':', from, to);
+        if(0 >= colon - from){
+            return false;
+        }
+        int nameEnd = colon;
+        byte last = buffer.get(start + nameEnd - 1);
+        if(' '==last||'\t'==last){
+            //No whitespace between the name and the colon.
+            return false;
+        }
+        int valueStart = colon + 1;
+        int valueEnd = to;
+        while(valueStart < valueEnd&&isWhitespace(buffer.get(start + valueStart))) valueStart++;
+        while(valueEnd > valueStart&&isWhitespace(buffer.get(start + valueEnd - 1))) valueEnd--;
+        if(MAX_HEADER_COUNT==headerCount){
+            return false;
+        }
+        if(headerCount==headerIds.length){
+            int[] newOffsets = new int[offsets.length * 2];
+            System.arraycopy(offsets, 0, newOffsets, 0, offsets.length);
+            offsets = newOffsets;
+            int[] newIds = new int[headerIds.length * 2];
+            System.arraycopy(headerIds, 0, newIds, 0, headerIds.length);
+            headerIds = newIds;
+        }
+        int index = headerCount * 4;
+        offsets[index] = from;
+        offsets[index + 1] = nameEnd;
+        offsets[index + 2] = valueStart;
+        offsets[index + 3] = valueEnd;
+        headerIds[headerCount] = headerId(from, nameEnd);
+        headerCount++;
+        return true;
+    }
+
+    private int headerId(int from, int to){
+        int length = to - from;
+        if(length >= HEADERS_BY_LENGTH.length){
+            return UNKNOWN;
+        }
+        for(int id:HEADERS_BY_LENGTH[length]){
+            if(regionEqualsLowerCase(from, HEADER_NAME_BYTES[id])){
+                return id;
+            }
+        }
+        return UNKNOWN;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * The size of the head in bytes, Including the blank line. It is relative to the start of the head like {@link #headersStart()}.
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @return the method, A constant for the common methods.
+     */
+    public String method(){
+        for(String method:METHODS){
+            if(regionEquals(0, methodEnd, method)){
+                return method;
+            }
+        }
+        return string(0, methodEnd);
+    }
+
+    /**
+     * Compare the method without creating a string.
+     */
+    public boolean isMethod(String method){
+        return regionEquals(0, methodEnd, method);
+    }
+
+    /**
+     * The request target, Usually the path and the query.
+     */
+    public String target(){
+        return string(targetStart, targetEnd);
+    }
+
+    public String version(){
+        for(String version:VERSIONS){
+            if(regionEquals(versionStart, versionEnd, version)){
+                return version;
+            }
+        }
+        return string(versionStart, versionEnd);
+    }
+
+    public boolean isHttp10(){
+        return regionEquals(versionStart, versionEnd, "HTTP/1.0");
+    }
+
+    /**
+     * Where the header lines start, Relative to the start of the head. A proxy could replace the request line
+     * and keep the rest of the bytes as they are.
+     */
+    public int headersStart() {
+        return headersStart;
+    }
+
+    public int headerCount(){
+        return headerCount;
+    }
+
+    /**
+     * The name as the client wrote it, Or the constant if it is one of the common names.
+     */
+    public String name(int index){
+        int id = headerIds[index];
+        return UNKNOWN!=id ? HEADER_NAMES[id] : string(offsets[index * 4], offsets[index * 4 + 1]);
+    }
+
+    public String value(int index){
+        return string(offsets[index * 4 + 2], offsets[index * 4 + 3]);
+    }
+
+    /**
+     * @param id one of the header constants like {@link #CONTENT_LENGTH}.
+     * @return the first value of the header, Or null.
+     */
+    public String header(int id){
+        int index = indexOf(id);
+        return 0 <= index ? value(index) : null;
+    }
+
+    /**
+     * Look up a header by its name, Ignoring the case.
+     */
+    public String header(String name){
+        for(int i=0;i<headerCount;i++){
+            int from = offsets[i * 4];
+            int to = offsets[i * 4 + 1];
+            if(to - from==name.length()&&regionEqualsIgnoreCase(from, to, name)){
+                return value(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Compare the value of a header without creating a string, Ignoring the case.
+     */
+    public boolean headerEquals(int id, String value){
+        int index = indexOf(id);
+        return 0 <= index&&regionEqualsIgnoreCase(offsets[index * 4 + 2], offsets[index * 4 + 3], value);
+    }
+
+    /**
+     * Parse the Content-Length straight from the bytes.
+     *
+     * @return the length, Or -1 if there is no Content-Length or it is not a number.
+     */
+    public long contentLength(){
+        int index = indexOf(CONTENT_LENGTH);
+        if(0 > index){
+            return -1;
+        }
+        int from = offsets[index * 4 + 2];
+        int to = offsets[index * 4 + 3];
+        if(from==to||18 < to - from){
+            return -1;
+        }
+        long value = 0;
+        for(int i=from;i<to;i++){
+            byte b = buffer.get(start + i);
+            if('0' > b||'9' < b){
+                return -1;
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    /**
+     * HTTP/1.1 keep the connection by default. HTTP/1.0 only keep the connection when the client ask for it.
+     */
+    public boolean isKeepAlive(){
+        if(isHttp10()){
+            return headerEquals(CONNECTION, "keep-alive");
+        }
+        return !headerEquals(CONNECTION, "close");
+    }
+
+    /**
+     * All the headers as a map, For the code that still wants one. It allocates, Unlike everything else here.
+     */
+    public Map<String,String> toMap(){
+        Map<String,String> headers = new LinkedHashMap<>();
+        for(int i=0;i<headerCount;i++){
+            headers.put(name(i), value(i));
+        }
+        return headers;
+    }
+
+    private int indexOf(int id){
+        for(int i=0;i<headerCount;i++){
+            if(id==headerIds[i]){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private String string(int from, int to){
+        int length = to - from;
+        if(buffer.hasArray()){
+            return new String(buffer.array(), buffer.arrayOffset() + start + from, length, StandardCharsets.ISO_8859_1);
+        }
+        char[] chars = new char[length];
+        for(int i=0;i<length;i++){
+            chars[i] = (char) (buffer.get(start + from + i) & 0xff);
+        }
+        return new String(chars);
+    }
+
+    private int indexOf(char c, int from, int to){
+        for(int i=from;i<to;i++){
+            if(c==buffer.get(start + i)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * A NUL, A bare CR or any other control byte has no place in a head, The servers would pass it on to file paths.
+     * Only the header values may contain tabs.
+     */
+    private boolean hasControlByte(int from, int to, boolean allowTab){
+        for(int i=from;i<to;i++){
+            byte b = buffer.get(start + i);
+            if((0 <= b&&b < 0x20&&!(allowTab&&'\t'==b))||0x7F==b) return true;
+        }
+        return false;
+    }
+
+    private int lastIndexOf(char c, int from, int to){
+        for(int i=to-1;i>=from;i--){
+            if(c==buffer.get(start + i)) return i;
+        }
+        return -1;
+    }
+
+    private boolean regionEquals(int from, int to, String value){
+        if(to - from!=value.length()){
+            return false;
+        }
+        for(int i=0;i<value.length();i++){
+            if(value.charAt(i)!=buffer.get(start + from + i)) return false;
+        }
+        return true;
+    }
+
+    private boolean regionStartsWith(int from, int to, String prefix){
+        return to - from >= prefix.length()&&regionEquals(from, from + prefix.length(), prefix);
+    }
+
+    private boolean regionEqualsIgnoreCase(int from, int to, String value){
+        if(to - from!=value.length()){
+            return false;
+        }
+        for(int i=0;i<value.length();i++){
+            if(toLowerCase(value.charAt(i))!=toLowerCase(buffer.get(start + from + i))) return false;
+        }
+        return true;
+    }
+
+    private boolean regionEqualsLowerCase(int from, byte[] lowerCase){
+        for(int i=0;i<lowerCase.length;i++){
+            if(lowerCase[i]!=toLowerCase(buffer.get(start + from + i))) return false;
+        }
+        return true;
+    }
+
+    private static int toLowerCase(int c){
+        return 'A' <= c&&'Z' >= c ? c + ('a' - 'A') : c;
+    }
+
+    private static boolean isWhitespace(byte b){
+        return ' '==b||'\t'==b;
+    }
+}
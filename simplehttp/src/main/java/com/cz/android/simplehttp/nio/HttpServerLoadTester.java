@@ -0,0 +1,218 @@
+package com.cz.android.simplehttp.nio;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A local load generator for the http servers in this package.
+ * It starts the single selector {@link HttpNioServer} and the multi-reactor {@link HttpReactorServer} on two ports
+ * and reports requests/sec and the p99 latency of each of them.
+ *
+ * The old server closes the connection after each response, So each request here pays a new TCP handshake.
+ * The new server keeps the connection and we send the requests pipelined.
+ *
+ * Arguments: [client threads] [requests per thread] [pipeline depth]
+ */
+public class HttpServerLoadTester {
+    private static final String HOST = "localhost";
+    private static final int OLD_SERVER_PORT = 8091;
+    private static final int NEW_SERVER_PORT = 8092;
+
+    public static void main(String[] args) throws Exception {
+        int clientCount = 0 < args.length ? Integer.parseInt(args[0]) : 16;
+        int requestCount = 1 < args.length ? Integer.parseInt(args[1]) : 2000;
+        int pipelineDepth = 2 < args.length ? Integer.parseInt(args[2]) : 8;
+
+        File documentRoot = Files.createTempDirectory("www").toFile();
+        documentRoot.deleteOnExit();
+        File indexFile = new File(documentRoot, "index.html");
+        indexFile.deleteOnExit();
+        StringBuilder content = new StringBuilder("<html><body>");
+        while(content.length() < 512){
+            content.append("<p>Hello world!</p>");
+        }
+        content.append("</body></html>");
+        Files.write(indexFile.toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+
+        //The old server never stops, So we run it on a daemon thread.
+        final HttpNioServer oldServer = new HttpNioServer(new InetSocketAddress(HOST, OLD_SERVER_PORT), documentRoot);
+        Thread oldServerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                oldServer.startServer();
+            }
+        }, "HttpNioServer");
+        oldServerThread.setDaemon(true);
+        oldServerThread.start();
+
+        HttpReactorServer newServer = new HttpReactorServer(new InetSocketAddress(HOST, NEW_SERVER_PORT), documentRoot);
+        newServer.start();
+        Thread.sleep(500);
+
+        //Warm up both of them, And then measure.
+        runLoad(OLD_SERVER_PORT, clientCount, requestCount / 10, 0);
+        Result oldResult = runLoad(OLD_SERVER_PORT, clientCount, requestCount, 0);
+        runLoad(NEW_SERVER_PORT, clientCount, requestCount / 10, pipelineDepth);
+        Result newResult = runLoad(NEW_SERVER_PORT, clientCount, requestCount, pipelineDepth);
+        newServer.stop();
+
+        System.out.println("Clients:"+clientCount+" requests per client:"+requestCount+" pipeline depth:"+pipelineDepth);
+        System.out.println("Single selector, close per request:"+oldResult);
+        System.out.println("Multi reactor, keep-alive:"+newResult);
+        System.exit(0);
+    }
+
+    /**
+     * @param pipelineDepth 0 means open a new connection for each request.
+     */
+    private static Result runLoad(final int port, int clientCount, final int requestCount, final int pipelineDepth) throws InterruptedException {
+        final long[][] latencies = new long[clientCount][];
+        final CountDownLatch countDownLatch = new CountDownLatch(clientCount);
+        long st = System.nanoTime();
+        for(int i=0;i<clientCount;i++){
+            final int index = i;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if(0 == pipelineDepth){
+                            latencies[index] = requestWithNewConnection(port, requestCount);
+                        } else {
+                            latencies[index] = requestWithKeepAlive(port, requestCount, pipelineDepth);
+                        }
+                    } catch (IOException e) {
+                        System.err.println("The client failed:"+e.getMessage());
+                        latencies[index] = new long[0];
+                    } finally {
+                        countDownLatch.countDown();
+                    }
+                }
+            }, "LoadClient-" + i).start();
+        }
+        countDownLatch.await();
+        long elapsedNs = System.nanoTime() - st;
+
+        int total=0;
+        for(long[] latency:latencies){
+            total+=latency.length;
+        }
+        long[] allLatencies = new long[total];
+        int offset=0;
+        for(long[] latency:latencies){
+            System.arraycopy(latency,0,allLatencies,offset,latency.length);
+            offset+=latency.length;
+        }
+        Arrays.sort(allLatencies);
+        long p99 = 0 < total ? allLatencies[Math.min(total - 1, (int) (total * 0.99))] : 0;
+        return new Result(total, elapsedNs, p99);
+    }
+
+    private static long[] requestWithNewConnection(int port, int requestCount) throws IOException {
+        byte[] request = ("GET /index.html HTTP/1.1\r\nHost: " + HOST + "\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        long[] latencies = new long[requestCount];
+        byte[] buffer = new byte[4096];
+        for(int i=0;i<requestCount;i++){
+            long st = System.nanoTime();
+            try(Socket socket = new Socket(HOST, port)){
+                OutputStream outputStream = socket.getOutputStream();
+                outputStream.write(request);
+                outputStream.flush();
+                InputStream inputStream = socket.getInputStream();
+                //The server closes the connection after the response.
+                while(-1 != inputStream.read(buffer)){
+                }
+            }
+            latencies[i] = System.nanoTime() - st;
+        }
+        return latencies;
+    }
+
+    private static long[] requestWithKeepAlive(int port, int requestCount, int pipelineDepth) throws IOException {
+        byte[] request = ("GET /index.html HTTP/1.1\r\nHost: " + HOST + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        long[] latencies = new long[requestCount];
+        long[] sendTimes = new long[requestCount];
+        try(Socket socket = new Socket(HOST, port)){
+            socket.setTcpNoDelay(true);
+            OutputStream outputStream = new BufferedOutputStream(socket.getOutputStream());
+            InputStream inputStream = new BufferedInputStream(socket.getInputStream());
+            int sent=0;
+            int received=0;
+            while(received < requestCount){
+                //Keep the pipeline full.
+                while(sent < requestCount && sent - received < pipelineDepth){
+                    sendTimes[sent] = System.nanoTime();
+                    outputStream.write(request);
+                    sent++;
+                }
+                outputStream.flush();
+                readResponse(inputStream);
+                latencies[received] = System.nanoTime() - sendTimes[received];
+                received++;
+            }
+        }
+        return latencies;
+    }
+
+    /**
+     * Read the head, And skip the body by the content length.
+     */
+    private static void readResponse(InputStream inputStream) throws IOException {
+        long contentLength = 0;
+        StringBuilder line = new StringBuilder();
+        while(true){
+            int c = inputStream.read();
+            if(-1 == c){
+                throw new EOFException("The server closed the connection.");
+            }
+            if('\n' == c){
+                int length = line.length();
+                if(0 < length && '\r' == line.charAt(length - 1)){
+                    line.setLength(length - 1);
+                }
+                if(0 == line.length()){
+                    break;
+                }
+                String header = line.toString();
+                if(header.regionMatches(true, 0, "Content-Length:", 0, "Content-Length:".length())){
+                    contentLength = Long.parseLong(header.substring("Content-Length:".length()).trim());
+                }
+                line.setLength(0);
+            } else {
+                line.append((char) c);
+            }
+        }
+        while(0 < contentLength){
+            long skip = inputStream.skip(contentLength);
+            if(0 >= skip){
+                if(-1 == inputStream.read()){
+                    throw new EOFException("The server closed the connection.");
+                }
+                skip = 1;
+            }
+            contentLength -= skip;
+        }
+    }
+
+    private static class Result {
+        final int requestCount;
+        final long elapsedNs;
+        final long p99Ns;
+
+        Result(int requestCount, long elapsedNs, long p99Ns) {
+            this.requestCount = requestCount;
+            this.elapsedNs = elapsedNs;
+            this.p99Ns = p99Ns;
+        }
+
+        @Override
+        public String toString() {
+            double requestsPerSecond = requestCount * 1e9 / elapsedNs;
+            return String.format(" requests:%d requests/sec:%.0f p99:%.3fms", requestCount, requestsPerSecond, p99Ns / 1e6);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.cz.android.simplehttp.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A request head that did not arrive in one readable event.
+ * The single selector servers share one {@link HttpRequestHead} for all the connections, So when it needs more bytes
+ * we copy what the connection sent so far here, Attach it to the selection key and continue on the next OP_READ.
+ */
+public class PendingHead {
+    public final HttpRequestHead requestHead = new HttpRequestHead();
+    public final ByteBuffer buffer;
+
+    /**
+     * @param headBuffer the shared buffer {@link HttpRequestHead#readFrom(ReadableByteChannel, ByteBuffer)} returned
+     *                   {@link HttpRequestHead#NEED_MORE} for.
+     */
+    public PendingHead(ByteBuffer headBuffer) {
+        buffer = ByteBuffer.allocate(headBuffer.capacity());
+        buffer.put(headBuffer.duplicate());
+        buffer.flip();
+        // Parse the bytes again, So our head continues from where the shared one stopped.
+        requestHead.parse(buffer);
+    }
+
+    /**
+     * @return the same as {@link HttpRequestHead#continueReadFrom(ReadableByteChannel, ByteBuffer)}.
+     */
+    public int readFrom(ReadableByteChannel channel) throws IOException {
+        return requestHead.continueReadFrom(channel, buffer);
+    }
+}
@@ -0,0 +1,47 @@
+package com.cz.android.simplehttp.nio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A response that the single selector servers could not write at once.
+ * We attach it to the selection key and wait for OP_WRITE, So a slow client never blocks the selector thread.
+ */
+public class PendingResponse implements Closeable {
+    private final ByteBuffer head;
+    private final FileRegion body;
+
+    /**
+     * @param body null if the response does not have a file body.
+     */
+    public PendingResponse(ByteBuffer head, FileRegion body) {
+        this.head = head;
+        this.body = body;
+    }
+
+    /**
+     * Write as many bytes as the channel accepts now.
+     * @return true if the whole response was written.
+     */
+    public boolean writeTo(SocketChannel channel) throws IOException {
+        while(head.hasRemaining()){
+            if(0 == channel.write(head)){
+                return false;
+            }
+        }
+        if(null!=body){
+            body.transferTo(channel);
+            return body.isComplete();
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(null!=body){
+            body.close();
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package com.cz.android.simplehttp.nio;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compare the two ways the servers read a request head:
+ * <ol>
+ *     <li>Line split: read each line into a {@link StringBuilder}, Split the request line and the headers into a {@link HashMap}.
+ *     This is what {@link HttpNioServer} did with its BufferedChannelReader, The code is copied below as {@link LineSplitParser}.</li>
+ *     <li>{@link HttpRequestHead}: find the offsets in the bytes, And only create the strings we ask for.</li>
+ * </ol>
+ * Both of them look up the same headers a file server needs. We report the heads per second and the bytes allocated for each head.
+ * The heads come in one piece, And in pieces of a few bytes to see how much the incremental parse costs.
+ *
+ * Arguments: [heads per round]
+ */
+public class RequestHeadParserBenchmark {
+    private static final String BROWSER_HEAD = "GET /static/js/app.3f2a9c1e.js?v=20 HTTP/1.1\r\n" +
+            "Host: www.example.com\r\n" +
+            "Connection: keep-alive\r\n" +
+            "User-Agent: Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/118.0.0.0 Safari/537.36\r\n" +
+            "Accept: */*\r\n" +
+            "Sec-Fetch-Site: same-origin\r\n" +
+            "Sec-Fetch-Mode: no-cors\r\n" +
+            "Sec-Fetch-Dest: script\r\n" +
+            "Referer: https://www.example.com/index.html\r\n" +
+            "Accept-Encoding: gzip, deflate, br\r\n" +
+            "Accept-Language: en-US,en;q=0.9,zh-CN;q=0.8\r\n" +
+            "Cookie: session=8c6976e5b5410415bde908bd4dee15dfb167a9c873fc4bb8a81f6f2ab448a918; theme=dark\r\n" +
+            "If-None-Match: \"5f3c-18a2b\"\r\n" +
+            "Range: bytes=0-1023\r\n" +
+            "\r\n";
+    private static final int HEADER_COUNT = 13;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int headCount = 0 < args.length ? Integer.parseInt(args[0]) : 500000;
+        byte[] bytes = BROWSER_HEAD.getBytes(StandardCharsets.ISO_8859_1);
+        int failures = checkParser(bytes);
+
+        ByteBuffer heapBuffer = ByteBuffer.wrap(bytes);
+        ByteBuffer directBuffer = ByteBuffer.allocateDirect(bytes.length);
+        directBuffer.put(bytes).flip();
+        //Warm up, So the JIT compiled both of them before we measure.
+        for(int i=0;i<3;i++){
+            runLineSplit(heapBuffer, headCount / 5);
+            runHead(heapBuffer, headCount / 5);
+            runHead(directBuffer, headCount / 5);
+            runHeadInPieces(bytes, 16, headCount / 20);
+        }
+        System.out.println("Head:"+bytes.length+" bytes "+HEADER_COUNT+" headers, "+headCount+" heads per round");
+        System.out.println("parser              heads/s    headers/s   allocated/head(B)");
+        long checksum = 0;
+        for(int round=0;round<ROUNDS;round++){
+            checksum += report("line split", headCount, new Runnable() {
+                @Override
+                public void run() {
+                    runLineSplit(heapBuffer, headCount);
+                }
+            });
+            checksum += report("head heap", headCount, new Runnable() {
+                @Override
+                public void run() {
+                    runHead(heapBuffer, headCount);
+                }
+            });
+            checksum += report("head direct", headCount, new Runnable() {
+                @Override
+                public void run() {
+                    runHead(directBuffer, headCount);
+                }
+            });
+            checksum += report("head 16B pieces", headCount / 4, new Runnable() {
+                @Override
+                public void run() {
+                    runHeadInPieces(bytes, 16, headCount / 4);
+                }
+            });
+        }
+        System.out.println("Checksum:"+checksum+" Failures:"+failures);
+    }
+
+    private static long report(String name, int headCount, Runnable runnable){
+        long allocatedBytes = allocatedBytes();
+        long st = System.nanoTime();
+        runnable.run();
+        long elapsedNs = System.nanoTime() - st;
+        allocatedBytes = allocatedBytes() - allocatedBytes;
+        double headsPerSecond = headCount * 1e9 / elapsedNs;
+        System.out.println(String.format("%-16s %10.0f %12.0f %19d", name, headsPerSecond,
+                headsPerSecond * HEADER_COUNT, allocatedBytes / headCount));
+        return sink;
+    }
+
+    /**
+     * Keep the results alive, So the JIT could not drop the work.
+     */
+    private static long sink;
+
+    private static void runLineSplit(ByteBuffer buffer, int headCount){
+        LineSplitParser parser = new LineSplitParser();
+        for(int i=0;i<headCount;i++){
+            buffer.rewind();
+            Map<String,String> headers = parser.parse(buffer);
+            sink += parser.path.length() + parser.method.length();
+            sink += null!=headers.get("Range") ? 1 : 0;
+            sink += null!=headers.get("Content-Length") ? 1 : 0;
+            sink += "keep-alive".equalsIgnoreCase(headers.get("Connection")) ? 1 : 0;
+        }
+    }
+
+    private static void runHead(ByteBuffer buffer, int headCount){
+        HttpRequestHead head = new HttpRequestHead();
+        for(int i=0;i<headCount;i++){
+            buffer.rewind();
+            sink += head.parse(buffer);
+            sink += head.isMethod("GET") ? 1 : 0;
+            sink += head.isKeepAlive() ? 1 : 0;
+            sink += head.contentLength();
+            sink += head.headerCount();
+        }
+    }
+
+    /**
+     * The head arrives a few bytes at a time, Like a slow client. The buffer keeps the bytes we already received.
+     */
+    private static void runHeadInPieces(byte[] bytes, int pieceSize, int headCount){
+        HttpRequestHead head = new HttpRequestHead();
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length);
+        for(int i=0;i<headCount;i++){
+            buffer.clear();
+            int headEnd = HttpRequestHead.NEED_MORE;
+            for(int offset=0;offset<bytes.length&&HttpRequestHead.NEED_MORE==headEnd;offset+=pieceSize){
+                buffer.limit(buffer.capacity());
+                buffer.position(offset);
+                buffer.put(bytes, offset, Math.min(pieceSize, bytes.length - offset));
+                buffer.flip();
+                headEnd = head.parse(buffer);
+            }
+            sink += headEnd + head.headerCount();
+        }
+    }
+
+    private static int checkParser(byte[] bytes){
+        int failures = 0;
+        HttpRequestHead head = new HttpRequestHead();
+        int headEnd = head.parse(ByteBuffer.wrap(bytes));
+        if(bytes.length!=headEnd||HEADER_COUNT!=head.headerCount()||!"GET".equals(head.method())||
+                !"/static/js/app.3f2a9c1e.js?v=20".equals(head.target())||!"bytes=0-1023".equals(head.header(HttpRequestHead.RANGE))||
+                !"www.example.com".equals(head.header("host"))||!head.isKeepAlive()||-1!=head.contentLength()){
+            System.err.println("The browser head was not parsed right.");
+            failures++;
+        }
+        LineSplitParser lineSplitParser = new LineSplitParser();
+        Map<String,String> headers = lineSplitParser.parse(ByteBuffer.wrap(bytes));
+        if(!headers.equals(head.toMap())){
+            System.err.println("The two parsers do not agree:"+headers+" "+head.toMap());
+            failures++;
+        }
+        //One byte at a time, And the second request of the same connection.
+        String request = "POST /upload HTTP/1.0\r\nContent-Length: 12\r\nconnection: Keep-Alive\r\n\r\nhello world!";
+        byte[] requestBytes = request.getBytes(StandardCharsets.ISO_8859_1);
+        ByteBuffer buffer = ByteBuffer.allocate(requestBytes.length);
+        headEnd = HttpRequestHead.NEED_MORE;
+        for(int i=0;i<requestBytes.length&&HttpRequestHead.NEED_MORE==headEnd;i++){
+            buffer.limit(i + 1);
+            buffer.put(i, requestBytes[i]);
+            headEnd = head.parse(buffer);
+        }
+        if(request.indexOf("hello")!=headEnd||!head.isMethod("POST")||12!=head.contentLength()||!head.isKeepAlive()||
+                !"HTTP/1.0".equals(head.version())){
+            System.err.println("The incremental parse was wrong.");
+            failures++;
+        }
+        String[] badHeads = {"GET\r\n\r\n", "GET / HTTP/1.1\r\nHost\r\n\r\n", "GET / HTTP/1.1\r\nHost : a\r\n\r\n",
+                "GET / HTTP/1.1\r\nHost: a\r\n folded\r\n\r\n", "GET / FTP/1.1\r\n\r\n"};
+        for(String badHead:badHeads){
+            if(HttpRequestHead.BAD_REQUEST!=head.parse(ByteBuffer.wrap(badHead.getBytes(StandardCharsets.ISO_8859_1)))){
+                System.err.println("Accepted a bad head:"+badHead);
+                failures++;
+            }
+            head.reset();
+        }
+        return failures;
+    }
+
+    /**
+     * The bytes the current thread allocated in the heap. Only HotSpot supports this, Otherwise we return 0.
+     */
+    private static long allocatedBytes(){
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if(threadMXBean instanceof com.sun.management.ThreadMXBean){
+            return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    /**
+     * How the servers parsed the head before {@link HttpRequestHead}.
+     */
+    private static class LineSplitParser {
+        private static final String LINE_FEEDS = "\r\n";
+        String method;
+        String path;
+        String version;
+
+        Map<String,String> parse(ByteBuffer buffer){
+            String protocolLine = readLine(buffer);
+            String[] requestLine = protocolLine.trim().split(" ");
+            method = requestLine[0];
+            path = requestLine[1];
+            version = requestLine[2];
+            String headerLine;
+            Map<String,String> headers = new HashMap<>();
+            while(null!=(headerLine=readLine(buffer))&&!LINE_FEEDS.equals(headerLine)){
+                if(0 < headerLine.trim().length()){
+                    String[] strings = headerLine.split(": ");
+                    headers.put(strings[0],strings[1].trim());
+                }
+            }
+            return headers;
+        }
+
+        private String readLine(ByteBuffer byteBuffer){
+            if(!byteBuffer.hasRemaining()){
+                return null;
+            }
+            StringBuilder result = new StringBuilder(80);
+            while (byteBuffer.hasRemaining()) {
+                char c = (char) byteBuffer.get();
+                result.append(c);
+                if (c == '\n') {
+                    break;
+                }
+            }
+            return result.toString();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.cz.android.simplehttp.nio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compare the two ways we send a file to the socket:
+ * <ol>
+ *     <li>Heap copy: read the file into a heap buffer, And write the buffer to the socket. This is what the servers used to do.</li>
+ *     <li>Zero copy: {@link FileRegion} which uses {@link FileChannel#transferTo}.</li>
+ * </ol>
+ * We report the throughput and how many bytes the sending thread allocated.
+ *
+ * Arguments: [file path] [file size in MB if we need to create the file]
+ */
+public class ZeroCopyBenchmark {
+    private static final int HEAP_BUFFER_SIZE = 10 * 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        File file;
+        if(0 < args.length){
+            file = new File(args[0]);
+        } else {
+            file = File.createTempFile("zero-copy", ".bin");
+            file.deleteOnExit();
+        }
+        long fileSize = (1 < args.length ? Long.parseLong(args[1]) : 2048) * 1024 * 1024;
+        if(!file.exists()||file.length()!=fileSize){
+            createFile(file, fileSize);
+        }
+        System.out.println("File:"+file+" size:"+file.length()/1024/1024+"MB");
+        //Warm up the page cache and the code.
+        send(file, false);
+        send(file, true);
+        for(int i=0;i<3;i++){
+            System.out.println("Heap copy:"+send(file, false));
+            System.out.println("Zero copy:"+send(file, true));
+        }
+    }
+
+    private static void createFile(File file, long size) throws IOException {
+        byte[] block = new byte[8 * 1024 * 1024];
+        new Random(0).nextBytes(block);
+        try(RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")){
+            randomAccessFile.setLength(0);
+            long written = 0;
+            while(written < size){
+                int length = (int) Math.min(block.length, size - written);
+                randomAccessFile.write(block, 0, length);
+                written += length;
+            }
+        }
+    }
+
+    private static String send(File file, boolean zeroCopy) throws Exception {
+        try(ServerSocketChannel serverSocketChannel = ServerSocketChannel.open()){
+            serverSocketChannel.bind(new InetSocketAddress("localhost", 0));
+            final InetSocketAddress address = (InetSocketAddress) serverSocketChannel.getLocalAddress();
+            final AtomicLong received = new AtomicLong();
+            //The client drains the socket with a direct buffer so it does not affect the sending side.
+            Thread client = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try(SocketChannel socketChannel = SocketChannel.open(address)){
+                        ByteBuffer buffer = ByteBuffer.allocateDirect(256 * 1024);
+                        int read;
+                        while(-1 != (read = socketChannel.read(buffer))){
+                            received.addAndGet(read);
+                            buffer.clear();
+                        }
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }, "ZeroCopyBenchmark-client");
+            client.start();
+            long allocatedBytes = allocatedBytes();
+            long st = System.nanoTime();
+            try(SocketChannel socketChannel = serverSocketChannel.accept();
+                FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+                if(zeroCopy){
+                    FileRegion fileRegion = new FileRegion(fileChannel, 0, fileChannel.size());
+                    while(!fileRegion.isComplete()){
+                        fileRegion.transferTo(socketChannel);
+                    }
+                } else {
+                    ByteBuffer buffer = ByteBuffer.allocate(HEAP_BUFFER_SIZE);
+                    while(-1 != fileChannel.read(buffer)){
+                        buffer.flip();
+                        while(buffer.hasRemaining()){
+                            socketChannel.write(buffer);
+                        }
+                        buffer.clear();
+                    }
+                }
+            }
+            client.join();
+            long elapsedNs = System.nanoTime() - st;
+            allocatedBytes = allocatedBytes() - allocatedBytes;
+            double megabytes = received.get() / 1024d / 1024d;
+            return String.format(" %.0fMB in %dms, %.1fMB/s, sending thread allocated:%dKB",
+                    megabytes, elapsedNs / 1000000, megabytes * 1e9 / elapsedNs, allocatedBytes / 1024);
+        }
+    }
+
+    /**
+     * The bytes the current thread allocated in the heap. Only HotSpot supports this, Otherwise we return 0.
+     */
+    private static long allocatedBytes(){
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if(threadMXBean instanceof com.sun.management.ThreadMXBean){
+            return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
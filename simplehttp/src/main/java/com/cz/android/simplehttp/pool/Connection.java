@@ -76,6 +76,16 @@ public final class Connection implements Closeable {
     return socket;
   }
 
+  /** The buffered input of the socket. Use it instead of the socket's own stream. */
+  public InputStream getInputStream() {
+    return in;
+  }
+
+  /** The buffered output of the socket. Flush it after writing a request. */
+  public OutputStream getOutputStream() {
+    return out;
+  }
+
   /** Returns true if this connection is alive. */
   public boolean isAlive() {
     return !socket.isClosed() && !socket.isInputShutdown() && !socket.isOutputShutdown();
@@ -1,19 +1,27 @@
 package com.cz.android.simplehttp.pool;
 
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.ListIterator;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-
-
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Idle connections indexed by route (host, port). Each route has its own lock-free deque,
+ * so requests to different hosts never touch the same queue and no call holds a monitor.
+ *
+ * <p>The most recently recycled connection is on the head of the deque and {@link #get} takes it
+ * first. Expired connections are removed by a single timer, or lazily when {@link #get} runs
+ * into one.
+ */
 public class ConnectionPool {
-  private static final int MAX_CONNECTIONS_TO_CLEANUP = 2;
   private static final long DEFAULT_KEEP_ALIVE_DURATION_MS = 5 * 60 * 1000; // 5 min
+  /** The timer never runs more often than this. */
+  private static final long MIN_CLEANUP_INTERVAL_NS = TimeUnit.MILLISECONDS.toNanos(100);
 
   private static final ConnectionPool systemDefault;
 
@@ -36,45 +44,23 @@ public class ConnectionPool {
   private final int maxIdleConnections;
   private final long keepAliveDurationNs;
 
-  private final LinkedList<Connection> connections = new LinkedList<Connection>();
-
-  /** We use a single background thread to cleanup expired connections. */
-  private final ExecutorService executorService = new ThreadPoolExecutor(0, 1,
-      60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
-      Util.daemonThreadFactory("OkHttp ConnectionPool"));
-  private final Callable<Void> connectionsCleanupCallable = new Callable<Void>() {
-    @Override public Void call() {
-      List<Connection> expiredConnections = new ArrayList<Connection>(MAX_CONNECTIONS_TO_CLEANUP);
-      int idleConnectionCount = 0;
-      synchronized (ConnectionPool.this) {
-        for (ListIterator<Connection> i = connections.listIterator(connections.size());
-            i.hasPrevious(); ) {
-          Connection connection = i.previous();
-          if (!connection.isAlive() || connection.isExpired(keepAliveDurationNs)) {
-            i.remove();
-            expiredConnections.add(connection);
-            if (expiredConnections.size() == MAX_CONNECTIONS_TO_CLEANUP)
-              break;
-          } else {
-            idleConnectionCount++;
-          }
-        }
+  private final ConcurrentHashMap<Route, RouteConnections> routes = new ConcurrentHashMap<>();
 
-        for (ListIterator<Connection> i = connections.listIterator(connections.size());
-            i.hasPrevious() && idleConnectionCount > maxIdleConnections; ) {
-          Connection connection = i.previous();
-          expiredConnections.add(connection);
-          i.remove();
-          --idleConnectionCount;
-        }
-      }
-      for (Connection expiredConnection : expiredConnections) {
-        Util.closeQuietly(expiredConnection);
-      }
-      return null;
+  /** We use a single background timer to cleanup expired connections. It starts with the first recycled connection. */
+  private final ScheduledExecutorService cleanupExecutor = Executors.newSingleThreadScheduledExecutor(
+      Util.daemonThreadFactory("ConnectionPool cleanup"));
+  private final AtomicBoolean cleanupScheduled = new AtomicBoolean();
+  private final Runnable connectionsCleanupRunnable = new Runnable() {
+    @Override public void run() {
+      cleanup();
     }
   };
 
+  private final LongAdder hitCount = new LongAdder();
+  private final LongAdder missCount = new LongAdder();
+  private final LongAdder evictCount = new LongAdder();
+  private final LongAdder waitTimeNs = new LongAdder();
+
   public ConnectionPool(int maxIdleConnections, long keepAliveDurationMs) {
     this.maxIdleConnections = maxIdleConnections;
     this.keepAliveDurationNs = keepAliveDurationMs * 1000 * 1000;
@@ -84,63 +70,157 @@ public class ConnectionPool {
     return systemDefault;
   }
 
-  /** Returns total number of connections in the ok. */
-  public synchronized int getConnectionCount() {
-    return connections.size();
+  /** Returns total number of idle connections in the pool. */
+  public int getConnectionCount() {
+    int count = 0;
+    for (RouteConnections routeConnections : routes.values()) {
+      count += routeConnections.idleCount.get();
+    }
+    return count;
   }
 
   /** Returns a recycled connection to {@code address}, or null if no such connection exists. */
-  public synchronized Connection get(String host,int port) {
+  public Connection get(String host, int port) {
+    long startNs = System.nanoTime();
     Connection foundConnection = null;
-    for (ListIterator<Connection> i = connections.listIterator(connections.size());
-        i.hasPrevious(); ) {
-      Connection connection = i.previous();
-      String connectionHost = connection.getHost();
-      int connectionPort = connection.getPort();
-      if (!connectionHost.equals(host) || connectionPort!=port || !connection.isAlive()
-          || System.nanoTime() - connection.getIdleStartTimeNs() >= keepAliveDurationNs) {
-        continue;
+    RouteConnections routeConnections = routes.get(new Route(host, port));
+    if (routeConnections != null) {
+      Connection connection;
+      while ((connection = routeConnections.connections.pollFirst()) != null) {
+        routeConnections.idleCount.decrementAndGet();
+        if (connection.isAlive() && startNs - connection.getIdleStartTimeNs() < keepAliveDurationNs) {
+          foundConnection = connection;
+          break;
+        }
+        evict(connection);
       }
-      i.remove();
-      foundConnection = connection;
-      break;
     }
     if (foundConnection != null) {
-      connections.addFirst(foundConnection); // Add it back after iteration.
+      hitCount.increment();
+    } else {
+      missCount.increment();
     }
-    executorService.submit(connectionsCleanupCallable);
+    waitTimeNs.add(System.nanoTime() - startNs);
     return foundConnection;
   }
 
   /**
-   * Gives {@code connection} to the ok. The ok may store the connection,
+   * Gives {@code connection} to the pool. The pool may store the connection,
    * or close it, as its policy describes.
    *
    * <p>It is an error to use {@code connection} after calling this method.
    */
   public void recycle(Connection connection) {
-    executorService.submit(connectionsCleanupCallable);
-
-    if (!connection.isAlive()) {
-      Util.closeQuietly(connection);
+    if (!connection.isAlive() || maxIdleConnections <= 0) {
+      evict(connection);
       return;
     }
-    synchronized (this) {
-      connections.addFirst(connection);
-      connection.resetIdleStartTime();
+    Route route = new Route(connection.getHost(), connection.getPort());
+    RouteConnections routeConnections = routes.get(route);
+    if (routeConnections == null) {
+      RouteConnections newConnections = new RouteConnections();
+      routeConnections = routes.putIfAbsent(route, newConnections);
+      if (routeConnections == null) {
+        routeConnections = newConnections;
+      }
+    }
+    connection.resetIdleStartTime();
+    routeConnections.connections.offerFirst(connection);
+    //Too many idle connections for this route, Close the one that has been idle for the longest time.
+    if (routeConnections.idleCount.incrementAndGet() > maxIdleConnections) {
+      Connection eldest = routeConnections.connections.pollLast();
+      if (eldest != null) {
+        routeConnections.idleCount.decrementAndGet();
+        evict(eldest);
+      }
+    }
+    if (cleanupScheduled.compareAndSet(false, true)) {
+      long intervalNs = Math.max(keepAliveDurationNs / 2, MIN_CLEANUP_INTERVAL_NS);
+      cleanupExecutor.scheduleWithFixedDelay(connectionsCleanupRunnable, intervalNs, intervalNs, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /** Close the expired and the dead connections of all the routes. */
+  void cleanup() {
+    long nowNs = System.nanoTime();
+    for (RouteConnections routeConnections : routes.values()) {
+      //The eldest connections are at the tail.
+      Iterator<Connection> iterator = routeConnections.connections.descendingIterator();
+      while (iterator.hasNext()) {
+        Connection connection = iterator.next();
+        if (connection.isAlive() && nowNs - connection.getIdleStartTimeNs() < keepAliveDurationNs) {
+          continue;
+        }
+        //Only the one who removes it closes it, get() may have taken it in the meantime.
+        if (routeConnections.connections.removeFirstOccurrence(connection)) {
+          routeConnections.idleCount.decrementAndGet();
+          evict(connection);
+        }
+      }
     }
   }
 
-  /** Close and remove all connections in the ok. */
+  private void evict(Connection connection) {
+    evictCount.increment();
+    Util.closeQuietly(connection);
+  }
+
+  /** Close and remove all connections in the pool. */
   public void evictAll() {
-    List<Connection> connections;
-    synchronized (this) {
-      connections = new ArrayList<>(this.connections);
-      this.connections.clear();
+    for (RouteConnections routeConnections : routes.values()) {
+      Connection connection;
+      while ((connection = routeConnections.connections.pollFirst()) != null) {
+        routeConnections.idleCount.decrementAndGet();
+        evict(connection);
+      }
+    }
+  }
+
+  /** The number of {@link #get} calls that returned a connection. */
+  public long getHitCount() {
+    return hitCount.sum();
+  }
+
+  /** The number of {@link #get} calls that returned null. */
+  public long getMissCount() {
+    return missCount.sum();
+  }
+
+  /** The number of connections the pool closed, because they expired, died or exceeded the limit. */
+  public long getEvictCount() {
+    return evictCount.sum();
+  }
+
+  /** The total time the callers spent in {@link #get}, including closing the stale connections it found. */
+  public long getWaitTimeNs() {
+    return waitTimeNs.sum();
+  }
+
+  private static final class Route {
+    final String host;
+    final int port;
+
+    Route(String host, int port) {
+      this.host = host;
+      this.port = port;
     }
 
-    for (Connection connection : connections) {
-      Util.closeQuietly(connection);
+    @Override public boolean equals(Object other) {
+      if (!(other instanceof Route)) {
+        return false;
+      }
+      Route route = (Route) other;
+      return port == route.port && host.equals(route.host);
+    }
+
+    @Override public int hashCode() {
+      return 31 * host.hashCode() + port;
     }
   }
+
+  private static final class RouteConnections {
+    final ConcurrentLinkedDeque<Connection> connections = new ConcurrentLinkedDeque<>();
+    /** ConcurrentLinkedDeque.size() walks the whole deque, So we count by ourselves. */
+    final AtomicInteger idleCount = new AtomicInteger();
+  }
 }
@@ -0,0 +1,232 @@
+package com.cz.android.simplehttp.pool;
+
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compare {@link ConnectionPool} with the old synchronized pool from 1 to 64 threads.
+ * Every thread takes a connection of a random route and gives it back right away.
+ * The connections are real sockets to the local server sockets, One server socket for each route.
+ *
+ * Arguments: [routes] [connections per route] [milliseconds per round]
+ */
+public class ConnectionPoolBenchmark {
+  private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16, 32, 64};
+
+  public static void main(String[] args) throws Exception {
+    int routeCount = 0 < args.length ? Integer.parseInt(args[0]) : 64;
+    int connectionsPerRoute = 1 < args.length ? Integer.parseInt(args[1]) : 4;
+    long durationMs = 2 < args.length ? Long.parseLong(args[2]) : 1000;
+
+    final List<ServerSocket> serverSockets = new ArrayList<>();
+    final List<Socket> acceptedSockets = new ArrayList<>();
+    final List<Connection> connections = new ArrayList<>();
+    final int[] ports = new int[routeCount];
+    for (int i = 0; i < routeCount; i++) {
+      ServerSocket serverSocket = new ServerSocket(0);
+      serverSockets.add(serverSocket);
+      ports[i] = serverSocket.getLocalPort();
+      for (int j = 0; j < connectionsPerRoute; j++) {
+        Connection connection = new Connection();
+        connection.connect("localhost", ports[i], 1000, 1000);
+        acceptedSockets.add(serverSocket.accept());
+        connections.add(connection);
+      }
+    }
+    System.out.println(String.format("Routes:%d connections per route:%d", routeCount, connectionsPerRoute));
+    System.out.println("threads      old ops/s      new ops/s   new hit/miss/evict");
+    for (int threadCount : THREAD_COUNTS) {
+      //The old get() leaves the connection in the list, So recycle() adds it again and the list keeps growing.
+      //We never let it close the connections over the limit, The new pool needs them in the next round.
+      final SynchronizedConnectionPool oldPool = new SynchronizedConnectionPool(Integer.MAX_VALUE, 60 * 1000);
+      for (Connection connection : connections) {
+        oldPool.recycle(connection);
+      }
+      long oldOps = run(threadCount, durationMs, ports, new PoolAccess() {
+        @Override public Connection get(String host, int port) {
+          return oldPool.get(host, port);
+        }
+
+        @Override public void recycle(Connection connection) {
+          oldPool.recycle(connection);
+        }
+      });
+      oldPool.clear();
+
+      final ConnectionPool newPool = new ConnectionPool(connectionsPerRoute, 60 * 1000);
+      for (Connection connection : connections) {
+        newPool.recycle(connection);
+      }
+      long newOps = run(threadCount, durationMs, ports, new PoolAccess() {
+        @Override public Connection get(String host, int port) {
+          return newPool.get(host, port);
+        }
+
+        @Override public void recycle(Connection connection) {
+          newPool.recycle(connection);
+        }
+      });
+      System.out.println(String.format("%7d %14d %14d   %d/%d/%d avg get:%dns", threadCount,
+          oldOps * 1000 / durationMs, newOps * 1000 / durationMs,
+          newPool.getHitCount(), newPool.getMissCount(), newPool.getEvictCount(),
+          newPool.getWaitTimeNs() / Math.max(1, newPool.getHitCount() + newPool.getMissCount())));
+    }
+    for (Connection connection : connections) {
+      Util.closeQuietly(connection);
+    }
+    for (Socket socket : acceptedSockets) {
+      Util.closeQuietly(socket);
+    }
+    for (ServerSocket serverSocket : serverSockets) {
+      Util.closeQuietly(serverSocket);
+    }
+  }
+
+  private static long run(int threadCount, final long durationMs, final int[] ports, final PoolAccess pool)
+      throws InterruptedException {
+    final AtomicLong operations = new AtomicLong();
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    final CountDownLatch countDownLatch = new CountDownLatch(threadCount);
+    for (int i = 0; i < threadCount; i++) {
+      final int seed = i;
+      new Thread(new Runnable() {
+        @Override public void run() {
+          long count = 0;
+          int random = seed * 0x9E3779B9 + 1;
+          try {
+            startLatch.await();
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMs);
+            while ((count & 0xFF) != 0 || System.nanoTime() < deadline) {
+              //xorshift, So picking the route costs nothing compared to the pool.
+              random ^= random << 13;
+              random ^= random >>> 17;
+              random ^= random << 5;
+              int port = ports[(random & 0x7FFFFFFF) % ports.length];
+              Connection connection = pool.get("localhost", port);
+              if (connection != null) {
+                pool.recycle(connection);
+              }
+              count++;
+            }
+          } catch (InterruptedException e) {
+            //Stop.
+          } finally {
+            operations.addAndGet(count);
+            countDownLatch.countDown();
+          }
+        }
+      }, "ConnectionPoolBenchmark-" + i).start();
+    }
+    startLatch.countDown();
+    countDownLatch.await();
+    return operations.get();
+  }
+
+  private interface PoolAccess {
+    Connection get(String host, int port);
+
+    void recycle(Connection connection);
+  }
+
+  /**
+   * The pool before we indexed it by route. One monitor and one linked list for all the routes,
+   * And every call submits the cleanup to the executor.
+   */
+  private static class SynchronizedConnectionPool {
+    private static final int MAX_CONNECTIONS_TO_CLEANUP = 2;
+    private final int maxIdleConnections;
+    private final long keepAliveDurationNs;
+    private final LinkedList<Connection> connections = new LinkedList<Connection>();
+    private final ExecutorService executorService = new ThreadPoolExecutor(0, 1,
+        60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        Util.daemonThreadFactory("SynchronizedConnectionPool"));
+    private final Callable<Void> connectionsCleanupCallable = new Callable<Void>() {
+      @Override public Void call() {
+        List<Connection> expiredConnections = new ArrayList<Connection>(MAX_CONNECTIONS_TO_CLEANUP);
+        int idleConnectionCount = 0;
+        synchronized (SynchronizedConnectionPool.this) {
+          for (ListIterator<Connection> i = connections.listIterator(connections.size());
+              i.hasPrevious(); ) {
+            Connection connection = i.previous();
+            if (!connection.isAlive() || connection.isExpired(keepAliveDurationNs)) {
+              i.remove();
+              expiredConnections.add(connection);
+              if (expiredConnections.size() == MAX_CONNECTIONS_TO_CLEANUP)
+                break;
+            } else {
+              idleConnectionCount++;
+            }
+          }
+
+          for (ListIterator<Connection> i = connections.listIterator(connections.size());
+              i.hasPrevious() && idleConnectionCount > maxIdleConnections; ) {
+            Connection connection = i.previous();
+            expiredConnections.add(connection);
+            i.remove();
+            --idleConnectionCount;
+          }
+        }
+        for (Connection expiredConnection : expiredConnections) {
+          Util.closeQuietly(expiredConnection);
+        }
+        return null;
+      }
+    };
+
+    SynchronizedConnectionPool(int maxIdleConnections, long keepAliveDurationMs) {
+      this.maxIdleConnections = maxIdleConnections;
+      this.keepAliveDurationNs = keepAliveDurationMs * 1000 * 1000;
+    }
+
+    synchronized Connection get(String host, int port) {
+      Connection foundConnection = null;
+      for (ListIterator<Connection> i = connections.listIterator(connections.size());
+          i.hasPrevious(); ) {
+        Connection connection = i.previous();
+        if (!connection.getHost().equals(host) || connection.getPort() != port || !connection.isAlive()
+            || System.nanoTime() - connection.getIdleStartTimeNs() >= keepAliveDurationNs) {
+          continue;
+        }
+        i.remove();
+        foundConnection = connection;
+        break;
+      }
+      if (foundConnection != null) {
+        connections.addFirst(foundConnection); // Add it back after iteration.
+      }
+      executorService.submit(connectionsCleanupCallable);
+      return foundConnection;
+    }
+
+    void recycle(Connection connection) {
+      executorService.submit(connectionsCleanupCallable);
+      if (!connection.isAlive()) {
+        Util.closeQuietly(connection);
+        return;
+      }
+      synchronized (this) {
+        connections.addFirst(connection);
+        connection.resetIdleStartTime();
+      }
+    }
+
+    /** Forget the connections without closing them, The next round uses them again. */
+    void clear() {
+      executorService.shutdown();
+      synchronized (this) {
+        connections.clear();
+      }
+    }
+  }
+}
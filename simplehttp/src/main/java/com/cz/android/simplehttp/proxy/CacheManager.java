@@ -1,113 +1,571 @@
 package com.cz.android.simplehttp.proxy;
 
 import java.io.*;
-import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
 
-public class CacheManager {
+/**
+ * A disk cache of the responses the proxy fetched, Keyed by the full url.
+ *
+ * <ul>
+ *     <li>The index is a hash map in access order, So the least recently used entries are evicted
+ *     first once the files take more than the byte budget.</li>
+ *     <li>Every change is appended to a journal file. After a restart we replay the journal to rebuild
+ *     the index, A half written line at the end of it is ignored.</li>
+ *     <li>A response is written to a temporary file first, And only renamed and journaled when it is
+ *     complete. A crash in the middle never leaves a partial file in the index.</li>
+ *     <li>Only one thread fetches a url at a time. The others wait for it and read the cache afterwards.</li>
+ * </ul>
+ */
+public class CacheManager implements Closeable {
 
     /**
-     * Text file for storing cached urls
+     * Folder for storing downloaded cache files
      */
-    private static final String FILENAME = "cache.txt";
+    private static final String CACHE_DIR = "cache";
 
     /**
-     * Folder for storing downloaded cache files
+     * Default byte budget of the cache files
+     */
+    private static final long DEFAULT_MAX_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Journal file names
+     */
+    private static final String JOURNAL_FILE = "journal";
+    private static final String JOURNAL_FILE_TEMP = "journal.tmp";
+    private static final String MAGIC = "simplehttp.proxy.CacheManager";
+    private static final String VERSION = "1";
+
+    /**
+     * Journal operations
+     */
+    private static final String PUT = "PUT";
+    private static final String REMOVE = "REMOVE";
+    private static final String READ = "READ";
+
+    /**
+     * The journal is rewritten once it has this many lines that do not describe a current entry
      */
-    private static final String CACHE_DIR = "cache/";
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
 
     /**
-     * Array list storing cached urls
+     * Cache folder and its byte budget
      */
-    private static List<String> cacheURLs;
+    private final File directory;
+    private final long maxSize;
+
+    /**
+     * Cached entries by url, In access order. Guarded by this
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(0, 0.75f, true);
+
+    /**
+     * The size of all the cached files. Guarded by this
+     */
+    private long size;
+
+    /**
+     * Journal writer and the number of its lines we could drop. Guarded by this
+     */
+    private Writer journalWriter;
+    private int redundantOpCount;
+
+    /**
+     * The urls being fetched right now
+     */
+    private final ConcurrentHashMap<String, Editor> editors = new ConcurrentHashMap<>();
+
+    /**
+     * Statistics
+     */
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder fetchCount = new LongAdder();
+    private final LongAdder coalescedCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
 
     /**
      * Constructor
+     *
+     * @throws IOException io error
      */
-    @SuppressWarnings("ResultOfMethodCallIgnored")
-    public CacheManager() {
-        cacheURLs = new CopyOnWriteArrayList<>();
+    public CacheManager() throws IOException {
+        this(new File(CACHE_DIR), DEFAULT_MAX_SIZE);
+    }
 
-        try {
-            File cacheFile = new File(FILENAME);
+    /**
+     * Constructor
+     *
+     * @param directory cache folder
+     * @param maxSize   byte budget of the cache files
+     * @throws IOException io error
+     */
+    public CacheManager(File directory, long maxSize) throws IOException {
+        if (0 >= maxSize)
+            throw new IllegalArgumentException("maxSize <= 0: " + maxSize);
+
+        this.directory = directory;
+        this.maxSize = maxSize;
+
+        if (!directory.exists() && !directory.mkdirs())
+            throw new IOException("Could not create the cache folder: " + directory);
+
+        synchronized (this) {
+            readJournal();
+            deleteUntrackedFiles();
+            rebuildJournal();
+            trimToSize();
+        }
+    }
 
-            if (!cacheFile.exists())
-                cacheFile.createNewFile();
+    /**
+     * Get input stream of the local cache file for reading
+     *
+     * @param url request url
+     * @return input stream, or null if the url is not cached
+     */
+    public FileInputStream get(String url) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(url);
+            if (null == entry)
+                return null;
 
-            BufferedReader cacheUrlsReader = new BufferedReader(new FileReader(cacheFile));
-            String cacheUrl;
+            appendJournal(READ + ' ' + url, false);
+        }
 
-            while ((cacheUrl = cacheUrlsReader.readLine()) != null)
-                cacheURLs.add(cacheUrl);
+        try {
+            FileInputStream inputStream = new FileInputStream(entry.getFile());
+            hitCount.increment();
+            return inputStream;
+        } catch (FileNotFoundException e) {
+            // Someone deleted the file behind our back, Forget about it
+            remove(url);
+            return null;
+        }
+    }
 
-            cacheUrlsReader.close();
+    /**
+     * Start fetching a url into the cache.
+     * If another thread is fetching the same url, wait for it to finish and return null,
+     * the caller should read the cache again.
+     *
+     * @param url request url
+     * @return editor, or null if the url was cached meanwhile
+     * @throws InterruptedException interrupted while waiting for another fetch
+     */
+    public Editor edit(String url) throws InterruptedException {
+        Editor editor = new Editor(url);
+        Editor current = editors.putIfAbsent(url, editor);
+        if (null != current) {
+            coalescedCount.increment();
+            current.await();
+            return null;
+        }
 
-        } catch (IOException e) {
-            e.printStackTrace();
+        // The previous fetch may have finished between our lookup and now
+        synchronized (this) {
+            if (entries.containsKey(url)) {
+                editors.remove(url, editor);
+                editor.done.countDown();
+                return null;
+            }
         }
+
+        fetchCount.increment();
+        return editor;
+    }
+
+    /**
+     * Remove a cached url
+     *
+     * @param url request url
+     * @return true if the url was cached
+     */
+    public synchronized boolean remove(String url) {
+        Entry entry = entries.remove(url);
+        if (null == entry)
+            return false;
+
+        deleteEntry(entry);
+        return true;
     }
 
     /**
-     * Check if a request file has local cache
+     * Check if a url has local cache
      *
-     * @param request request
+     * @param url request url
      * @return true if cached
      */
-    public boolean isCached(Request request) {
-        return cacheURLs.contains(request.getURL());
+    public synchronized boolean isCached(String url) {
+        return entries.containsKey(url);
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+
+    public long maxSize() {
+        return maxSize;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
     }
 
     /**
-     * Get input stream of the local cache file for reading
+     * The requests served from the cache
+     */
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    /**
+     * The requests that went to the remote server
+     */
+    public long getFetchCount() {
+        return fetchCount.sum();
+    }
+
+    /**
+     * The requests that waited for another thread fetching the same url
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * Close the journal
      *
-     * @param request request
-     * @return input stream
      * @throws IOException io error
      */
-    public FileInputStream getLocalInputStream(Request request) throws IOException {
-        String fileDir = CACHE_DIR + request.getHostName().hashCode();
-        File file = new File(fileDir);
-        return new FileInputStream(file);
+    @Override
+    public synchronized void close() throws IOException {
+        if (null != journalWriter) {
+            journalWriter.close();
+            journalWriter = null;
+        }
+    }
+
+    private void completeEdit(Editor editor, boolean success) {
+        try {
+            if (success) {
+                long length = editor.tempFile.length();
+                if (length > maxSize) {
+                    // It would evict everything else and then itself
+                    success = false;
+                } else {
+                    Entry entry = new Entry(editor.url, length);
+                    try {
+                        Files.move(editor.tempFile.toPath(), entry.getFile().toPath(),
+                                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    } catch (IOException e) {
+                        success = false;
+                    }
+                    if (success) {
+                        synchronized (this) {
+                            Entry previous = entries.put(entry.url, entry);
+                            if (null != previous) {
+                                size -= previous.length;
+                                redundantOpCount++;
+                            }
+                            size += length;
+                            appendJournal(PUT + ' ' + length + ' ' + entry.url, true);
+                            trimToSize();
+                        }
+                    }
+                }
+            }
+
+            if (!success)
+                editor.tempFile.delete();
+
+        } finally {
+            editors.remove(editor.url, editor);
+            editor.done.countDown();
+        }
     }
 
     /**
-     * Get output stream of the local cache file for writing
+     * Evict the least recently used entries until the files fit the budget. Guarded by this
+     */
+    private void trimToSize() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            iterator.remove();
+            deleteEntry(entry);
+            evictionCount.increment();
+        }
+    }
+
+    /**
+     * Guarded by this
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private void deleteEntry(Entry entry) {
+        // A reader that already opened the file keeps reading it
+        entry.getFile().delete();
+        size -= entry.length;
+        redundantOpCount++;
+        appendJournal(REMOVE + ' ' + entry.url, true);
+    }
+
+    /**
+     * Append a line to the journal. Guarded by this
      *
-     * @param request request
-     * @return output stream
-     * @throws IOException io error
+     * @param line  journal line
+     * @param flush false for the lines we could afford to lose
+     */
+    private void appendJournal(String line, boolean flush) {
+        if (null == journalWriter)
+            return;
+
+        try {
+            journalWriter.write(line);
+            journalWriter.write('\n');
+            if (flush)
+                journalWriter.flush();
+
+            if (!flush)
+                redundantOpCount++;
+
+            if (redundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD && redundantOpCount >= entries.size())
+                rebuildJournal();
+
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Replay the journal into the index. Guarded by this
+     */
+    private void readJournal() throws IOException {
+        File journalFile = new File(directory, JOURNAL_FILE);
+        if (!journalFile.exists())
+            return;
+
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(journalFile), StandardCharsets.UTF_8));
+        try {
+            if (!MAGIC.equals(reader.readLine()) || !VERSION.equals(reader.readLine()))
+                return;
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // A crash may leave a half written line at the end, Nothing after it is trusted
+                if (!readJournalLine(line))
+                    break;
+            }
+        } finally {
+            reader.close();
+        }
+
+        // Drop the entries whose file does not match what the journal says
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            File file = entry.getFile();
+            if (file.isFile() && file.length() == entry.length) {
+                size += entry.length;
+            } else {
+                iterator.remove();
+                file.delete();
+            }
+        }
+    }
+
+    private boolean readJournalLine(String line) {
+        String[] parts = line.split(" ", 3);
+        try {
+            if (PUT.equals(parts[0]) && 3 == parts.length) {
+                entries.put(parts[2], new Entry(parts[2], Long.parseLong(parts[1])));
+                return true;
+            } else if (REMOVE.equals(parts[0]) && 2 == parts.length) {
+                entries.remove(parts[1]);
+                return true;
+            } else if (READ.equals(parts[0]) && 2 == parts.length) {
+                // Move it to the end of the access order
+                entries.get(parts[1]);
+                return true;
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        return false;
+    }
+
+    /**
+     * Delete the files the index does not know about, Like the temporary files of a crashed fetch
      */
     @SuppressWarnings("ResultOfMethodCallIgnored")
-    public FileOutputStream getLocalOutputStream(Request request) throws IOException {
-        String fileDir = CACHE_DIR + request.getHostName().hashCode();
-        File file = new File(fileDir);
+    private void deleteUntrackedFiles() {
+        File[] files = directory.listFiles();
+        if (null == files)
+            return;
 
-        file.getParentFile().mkdirs();
-        file.createNewFile();
+        Set<String> keys = new HashSet<>();
+        for (Entry entry : entries.values())
+            keys.add(entry.key);
 
-        return new FileOutputStream(file, false);
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.equals(JOURNAL_FILE) && !keys.contains(name))
+                file.delete();
+        }
     }
 
     /**
-     * Add cache url to array list
-     *
-     * @param request request
+     * Write a new journal with only the current entries, And replace the old one with it. Guarded by this
      */
-    public void addCache(Request request) {
-        cacheURLs.add(request.getURL());
+    private void rebuildJournal() throws IOException {
+        if (null != journalWriter)
+            journalWriter.close();
+
+        File tempFile = new File(directory, JOURNAL_FILE_TEMP);
+        Writer writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8));
+        try {
+            writer.write(MAGIC + '\n');
+            writer.write(VERSION + '\n');
+            for (Entry entry : entries.values())
+                writer.write(PUT + ' ' + entry.length + ' ' + entry.url + '\n');
+
+        } finally {
+            writer.close();
+        }
+
+        File journalFile = new File(directory, JOURNAL_FILE);
+        Files.move(tempFile.toPath(), journalFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journalWriter = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(journalFile, true), StandardCharsets.UTF_8));
+        redundantOpCount = 0;
     }
 
     /**
-     * Write urls into persistent text file
+     * The file name of a url. A hash of the whole url, Not only the host name
      *
-     * @throws IOException io error
+     * @param url request url
+     * @return hex SHA-1 of the url
+     */
+    private static String keyOf(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes(StandardCharsets.UTF_8));
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest)
+                builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * A cached url
+     */
+    private final class Entry {
+        private final String url;
+        private final String key;
+        private final long length;
+
+        Entry(String url, long length) {
+            this.url = url;
+            this.key = keyOf(url);
+            this.length = length;
+        }
+
+        File getFile() {
+            return new File(directory, key);
+        }
+    }
+
+    /**
+     * Write a url into the cache. Call {@link #commit()} when the whole response was written,
+     * Or {@link #abort()} if it should not be cached.
      */
-    public void saveCache() throws IOException {
-        BufferedWriter writer = new BufferedWriter(new FileWriter(FILENAME, false));
+    public final class Editor {
+        private final String url;
+        private final File tempFile;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private OutputStream outputStream;
+        private boolean completed;
+
+        private Editor(String url) {
+            this.url = url;
+            this.tempFile = new File(directory, keyOf(url) + ".tmp");
+        }
+
+        /**
+         * Get output stream of the temporary cache file for writing
+         *
+         * @return output stream
+         * @throws IOException io error
+         */
+        public OutputStream newOutputStream() throws IOException {
+            if (null == outputStream)
+                outputStream = new FileOutputStream(tempFile, false);
 
-        for (String url : cacheURLs)
-            writer.write(url + '\n');
+            return outputStream;
+        }
+
+        /**
+         * Publish the written file to the cache
+         *
+         * @throws IOException io error
+         */
+        public void commit() throws IOException {
+            if (completed)
+                return;
+
+            completed = true;
+            try {
+                if (null != outputStream)
+                    outputStream.close();
+
+            } catch (IOException e) {
+                completeEdit(this, false);
+                throw e;
+            }
+            completeEdit(this, null != outputStream);
+        }
 
-        writer.close();
+        /**
+         * Discard the written file. It does nothing after {@link #commit()}
+         */
+        public void abort() {
+            if (completed)
+                return;
+
+            completed = true;
+            try {
+                if (null != outputStream)
+                    outputStream.close();
+
+            } catch (IOException e) {
+                // Ignore the exception, The file is deleted anyway
+            }
+            completeEdit(this, false);
+        }
+
+        private void await() throws InterruptedException {
+            done.await();
+        }
     }
 }
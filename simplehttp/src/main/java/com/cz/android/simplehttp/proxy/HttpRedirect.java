@@ -40,16 +40,44 @@ public class HttpRedirect {
      * Start redirecting HTTP request between the browser client and the remote server
      * If the requested file is being cached, send back the local cached file
      * If no cache is found, download from the remote server
+     * If another thread is downloading the same file, wait for it and send back its cache
      *
-     * @throws IOException io error
+     * @throws IOException          io error
+     * @throws InterruptedException interrupted while waiting for another download
      */
-    public void start() throws IOException {
-        if (cacheManager.isCached(request)) {
-            // Get local output stream
-            FileInputStream localInputStream = cacheManager.getLocalInputStream(request);
+    public void start() throws IOException, InterruptedException {
+        String url = request.getURL();
+        while (true) {
+            FileInputStream localInputStream = cacheManager.get(url);
+            if (localInputStream != null) {
+                sendCache(localInputStream);
+                return;
+            }
 
+            CacheManager.Editor editor = cacheManager.edit(url);
+            if (editor != null) {
+                try {
+                    fetch(editor);
+                } finally {
+                    // Does nothing if the fetch committed
+                    editor.abort();
+                }
+                return;
+            }
+            // Another thread just downloaded it, Look in the cache again
+        }
+    }
+
+    /**
+     * Send the local cached file
+     *
+     * @param localInputStream cache file
+     * @throws IOException io error
+     */
+    private void sendCache(FileInputStream localInputStream) throws IOException {
+        try {
             // Send response to client
-            String response = ResponseHelper.buildSuccessResponse();
+            String response = ResponseHelper.buildResponse(HttpURLConnection.HTTP_OK, "OK");
             IORedirect.sendString(response, clientOutputStream);
 
             System.out.println("[ProxyServer] Using cache for " + request.getURL());
@@ -57,19 +85,28 @@ public class HttpRedirect {
             // Transfer payload
             IORedirect.transfer(localInputStream, clientOutputStream);
 
-
+        } finally {
             // Close input stream
             localInputStream.close();
+        }
+    }
 
-        } else {
-            // Create connection to the remote server
-            URL url = new URL(request.getURL());
-            HttpURLConnection remoteConn = (HttpURLConnection) url.openConnection();
-            System.out.println("[ProxyServer] response for " + request.getURL());
+    /**
+     * Download from the remote server, Only a successful response is cached
+     *
+     * @param editor cache editor
+     * @throws IOException io error
+     */
+    private void fetch(CacheManager.Editor editor) throws IOException {
+        // Create connection to the remote server
+        URL url = new URL(request.getURL());
+        HttpURLConnection remoteConn = (HttpURLConnection) url.openConnection();
+        System.out.println("[ProxyServer] response for " + request.getURL());
+        try {
             if (remoteConn.getResponseCode() == HttpsURLConnection.HTTP_OK) {
                 // Get streams
                 InputStream remoteInputStream = remoteConn.getInputStream();
-                FileOutputStream localOutputStream = cacheManager.getLocalOutputStream(request);
+                OutputStream localOutputStream = editor.newOutputStream();
 
                 // Send response to client
                 String response = ResponseHelper.buildResponse(
@@ -80,7 +117,7 @@ public class HttpRedirect {
 
                 // Transfer payload
                 IORedirect.transfer(remoteInputStream, clientOutputStream, localOutputStream);
-                cacheManager.addCache(request);
+                editor.commit();
 
                 // Close input stream
                 remoteInputStream.close();
@@ -91,7 +128,7 @@ public class HttpRedirect {
                 );
                 IORedirect.sendString(response, clientOutputStream);
             }
-
+        } finally {
             remoteConn.disconnect();
         }
     }
@@ -0,0 +1,414 @@
+package com.cz.android.simplehttp.proxy;
+
+import com.cz.android.simplehttp.nio.HttpReactorServer;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Open thousands of browser connections to the proxy at the same time and compare the two modes.
+ *
+ * <ul>
+ *     <li>All the connections are opened first and stay idle for a while, Like the keep-alive connections of browsers.</li>
+ *     <li>Then every connection sends its requests. Half of them go through HTTPS CONNECT tunnels, The other half are
+ *     plain HTTP requests. The blocking {@link ProxyServer} does not support either keep-alive or tunnels to a plain
+ *     server, So it gets one plain request on each connection.</li>
+ * </ul>
+ * The origin {@link HttpReactorServer} runs in another process, So this one has enough file descriptors for
+ * both ends of the proxy. The client is a single selector thread, The extra threads are the ones of the proxy.
+ *
+ * Arguments: [connections] [requests per connection] [file size KB] [workers]
+ */
+public class NioProxyBenchmark {
+
+    /**
+     * Local server port numbers
+     */
+    private static final String HOST = "localhost";
+    private static final int SERVER_PORT = 8093;
+    private static final int PROXY_PORT = 8088;
+
+    /**
+     * The most connections we connect at the same time
+     */
+    private static final int MAX_CONNECTING = 256;
+
+    /**
+     * Client states
+     */
+    private static final int STATE_CONNECTING = 0;
+    private static final int STATE_IDLE = 1;
+    private static final int STATE_TUNNEL = 2;
+    private static final int STATE_REQUEST = 3;
+    private static final int STATE_DONE = 4;
+
+    public static void main(String[] args) throws Exception {
+        int connectionCount = 0 < args.length ? Integer.parseInt(args[0]) : 5000;
+        int requestCount = 1 < args.length ? Integer.parseInt(args[1]) : 4;
+        int fileSize = (2 < args.length ? Integer.parseInt(args[2]) : 16) * 1024;
+        int workerCount = 3 < args.length ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+        File documentRoot = Files.createTempDirectory("origin").toFile();
+        File file = new File(documentRoot, "file.bin");
+        try (OutputStream outputStream = new FileOutputStream(file)) {
+            byte[] content = new byte[fileSize];
+            Arrays.fill(content, (byte) 'a');
+            outputStream.write(content);
+        }
+        Process origin = startOrigin(documentRoot);
+
+        // The blocking proxy prints every request, Keep it out of the report
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+
+        out.println(String.format("Connections:%d requests:%d file:%dKB workers:%d",
+                connectionCount, requestCount, fileSize / 1024, workerCount));
+        out.println("mode       requests   time(ms)    req/s   p50(us)   p99(us)  proxy threads  direct buffers  failures");
+        int failures = 0;
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+        // Warm up the JIT with a few hundred connections
+        NioProxyServer nioProxyServer = new NioProxyServer(new InetSocketAddress(HOST, PROXY_PORT), workerCount);
+        nioProxyServer.start();
+        new Client(Math.min(200, connectionCount), requestCount, fileSize, true).run();
+        nioProxyServer.stop();
+        Thread.sleep(500);
+
+        int baseThreads = threadMXBean.getThreadCount();
+        threadMXBean.resetPeakThreadCount();
+        nioProxyServer = new NioProxyServer(new InetSocketAddress(HOST, PROXY_PORT), workerCount);
+        nioProxyServer.start();
+        Client client = new Client(connectionCount, requestCount, fileSize, true);
+        client.run();
+        failures += client.report(out, "nio", threadMXBean.getPeakThreadCount() - baseThreads,
+                String.valueOf(nioProxyServer.getAllocatedBufferCount()));
+        nioProxyServer.stop();
+        Thread.sleep(500);
+
+        File cacheDir = Files.createTempDirectory("proxy-cache").toFile();
+        CacheManager cacheManager = new CacheManager(cacheDir, 64 * 1024 * 1024);
+        baseThreads = threadMXBean.getThreadCount();
+        threadMXBean.resetPeakThreadCount();
+        ProxyServer proxyServer = new ProxyServer(PROXY_PORT, cacheManager);
+        proxyServer.start();
+        client = new Client(connectionCount, 1, fileSize, false);
+        client.run();
+        failures += client.report(out, "blocking", threadMXBean.getPeakThreadCount() - baseThreads, "-");
+        proxyServer.stop();
+        cacheManager.close();
+
+        origin.destroy();
+        System.setOut(out);
+        for (File child : cacheDir.listFiles())
+            child.delete();
+
+        cacheDir.delete();
+        file.delete();
+        documentRoot.delete();
+        System.out.println("Failures:" + failures);
+        System.exit(0);
+    }
+
+    private static Process startOrigin(File documentRoot) throws IOException, InterruptedException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                HttpReactorServer.class.getName(), HOST, String.valueOf(SERVER_PORT), documentRoot.getPath(), "1")
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        // Wait until it listens
+        for (int i = 0; i < 100; i++) {
+            if (isListening())
+                return process;
+
+            Thread.sleep(100);
+        }
+        process.destroy();
+        throw new IOException("The origin server did not start.");
+    }
+
+    private static boolean isListening() {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(HOST, SERVER_PORT));
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * A browser connection
+     */
+    private static final class Connection {
+        private final SocketChannel channel;
+        private final boolean tunnel;
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(4 * 1024);
+        private ByteBuffer writeBuffer;
+        private int state = STATE_CONNECTING;
+        private int requestsLeft;
+        private boolean inBody;
+        private long bodyRemaining;
+        private long requestStart;
+
+        Connection(SocketChannel channel, boolean tunnel, int requestCount) {
+            this.channel = channel;
+            this.tunnel = tunnel;
+            this.requestsLeft = requestCount;
+        }
+    }
+
+    /**
+     * All the browser connections on one selector thread
+     */
+    private static final class Client {
+        private final int connectionCount;
+        private final int requestCount;
+        private final int fileSize;
+        private final boolean keepAlive;
+        private final Connection[] connections;
+        private final long[] latencies;
+        private int latencyCount;
+        private int failures;
+        private int idleCount;
+        private int doneCount;
+        private long elapsedNs;
+        private Selector selector;
+
+        Client(int connectionCount, int requestCount, int fileSize, boolean keepAlive) {
+            this.connectionCount = connectionCount;
+            this.requestCount = requestCount;
+            this.fileSize = fileSize;
+            this.keepAlive = keepAlive;
+            this.connections = new Connection[connectionCount];
+            this.latencies = new long[connectionCount * requestCount];
+        }
+
+        void run() throws IOException {
+            selector = Selector.open();
+            int opened = 0;
+            int connecting = 0;
+            // Open all the connections and leave them idle
+            while (idleCount + failures < connectionCount) {
+                while (opened < connectionCount && connecting < MAX_CONNECTING) {
+                    SocketChannel channel = SocketChannel.open();
+                    channel.configureBlocking(false);
+                    channel.connect(new InetSocketAddress(HOST, PROXY_PORT));
+                    // Half of them go through tunnels, If the proxy could keep the connection alive
+                    connections[opened] = new Connection(channel, keepAlive && 0 == opened % 2, requestCount);
+                    channel.register(selector, SelectionKey.OP_CONNECT, connections[opened]);
+                    opened++;
+                    connecting++;
+                }
+                selector.select(1000);
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    Connection connection = (Connection) key.attachment();
+                    connecting--;
+                    try {
+                        connection.channel.finishConnect();
+                        connection.state = STATE_IDLE;
+                        key.interestOps(0);
+                        idleCount++;
+                    } catch (IOException e) {
+                        fail(connection);
+                    }
+                }
+            }
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+
+            // Now every connection sends its requests
+            long st = System.nanoTime();
+            for (Connection connection : connections) {
+                if (STATE_IDLE == connection.state)
+                    start(connection);
+            }
+            while (doneCount + failures < connectionCount) {
+                if (0 == selector.select(10 * 1000)) {
+                    System.err.println("The proxy stopped responding.");
+                    break;
+                }
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isWritable())
+                            write(connection);
+
+                        if (key.isValid() && key.isReadable())
+                            read(connection);
+
+                    } catch (IOException e) {
+                        fail(connection);
+                    }
+                }
+            }
+            elapsedNs = System.nanoTime() - st;
+            for (Connection connection : connections) {
+                if (null != connection)
+                    connection.channel.close();
+            }
+            selector.close();
+        }
+
+        private void start(Connection connection) throws IOException {
+            if (connection.tunnel) {
+                connection.state = STATE_TUNNEL;
+                send(connection, "CONNECT " + HOST + ":" + SERVER_PORT + " HTTP/1.1\r\n"
+                        + "Host: " + HOST + ":" + SERVER_PORT + "\r\n\r\n");
+            } else {
+                sendRequest(connection);
+            }
+        }
+
+        private void sendRequest(Connection connection) throws IOException {
+            connection.state = STATE_REQUEST;
+            connection.requestStart = System.nanoTime();
+            // Through a tunnel we talk to the origin server, So the path is enough
+            String target = connection.tunnel ? "/file.bin" : "http://" + HOST + ":" + SERVER_PORT + "/file.bin";
+            send(connection, "GET " + target + " HTTP/1.1\r\n"
+                    + "Host: " + HOST + ":" + SERVER_PORT + "\r\n"
+                    + (keepAlive ? "Proxy-Connection: keep-alive\r\n" : "Connection: close\r\n") + "\r\n");
+        }
+
+        private void send(Connection connection, String message) throws IOException {
+            connection.writeBuffer = ByteBuffer.wrap(message.getBytes(StandardCharsets.US_ASCII));
+            write(connection);
+        }
+
+        private void write(Connection connection) throws IOException {
+            connection.channel.write(connection.writeBuffer);
+            SelectionKey key = connection.channel.keyFor(selector);
+            key.interestOps(connection.writeBuffer.hasRemaining() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+
+        private void read(Connection connection) throws IOException {
+            ByteBuffer buffer = connection.readBuffer;
+            int read = connection.channel.read(buffer);
+            buffer.flip();
+            while (STATE_DONE != connection.state && buffer.hasRemaining()) {
+                if (!connection.inBody) {
+                    int headEnd = indexOfHeadEnd(buffer);
+                    if (0 > headEnd)
+                        break;
+
+                    String head = new String(buffer.array(), buffer.position(), headEnd - buffer.position(),
+                            StandardCharsets.ISO_8859_1);
+                    buffer.position(headEnd);
+                    if (!head.startsWith("HTTP/1.1 200") && !head.startsWith("HTTP/1.0 200")) {
+                        fail(connection);
+                        return;
+                    }
+                    if (STATE_TUNNEL == connection.state) {
+                        // The tunnel is ready, The next bytes come from the origin server
+                        sendRequest(connection);
+                        continue;
+                    }
+                    connection.bodyRemaining = contentLength(head);
+                    if (0 <= connection.bodyRemaining && fileSize != connection.bodyRemaining) {
+                        fail(connection);
+                        return;
+                    }
+                    connection.inBody = true;
+                }
+                int skip = (int) Math.min(buffer.remaining(), 0 <= connection.bodyRemaining
+                        ? connection.bodyRemaining : Long.MAX_VALUE);
+                buffer.position(buffer.position() + skip);
+                if (0 <= connection.bodyRemaining) {
+                    connection.bodyRemaining -= skip;
+                    if (0 == connection.bodyRemaining)
+                        onResponse(connection);
+                }
+            }
+            buffer.compact();
+            if (0 > read) {
+                // Without a Content-Length the body ends with the connection
+                if (STATE_REQUEST == connection.state && connection.inBody && 0 > connection.bodyRemaining) {
+                    onResponse(connection);
+                } else if (STATE_DONE != connection.state) {
+                    fail(connection);
+                }
+                connection.channel.close();
+            }
+        }
+
+        private void onResponse(Connection connection) throws IOException {
+            latencies[latencyCount++] = System.nanoTime() - connection.requestStart;
+            connection.inBody = false;
+            if (0 < --connection.requestsLeft) {
+                sendRequest(connection);
+            } else {
+                connection.state = STATE_DONE;
+                doneCount++;
+            }
+        }
+
+        private void fail(Connection connection) {
+            if (STATE_DONE == connection.state)
+                return;
+
+            connection.state = STATE_DONE;
+            failures++;
+            try {
+                connection.channel.close();
+            } catch (IOException e) {
+                // Ignore the exception
+            }
+        }
+
+        private int indexOfHeadEnd(ByteBuffer buffer) {
+            byte[] array = buffer.array();
+            for (int i = buffer.position() + 3; i < buffer.limit(); i++) {
+                if ('\n' == array[i] && '\r' == array[i - 1] && '\n' == array[i - 2] && '\r' == array[i - 3])
+                    return i + 1;
+            }
+            return -1;
+        }
+
+        private long contentLength(String head) {
+            for (String line : head.split("\r\n")) {
+                if (line.regionMatches(true, 0, "Content-Length:", 0, 15))
+                    return Long.parseLong(line.substring(15).trim());
+            }
+            return -1;
+        }
+
+        int report(PrintStream out, String name, int proxyThreads, String directBuffers) {
+            long[] sorted = Arrays.copyOf(latencies, latencyCount);
+            Arrays.sort(sorted);
+            long p50 = 0 < sorted.length ? sorted[sorted.length / 2] : 0;
+            long p99 = 0 < sorted.length ? sorted[(int) (sorted.length * 0.99)] : 0;
+            out.println(String.format("%-10s %8d %10d %8.0f %9d %9d %14d %15s %9d", name, latencyCount,
+                    TimeUnit.NANOSECONDS.toMillis(elapsedNs), latencyCount * 1e9 / elapsedNs,
+                    TimeUnit.NANOSECONDS.toMicros(p50), TimeUnit.NANOSECONDS.toMicros(p99),
+                    proxyThreads, directBuffers, failures));
+            if (latencyCount != connectionCount * requestCount)
+                return Math.max(1, failures);
+
+            return failures;
+        }
+    }
+}
@@ -0,0 +1,764 @@
+package com.cz.android.simplehttp.proxy;
+
+import com.cz.android.simplehttp.nio.DirectBufferPool;
+import com.cz.android.simplehttp.nio.HttpRequestHead;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The selector based mode of the {@link ProxyServer}.
+ * One acceptor thread accepts the browser connections and hands them to N workers in turn. Each worker
+ * owns one {@link Selector} with the browser channels and their remote channels, So the thread count
+ * stays the same however many connections are open.
+ *
+ * <ul>
+ *     <li>HTTPS CONNECT requests become a tunnel, Like {@link HttpsRedirect}, The bytes are copied both ways as they are.</li>
+ *     <li>HTTP requests are sent to the remote server with the path instead of the full url. The browser connection
+ *     keeps alive as long as it asks for the same host, A request for another host closes it.</li>
+ *     <li>The bytes are copied through direct buffers from the pool of the worker. A connection only holds a buffer
+ *     while it has bytes in flight, And we stop reading one side until the other side took what we read.</li>
+ *     <li>The remote host names are resolved on a few resolver threads, A slow DNS lookup would stall every
+ *     connection of the worker.</li>
+ * </ul>
+ * This mode does not use the {@link CacheManager}, Every request goes to the remote server.
+ */
+public class NioProxyServer {
+
+    /**
+     * Default server port number
+     */
+    private static final int HTTP_PORT = 8099;
+
+    /**
+     * Size of the pooled buffers and how many of them each worker keeps
+     */
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 1024;
+
+    /**
+     * The maximum size of the request line and all the headers, And the size we start collecting them in.
+     * Most heads fit in the first size, Only the longer ones grow the array.
+     */
+    private static final int MAX_HEAD_SIZE = 16 * 1024;
+    private static final int INITIAL_HEAD_SIZE = 1024;
+
+    /**
+     * Threads for the DNS lookups of all the workers
+     */
+    private static final int RESOLVER_THREADS = 4;
+
+    /**
+     * Request parse modes of a connection
+     */
+    private static final int MODE_HEAD = 0;
+    private static final int MODE_BODY = 1;
+    private static final int MODE_RAW = 2;
+
+    private static final byte[] CONNECTION_ESTABLISHED =
+            ResponseHelper.buildSuccessResponse().getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BAD_GATEWAY =
+            ResponseHelper.buildResponse(502, "Bad Gateway").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BAD_REQUEST =
+            ResponseHelper.buildResponse(400, "Bad Request").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BLOCKED =
+            ResponseHelper.buildErrorResponse().getBytes(StandardCharsets.US_ASCII);
+
+    private final InetSocketAddress address;
+    private final BlockManager blockManager;
+    private final Worker[] workers;
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private ServerSocketChannel serverSocketChannel;
+    private ExecutorService resolver;
+    private volatile boolean running;
+
+    public static void main(String[] args) throws IOException {
+        int port = 0 < args.length ? Integer.parseInt(args[0]) : HTTP_PORT;
+        int workerCount = 1 < args.length ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        NioProxyServer proxyServer = new NioProxyServer(new InetSocketAddress(port), workerCount);
+        proxyServer.start();
+    }
+
+    /**
+     * Constructor
+     *
+     * @param address     server address
+     * @param workerCount selector threads
+     */
+    public NioProxyServer(InetSocketAddress address, int workerCount) {
+        if (0 >= workerCount)
+            throw new IllegalArgumentException("workerCount <= 0: " + workerCount);
+
+        this.address = address;
+        this.blockManager = new BlockManager();
+        this.workers = new Worker[workerCount];
+    }
+
+    /**
+     * Start the workers and listen on a background thread
+     *
+     * @throws IOException io error
+     */
+    public synchronized void start() throws IOException {
+        if (running)
+            throw new IllegalStateException("The server already started.");
+
+        running = true;
+        resolver = newResolver();
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(i);
+            workers[i].thread.start();
+        }
+        serverSocketChannel = ServerSocketChannel.open();
+        serverSocketChannel.bind(address, 1024);
+        Thread acceptorThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "NioProxyServer-acceptor");
+        acceptorThread.start();
+        System.out.println("[NioProxyServer] Start listening at " + address + " workers:" + workers.length);
+    }
+
+    /**
+     * Stop accepting browser requests and close all the connections
+     */
+    public synchronized void stop() {
+        if (!running)
+            return;
+
+        running = false;
+        try {
+            serverSocketChannel.close();
+        } catch (IOException e) {
+            // Ignore the exception
+        }
+        // A lookup in progress could not be interrupted, The threads are daemons
+        resolver.shutdownNow();
+        for (Worker worker : workers)
+            worker.selector.wakeup();
+    }
+
+    private static ExecutorService newResolver() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(RESOLVER_THREADS, RESOLVER_THREADS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "NioProxyServer-resolver-" + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * The browser connections being served
+     */
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    /**
+     * The direct buffers all the workers allocated since the server started
+     */
+    public long getAllocatedBufferCount() {
+        long count = 0;
+        for (Worker worker : workers) {
+            if (null != worker)
+                count += worker.allocatedBufferCount;
+        }
+        return count;
+    }
+
+    /**
+     * Accept browser connections
+     */
+    private void accept() {
+        int next = 0;
+        while (running) {
+            try {
+                SocketChannel socketChannel = serverSocketChannel.accept();
+                socketChannel.configureBlocking(false);
+                socketChannel.socket().setTcpNoDelay(true);
+                workers[next].register(socketChannel);
+                next = (next + 1) % workers.length;
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                System.err.println("[NioProxyServer] Accept the connection failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * A selector thread, And all the connections registered to it
+     */
+    private class Worker implements Runnable {
+        private final ConcurrentLinkedQueue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+        private final ConcurrentLinkedQueue<Tunnel> resolvedTunnels = new ConcurrentLinkedQueue<>();
+        private final DirectBufferPool bufferPool = new DirectBufferPool(BUFFER_SIZE, MAX_POOLED_BUFFERS);
+        private final Selector selector;
+        private final Thread thread;
+        private volatile long allocatedBufferCount;
+
+        Worker(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "NioProxyServer-worker-" + index);
+        }
+
+        /**
+         * Called by the acceptor thread
+         */
+        void register(SocketChannel socketChannel) {
+            pendingChannels.offer(socketChannel);
+            selector.wakeup();
+        }
+
+        /**
+         * Called by a resolver thread once the remote address of the tunnel is known
+         */
+        void onResolved(Tunnel tunnel) {
+            resolvedTunnels.offer(tunnel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    registerPendingChannels();
+                    connectResolvedTunnels();
+                    Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                    while (iterator.hasNext()) {
+                        SelectionKey selectionKey = iterator.next();
+                        iterator.remove();
+                        Tunnel tunnel = (Tunnel) selectionKey.attachment();
+                        try {
+                            tunnel.onReady(selectionKey);
+                        } catch (IOException | RuntimeException e) {
+                            tunnel.close();
+                        }
+                    }
+                    allocatedBufferCount = bufferPool.getAllocatedCount();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                for (SelectionKey selectionKey : selector.keys())
+                    ((Tunnel) selectionKey.attachment()).close();
+
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    // Ignore the exception
+                }
+            }
+        }
+
+        private void registerPendingChannels() {
+            SocketChannel socketChannel;
+            while (null != (socketChannel = pendingChannels.poll())) {
+                Tunnel tunnel = new Tunnel(this, socketChannel);
+                connectionCount.incrementAndGet();
+                try {
+                    tunnel.clientKey = socketChannel.register(selector, SelectionKey.OP_READ, tunnel);
+                } catch (ClosedChannelException e) {
+                    tunnel.close();
+                }
+            }
+        }
+
+        private void connectResolvedTunnels() {
+            Tunnel tunnel;
+            while (null != (tunnel = resolvedTunnels.poll())) {
+                try {
+                    tunnel.onResolved();
+                } catch (IOException | RuntimeException e) {
+                    tunnel.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * The bytes going one way. We only read the source when both buffers are empty, That is the backpressure
+     */
+    private static final class Pipe {
+
+        /**
+         * Bytes read from the source we did not look at yet, A pooled buffer in read mode
+         */
+        private ByteBuffer input;
+
+        /**
+         * Bytes waiting for the sink, It may share the memory of the input
+         */
+        private ByteBuffer output;
+
+        private boolean sourceClosed;
+        private boolean sinkShutdown;
+
+        boolean isIdle() {
+            return null == input && null == output;
+        }
+    }
+
+    /**
+     * A browser connection and its remote connection
+     */
+    private final class Tunnel {
+        private final Worker worker;
+        private final SocketChannel client;
+        private SelectionKey clientKey;
+        private SocketChannel upstream;
+        private SelectionKey upstreamKey;
+        private boolean upstreamConnected;
+        private String upstreamHost;
+        private int upstreamPort;
+
+        /**
+         * Set by the resolver thread, Null if the host could not be resolved. The queue of the worker hands it over
+         */
+        private InetSocketAddress upstreamAddress;
+
+        /**
+         * Browser to remote, And remote to browser
+         */
+        private final Pipe request = new Pipe();
+        private final Pipe response = new Pipe();
+
+        /**
+         * Request parse state
+         */
+        private int mode = MODE_HEAD;
+        private long bodyRemaining;
+        private byte[] head;
+        private int headLength;
+        private final HttpRequestHead requestHead = new HttpRequestHead();
+        private boolean isConnect;
+
+        /**
+         * Close the connection once the response pipe is empty
+         */
+        private boolean closeAfterWrite;
+        private boolean closed;
+
+        Tunnel(Worker worker, SocketChannel client) {
+            this.worker = worker;
+            this.client = client;
+        }
+
+        void onReady(SelectionKey selectionKey) throws IOException {
+            if (closed)
+                return;
+
+            if (selectionKey == upstreamKey) {
+                if (selectionKey.isConnectable())
+                    finishConnect();
+
+                if (selectionKey.isValid() && selectionKey.isReadable())
+                    read(response, upstream);
+
+            } else if (selectionKey.isReadable()) {
+                read(request, client);
+            }
+            // The writable events only need the pumps below
+            pump();
+        }
+
+        private void pump() throws IOException {
+            pumpRequest();
+            pumpResponse();
+            if (!closed)
+                updateInterest();
+        }
+
+        private void read(Pipe pipe, SocketChannel source) throws IOException {
+            if (!pipe.isIdle() || pipe.sourceClosed)
+                return;
+
+            ByteBuffer buffer = worker.bufferPool.take();
+            int read = source.read(buffer);
+            if (0 < read) {
+                buffer.flip();
+                pipe.input = buffer;
+            } else {
+                worker.bufferPool.recycle(buffer);
+                if (0 > read)
+                    pipe.sourceClosed = true;
+            }
+        }
+
+        /**
+         * Move the browser bytes to the remote server, Parsing the request heads on the way
+         */
+        private void pumpRequest() throws IOException {
+            while (!closed && !closeAfterWrite) {
+                if (null != request.output) {
+                    if (!upstreamConnected)
+                        return;
+
+                    upstream.write(request.output);
+                    if (request.output.hasRemaining())
+                        return;
+
+                    request.output = null;
+                }
+                if (null != request.input && request.input.hasRemaining()) {
+                    if (MODE_HEAD == mode) {
+                        readHead(request.input);
+                    } else if (MODE_BODY == mode) {
+                        int length = (int) Math.min(bodyRemaining, request.input.remaining());
+                        request.output = slice(request.input, length);
+                        bodyRemaining -= length;
+                        if (0 == bodyRemaining)
+                            mode = MODE_HEAD;
+
+                    } else {
+                        request.output = slice(request.input, request.input.remaining());
+                    }
+                    continue;
+                }
+                if (null != request.input) {
+                    worker.bufferPool.recycle(request.input);
+                    request.input = null;
+                }
+                if (request.sourceClosed) {
+                    if (null == upstream) {
+                        close();
+                    } else if (upstreamConnected && !request.sinkShutdown) {
+                        request.sinkShutdown = true;
+                        upstream.shutdownOutput();
+                    }
+                }
+                return;
+            }
+        }
+
+        /**
+         * Move the remote bytes to the browser
+         */
+        private void pumpResponse() throws IOException {
+            while (!closed) {
+                if (null != response.output) {
+                    client.write(response.output);
+                    if (response.output.hasRemaining())
+                        return;
+
+                    response.output = null;
+                }
+                if (null != response.input && response.input.hasRemaining()) {
+                    response.output = slice(response.input, response.input.remaining());
+                    continue;
+                }
+                if (null != response.input) {
+                    worker.bufferPool.recycle(response.input);
+                    response.input = null;
+                }
+                if (closeAfterWrite) {
+                    close();
+                } else if (response.sourceClosed && !response.sinkShutdown) {
+                    response.sinkShutdown = true;
+                    client.shutdownOutput();
+                }
+                if (request.sourceClosed && request.isIdle() && response.sinkShutdown)
+                    close();
+
+                return;
+            }
+        }
+
+        /**
+         * Take the next {@code length} bytes of the input, They share the memory of the input
+         */
+        private ByteBuffer slice(ByteBuffer input, int length) {
+            ByteBuffer slice = input.duplicate();
+            slice.limit(input.position() + length);
+            input.position(input.position() + length);
+            return slice;
+        }
+
+        /**
+         * Collect the request head until the empty line, Then send it with the path instead of the full url
+         */
+        private void readHead(ByteBuffer input) throws IOException {
+            if (null == head) {
+                head = new byte[INITIAL_HEAD_SIZE];
+            } else if (headLength == head.length && head.length < MAX_HEAD_SIZE) {
+                // The parser only keeps offsets, So the head could move to a larger array
+                head = Arrays.copyOf(head, Math.min(head.length * 2, MAX_HEAD_SIZE));
+            }
+            int length = Math.min(input.remaining(), head.length - headLength);
+            input.get(head, headLength, length);
+            headLength += length;
+            ByteBuffer headBuffer = ByteBuffer.wrap(head, 0, headLength);
+            int headEnd = requestHead.parse(headBuffer);
+            if (HttpRequestHead.BAD_REQUEST == headEnd || (HttpRequestHead.NEED_MORE == headEnd && headLength == MAX_HEAD_SIZE)) {
+                respondAndClose(BAD_REQUEST);
+                return;
+            }
+            if (HttpRequestHead.NEED_MORE == headEnd)
+                return;
+
+            // The bytes after the head belong to the body or the next request
+            input.position(input.position() - (headLength - headEnd));
+            onHead(headEnd);
+            headLength = 0;
+            // Most tunnels never see another head, Do not keep the array for the lifetime of the connection
+            requestHead.reset();
+            head = null;
+        }
+
+        /**
+         * @return the port, Or -1 when it is not a number so onHead answers 400 for it.
+         */
+        private int parsePort(String port) {
+            try {
+                return Integer.parseInt(port);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        private void onHead(int headEnd) throws IOException {
+            String method = requestHead.method();
+            String target = requestHead.target();
+            String host;
+            int port;
+            String path = null;
+            if (requestHead.isMethod("CONNECT")) {
+                int colonIndex = target.lastIndexOf(':');
+                if (0 > colonIndex) {
+                    respondAndClose(BAD_REQUEST);
+                    return;
+                }
+                host = target.substring(0, colonIndex);
+                port = parsePort(target.substring(colonIndex + 1));
+            } else if (target.startsWith("http://")) {
+                int slashIndex = target.indexOf('/', 7);
+                String hostPort = 0 > slashIndex ? target.substring(7) : target.substring(7, slashIndex);
+                path = 0 > slashIndex ? "/" : target.substring(slashIndex);
+                int colonIndex = hostPort.lastIndexOf(':');
+                host = 0 > colonIndex ? hostPort : hostPort.substring(0, colonIndex);
+                port = 0 > colonIndex ? 80 : parsePort(hostPort.substring(colonIndex + 1));
+            } else {
+                respondAndClose(BAD_REQUEST);
+                return;
+            }
+            if (0 >= port || 65535 < port) {
+                respondAndClose(BAD_REQUEST);
+                return;
+            }
+
+            if (blockManager.isBlocked(host)) {
+                respondAndClose(BLOCKED);
+                return;
+            }
+            if (null != upstream && (!host.equals(upstreamHost) || port != upstreamPort)) {
+                // We do not know where the current response ends, So we could not switch the remote server
+                close();
+                return;
+            }
+
+            if (null != path) {
+                // Send the path instead of the full url, The headers as they are
+                byte[] line = (method + ' ' + path + ' ' + requestHead.version() + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+                int headersStart = requestHead.headersStart();
+                byte[] rewritten = new byte[line.length + headEnd - headersStart];
+                System.arraycopy(line, 0, rewritten, 0, line.length);
+                System.arraycopy(head, headersStart, rewritten, line.length, headEnd - headersStart);
+                request.output = ByteBuffer.wrap(rewritten);
+                updateMode();
+            } else {
+                isConnect = true;
+                mode = MODE_RAW;
+            }
+            if (null == upstream)
+                connect(host, port);
+        }
+
+        /**
+         * Find out where the body of the request ends
+         */
+        private void updateMode() {
+            if (null != requestHead.header(HttpRequestHead.TRANSFER_ENCODING)
+                    && !requestHead.headerEquals(HttpRequestHead.TRANSFER_ENCODING, "identity")) {
+                // We do not parse the chunks, The rest of the connection goes as it is
+                mode = MODE_RAW;
+                return;
+            }
+            long contentLength = requestHead.contentLength();
+            bodyRemaining = Math.max(0, contentLength);
+            mode = 0 < contentLength ? MODE_BODY : MODE_HEAD;
+        }
+
+        /**
+         * Open the remote channel and resolve the host on the resolver, {@link #onResolved()} connects it.
+         * Until then the channel is not registered, And the request bytes wait like for a connect in progress.
+         */
+        private void connect(final String host, final int port) throws IOException {
+            upstreamHost = host;
+            upstreamPort = port;
+            upstream = SocketChannel.open();
+            upstream.configureBlocking(false);
+            upstream.socket().setTcpNoDelay(true);
+            try {
+                resolver.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            InetSocketAddress address = new InetSocketAddress(host, port);
+                            upstreamAddress = address.isUnresolved() ? null : address;
+                        } catch (RuntimeException e) {
+                            // Always hand the tunnel back, The worker answers 502 and closes it
+                            upstreamAddress = null;
+                        } finally {
+                            worker.onResolved(Tunnel.this);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // The server is stopping
+                close();
+            }
+        }
+
+        void onResolved() throws IOException {
+            if (closed)
+                return;
+
+            try {
+                if (null == upstreamAddress)
+                    throw new IOException("Could not resolve " + upstreamHost);
+
+                upstreamConnected = upstream.connect(upstreamAddress);
+            } catch (IOException | RuntimeException e) {
+                // Could not resolve or reach the host
+                respondAndClose(BAD_GATEWAY);
+                pump();
+                return;
+            }
+            upstreamKey = upstream.register(worker.selector, upstreamConnected ? 0 : SelectionKey.OP_CONNECT, this);
+            if (upstreamConnected)
+                onConnected();
+
+            pump();
+        }
+
+        private void finishConnect() throws IOException {
+            try {
+                upstreamConnected = upstream.finishConnect();
+            } catch (IOException e) {
+                respondAndClose(BAD_GATEWAY);
+                return;
+            }
+            if (upstreamConnected)
+                onConnected();
+        }
+
+        private void onConnected() {
+            if (isConnect)
+                response.output = ByteBuffer.wrap(CONNECTION_ESTABLISHED);
+        }
+
+        /**
+         * Send a proxy response and close the connection, Whatever the browser sent after the head is ignored
+         */
+        private void respondAndClose(byte[] response) {
+            if (!this.response.isIdle()) {
+                // The remote server is in the middle of a response, We could only cut it
+                close();
+                return;
+            }
+            if (null != this.request.input) {
+                worker.bufferPool.recycle(this.request.input);
+                this.request.input = null;
+            }
+            this.request.output = null;
+            this.request.sourceClosed = true;
+            this.response.output = ByteBuffer.wrap(response);
+            closeAfterWrite = true;
+        }
+
+        private void updateInterest() {
+            int clientOps = 0;
+            if (request.isIdle() && !request.sourceClosed && !closeAfterWrite)
+                clientOps |= SelectionKey.OP_READ;
+
+            if (null != response.output)
+                clientOps |= SelectionKey.OP_WRITE;
+
+            if (clientKey.interestOps() != clientOps)
+                clientKey.interestOps(clientOps);
+
+            if (null != upstreamKey && upstreamKey.isValid()) {
+                int upstreamOps = 0;
+                if (!upstreamConnected) {
+                    upstreamOps = SelectionKey.OP_CONNECT;
+                } else {
+                    if (response.isIdle() && !response.sourceClosed && !closeAfterWrite)
+                        upstreamOps |= SelectionKey.OP_READ;
+
+                    if (null != request.output)
+                        upstreamOps |= SelectionKey.OP_WRITE;
+                }
+                if (upstreamKey.interestOps() != upstreamOps)
+                    upstreamKey.interestOps(upstreamOps);
+            }
+        }
+
+        void close() {
+            if (closed)
+                return;
+
+            closed = true;
+            connectionCount.decrementAndGet();
+            closeQuietly(client);
+            if (null != upstream)
+                closeQuietly(upstream);
+
+            // The output of a pipe shares the memory of its input, Only the input came from the pool
+            if (null != request.input)
+                worker.bufferPool.recycle(request.input);
+
+            if (null != response.input)
+                worker.bufferPool.recycle(response.input);
+
+            request.input = null;
+            request.output = null;
+            response.input = null;
+            response.output = null;
+        }
+
+        private void closeQuietly(SocketChannel channel) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Ignore the exception
+            }
+        }
+    }
+}
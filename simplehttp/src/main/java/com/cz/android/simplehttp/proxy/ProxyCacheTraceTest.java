@@ -0,0 +1,261 @@
+package com.cz.android.simplehttp.proxy;
+
+import com.cz.android.simplehttp.nio.HttpReactorServer;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Replay a request trace through the {@link ProxyServer} to a local {@link HttpReactorServer},
+ * And report the hit ratio and the latency of the {@link CacheManager}.
+ *
+ * <ul>
+ *     <li>A burst of concurrent requests for the same url, Only one of them should go to the remote server.</li>
+ *     <li>The trace, From a cold cache with a byte budget smaller than all the files.</li>
+ *     <li>A restart with a half written journal line, The index should come back from the journal.</li>
+ * </ul>
+ * The trace file has one path on each line. Without one we generate a zipf distributed trace.
+ *
+ * Arguments: [threads] [cache size KB] [trace file]
+ */
+public class ProxyCacheTraceTest {
+
+    /**
+     * Local server port numbers
+     */
+    private static final String HOST = "localhost";
+    private static final int SERVER_PORT = 8093;
+    private static final int PROXY_PORT = 8089;
+
+    /**
+     * Generated trace
+     */
+    private static final int TRACE_LENGTH = 4000;
+    private static final int TRACE_FILE_COUNT = 400;
+    private static final double ZIPF_EXPONENT = 0.9;
+
+    public static void main(String[] args) throws Exception {
+        int threadCount = 0 < args.length ? Integer.parseInt(args[0]) : 4;
+        long cacheSize = (1 < args.length ? Long.parseLong(args[1]) : 4 * 1024) * 1024;
+        List<String> trace = 2 < args.length ? readTrace(new File(args[2])) : generateTrace();
+
+        File documentRoot = Files.createTempDirectory("origin").toFile();
+        File cacheDir = Files.createTempDirectory("proxy-cache").toFile();
+        Map<String, Integer> fileSizes = new HashMap<>();
+        for (String path : trace) {
+            if (!fileSizes.containsKey(path))
+                fileSizes.put(path, createFile(documentRoot, path));
+        }
+        fileSizes.put("/burst", createFile(documentRoot, "/burst"));
+
+        HttpReactorServer server = new HttpReactorServer(new InetSocketAddress(HOST, SERVER_PORT), documentRoot, 1);
+        server.start();
+
+        // The proxy prints every request, Keep it out of the report
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+
+        CacheManager cacheManager = new CacheManager(cacheDir, cacheSize);
+        ProxyServer proxyServer = new ProxyServer(PROXY_PORT, cacheManager);
+        proxyServer.start();
+
+        out.println(String.format("Trace:%d requests over %d urls threads:%d cache:%dKB",
+                trace.size(), fileSizes.size() - 1, threadCount, cacheSize / 1024));
+        int failures = 0;
+
+        // Concurrent misses for the same url
+        int burstCount = 16;
+        failures += replay(Collections.nCopies(burstCount, "/burst"), fileSizes, burstCount, new long[burstCount]);
+        if (1 != cacheManager.getFetchCount()) {
+            System.err.println("The burst fetched the url " + cacheManager.getFetchCount() + " times.");
+            failures++;
+        }
+        out.println(String.format("burst: %d requests, remote fetches:%d waited:%d",
+                burstCount, cacheManager.getFetchCount(), cacheManager.getCoalescedCount()));
+
+        out.println("run            hit ratio   mean(us)   p50(us)   p99(us)  evictions   cached(KB)");
+        failures += run(out, "cold", cacheManager, trace, fileSizes, threadCount);
+        failures += run(out, "warm", cacheManager, trace, fileSizes, threadCount);
+
+        // Restart from the journal, With a line a crash cut in half
+        int entryCount = cacheManager.getEntryCount();
+        long size = cacheManager.size();
+        proxyServer.stop();
+        cacheManager.close();
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(new File(cacheDir, "journal"), true),
+                StandardCharsets.UTF_8)) {
+            writer.write("PUT 12");
+        }
+        cacheManager = new CacheManager(cacheDir, cacheSize);
+        if (entryCount != cacheManager.getEntryCount() || size != cacheManager.size()) {
+            System.err.println(String.format("The restart lost entries: %d/%d bytes:%d/%d",
+                    cacheManager.getEntryCount(), entryCount, cacheManager.size(), size));
+            failures++;
+        }
+        proxyServer = new ProxyServer(PROXY_PORT, cacheManager);
+        proxyServer.start();
+        failures += run(out, "restarted", cacheManager, trace, fileSizes, threadCount);
+
+        proxyServer.stop();
+        cacheManager.close();
+        server.stop();
+        System.setOut(out);
+        deleteRecursively(documentRoot);
+        deleteRecursively(cacheDir);
+        System.out.println("Failures:" + failures);
+        System.exit(0);
+    }
+
+    private static int run(PrintStream out, String name, CacheManager cacheManager, List<String> trace,
+                           Map<String, Integer> fileSizes, int threadCount) throws InterruptedException {
+        long hitCount = cacheManager.getHitCount();
+        long fetchCount = cacheManager.getFetchCount();
+        long evictionCount = cacheManager.getEvictionCount();
+        long[] latencies = new long[trace.size()];
+        int failures = replay(trace, fileSizes, threadCount, latencies);
+        long hits = cacheManager.getHitCount() - hitCount;
+        long fetches = cacheManager.getFetchCount() - fetchCount;
+
+        Arrays.sort(latencies);
+        long total = 0;
+        for (long latency : latencies)
+            total += latency;
+
+        out.println(String.format("%-14s %8.1f%% %10d %9d %9d %10d %12d", name, hits * 100.0 / (hits + fetches),
+                TimeUnit.NANOSECONDS.toMicros(total / latencies.length),
+                TimeUnit.NANOSECONDS.toMicros(latencies[latencies.length / 2]),
+                TimeUnit.NANOSECONDS.toMicros(latencies[(int) (latencies.length * 0.99)]),
+                cacheManager.getEvictionCount() - evictionCount, cacheManager.size() / 1024));
+        return failures;
+    }
+
+    /**
+     * Request all the paths through the proxy, Each thread takes the next one
+     */
+    private static int replay(final List<String> trace, final Map<String, Integer> fileSizes, int threadCount,
+                              final long[] latencies) throws InterruptedException {
+        final Proxy proxy = new Proxy(Proxy.Type.HTTP, new InetSocketAddress(HOST, PROXY_PORT));
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final CountDownLatch countDownLatch = new CountDownLatch(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    byte[] buffer = new byte[IORedirect.BUFFER_SIZE];
+                    try {
+                        startLatch.await();
+                        int index;
+                        while ((index = next.getAndIncrement()) < trace.size()) {
+                            String path = trace.get(index);
+                            long st = System.nanoTime();
+                            if (fileSizes.get(path) != request(proxy, path, buffer))
+                                failures.incrementAndGet();
+
+                            latencies[index] = System.nanoTime() - st;
+                        }
+                    } catch (IOException | InterruptedException e) {
+                        System.err.println("Request failed:" + e.getMessage());
+                        failures.incrementAndGet();
+                    } finally {
+                        countDownLatch.countDown();
+                    }
+                }
+            }, "ProxyCacheTraceTest-" + i).start();
+        }
+        startLatch.countDown();
+        countDownLatch.await();
+        return failures.get();
+    }
+
+    /**
+     * @return the body length, or -1 if the request failed
+     */
+    private static int request(Proxy proxy, String path, byte[] buffer) throws IOException {
+        URL url = new URL("http://" + HOST + ":" + SERVER_PORT + path);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection(proxy);
+        try {
+            if (HttpURLConnection.HTTP_OK != connection.getResponseCode())
+                return -1;
+
+            int length = 0;
+            int read;
+            try (InputStream inputStream = connection.getInputStream()) {
+                while (-1 != (read = inputStream.read(buffer)))
+                    length += read;
+            }
+            return length;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static List<String> generateTrace() {
+        double[] cumulative = new double[TRACE_FILE_COUNT];
+        double sum = 0;
+        for (int i = 0; i < TRACE_FILE_COUNT; i++) {
+            sum += 1 / Math.pow(i + 1, ZIPF_EXPONENT);
+            cumulative[i] = sum;
+        }
+        Random random = new Random(1);
+        List<String> trace = new ArrayList<>(TRACE_LENGTH);
+        for (int i = 0; i < TRACE_LENGTH; i++) {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+            trace.add("/file-" + (0 <= index ? index : -index - 1) + ".bin");
+        }
+        return trace;
+    }
+
+    private static List<String> readTrace(File file) throws IOException {
+        List<String> trace = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while (null != (line = reader.readLine())) {
+                line = line.trim();
+                if (!line.isEmpty())
+                    trace.add(line.startsWith("/") ? line : "/" + line);
+            }
+        }
+        return trace;
+    }
+
+    /**
+     * Create the file of a path, Between 1KB and 64KB depending on the path
+     *
+     * @return file size
+     */
+    private static int createFile(File documentRoot, String path) throws IOException {
+        int size = 1024 + Math.floorMod(path.hashCode(), 63 * 1024);
+        File file = new File(documentRoot, path);
+        file.getParentFile().mkdirs();
+        byte[] content = new byte[size];
+        Arrays.fill(content, (byte) 'a');
+        try (OutputStream outputStream = new FileOutputStream(file)) {
+            outputStream.write(content);
+        }
+        return size;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] files = file.listFiles();
+        if (null != files) {
+            for (File child : files)
+                deleteRecursively(child);
+        }
+        file.delete();
+    }
+}
@@ -1,6 +1,7 @@
 package com.cz.android.simplehttp.proxy;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 
@@ -37,19 +38,66 @@ public class ProxyServer {
         }
     }
 
-    public static void main(String[] args) {
+    /**
+     * Constructor
+     *
+     * @param port         server port number
+     * @param cacheManager cache manager
+     * @throws IOException io error
+     */
+    public ProxyServer(int port, CacheManager cacheManager) throws IOException {
+        this.serverSocket = new ServerSocket(port, 1024);
+        this.blockManager = new BlockManager();
+        this.cacheManager = cacheManager;
+    }
+
+    /**
+     * Arguments: [nio] [workers]
+     * The nio mode serves all the connections with a few selector threads, See {@link NioProxyServer}
+     */
+    public static void main(String[] args) throws IOException {
+        if (0 < args.length && "nio".equals(args[0])) {
+            int workerCount = 1 < args.length ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+            NioProxyServer proxyServer = new NioProxyServer(new InetSocketAddress(HTTP_PORT), workerCount);
+            proxyServer.start();
+            return;
+        }
         ProxyServer proxyServer = new ProxyServer(HTTP_PORT);
         proxyServer.listen();
     }
 
+    /**
+     * Listen on a background thread
+     */
+    public void start() {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                listen();
+            }
+        }, "ProxyServer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop accepting browser requests
+     */
+    public void stop() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     /**
      * Listen and accept browser requests
      */
-    @SuppressWarnings("InfiniteLoopStatement")
     private void listen() {
         System.out.println("[ProxyServer] Start listening... ");
 
-        while (true) {
+        while (!serverSocket.isClosed()) {
             try {
                 Socket clientSocket = serverSocket.accept();
 
@@ -58,7 +106,8 @@ public class ProxyServer {
                 thread.start();
 
             } catch (IOException e) {
-                e.printStackTrace();
+                if (!serverSocket.isClosed())
+                    e.printStackTrace();
             }
         }
     }
@@ -91,13 +91,11 @@ public class RequestHandler implements Runnable {
     }
 
     /**
-     * Save cache and close client connection
+     * Close client connection
      *
      * @throws IOException io error
      */
     private void close() throws IOException {
-        cacheManager.saveCache();
-
         if (clientInputStream != null)
             clientInputStream.close();
 
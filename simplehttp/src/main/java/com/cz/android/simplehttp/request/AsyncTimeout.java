@@ -1,5 +1,9 @@
 package com.cz.android.simplehttp.request;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 /**
  * This timeout uses a background thread to take action exactly when the timeout
  * occurs. Use this to implement timeouts where they aren't supported natively,
@@ -14,28 +18,61 @@ package com.cz.android.simplehttp.request;
  * timeouts, and {@link #exit} afterwards. The return value of {@link #exit}
  * indicates whether a timeout was triggered. Note that the call to {@link
  * #timedOut} is asynchronous, and may be called after {@link #exit}.
+ *
+ * <p>The pending timeouts live in a hierarchical timing wheel: {@value #LEVELS} wheels of
+ * {@value #WHEEL_SIZE} slots, one tick is one millisecond. Each slot is a doubly linked list, So
+ * {@link #enter} and {@link #exit} are O(1) however many timeouts are pending. A timeout never
+ * fires early, But it may fire up to one tick late.
  */
 public class AsyncTimeout extends Timeout {
+  private static final int WHEEL_BITS = 8;
+  private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+  private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+  private static final int LEVELS = 4;
+  private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+  /** The timeouts further than this wait in the last slot of the top wheel until they get closer. */
+  private static final long MAX_DELTA_TICKS = (1L << (WHEEL_BITS * LEVELS)) - 1;
+
   /**
-   * The watchdog thread processes a linked list of pending timeouts, sorted in
-   * the order to be triggered. This class synchronizes on AsyncTimeout.class.
-   * This lock guards the queue.
-   *
-   * <p>Head's 'next' points to the first element of the linked list. The first
-   * element is the next node to time out, or null if the queue is empty. The
-   * head is null until the watchdog thread is started.
+   * The wheels, The lower the level the finer the slots. A slot of level {@code n} covers
+   * {@code WHEEL_SIZE^n} ticks. This class synchronizes on AsyncTimeout.class, This lock guards the
+   * wheels and all the static fields. The wheels are null until the watchdog thread is started.
    */
-  private static AsyncTimeout head;
+  private static AsyncTimeout[][] wheels;
+
+  /** The ticks are counted from this {@link System#nanoTime()}. */
+  private static long startNanos;
+
+  /** The watchdog handled all the ticks up to and including this one. */
+  private static long currentTick;
+
+  /** The number of the timeouts in the wheels. */
+  private static int scheduledCount;
+
+  /**
+   * The tick the watchdog is sleeping until. A timeout that expires before it has to wake the
+   * watchdog up. {@link Long#MIN_VALUE} while the watchdog is awake.
+   */
+  private static long wakeUpTick = Long.MIN_VALUE;
 
   /** True if this node is currently in the queue. */
   private boolean inQueue;
 
-  /** The next node in the linked list. */
+  /** True if this node is in a slot of the wheels. The watchdog clears it when the node times out. */
+  private boolean scheduled;
+
+  /** The neighbours in the linked list of the slot. */
+  private AsyncTimeout prev;
   private AsyncTimeout next;
+  private int level;
+  private int slot;
 
   /** If scheduled, this is the time that the watchdog should time this out. */
   private long timeoutAt;
 
+  /** The first tick at or after {@link #timeoutAt}. */
+  private long expireTick;
+
   public final void enter() {
     if (inQueue) throw new IllegalStateException("Unbalanced enter/exit");
     long timeoutNanos = timeoutNanos();
@@ -49,9 +86,11 @@ public class AsyncTimeout extends Timeout {
 
   private static synchronized void scheduleTimeout(
       AsyncTimeout node, long timeoutNanos, boolean hasDeadline) {
-    // Start the watchdog thread and create the head node when the first timeout is scheduled.
-    if (head == null) {
-      head = new AsyncTimeout();
+    // Start the watchdog thread and create the wheels when the first timeout is scheduled.
+    if (wheels == null) {
+      wheels = new AsyncTimeout[LEVELS][WHEEL_SIZE];
+      startNanos = System.nanoTime();
+      currentTick = 0;
       new Watchdog().start();
     }
 
@@ -68,20 +107,68 @@ public class AsyncTimeout extends Timeout {
       throw new AssertionError();
     }
 
-    // Insert the node in sorted order.
-    long remainingNanos = node.remainingNanos(now);
-    for (AsyncTimeout prev = head; true; prev = prev.next) {
-      if (prev.next == null || remainingNanos < prev.next.remainingNanos(now)) {
-        node.next = prev.next;
-        prev.next = node;
-        if (prev == head) {
-          AsyncTimeout.class.notify(); // Wake up the watchdog when inserting at the front.
-        }
-        break;
-      }
+    // The wheels are empty, So there is nothing to handle on the ticks that passed while idle. Jump
+    // to now, Otherwise the watchdog walks every one of them before this node.
+    if (scheduledCount == 0) {
+      currentTick = Math.max(currentTick, (now - startNanos) / TICK_NANOS);
+    }
+
+    // Round up, So the node never times out early.
+    long elapsedNanos = node.timeoutAt - startNanos;
+    node.expireTick = elapsedNanos <= 0 ? 0 : (elapsedNanos + TICK_NANOS - 1) / TICK_NANOS;
+    insert(node);
+    node.scheduled = true;
+    scheduledCount++;
+    if (node.expireTick < wakeUpTick) {
+      AsyncTimeout.class.notify(); // Wake up the watchdog, It sleeps past this node.
     }
   }
 
+  /**
+   * Links the node into the slot of its expire tick, In the finest wheel that reaches that far. The
+   * delta is measured from {@link #currentTick}, So it must already be the tick being handled.
+   */
+  private static void insert(AsyncTimeout node) {
+    long delta = node.expireTick - currentTick;
+    long tick = node.expireTick;
+    if (delta <= 0) {
+      // Already expired, The watchdog handles it on the next tick.
+      delta = 1;
+      tick = currentTick + 1;
+    } else if (delta > MAX_DELTA_TICKS) {
+      delta = MAX_DELTA_TICKS;
+      tick = currentTick + MAX_DELTA_TICKS;
+    }
+    int level = 0;
+    while (level < LEVELS - 1 && delta >= 1L << (WHEEL_BITS * (level + 1))) {
+      level++;
+    }
+    link(node, level, (int) (tick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+  }
+
+  private static void link(AsyncTimeout node, int level, int slot) {
+    AsyncTimeout first = wheels[level][slot];
+    node.level = level;
+    node.slot = slot;
+    node.prev = null;
+    node.next = first;
+    if (first != null) first.prev = node;
+    wheels[level][slot] = node;
+  }
+
+  private static void unlink(AsyncTimeout node) {
+    if (node.prev != null) {
+      node.prev.next = node.next;
+    } else {
+      wheels[node.level][node.slot] = node.next;
+    }
+    if (node.next != null) {
+      node.next.prev = node.prev;
+    }
+    node.prev = null;
+    node.next = null;
+  }
+
   /** Returns true if the timeout occurred. */
   public final boolean exit() {
     if (!inQueue) return false;
@@ -91,25 +178,14 @@ public class AsyncTimeout extends Timeout {
 
   /** Returns true if the timeout occurred. */
   private static synchronized boolean cancelScheduledTimeout(AsyncTimeout node) {
-    // Remove the node from the linked list.
-    for (AsyncTimeout prev = head; prev != null; prev = prev.next) {
-      if (prev.next == node) {
-        prev.next = node.next;
-        node.next = null;
-        return false;
-      }
-    }
-
-    // The node wasn't found in the linked list: it must have timed out!
-    return true;
-  }
+    // The node isn't in the wheels: it must have timed out!
+    if (!node.scheduled) return true;
 
-  /**
-   * Returns the amount of time left until the time out. This will be negative
-   * if the timeout has elapsed and the timeout should occur immediately.
-   */
-  private long remainingNanos(long now) {
-    return timeoutAt - now;
+    // Remove the node from its slot.
+    unlink(node);
+    node.scheduled = false;
+    scheduledCount--;
+    return false;
   }
 
   /**
@@ -128,13 +204,15 @@ public class AsyncTimeout extends Timeout {
     public void run() {
       while (true) {
         try {
-          AsyncTimeout timedOut = awaitTimeout();
+          List<AsyncTimeout> timedOut = awaitTimeouts();
 
           // Didn't find a node to interrupt. Try again.
           if (timedOut == null) continue;
 
-          // Close the timed out node.
-          timedOut.timedOut();
+          // Close the timed out nodes.
+          for (int i = 0, size = timedOut.size(); i < size; i++) {
+            timedOut.get(i).timedOut();
+          }
         } catch (InterruptedException ignored) {
         }
       }
@@ -142,36 +220,109 @@ public class AsyncTimeout extends Timeout {
   }
 
   /**
-   * Removes and returns the node at the head of the list, waiting for it to
-   * time out if necessary. Returns null if the situation changes while waiting:
-   * either a newer node is inserted at the head, or the node being waited on
-   * has been removed.
+   * Advances the wheels to the current tick and returns the nodes that timed out, waiting for the
+   * next tick that could have one if necessary. Returns null if nothing timed out.
    */
-  private static synchronized AsyncTimeout awaitTimeout() throws InterruptedException {
-    // Get the next eligible node.
-    AsyncTimeout node = head.next;
+  private static synchronized List<AsyncTimeout> awaitTimeouts() throws InterruptedException {
+    long nowTick = (System.nanoTime() - startNanos) / TICK_NANOS;
 
-    // The queue is empty. Wait for something to be enqueued.
-    if (node == null) {
+    // The wheels are empty. Wait for something to be enqueued.
+    if (scheduledCount == 0) {
+      currentTick = Math.max(currentTick, nowTick);
+      wakeUpTick = Long.MAX_VALUE;
       AsyncTimeout.class.wait();
+      wakeUpTick = Long.MIN_VALUE;
       return null;
     }
 
-    long waitNanos = node.remainingNanos(System.nanoTime());
+    if (currentTick < nowTick) {
+      return advance(nowTick);
+    }
 
-    // The head of the queue hasn't timed out yet. Await that.
+    // Nothing is due on this tick. Await the next one that could have a node.
+    long nextTick = nextWakeUpTick();
+    long waitNanos = startNanos + nextTick * TICK_NANOS - System.nanoTime();
     if (waitNanos > 0) {
       // Waiting is made complicated by the fact that we work in nanoseconds,
       // but the API wants (millis, nanos) in two arguments.
       long waitMillis = waitNanos / 1000000L;
       waitNanos -= (waitMillis * 1000000L);
+      wakeUpTick = nextTick;
       AsyncTimeout.class.wait(waitMillis, (int) waitNanos);
+      wakeUpTick = Long.MIN_VALUE;
+    }
+    return null;
+  }
+
+  /**
+   * Returns the next tick with a node in the finest wheel, Or the next tick that moves the nodes
+   * down from the coarser wheels. It is never more than {@link #WHEEL_SIZE} ticks away.
+   */
+  private static long nextWakeUpTick() {
+    AsyncTimeout[] wheel = wheels[0];
+    for (long tick = currentTick + 1; ; tick++) {
+      if ((tick & WHEEL_MASK) == 0 || wheel[(int) tick & WHEEL_MASK] != null) {
+        return tick;
+      }
+    }
+  }
+
+  /** Handles all the ticks up to {@code nowTick}. */
+  private static List<AsyncTimeout> advance(long nowTick) {
+    List<AsyncTimeout> timedOut = null;
+    if (scheduledCount == 0) {
+      currentTick = nowTick; // Every node was cancelled, There is no tick to walk.
       return null;
     }
+    while (currentTick < nowTick) {
+      long tick = currentTick + 1;
+      // Before cascading, So the nodes moved down are placed relative to this tick. Measured from
+      // the tick before, A node due on the last tick of a coarse slot would go back into that slot.
+      currentTick = tick;
+      // At the start of a slot of a coarser wheel, Its nodes move down to the finer wheels.
+      // The coarsest first, So the nodes it moves down could move down again.
+      for (int level = LEVELS - 1; level > 0; level--) {
+        if ((tick & ((1L << (WHEEL_BITS * level)) - 1)) == 0) {
+          cascade(level, (int) (tick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+        }
+      }
 
-    // The head of the queue has timed out. Remove it.
-    head.next = node.next;
-    node.next = null;
-    return node;
+      int slot = (int) tick & WHEEL_MASK;
+      AsyncTimeout node = wheels[0][slot];
+      wheels[0][slot] = null;
+      while (node != null) {
+        AsyncTimeout next = node.next;
+        node.prev = null;
+        node.next = null;
+        if (node.expireTick <= tick) {
+          node.scheduled = false;
+          scheduledCount--;
+          if (timedOut == null) timedOut = new ArrayList<>();
+          timedOut.add(node);
+        } else {
+          insert(node);
+        }
+        node = next;
+      }
+    }
+    return timedOut;
+  }
+
+  /**
+   * Moves all the nodes of the slot to the finer wheels. A node due on the current tick goes into
+   * its slot of the finest wheel, Which is handled right after.
+   */
+  private static void cascade(int level, int slot) {
+    AsyncTimeout node = wheels[level][slot];
+    wheels[level][slot] = null;
+    while (node != null) {
+      AsyncTimeout next = node.next;
+      if (node.expireTick <= currentTick) {
+        link(node, 0, (int) currentTick & WHEEL_MASK);
+      } else {
+        insert(node);
+      }
+      node = next;
+    }
   }
 }
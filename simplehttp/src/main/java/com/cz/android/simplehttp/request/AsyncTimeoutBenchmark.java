@@ -0,0 +1,257 @@
+package com.cz.android.simplehttp.request;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure {@link AsyncTimeout#enter()} and {@link AsyncTimeout#exit()} while many other timeouts
+ * are pending. It compares the timing wheel with the sorted linked list it replaced, Which is copied
+ * below as {@link SortedListTimeout}. The pending timeouts are far away, So none of them fires
+ * during the measurement, Like the idle connections of a busy client.
+ *
+ * Arguments: [operations per row]
+ */
+public class AsyncTimeoutBenchmark {
+  private static final int[] PENDING_COUNTS = {100, 10000, 100000};
+
+  public static void main(String[] args) throws Exception {
+    int operationCount = 0 < args.length ? Integer.parseInt(args[0]) : 200000;
+    int failures = checkTimeouts();
+
+    //Warm up both of them, So the first row is not the one that pays for the JIT.
+    run(new SortedListFactory(), 100, operationCount, false);
+    run(new WheelFactory(), 100, operationCount, false);
+    System.out.println("Operations:" + operationCount);
+    System.out.println("implementation   pending   enter/exit(ns)");
+    for (int pendingCount : PENDING_COUNTS) {
+      run(new SortedListFactory(), pendingCount, operationCount, true);
+      run(new WheelFactory(), pendingCount, operationCount, true);
+    }
+    System.out.println("Failures:" + failures);
+    System.exit(0);
+  }
+
+  /** Checks that a timeout fires when it expired, And only then. */
+  private static int checkTimeouts() throws InterruptedException {
+    int failures = 0;
+    final CountDownLatch countDownLatch = new CountDownLatch(1);
+    AsyncTimeout timeout = new AsyncTimeout() {
+      @Override protected void timedOut() {
+        countDownLatch.countDown();
+      }
+    };
+    timeout.timeout(20, TimeUnit.MILLISECONDS);
+    long st = System.nanoTime();
+    timeout.enter();
+    if (!countDownLatch.await(2, TimeUnit.SECONDS) || !timeout.exit()) {
+      System.err.println("The timeout did not fire.");
+      failures++;
+    } else if (System.nanoTime() - st < TimeUnit.MILLISECONDS.toNanos(20)) {
+      System.err.println("The timeout fired early.");
+      failures++;
+    }
+
+    //A timeout that exits in time never fires, The one a long way off neither.
+    AsyncTimeout far = new AsyncTimeout();
+    far.timeout(1, TimeUnit.HOURS);
+    far.enter();
+    timeout.timeout(200, TimeUnit.MILLISECONDS);
+    timeout.enter();
+    Thread.sleep(50);
+    if (timeout.exit()) {
+      System.err.println("The timeout fired before it expired.");
+      failures++;
+    }
+    if (far.exit()) {
+      System.err.println("The far timeout fired.");
+      failures++;
+    }
+    return failures;
+  }
+
+  private static void run(TimeoutFactory factory, int pendingCount, int operationCount, boolean print) {
+    //The pending timeouts spread from 120s down to 60s. Entering them from the furthest one, And
+    //exiting them from the nearest one, Keeps the setup of the sorted list O(1) per timeout.
+    Entry[] pending = new Entry[pendingCount];
+    for (int i = 0; i < pendingCount; i++) {
+      pending[i] = factory.create(120 * 1000 - (int) (60 * 1000L * i / pendingCount));
+      pending[i].enter();
+    }
+    Random random = new Random(pendingCount);
+    Entry[] entries = new Entry[64];
+    for (int i = 0; i < entries.length; i++) {
+      entries[i] = factory.create(60 * 1000 + random.nextInt(60 * 1000));
+    }
+    //The sorted list is O(n), Give it a time budget instead of the whole count.
+    long budgetNanos = TimeUnit.SECONDS.toNanos(3);
+    long st = System.nanoTime();
+    int operations = 0;
+    while (operations < operationCount) {
+      Entry entry = entries[operations & (entries.length - 1)];
+      entry.enter();
+      entry.exit();
+      operations++;
+      if (0 == (operations & 0xff) && budgetNanos < System.nanoTime() - st) {
+        break;
+      }
+    }
+    long elapsedNs = System.nanoTime() - st;
+    for (int i = pendingCount - 1; i >= 0; i--) {
+      pending[i].exit();
+    }
+    if (print) {
+      System.out.println(String.format("%-16s %7d %16.0f", factory.name(), pendingCount, (double) elapsedNs / operations));
+    }
+  }
+
+  private interface Entry {
+    void enter();
+
+    boolean exit();
+  }
+
+  private interface TimeoutFactory {
+    String name();
+
+    Entry create(int timeoutMillis);
+  }
+
+  private static final class WheelFactory implements TimeoutFactory {
+    @Override public String name() {
+      return "timing wheel";
+    }
+
+    @Override public Entry create(int timeoutMillis) {
+      final AsyncTimeout timeout = new AsyncTimeout();
+      timeout.timeout(timeoutMillis, TimeUnit.MILLISECONDS);
+      return new Entry() {
+        @Override public void enter() {
+          timeout.enter();
+        }
+
+        @Override public boolean exit() {
+          return timeout.exit();
+        }
+      };
+    }
+  }
+
+  private static final class SortedListFactory implements TimeoutFactory {
+    @Override public String name() {
+      return "sorted list";
+    }
+
+    @Override public Entry create(int timeoutMillis) {
+      final SortedListTimeout timeout = new SortedListTimeout();
+      timeout.timeout(timeoutMillis, TimeUnit.MILLISECONDS);
+      return new Entry() {
+        @Override public void enter() {
+          timeout.enter();
+        }
+
+        @Override public boolean exit() {
+          return timeout.exit();
+        }
+      };
+    }
+  }
+
+  /** The AsyncTimeout before the timing wheel, A linked list sorted by the time to fire. */
+  static class SortedListTimeout extends Timeout {
+    private static SortedListTimeout head;
+    private boolean inQueue;
+    private SortedListTimeout next;
+    private long timeoutAt;
+
+    public final void enter() {
+      if (inQueue) throw new IllegalStateException("Unbalanced enter/exit");
+      long timeoutNanos = timeoutNanos();
+      boolean hasDeadline = hasDeadline();
+      if (timeoutNanos == 0 && !hasDeadline) {
+        return;
+      }
+      inQueue = true;
+      scheduleTimeout(this, timeoutNanos, hasDeadline);
+    }
+
+    private static synchronized void scheduleTimeout(
+        SortedListTimeout node, long timeoutNanos, boolean hasDeadline) {
+      if (head == null) {
+        head = new SortedListTimeout();
+        new Watchdog().start();
+      }
+
+      long now = System.nanoTime();
+      if (timeoutNanos != 0 && hasDeadline) {
+        node.timeoutAt = now + Math.min(timeoutNanos, node.deadlineNanoTime() - now);
+      } else if (timeoutNanos != 0) {
+        node.timeoutAt = now + timeoutNanos;
+      } else {
+        node.timeoutAt = node.deadlineNanoTime();
+      }
+
+      long remainingNanos = node.timeoutAt - now;
+      for (SortedListTimeout prev = head; true; prev = prev.next) {
+        if (prev.next == null || remainingNanos < prev.next.timeoutAt - now) {
+          node.next = prev.next;
+          prev.next = node;
+          if (prev == head) {
+            SortedListTimeout.class.notify();
+          }
+          break;
+        }
+      }
+    }
+
+    public final boolean exit() {
+      if (!inQueue) return false;
+      inQueue = false;
+      return cancelScheduledTimeout(this);
+    }
+
+    private static synchronized boolean cancelScheduledTimeout(SortedListTimeout node) {
+      for (SortedListTimeout prev = head; prev != null; prev = prev.next) {
+        if (prev.next == node) {
+          prev.next = node.next;
+          node.next = null;
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private static final class Watchdog extends Thread {
+      Watchdog() {
+        super("SortedListTimeout Watchdog");
+        setDaemon(true);
+      }
+
+      @Override public void run() {
+        while (true) {
+          try {
+            awaitTimeout();
+          } catch (InterruptedException ignored) {
+          }
+        }
+      }
+    }
+
+    private static synchronized void awaitTimeout() throws InterruptedException {
+      SortedListTimeout node = head.next;
+      if (node == null) {
+        SortedListTimeout.class.wait();
+        return;
+      }
+      long waitNanos = node.timeoutAt - System.nanoTime();
+      if (waitNanos > 0) {
+        long waitMillis = waitNanos / 1000000L;
+        waitNanos -= (waitMillis * 1000000L);
+        SortedListTimeout.class.wait(waitMillis, (int) waitNanos);
+        return;
+      }
+      head.next = node.next;
+      node.next = null;
+    }
+  }
+}
@@ -0,0 +1,76 @@
+package com.cz.android.simplehttp.request;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules timeouts that expire on chosen ticks of the timing wheel and checks each one fires on
+ * time. The last tick of a coarse slot (511, 767, 1023) is the case that used to go back into the
+ * slot it was cascaded from, And fire one revolution late. Ticks 300 and 510 are the controls.
+ *
+ * Arguments: [expire tick...], 65535 checks the second wheel but takes a minute.
+ */
+public class AsyncTimeoutTest {
+  /** A timeout may fire up to one tick late, This leaves room for scheduling jitter. */
+  private static final long TOLERANCE_MILLIS = 50;
+
+  public static void main(String[] args) throws Exception {
+    long[] ticks = {300, 510, 511, 767, 1023};
+    if (0 < args.length) {
+      ticks = new long[args.length];
+      for (int i = 0; i < args.length; i++) {
+        ticks[i] = Long.parseLong(args[i]);
+      }
+    }
+    // The first timeout starts the watchdog, The ticks are counted from then.
+    AsyncTimeout starter = new AsyncTimeout();
+    starter.timeout(1, TimeUnit.DAYS);
+    starter.enter();
+    Field field = AsyncTimeout.class.getDeclaredField("startNanos");
+    field.setAccessible(true);
+    long startNanos = field.getLong(null);
+
+    final CountDownLatch latch = new CountDownLatch(ticks.length);
+    final long[] firedNanos = new long[ticks.length];
+    long[] dueNanos = new long[ticks.length];
+    for (int i = 0; i < ticks.length; i++) {
+      final int index = i;
+      AsyncTimeout timeout = new AsyncTimeout() {
+        @Override protected void timedOut() {
+          firedNanos[index] = System.nanoTime();
+          latch.countDown();
+        }
+      };
+      // Half a tick before the tick, So it rounds up to exactly that tick.
+      dueNanos[i] = startNanos + TimeUnit.MILLISECONDS.toNanos(ticks[i]) - TimeUnit.MICROSECONDS.toNanos(500);
+      timeout.timeout(dueNanos[i] - System.nanoTime(), TimeUnit.NANOSECONDS);
+      timeout.enter();
+    }
+    long lastTick = 0;
+    for (long tick : ticks) {
+      lastTick = Math.max(lastTick, tick);
+    }
+    latch.await(lastTick + 2000, TimeUnit.MILLISECONDS);
+    starter.exit();
+
+    int failures = 0;
+    System.out.println("expire tick  late(ms)");
+    for (int i = 0; i < ticks.length; i++) {
+      if (0 == firedNanos[i]) {
+        failures++;
+        System.out.println(String.format("%11d  did not fire", ticks[i]));
+        continue;
+      }
+      long lateMillis = TimeUnit.NANOSECONDS.toMillis(firedNanos[i] - dueNanos[i]);
+      if (lateMillis < 0 || lateMillis > TOLERANCE_MILLIS) {
+        failures++;
+      }
+      System.out.println(String.format("%11d  %8d", ticks[i], lateMillis));
+    }
+    System.out.println("Failures:" + failures);
+    if (0 < failures) {
+      System.exit(1);
+    }
+  }
+}
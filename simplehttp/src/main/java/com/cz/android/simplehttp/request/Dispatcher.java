@@ -15,7 +15,6 @@
  */
 package com.cz.android.simplehttp.request;
 
-import com.sun.istack.internal.Nullable;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
@@ -24,9 +23,8 @@ import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Policy on when async requests are executed.
@@ -53,21 +51,52 @@ public final class Dispatcher {
   /** Running synchronous calls. Includes canceled calls that haven't finished yet. */
   private final Deque<RealCall> runningSyncCalls = new ArrayDeque<>();
 
+  /** The largest {@link #executorQueueDepth()} we saw after handing calls to the executor. */
+  private final AtomicInteger peakExecutorQueueDepth = new AtomicInteger();
+
+  /**
+   * Runs the async calls on {@code executorService}. See {@link DispatcherExecutors} for the
+   * executors we provide.
+   */
   public Dispatcher(ExecutorService executorService) {
     this.executorService = executorService;
   }
 
+  /**
+   * Runs the async calls on virtual threads if the runtime supports them, Otherwise on a platform
+   * thread for every running call. Pass {@link DispatcherExecutors#newBoundedExecutor(int)} to cap
+   * the threads below {@link #getMaxRequests()}.
+   */
   public Dispatcher() {
   }
 
   public synchronized ExecutorService executorService() {
     if (executorService == null) {
-      executorService = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
-          new SynchronousQueue<Runnable>(), Util.threadFactory("OkHttp Dispatcher", false));
+      executorService = DispatcherExecutors.newDefaultExecutor();
     }
     return executorService;
   }
 
+  /**
+   * Returns the number of calls the executor accepted but has not started, Because all its threads
+   * are busy. Always 0 for the executors that start a thread for every call.
+   */
+  public int executorQueueDepth() {
+    ExecutorService executorService;
+    synchronized (this) {
+      executorService = this.executorService;
+    }
+    if (executorService instanceof ThreadPoolExecutor) {
+      return ((ThreadPoolExecutor) executorService).getQueue().size();
+    }
+    return 0;
+  }
+
+  /** Returns the largest {@link #executorQueueDepth()} so far. */
+  public int peakExecutorQueueDepth() {
+    return peakExecutorQueueDepth.get();
+  }
+
   /**
    * Set the maximum number of requests to execute concurrently. Above this requests queue in
    * memory, waiting for the running calls to complete.
@@ -185,6 +214,13 @@ public final class Dispatcher {
       RealCall.AsyncCall asyncCall = executableCalls.get(i);
       asyncCall.executeOn(executorService());
     }
+    if (!executableCalls.isEmpty()) {
+      int depth = executorQueueDepth();
+      int peak;
+      while (depth > (peak = peakExecutorQueueDepth.get())
+          && !peakExecutorQueueDepth.compareAndSet(peak, depth)) {
+      }
+    }
 
     return isRunning;
   }
@@ -193,7 +229,6 @@ public final class Dispatcher {
   private int runningCallsForHost(RealCall.AsyncCall call) {
     int result = 0;
     for (RealCall.AsyncCall c : runningAsyncCalls) {
-      if (c.get().forWebSocket) continue;
       if (c.host().equals(call.host())) result++;
     }
     return result;
@@ -0,0 +1,88 @@
+package com.cz.android.simplehttp.request;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The executors a {@link Dispatcher} could run the async calls on. The dispatcher still decides how
+ * many calls run at the same time, And how many of them go to the same host. The executor only
+ * decides what kind of thread runs them.
+ */
+public final class DispatcherExecutors {
+  private static final String THREAD_NAME = "OkHttp Dispatcher";
+  /** {@code Executors.newVirtualThreadPerTaskExecutor()}, Or null if the runtime does not have it. */
+  private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = findVirtualThreadExecutor();
+
+  private DispatcherExecutors() {
+  }
+
+  /**
+   * A thread for every running call and no queue. This is what the dispatcher used before, A burst
+   * of calls creates up to {@link Dispatcher#getMaxRequests()} threads.
+   */
+  public static ExecutorService newUnboundedExecutor() {
+    return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+        new SynchronousQueue<Runnable>(), Util.threadFactory(THREAD_NAME, false));
+  }
+
+  /**
+   * At most {@code threadCount} platform threads. The calls over that wait in the queue of the
+   * executor, {@link Dispatcher#executorQueueDepth()} tells how many of them are waiting. Only a
+   * {@code threadCount} below {@link Dispatcher#getMaxRequests()} ever queues, The dispatcher
+   * never hands the executor more calls than that. The pool keeps its size when the limits of the
+   * dispatcher change later.
+   */
+  public static ExecutorService newBoundedExecutor(int threadCount) {
+    if (threadCount < 1) throw new IllegalArgumentException("threadCount < 1: " + threadCount);
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), Util.threadFactory(THREAD_NAME, false));
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /** Returns true if the runtime could run every call on its own virtual thread. */
+  public static boolean isVirtualThreadSupported() {
+    return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+  }
+
+  /**
+   * A new virtual thread for every call. A blocked call only holds a little heap instead of a whole
+   * platform thread.
+   *
+   * @throws UnsupportedOperationException if the runtime does not support virtual threads.
+   */
+  public static ExecutorService newVirtualThreadExecutor() {
+    if (NEW_VIRTUAL_THREAD_EXECUTOR == null) {
+      throw new UnsupportedOperationException("Virtual threads need Java 21 or later.");
+    }
+    try {
+      return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+    } catch (ReflectiveOperationException e) {
+      throw new UnsupportedOperationException("Could not create the virtual thread executor.", e);
+    }
+  }
+
+  /**
+   * Virtual threads when the runtime has them, Otherwise {@link #newUnboundedExecutor()}. A bounded
+   * pool is opt-in, Its size is a choice about the calls, Not something we could derive here.
+   */
+  public static ExecutorService newDefaultExecutor() {
+    return isVirtualThreadSupported() ? newVirtualThreadExecutor() : newUnboundedExecutor();
+  }
+
+  private static Method findVirtualThreadExecutor() {
+    try {
+      // We compile for Java 8, So we could only find it at runtime.
+      Method method = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      // Java 19 and 20 have the method, But it throws unless the preview features are enabled.
+      ((ExecutorService) method.invoke(null)).shutdown();
+      return method;
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+}
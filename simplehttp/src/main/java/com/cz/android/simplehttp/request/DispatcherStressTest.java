@@ -0,0 +1,136 @@
+package com.cz.android.simplehttp.request;
+
+import com.cz.android.simplehttp.nio.HttpReactorServer;
+import com.cz.android.simplehttp.pool.ConnectionPool;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Enqueue a burst of async calls to the local {@link HttpReactorServer} with each kind of executor.
+ * It records the peak thread count, The peak heap and the time until the last callback returned.
+ * The dispatcher limits are the same for all of them, So it also checks the running calls never exceed them.
+ *
+ * Arguments: [calls] [max requests] [max requests per host] [bounded threads]
+ */
+public class DispatcherStressTest {
+  private static final String HOST = "localhost";
+  private static final int PORT = 8099;
+
+  public static void main(String[] args) throws Exception {
+    int callCount = 0 < args.length ? Integer.parseInt(args[0]) : 10000;
+    int maxRequests = 1 < args.length ? Integer.parseInt(args[1]) : 1024;
+    int maxRequestsPerHost = 2 < args.length ? Integer.parseInt(args[2]) : 1024;
+    int boundedThreads = 3 < args.length ? Integer.parseInt(args[3]) : 32;
+
+    File documentRoot = Files.createTempDirectory("dispatcher").toFile();
+    File file = new File(documentRoot, "index.html");
+    try (OutputStream outputStream = new FileOutputStream(file)) {
+      outputStream.write(new byte[1024]);
+    }
+    HttpReactorServer server = new HttpReactorServer(new InetSocketAddress(HOST, PORT), documentRoot, 1);
+    server.start();
+
+    System.out.println(String.format("Calls:%d maxRequests:%d maxRequestsPerHost:%d virtual threads:%b",
+        callCount, maxRequests, maxRequestsPerHost, DispatcherExecutors.isVirtualThreadSupported()));
+    System.out.println("executor          time(ms)  peak threads  peak heap(MB)  peak running  peak executor queue  failures");
+    int failures = 0;
+    for (int round = 0; round < 2; round++) {
+      //The first round warms up the JIT, We only print the second one.
+      boolean print = 1 == round;
+      failures += run("unbounded", DispatcherExecutors.newUnboundedExecutor(), callCount, maxRequests, maxRequestsPerHost, print);
+      failures += run("bounded(" + boundedThreads + ")", DispatcherExecutors.newBoundedExecutor(boundedThreads),
+          callCount, maxRequests, maxRequestsPerHost, print);
+      failures += run(DispatcherExecutors.isVirtualThreadSupported() ? "default(virtual)" : "default(unbounded)",
+          DispatcherExecutors.newDefaultExecutor(), callCount, maxRequests, maxRequestsPerHost, print);
+    }
+    server.stop();
+    file.delete();
+    documentRoot.delete();
+    System.out.println("Failures:" + failures);
+    System.exit(0);
+  }
+
+  private static int run(String name, ExecutorService executorService, int callCount, int maxRequests,
+      int maxRequestsPerHost, boolean print) throws InterruptedException {
+    final Dispatcher dispatcher = new Dispatcher(executorService);
+    dispatcher.setMaxRequests(maxRequests);
+    dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+    ConnectionPool connectionPool = new ConnectionPool(maxRequests, 60 * 1000);
+    RequestClient client = new RequestClient.Builder()
+        .dispatcher(dispatcher)
+        .connectionPool(connectionPool)
+        .build();
+    Request request = new Request.Builder().url("http://" + HOST + ":" + PORT + "/index.html").build();
+
+    System.gc();
+    final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    threadMXBean.resetPeakThreadCount();
+    final AtomicLong peakHeap = new AtomicLong();
+    final AtomicInteger peakRunning = new AtomicInteger();
+    final AtomicInteger failures = new AtomicInteger();
+    final CountDownLatch countDownLatch = new CountDownLatch(callCount);
+    Thread sampler = new Thread(new Runnable() {
+      @Override public void run() {
+        Runtime runtime = Runtime.getRuntime();
+        while (0 < countDownLatch.getCount()) {
+          peakHeap.set(Math.max(peakHeap.get(), runtime.totalMemory() - runtime.freeMemory()));
+          peakRunning.set(Math.max(peakRunning.get(), dispatcher.runningCallsCount()));
+          try {
+            Thread.sleep(5);
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+      }
+    }, "DispatcherStressTest sampler");
+    sampler.setDaemon(true);
+    sampler.start();
+
+    Callback callback = new Callback() {
+      @Override public void onFailure(Call call, IOException e) {
+        failures.incrementAndGet();
+        countDownLatch.countDown();
+      }
+
+      @Override public void onResponse(Call call, Response response) throws IOException {
+        try {
+          if (200 != response.code() || 1024 != response.body().bytes().length) {
+            failures.incrementAndGet();
+          }
+        } finally {
+          response.close();
+          countDownLatch.countDown();
+        }
+      }
+    };
+    long st = System.nanoTime();
+    for (int i = 0; i < callCount; i++) {
+      client.newCall(request).enqueue(callback);
+    }
+    countDownLatch.await();
+    long elapsedMs = (System.nanoTime() - st) / 1000000;
+    if (peakRunning.get() > maxRequests) {
+      System.err.println("The dispatcher ran more calls than maxRequests:" + peakRunning.get());
+      failures.incrementAndGet();
+    }
+    if (print) {
+      System.out.println(String.format("%-18s %8d %13d %14d %13d %20d %9d", name, elapsedMs,
+          threadMXBean.getPeakThreadCount(), peakHeap.get() / 1024 / 1024, peakRunning.get(),
+          dispatcher.peakExecutorQueueDepth(), failures.get()));
+    }
+    executorService.shutdown();
+    connectionPool.evictAll();
+    return failures.get();
+  }
+}
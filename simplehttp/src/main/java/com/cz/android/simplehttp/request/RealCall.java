@@ -15,10 +15,12 @@
  */
 package com.cz.android.simplehttp.request;
 
+import com.cz.android.simplehttp.request.intercept.BridgeInterceptor;
+import com.cz.android.simplehttp.request.intercept.CallServerInterceptor;
+import com.cz.android.simplehttp.request.intercept.ConnectInterceptor;
 import com.cz.android.simplehttp.request.intercept.Interceptor;
 import com.cz.android.simplehttp.request.intercept.RealInterceptorChain;
 import com.cz.android.simplehttp.request.intercept.RetryAndFollowUpInterceptor;
-import com.sun.istack.internal.Nullable;
 
 import java.io.IOException;
 import java.io.InterruptedIOException;
@@ -129,6 +131,10 @@ final class RealCall implements Call {
       this.responseCallback = responseCallback;
     }
 
+    String host() {
+      return originalRequest.host();
+    }
+
     Request request() {
       return originalRequest;
     }
@@ -198,9 +204,13 @@ final class RealCall implements Call {
     // Build a full stack of interceptors.
     List<Interceptor> interceptors = new ArrayList<>();
     interceptors.addAll(client.interceptors());
+    interceptors.add(retryAndFollowUpInterceptor);
+    interceptors.add(new BridgeInterceptor());
+    interceptors.add(new ConnectInterceptor());
     interceptors.addAll(client.networkInterceptors());
+    interceptors.add(new CallServerInterceptor());
 
-    Interceptor.Chain chain = new RealInterceptorChain(interceptors,  0,
+    Interceptor.Chain chain = new RealInterceptorChain(interceptors, null, null, 0,
         originalRequest, this, client.connectTimeoutMillis(),
         client.readTimeoutMillis(), client.writeTimeoutMillis());
 
@@ -1,7 +1,10 @@
 package com.cz.android.simplehttp.request;
 
-import com.sun.istack.internal.Nullable;
 
+import com.cz.android.simplehttp.header.RawHeaders;
+
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -12,10 +15,18 @@ import java.util.Map;
  */
 public final class Request {
   final String url;
+  final URI uri;
+  final String method;
+  final RawHeaders headers;
+  final @Nullable byte[] body;
   final Map<Class<?>, Object> tags;
 
   Request(Builder builder) {
     this.url = builder.url;
+    this.uri = builder.uri;
+    this.method = builder.method;
+    this.headers = new RawHeaders(builder.headers);
+    this.body = builder.body;
     this.tags = Util.immutableMap(builder.tags);
   }
 
@@ -23,6 +34,44 @@ public final class Request {
     return url;
   }
 
+  public URI uri() {
+    return uri;
+  }
+
+  public String host() {
+    return uri.getHost();
+  }
+
+  /** Returns the port of the url, Or the default port 80 if the url did not have one. */
+  public int port() {
+    return uri.getPort() != -1 ? uri.getPort() : 80;
+  }
+
+  /** Returns the path and the query we put in the request line. */
+  public String encodedPathAndQuery() {
+    String path = uri.getRawPath();
+    if (path == null || path.isEmpty()) path = "/";
+    String query = uri.getRawQuery();
+    return query != null ? path + "?" + query : path;
+  }
+
+  public String method() {
+    return method;
+  }
+
+  /** Returns a copy of the headers. The request itself never changes. */
+  public RawHeaders headers() {
+    return new RawHeaders(headers);
+  }
+
+  public @Nullable String header(String name) {
+    return headers.get(name);
+  }
+
+  public @Nullable byte[] body() {
+    return body;
+  }
+
   /**
    * Returns the tag attached with {@code Object.class} as a key, or null if no tag is attached with
    * that key.
@@ -49,6 +98,7 @@ public final class Request {
 
   @Override public String toString() {
     return "Request{method="
+        + method
         + ", url="
         + url
         + ", tags="
@@ -58,14 +108,24 @@ public final class Request {
 
   public static class Builder {
     String url;
+    URI uri;
+    String method;
+    RawHeaders headers;
+    byte[] body;
     /** A mutable map of tags, or an immutable empty map if we don't have any. */
     Map<Class<?>, Object> tags = Collections.emptyMap();
 
     public Builder() {
+      this.method = "GET";
+      this.headers = new RawHeaders();
     }
 
     Builder(Request request) {
       this.url = request.url;
+      this.uri = request.uri;
+      this.method = request.method;
+      this.headers = new RawHeaders(request.headers);
+      this.body = request.body;
       this.tags = request.tags.isEmpty()
           ? Collections.<Class<?>, Object>emptyMap()
           : new LinkedHashMap<>(request.tags);
@@ -74,8 +134,7 @@ public final class Request {
     /**
      * Sets the URL target of this request.
      *
-     * @throws IllegalArgumentException if {@code url} is not a valid HTTP or HTTPS URL. Avoid this
-     * exception by calling {@link HttpUrl#parse}; it returns null for invalid URLs.
+     * @throws IllegalArgumentException if {@code url} is not a valid HTTP URL.
      */
     public Builder url(String url) {
       if (url == null) throw new NullPointerException("url == null");
@@ -87,6 +146,59 @@ public final class Request {
         url = "https:" + url.substring(4);
       }
 
+      URI uri;
+      try {
+        uri = new URI(url);
+      } catch (URISyntaxException e) {
+        throw new IllegalArgumentException("unexpected url: " + url, e);
+      }
+      if (!"http".equalsIgnoreCase(uri.getScheme()) || uri.getHost() == null) {
+        throw new IllegalArgumentException("unexpected url: " + url);
+      }
+      this.url = url;
+      this.uri = uri;
+      return this;
+    }
+
+    /**
+     * Sets the header named {@code name} to {@code value}. If this request already has any headers
+     * with that name, they are all replaced.
+     */
+    public Builder header(String name, String value) {
+      headers.set(name, value);
+      return this;
+    }
+
+    /** Adds a header with {@code name} and {@code value}. */
+    public Builder addHeader(String name, String value) {
+      headers.add(name, value);
+      return this;
+    }
+
+    public Builder removeHeader(String name) {
+      headers.removeAll(name);
+      return this;
+    }
+
+    public Builder get() {
+      return method("GET", null);
+    }
+
+    public Builder head() {
+      return method("HEAD", null);
+    }
+
+    public Builder post(String contentType, byte[] body) {
+      if (body == null) throw new NullPointerException("body == null");
+      header("Content-Type", contentType);
+      return method("POST", body);
+    }
+
+    public Builder method(String method, @Nullable byte[] body) {
+      if (method == null) throw new NullPointerException("method == null");
+      if (method.length() == 0) throw new IllegalArgumentException("method.length() == 0");
+      this.method = method;
+      this.body = body;
       return this;
     }
 
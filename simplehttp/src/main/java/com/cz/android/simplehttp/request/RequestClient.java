@@ -1,5 +1,6 @@
 package com.cz.android.simplehttp.request;
 
+import com.cz.android.simplehttp.pool.ConnectionPool;
 import com.cz.android.simplehttp.request.intercept.Interceptor;
 
 import java.io.IOException;
@@ -80,6 +81,7 @@ public class RequestClient implements Cloneable, Call.Factory{
   final boolean followSslRedirects;
   final boolean followRedirects;
   final boolean retryOnConnectionFailure;
+  final ConnectionPool connectionPool;
   final int callTimeout;
   final int connectTimeout;
   final int readTimeout;
@@ -96,6 +98,7 @@ public class RequestClient implements Cloneable, Call.Factory{
     this.followSslRedirects = builder.followSslRedirects;
     this.followRedirects = builder.followRedirects;
     this.retryOnConnectionFailure = builder.retryOnConnectionFailure;
+    this.connectionPool = builder.connectionPool;
     this.callTimeout = builder.callTimeout;
     this.connectTimeout = builder.connectTimeout;
     this.readTimeout = builder.readTimeout;
@@ -133,6 +136,18 @@ public class RequestClient implements Cloneable, Call.Factory{
     return dispatcher;
   }
 
+  public ConnectionPool connectionPool() {
+    return connectionPool;
+  }
+
+  public boolean followRedirects() {
+    return followRedirects;
+  }
+
+  public boolean retryOnConnectionFailure() {
+    return retryOnConnectionFailure;
+  }
+
   /**
    * Returns an immutable list of interceptors that observe the full span of each call: from before
    * the connection is established (if any) until after the response source is selected (either the
@@ -155,7 +170,7 @@ public class RequestClient implements Cloneable, Call.Factory{
    * Prepares the {@code request} to be executed at some point in the future.
    */
   @Override public Call newCall(Request request) {
-    return RealCall.newRealCall(this, request, false);
+    return RealCall.newRealCall(this, request);
   }
 
 
@@ -170,6 +185,7 @@ public class RequestClient implements Cloneable, Call.Factory{
     boolean followSslRedirects;
     boolean followRedirects;
     boolean retryOnConnectionFailure;
+    ConnectionPool connectionPool;
     int callTimeout;
     int connectTimeout;
     int readTimeout;
@@ -180,6 +196,7 @@ public class RequestClient implements Cloneable, Call.Factory{
       followSslRedirects = true;
       followRedirects = true;
       retryOnConnectionFailure = true;
+      connectionPool = ConnectionPool.getDefault();
       callTimeout = 0;
       connectTimeout = 10_000;
       readTimeout = 10_000;
@@ -193,6 +210,7 @@ public class RequestClient implements Cloneable, Call.Factory{
       this.followSslRedirects = okHttpClient.followSslRedirects;
       this.followRedirects = okHttpClient.followRedirects;
       this.retryOnConnectionFailure = okHttpClient.retryOnConnectionFailure;
+      this.connectionPool = okHttpClient.connectionPool;
       this.callTimeout = okHttpClient.callTimeout;
       this.connectTimeout = okHttpClient.connectTimeout;
       this.readTimeout = okHttpClient.readTimeout;
@@ -304,7 +322,7 @@ public class RequestClient implements Cloneable, Call.Factory{
      *   <li><strong>Unreachable IP addresses.</strong> If the URL's host has multiple IP addresses,
      *       failure to reach any individual IP address doesn't fail the overall request. This can
      *       increase availability of multi-homed services.
-     *   <li><strong>Stale pooled connections.</strong> The @link ConnectionPool reuses sockets
+     *   <li><strong>Stale pooled connections.</strong> The {@link ConnectionPool} reuses sockets
      *       to decrease request latency, but these connections will occasionally time out.
      *   <li><strong>Unreachable proxy servers.</strong> A {@link ProxySelector} can be used to
      *       attempt multiple proxy servers in sequence, eventually falling back to a direct
@@ -319,6 +337,22 @@ public class RequestClient implements Cloneable, Call.Factory{
       return this;
     }
 
+    /**
+     * Sets the connection pool used to recycle HTTP connections. If unset, The
+     * {@linkplain ConnectionPool#getDefault() default pool} is used.
+     */
+    public Builder connectionPool(ConnectionPool connectionPool) {
+      if (connectionPool == null) throw new NullPointerException("connectionPool == null");
+      this.connectionPool = connectionPool;
+      return this;
+    }
+
+    /** Configure this client to follow redirects. If unset, redirects will be followed. */
+    public Builder followRedirects(boolean followRedirects) {
+      this.followRedirects = followRedirects;
+      return this;
+    }
+
     /**
      * Sets the dispatcher used to set policy and execute asynchronous requests. Must not be null.
      */
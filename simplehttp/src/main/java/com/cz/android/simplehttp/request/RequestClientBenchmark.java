@@ -0,0 +1,135 @@
+package com.cz.android.simplehttp.request;
+
+import com.cz.android.simplehttp.nio.HttpNioServer;
+import com.cz.android.simplehttp.nio.HttpReactorServer;
+import com.cz.android.simplehttp.pool.ConnectionPool;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Call the local servers with {@link RequestClient}, With and without connection reuse.
+ *
+ * <ul>
+ *     <li>{@link HttpReactorServer} keeps the connection alive, So the pooled connection is used again.</li>
+ *     <li>{@link HttpNioServer} closes every connection after the response without telling us.
+ *     The pooled connection is always stale, The client has to notice it and retry on a new one.</li>
+ * </ul>
+ * Arguments: [calls] [threads] [file size KB]
+ */
+public class RequestClientBenchmark {
+  private static final String HOST = "localhost";
+  private static final int REACTOR_PORT = 8097;
+  private static final int NIO_PORT = 8098;
+
+  public static void main(String[] args) throws Exception {
+    int callCount = 0 < args.length ? Integer.parseInt(args[0]) : 2000;
+    int threadCount = 1 < args.length ? Integer.parseInt(args[1]) : 8;
+    int fileSize = (2 < args.length ? Integer.parseInt(args[2]) : 4) * 1024;
+
+    File documentRoot = Files.createTempDirectory("request").toFile();
+    File file = new File(documentRoot, "index.html");
+    try (OutputStream outputStream = new FileOutputStream(file)) {
+      byte[] content = new byte[fileSize];
+      Arrays.fill(content, (byte) 'a');
+      outputStream.write(content);
+    }
+    HttpReactorServer reactorServer = new HttpReactorServer(new InetSocketAddress(HOST, REACTOR_PORT), documentRoot, 1);
+    reactorServer.start();
+    final HttpNioServer nioServer = new HttpNioServer(new InetSocketAddress(HOST, NIO_PORT), documentRoot);
+    Thread nioThread = new Thread(new Runnable() {
+      @Override public void run() {
+        nioServer.startServer();
+      }
+    }, "HttpNioServer");
+    nioThread.setDaemon(true);
+    nioThread.start();
+    Thread.sleep(500);
+
+    //Warm up the client and both servers, So the first row is not the one that pays for the JIT.
+    RequestClient warmUpClient = new RequestClient.Builder().connectionPool(new ConnectionPool(0, 60 * 1000)).build();
+    for (int i = 0; i < callCount; i++) {
+      for (int port : new int[] {REACTOR_PORT, NIO_PORT}) {
+        Request request = new Request.Builder().url("http://" + HOST + ":" + port + "/index.html").build();
+        warmUpClient.newCall(request).execute().body().bytes();
+      }
+    }
+    System.out.println(String.format("Calls:%d threads:%d file:%dKB", callCount, threadCount, fileSize / 1024));
+    System.out.println("server         reuse  threads      req/s   p99(us)   pool hit/miss   failures");
+    int failures = 0;
+    for (int port : new int[] {REACTOR_PORT, NIO_PORT}) {
+      for (boolean reuse : new boolean[] {false, true}) {
+        for (int threads : new int[] {1, threadCount}) {
+          failures += run(port, reuse, threads, callCount, fileSize);
+        }
+      }
+    }
+    reactorServer.stop();
+    file.delete();
+    documentRoot.delete();
+    System.out.println("Failures:" + failures);
+    System.exit(0);
+  }
+
+  private static int run(int port, boolean reuse, int threadCount, int callCount, final int fileSize)
+      throws InterruptedException {
+    ConnectionPool connectionPool = new ConnectionPool(reuse ? threadCount : 0, 60 * 1000);
+    final RequestClient client = new RequestClient.Builder()
+        .connectionPool(connectionPool)
+        .build();
+    final Request request = new Request.Builder()
+        .url("http://" + HOST + ":" + port + "/index.html")
+        .build();
+    final int callsPerThread = callCount / threadCount;
+    final long[] latencies = new long[callsPerThread * threadCount];
+    final AtomicInteger failures = new AtomicInteger();
+    final CountDownLatch countDownLatch = new CountDownLatch(threadCount);
+    long st = System.nanoTime();
+    for (int i = 0; i < threadCount; i++) {
+      final int offset = i * callsPerThread;
+      new Thread(new Runnable() {
+        @Override public void run() {
+          byte[] buffer = new byte[8 * 1024];
+          for (int j = 0; j < callsPerThread; j++) {
+            long callStart = System.nanoTime();
+            try (Response response = client.newCall(request).execute()) {
+              //Read the body as a stream, The connection goes back to the pool at the end of it.
+              InputStream inputStream = response.body().byteStream();
+              long length = 0;
+              int read;
+              while (-1 != (read = inputStream.read(buffer))) {
+                length += read;
+              }
+              if (200 != response.code() || fileSize != length) {
+                failures.incrementAndGet();
+              }
+            } catch (IOException e) {
+              failures.incrementAndGet();
+            }
+            latencies[offset + j] = System.nanoTime() - callStart;
+          }
+          countDownLatch.countDown();
+        }
+      }, "RequestClientBenchmark-" + i).start();
+    }
+    countDownLatch.await();
+    long elapsedNs = System.nanoTime() - st;
+    Arrays.sort(latencies);
+    long p99 = latencies[(int) (latencies.length * 0.99)];
+    System.out.println(String.format("%-14s %5b %8d %10.0f %9d %8d/%-8d %6d",
+        REACTOR_PORT == port ? "reactor" : "nio(close)", reuse, threadCount,
+        latencies.length * 1e9 / elapsedNs, TimeUnit.NANOSECONDS.toMicros(p99),
+        connectionPool.getHitCount(), connectionPool.getMissCount(), failures.get()));
+    connectionPool.evictAll();
+    return failures.get();
+  }
+}
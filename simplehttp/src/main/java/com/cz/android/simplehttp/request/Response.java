@@ -1,6 +1,7 @@
 package com.cz.android.simplehttp.request;
 
-import com.sun.istack.internal.Nullable;
+
+import com.cz.android.simplehttp.header.RawHeaders;
 
 import java.io.Closeable;
 
@@ -9,10 +10,12 @@ import java.io.Closeable;
  * value that may be consumed only once and then closed. All other properties are immutable.
  *
  */
-public final class Response {
+public final class Response implements Closeable {
   final Request request;
   final int code;
   final String message;
+  final RawHeaders headers;
+  final @Nullable ResponseBody body;
   final @Nullable Response networkResponse;
   final @Nullable Response cacheResponse;
   final @Nullable Response priorResponse;
@@ -23,6 +26,8 @@ public final class Response {
     this.request = builder.request;
     this.code = builder.code;
     this.message = builder.message;
+    this.headers = builder.headers;
+    this.body = builder.body;
     this.networkResponse = builder.networkResponse;
     this.cacheResponse = builder.cacheResponse;
     this.priorResponse = builder.priorResponse;
@@ -63,6 +68,23 @@ public final class Response {
     return message;
   }
 
+  public RawHeaders headers() {
+    return headers;
+  }
+
+  public @Nullable String header(String name) {
+    return headers.get(name);
+  }
+
+  /**
+   * Returns a non-null value if this response was passed to {@link Callback#onResponse} or returned
+   * from {@link Call#execute()}. Response bodies must be {@linkplain ResponseBody closed} and may
+   * be consumed only once.
+   */
+  public @Nullable ResponseBody body() {
+    return body;
+  }
+
   public Builder newBuilder() {
     return new Builder(this);
   }
@@ -124,10 +146,23 @@ public final class Response {
         + '}';
   }
 
+  /**
+   * Closes the response body. Equivalent to {@code body().close()}. It is an error to close a
+   * response that is not eligible for a body.
+   */
+  @Override public void close() {
+    if (body == null) {
+      throw new IllegalStateException("response is not eligible for a body and must not be closed");
+    }
+    body.close();
+  }
+
   public static class Builder {
     @Nullable Request request;
     int code = -1;
     String message;
+    RawHeaders headers;
+    @Nullable ResponseBody body;
     @Nullable Response networkResponse;
     @Nullable Response cacheResponse;
     @Nullable Response priorResponse;
@@ -135,12 +170,15 @@ public final class Response {
     long receivedResponseAtMillis;
 
     public Builder() {
+      headers = new RawHeaders();
     }
 
     Builder(Response response) {
       this.request = response.request;
       this.code = response.code;
       this.message = response.message;
+      this.headers = response.headers;
+      this.body = response.body;
       this.networkResponse = response.networkResponse;
       this.cacheResponse = response.cacheResponse;
       this.priorResponse = response.priorResponse;
@@ -163,6 +201,16 @@ public final class Response {
       return this;
     }
 
+    public Builder headers(RawHeaders headers) {
+      this.headers = headers;
+      return this;
+    }
+
+    public Builder body(@Nullable ResponseBody body) {
+      this.body = body;
+      return this;
+    }
+
     public Builder networkResponse(@Nullable Response networkResponse) {
       if (networkResponse != null) checkSupportResponse("networkResponse", networkResponse);
       this.networkResponse = networkResponse;
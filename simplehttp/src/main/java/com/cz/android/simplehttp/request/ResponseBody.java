@@ -0,0 +1,84 @@
+package com.cz.android.simplehttp.request;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * A one-shot stream from the origin server to the client application with the raw bytes of the
+ * response body. The body is never buffered, It is read from the socket while the application
+ * reads from {@link #byteStream()}.
+ *
+ * <p>Each response body is supported by an active connection to the webserver. Closing the body
+ * after it was read to the end gives the connection back to the pool, So always close it.
+ */
+public final class ResponseBody implements Closeable {
+  private final @Nullable String contentType;
+  private final long contentLength;
+  private final InputStream source;
+
+  public ResponseBody(@Nullable String contentType, long contentLength, InputStream source) {
+    this.contentType = contentType;
+    this.contentLength = contentLength;
+    this.source = source;
+  }
+
+  public @Nullable String contentType() {
+    return contentType;
+  }
+
+  /** Returns the number of bytes that will be returned by {@link #bytes}, or -1 if unknown. */
+  public long contentLength() {
+    return contentLength;
+  }
+
+  public InputStream byteStream() {
+    return source;
+  }
+
+  /**
+   * Returns the response as a byte array. This method loads entire response body into memory, Use
+   * {@link #byteStream()} for the large bodies.
+   */
+  public byte[] bytes() throws IOException {
+    if (contentLength > Integer.MAX_VALUE) {
+      throw new IOException("Cannot buffer entire body for content length: " + contentLength);
+    }
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream(
+        contentLength != -1 ? (int) contentLength : 1024);
+    byte[] buffer = new byte[8 * 1024];
+    try {
+      int read;
+      while ((read = source.read(buffer)) != -1) {
+        outputStream.write(buffer, 0, read);
+      }
+    } finally {
+      close();
+    }
+    return outputStream.toByteArray();
+  }
+
+  /** Returns the response as a string decoded with UTF-8. */
+  public String string() throws IOException {
+    return new String(bytes(), charset());
+  }
+
+  private Charset charset() {
+    if (contentType != null) {
+      int index = contentType.toLowerCase().indexOf("charset=");
+      if (index != -1) {
+        try {
+          return Charset.forName(contentType.substring(index + "charset=".length()).trim());
+        } catch (IllegalArgumentException ignored) {
+        }
+      }
+    }
+    return Util.UTF_8;
+  }
+
+  @Override public void close() {
+    Util.closeQuietly(source);
+  }
+}
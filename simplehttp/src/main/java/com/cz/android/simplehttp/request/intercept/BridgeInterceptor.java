@@ -0,0 +1,45 @@
+package com.cz.android.simplehttp.request.intercept;
+
+import com.cz.android.simplehttp.request.Request;
+import com.cz.android.simplehttp.request.Response;
+
+import java.io.IOException;
+
+/**
+ * Bridges from application code to network code. First it builds a network request from a user
+ * request. Then it proceeds to call the network. Finally it builds a user response from the network
+ * response.
+ */
+public final class BridgeInterceptor implements Interceptor {
+  private static final String USER_AGENT = "simplehttp";
+
+  @Override public Response intercept(Chain chain) throws IOException {
+    Request userRequest = chain.request();
+    Request.Builder requestBuilder = userRequest.newBuilder();
+
+    byte[] body = userRequest.body();
+    if (body != null) {
+      requestBuilder.header("Content-Length", Integer.toString(body.length));
+      requestBuilder.removeHeader("Transfer-Encoding");
+    }
+
+    if (userRequest.header("Host") == null) {
+      int port = userRequest.port();
+      requestBuilder.header("Host", port == 80 ? userRequest.host() : userRequest.host() + ":" + port);
+    }
+
+    // We ask for a persistent connection, So the connection could go back to the pool.
+    if (userRequest.header("Connection") == null) {
+      requestBuilder.header("Connection", "Keep-Alive");
+    }
+
+    if (userRequest.header("User-Agent") == null) {
+      requestBuilder.header("User-Agent", USER_AGENT);
+    }
+
+    Response networkResponse = chain.proceed(requestBuilder.build());
+    return networkResponse.newBuilder()
+        .request(userRequest)
+        .build();
+  }
+}
@@ -0,0 +1,242 @@
+package com.cz.android.simplehttp.request.intercept;
+
+import com.cz.android.simplehttp.header.RawHeaders;
+import com.cz.android.simplehttp.pool.Connection;
+import com.cz.android.simplehttp.pool.Util;
+import com.cz.android.simplehttp.request.Request;
+import com.cz.android.simplehttp.request.Response;
+import com.cz.android.simplehttp.request.ResponseBody;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+
+/**
+ * This is the last interceptor in the chain. It writes the request to the connection and reads the
+ * response head. The response body is not read here, It streams from the socket while the
+ * application reads it, And the connection goes back to the pool when the body reaches its end.
+ */
+public final class CallServerInterceptor implements Interceptor {
+
+  @Override public Response intercept(Chain chain) throws IOException {
+    RealInterceptorChain realChain = (RealInterceptorChain) chain;
+    StreamAllocation streamAllocation = realChain.streamAllocation();
+    Connection connection = realChain.connection();
+    if (streamAllocation == null || connection == null) throw new IllegalStateException("Not connected");
+    Request request = realChain.request();
+
+    long sentRequestMillis = System.currentTimeMillis();
+    // The request line goes into the bytes only, The headers belong to the caller's request.
+    String requestLine = request.method() + " " + request.encodedPathAndQuery() + " HTTP/1.1";
+    OutputStream out = connection.getOutputStream();
+    out.write(request.headers().toBytes(requestLine));
+    byte[] body = request.body();
+    if (body != null) {
+      out.write(body);
+    }
+    out.flush();
+
+    InputStream in = connection.getInputStream();
+    RawHeaders responseHeaders = RawHeaders.fromBytes(in);
+    boolean keepAlive = isKeepAlive(responseHeaders);
+    long contentLength = -1;
+    InputStream source;
+    if (!hasBody(request, responseHeaders)) {
+      contentLength = 0;
+      source = new FixedLengthSource(in, streamAllocation, keepAlive, 0);
+    } else if ("chunked".equalsIgnoreCase(responseHeaders.get("Transfer-Encoding"))) {
+      source = new ChunkedSource(in, streamAllocation, keepAlive);
+    } else if ((contentLength = contentLength(responseHeaders)) != -1) {
+      source = new FixedLengthSource(in, streamAllocation, keepAlive, contentLength);
+    } else {
+      // The server tells us where the body ends by closing the connection.
+      source = new UnknownLengthSource(in, streamAllocation);
+    }
+
+    return new Response.Builder()
+        .request(request)
+        .code(responseHeaders.getResponseCode())
+        .message(responseHeaders.getResponseMessage())
+        .headers(responseHeaders)
+        .body(new ResponseBody(responseHeaders.get("Content-Type"), contentLength, source))
+        .sentRequestAtMillis(sentRequestMillis)
+        .receivedResponseAtMillis(System.currentTimeMillis())
+        .build();
+  }
+
+  private static boolean isKeepAlive(RawHeaders responseHeaders) {
+    String connection = responseHeaders.get("Connection");
+    if (responseHeaders.getHttpMinorVersion() == 0) {
+      return "Keep-Alive".equalsIgnoreCase(connection);
+    }
+    return !"close".equalsIgnoreCase(connection);
+  }
+
+  private static boolean hasBody(Request request, RawHeaders responseHeaders) {
+    if ("HEAD".equals(request.method())) {
+      return false;
+    }
+    int responseCode = responseHeaders.getResponseCode();
+    return (responseCode < 100 || responseCode >= 200) && responseCode != 204 && responseCode != 304;
+  }
+
+  private static long contentLength(RawHeaders responseHeaders) throws ProtocolException {
+    String contentLength = responseHeaders.get("Content-Length");
+    if (contentLength == null) return -1;
+    try {
+      return Long.parseLong(contentLength);
+    } catch (NumberFormatException e) {
+      throw new ProtocolException("Invalid Content-Length: " + contentLength);
+    }
+  }
+
+  /**
+   * The body of a response. The connection goes back to the pool only if the body was read to the
+   * end, Closing it in the middle closes the connection.
+   */
+  private abstract static class BodySource extends InputStream {
+    final InputStream in;
+    final StreamAllocation streamAllocation;
+    final boolean keepAlive;
+    private final byte[] singleByte = new byte[1];
+    boolean closed;
+
+    BodySource(InputStream in, StreamAllocation streamAllocation, boolean keepAlive) {
+      this.in = in;
+      this.streamAllocation = streamAllocation;
+      this.keepAlive = keepAlive;
+    }
+
+    @Override public int read() throws IOException {
+      int read = read(singleByte, 0, 1);
+      return read == -1 ? -1 : singleByte[0] & 0xff;
+    }
+
+    void checkNotClosed() throws IOException {
+      if (closed) throw new IOException("closed");
+    }
+
+    /** The whole body was read. */
+    void endOfInput() {
+      streamAllocation.release(keepAlive);
+    }
+
+    ProtocolException unexpectedEndOfInput() {
+      streamAllocation.release(false);
+      return new ProtocolException("unexpected end of stream");
+    }
+
+    @Override public void close() {
+      if (closed) return;
+      closed = true;
+      // Does nothing if the body already reached its end.
+      streamAllocation.release(false);
+    }
+  }
+
+  private static final class FixedLengthSource extends BodySource {
+    private long bytesRemaining;
+
+    FixedLengthSource(InputStream in, StreamAllocation streamAllocation, boolean keepAlive, long contentLength) {
+      super(in, streamAllocation, keepAlive);
+      this.bytesRemaining = contentLength;
+      if (bytesRemaining == 0) {
+        endOfInput();
+      }
+    }
+
+    @Override public int read(byte[] buffer, int offset, int count) throws IOException {
+      checkNotClosed();
+      if (bytesRemaining == 0) return -1;
+      int read = in.read(buffer, offset, (int) Math.min(count, bytesRemaining));
+      if (read == -1) {
+        throw unexpectedEndOfInput();
+      }
+      bytesRemaining -= read;
+      if (bytesRemaining == 0) {
+        endOfInput();
+      }
+      return read;
+    }
+
+    @Override public int available() throws IOException {
+      return closed ? 0 : (int) Math.min(in.available(), bytesRemaining);
+    }
+  }
+
+  private static final class ChunkedSource extends BodySource {
+    private static final long NO_CHUNK_YET = -1L;
+    private long bytesRemainingInChunk = NO_CHUNK_YET;
+    private boolean hasMoreChunks = true;
+
+    ChunkedSource(InputStream in, StreamAllocation streamAllocation, boolean keepAlive) {
+      super(in, streamAllocation, keepAlive);
+    }
+
+    @Override public int read(byte[] buffer, int offset, int count) throws IOException {
+      checkNotClosed();
+      if (!hasMoreChunks) return -1;
+      if (bytesRemainingInChunk == 0 || bytesRemainingInChunk == NO_CHUNK_YET) {
+        readChunkSize();
+        if (!hasMoreChunks) return -1;
+      }
+      int read = in.read(buffer, offset, (int) Math.min(count, bytesRemainingInChunk));
+      if (read == -1) {
+        throw unexpectedEndOfInput();
+      }
+      bytesRemainingInChunk -= read;
+      return read;
+    }
+
+    private void readChunkSize() throws IOException {
+      try {
+        // Read the suffix of the previous chunk.
+        if (bytesRemainingInChunk != NO_CHUNK_YET) {
+          Util.readAsciiLine(in);
+        }
+        String chunkSizeString = Util.readAsciiLine(in);
+        int index = chunkSizeString.indexOf(";");
+        if (index != -1) {
+          chunkSizeString = chunkSizeString.substring(0, index);
+        }
+        bytesRemainingInChunk = Long.parseLong(chunkSizeString.trim(), 16);
+      } catch (NumberFormatException e) {
+        streamAllocation.release(false);
+        throw new ProtocolException("Expected a hex chunk size but was " + e.getMessage());
+      } catch (IOException e) {
+        throw unexpectedEndOfInput();
+      }
+      if (bytesRemainingInChunk < 0) {
+        streamAllocation.release(false);
+        throw new ProtocolException("Negative chunk size: " + bytesRemainingInChunk);
+      }
+      if (bytesRemainingInChunk == 0) {
+        hasMoreChunks = false;
+        // We do not expose the trailers, But we have to read them before the next response.
+        RawHeaders.readHeaders(in, new RawHeaders());
+        endOfInput();
+      }
+    }
+  }
+
+  private static final class UnknownLengthSource extends BodySource {
+    private boolean inputExhausted;
+
+    UnknownLengthSource(InputStream in, StreamAllocation streamAllocation) {
+      super(in, streamAllocation, false);
+    }
+
+    @Override public int read(byte[] buffer, int offset, int count) throws IOException {
+      checkNotClosed();
+      if (inputExhausted) return -1;
+      int read = in.read(buffer, offset, count);
+      if (read == -1) {
+        inputExhausted = true;
+        endOfInput();
+        return -1;
+      }
+      return read;
+    }
+  }
+}
@@ -0,0 +1,22 @@
+package com.cz.android.simplehttp.request.intercept;
+
+import com.cz.android.simplehttp.pool.Connection;
+import com.cz.android.simplehttp.request.Request;
+import com.cz.android.simplehttp.request.Response;
+
+import java.io.IOException;
+
+/** Opens a connection to the target server, Or takes one from the pool, And proceeds to the next interceptor. */
+public final class ConnectInterceptor implements Interceptor {
+
+  @Override public Response intercept(Chain chain) throws IOException {
+    RealInterceptorChain realChain = (RealInterceptorChain) chain;
+    Request request = realChain.request();
+    StreamAllocation streamAllocation = realChain.streamAllocation();
+    if (streamAllocation == null) throw new IllegalStateException("streamAllocation == null");
+
+    Connection connection = streamAllocation.newStream(request,
+        chain.connectTimeoutMillis(), chain.readTimeoutMillis());
+    return realChain.proceed(request, streamAllocation, connection);
+  }
+}
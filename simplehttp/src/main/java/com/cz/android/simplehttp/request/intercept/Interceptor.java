@@ -3,7 +3,6 @@ package com.cz.android.simplehttp.request.intercept;
 import com.cz.android.simplehttp.request.Call;
 import com.cz.android.simplehttp.request.Request;
 import com.cz.android.simplehttp.request.Response;
-import com.sun.istack.internal.Nullable;
 
 import java.io.IOException;
 import java.util.concurrent.TimeUnit;
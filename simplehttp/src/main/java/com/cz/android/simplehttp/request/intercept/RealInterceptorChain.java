@@ -1,6 +1,8 @@
 package com.cz.android.simplehttp.request.intercept;
 
+import com.cz.android.simplehttp.pool.Connection;
 import com.cz.android.simplehttp.request.Call;
+import com.cz.android.simplehttp.request.Nullable;
 import com.cz.android.simplehttp.request.Request;
 import com.cz.android.simplehttp.request.Response;
 
@@ -17,6 +19,8 @@ import static com.cz.android.simplehttp.request.Util.checkDuration;
  */
 public final class RealInterceptorChain implements Interceptor.Chain {
   private final List<Interceptor> interceptors;
+  private final @Nullable StreamAllocation streamAllocation;
+  private final @Nullable Connection connection;
   private final int index;
   private final Request request;
   private final Call call;
@@ -25,10 +29,12 @@ public final class RealInterceptorChain implements Interceptor.Chain {
   private final int writeTimeout;
   private int calls;
 
-  public RealInterceptorChain(List<Interceptor> interceptors,
-                              int index, Request request, Call call,
+  public RealInterceptorChain(List<Interceptor> interceptors, @Nullable StreamAllocation streamAllocation,
+                              @Nullable Connection connection, int index, Request request, Call call,
                               int connectTimeout, int readTimeout, int writeTimeout) {
     this.interceptors = interceptors;
+    this.streamAllocation = streamAllocation;
+    this.connection = connection;
     this.index = index;
     this.request = request;
     this.call = call;
@@ -43,7 +49,7 @@ public final class RealInterceptorChain implements Interceptor.Chain {
 
   @Override public Interceptor.Chain withConnectTimeout(int timeout, TimeUnit unit) {
     int millis = checkDuration("timeout", timeout, unit);
-    return new RealInterceptorChain(interceptors, index,
+    return new RealInterceptorChain(interceptors, streamAllocation, connection, index,
         request, call, millis, readTimeout, writeTimeout);
   }
 
@@ -53,7 +59,7 @@ public final class RealInterceptorChain implements Interceptor.Chain {
 
   @Override public Interceptor.Chain withReadTimeout(int timeout, TimeUnit unit) {
     int millis = checkDuration("timeout", timeout, unit);
-    return new RealInterceptorChain(interceptors,  index,
+    return new RealInterceptorChain(interceptors, streamAllocation, connection, index,
         request, call, connectTimeout, millis, writeTimeout);
   }
 
@@ -63,10 +69,19 @@ public final class RealInterceptorChain implements Interceptor.Chain {
 
   @Override public Interceptor.Chain withWriteTimeout(int timeout, TimeUnit unit) {
     int millis = checkDuration("timeout", timeout, unit);
-    return new RealInterceptorChain(interceptors, index,
+    return new RealInterceptorChain(interceptors, streamAllocation, connection, index,
         request, call, connectTimeout, readTimeout, millis);
   }
 
+  /** Returns the connection the request will be sent on. Only available to the network interceptors. */
+  public @Nullable Connection connection() {
+    return connection;
+  }
+
+  public @Nullable StreamAllocation streamAllocation() {
+    return streamAllocation;
+  }
+
   @Override public Call call() {
     return call;
   }
@@ -76,22 +91,30 @@ public final class RealInterceptorChain implements Interceptor.Chain {
   }
 
   @Override public Response proceed(Request request) throws IOException {
-    return proceedInternal(request);
+    return proceed(request, streamAllocation, connection);
   }
 
-  public Response proceedInternal(Request request) throws IOException {
+  public Response proceed(Request request, @Nullable StreamAllocation streamAllocation,
+      @Nullable Connection connection) throws IOException {
     if (index >= interceptors.size()) throw new AssertionError();
 
     calls++;
 
+    // If we already have a connection, confirm that the network interceptor kept the same host.
+    if (this.connection != null && (!request.host().equals(this.connection.getHost())
+        || request.port() != this.connection.getPort())) {
+      throw new IllegalStateException("network interceptor " + interceptors.get(index - 1)
+          + " must retain the same host and port");
+    }
+
     // Call the next interceptor in the chain.
-    RealInterceptorChain next = new RealInterceptorChain(interceptors, index + 1, request, call, connectTimeout, readTimeout,
-        writeTimeout);
+    RealInterceptorChain next = new RealInterceptorChain(interceptors, streamAllocation, connection,
+        index + 1, request, call, connectTimeout, readTimeout, writeTimeout);
     Interceptor interceptor = interceptors.get(index);
     Response response = interceptor.intercept(next);
 
     // Confirm that the next interceptor made its required call to chain.proceed().
-    if (index + 1 < interceptors.size() && next.calls != 1) {
+    if (connection != null && index + 1 < interceptors.size() && next.calls != 1) {
       throw new IllegalStateException("network interceptor " + interceptor
           + " must call proceed() exactly once");
     }
@@ -1,11 +1,12 @@
 package com.cz.android.simplehttp.request.intercept;
 
-import com.cz.android.simplehttp.request.Call;
 import com.cz.android.simplehttp.request.Request;
 import com.cz.android.simplehttp.request.RequestClient;
 import com.cz.android.simplehttp.request.Response;
 
 import java.io.IOException;
+import java.net.ProtocolException;
+import java.net.URI;
 
 
 /**
@@ -20,6 +21,7 @@ public final class RetryAndFollowUpInterceptor implements Interceptor {
   private static final int MAX_FOLLOW_UPS = 20;
 
   private final RequestClient client;
+  private volatile StreamAllocation streamAllocation;
   private Object callStackTrace;
   private volatile boolean canceled;
 
@@ -38,6 +40,8 @@ public final class RetryAndFollowUpInterceptor implements Interceptor {
    */
   public void cancel() {
     canceled = true;
+    StreamAllocation streamAllocation = this.streamAllocation;
+    if (streamAllocation != null) streamAllocation.cancel();
   }
 
   public boolean isCanceled() {
@@ -51,39 +55,56 @@ public final class RetryAndFollowUpInterceptor implements Interceptor {
   @Override public Response intercept(Chain chain) throws IOException {
     Request request = chain.request();
     RealInterceptorChain realChain = (RealInterceptorChain) chain;
-    Call call = realChain.call();
+    StreamAllocation streamAllocation = new StreamAllocation(client.connectionPool());
+    this.streamAllocation = streamAllocation;
+    if (canceled) streamAllocation.cancel();
 
     int followUpCount = 0;
     Response priorResponse = null;
     while (true) {
       if (canceled) {
+        streamAllocation.release(false);
         throw new IOException("Canceled");
       }
 
       Response response;
       boolean releaseConnection = true;
       try {
-        response = realChain.proceed(request);
+        response = realChain.proceed(request, streamAllocation, null);
         releaseConnection = false;
       } catch (IOException e) {
         // An attempt to communicate with a server failed. The request may have been sent.
+        boolean reused = streamAllocation.isReused();
+        streamAllocation.release(false);
+        releaseConnection = false;
+        if (!recover(reused, request)) throw e;
         continue;
       } finally {
+        // We're throwing an unchecked exception. Release any resources.
+        if (releaseConnection) {
+          streamAllocation.release(false);
+        }
       }
 
       // Attach the prior response if it exists. Such responses never have a body.
       if (priorResponse != null) {
         response = response.newBuilder()
             .priorResponse(priorResponse.newBuilder()
+                    .body(null)
                     .build())
             .build();
       }
 
-      Request followUp;
-      try {
-        followUp = followUpRequest(response);
-      } catch (IOException e) {
-        throw e;
+      Request followUp = followUpRequest(response);
+      if (followUp == null) {
+        return response;
+      }
+
+      // The body of a redirect is useless, Closing it gives the connection back when it was read.
+      response.close();
+
+      if (++followUpCount > MAX_FOLLOW_UPS) {
+        throw new ProtocolException("Too many follow-up requests: " + followUpCount);
       }
 
       request = followUp;
@@ -91,6 +112,29 @@ public final class RetryAndFollowUpInterceptor implements Interceptor {
     }
   }
 
+  /**
+   * We only retry on a connection we took from the pool. The server may have closed it while it was
+   * idle, And we only find out when we use it. A new connection that failed is a real failure.
+   *
+   * <p>The server may also have handled the request before the connection broke, So only a request
+   * that is safe to send twice is retried.
+   */
+  private boolean recover(boolean reused, Request request) {
+    if (canceled) return false;
+    if (!client.retryOnConnectionFailure()) return false;
+    if (!isIdempotent(request.method())) return false;
+    return reused;
+  }
+
+  private static boolean isIdempotent(String method) {
+    return method.equals("GET")
+        || method.equals("HEAD")
+        || method.equals("PUT")
+        || method.equals("DELETE")
+        || method.equals("OPTIONS")
+        || method.equals("TRACE");
+  }
+
   /**
    * Figures out the HTTP request to make in response to receiving {@code userResponse}. This will
    * either add authentication headers, follow redirects or handle a client request timeout. If a
@@ -99,8 +143,57 @@ public final class RetryAndFollowUpInterceptor implements Interceptor {
   private Request followUpRequest(Response userResponse) throws IOException {
     if (userResponse == null) throw new IllegalStateException();
     int responseCode = userResponse.code();
+    String method = userResponse.request().method();
+    switch (responseCode) {
+      case 307:
+      case 308:
+        // "If the 307 or 308 status code is received in response to a request other than GET
+        // or HEAD, the user agent MUST NOT automatically redirect the request"
+        if (!method.equals("GET") && !method.equals("HEAD")) {
+          return null;
+        }
+        return redirectRequest(userResponse);
+
+      case 300:
+      case 301:
+      case 302:
+      case 303:
+        return redirectRequest(userResponse);
+
+      default:
+        return null;
+    }
+  }
 
-    return null;
+  /**
+   * Returns the request to the {@code Location} of the redirect, Or null if it can't be followed.
+   */
+  private Request redirectRequest(Response userResponse) {
+    // Does the client allow redirects?
+    if (!client.followRedirects()) return null;
+
+    String location = userResponse.header("Location");
+    if (location == null) return null;
+    URI url;
+    try {
+      url = userResponse.request().uri().resolve(location);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+    // Don't follow redirects to unsupported protocols.
+    if (!"http".equalsIgnoreCase(url.getScheme())) return null;
+
+    // Most redirects don't include a request body.
+    String method = userResponse.request().method();
+    Request.Builder requestBuilder = userResponse.request().newBuilder();
+    if (!method.equals("GET") && !method.equals("HEAD")) {
+      requestBuilder.get();
+      requestBuilder.removeHeader("Content-Length");
+      requestBuilder.removeHeader("Content-Type");
+    }
+    // The bridge adds the Host of the new url.
+    requestBuilder.removeHeader("Host");
+    return requestBuilder.url(url.toString()).build();
   }
 
 }
@@ -0,0 +1,97 @@
+package com.cz.android.simplehttp.request.intercept;
+
+import com.cz.android.simplehttp.pool.Connection;
+import com.cz.android.simplehttp.pool.ConnectionPool;
+import com.cz.android.simplehttp.pool.Util;
+import com.cz.android.simplehttp.request.Nullable;
+import com.cz.android.simplehttp.request.Request;
+
+import java.io.IOException;
+
+/**
+ * The connection of a call. A call may take many connections, One for each retry or follow-up,
+ * But it never holds more than one at a time.
+ *
+ * <p>We take the connection from the {@link ConnectionPool} when we could, And give it back when
+ * the response body was read to the end. If anything goes wrong in the middle the connection is
+ * closed instead, Because we do not know what is left in the socket.
+ */
+public final class StreamAllocation {
+  private final ConnectionPool connectionPool;
+  private @Nullable Connection connection;
+  /** True if the current connection came from the pool. The server may have closed it already. */
+  private boolean reused;
+  private boolean released;
+  private boolean canceled;
+
+  public StreamAllocation(ConnectionPool connectionPool) {
+    this.connectionPool = connectionPool;
+  }
+
+  /** Takes a pooled connection to the host of {@code request}, Or connects a new one. */
+  Connection newStream(Request request, int connectTimeout, int readTimeout) throws IOException {
+    synchronized (this) {
+      if (canceled) throw new IOException("Canceled");
+      if (connection != null) throw new IllegalStateException("connection != null");
+      released = false;
+    }
+    Connection connection = connectionPool.get(request.host(), request.port());
+    boolean reused = connection != null;
+    if (connection == null) {
+      connection = new Connection();
+      connection.connect(request.host(), request.port(), connectTimeout, readTimeout);
+    } else {
+      connection.getSocket().setSoTimeout(readTimeout);
+    }
+    synchronized (this) {
+      if (canceled) {
+        Util.closeQuietly(connection);
+        throw new IOException("Canceled");
+      }
+      this.connection = connection;
+      this.reused = reused;
+    }
+    return connection;
+  }
+
+  public synchronized @Nullable Connection connection() {
+    return connection;
+  }
+
+  public synchronized boolean isReused() {
+    return reused;
+  }
+
+  /**
+   * Gives the connection back. Only a connection that finished a whole exchange and that the server
+   * did not ask to close goes back to the pool, Everything else is closed.
+   */
+  public void release(boolean reusable) {
+    Connection connection;
+    synchronized (this) {
+      if (released) return;
+      released = true;
+      connection = this.connection;
+      this.connection = null;
+      if (canceled) reusable = false;
+    }
+    if (connection == null) return;
+    if (reusable) {
+      connectionPool.recycle(connection);
+    } else {
+      Util.closeQuietly(connection);
+    }
+  }
+
+  /** Closes the socket we are using, So the thread that blocks on it fails right away. */
+  public void cancel() {
+    Connection connection;
+    synchronized (this) {
+      canceled = true;
+      connection = this.connection;
+    }
+    if (connection != null) {
+      Util.closeQuietly(connection);
+    }
+  }
+}
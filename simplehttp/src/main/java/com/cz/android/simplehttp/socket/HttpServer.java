@@ -1,18 +1,24 @@
 package com.cz.android.simplehttp.socket;
 
-import java.io.BufferedReader;
+import com.cz.android.simplehttp.nio.HttpRequestHead;
+
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Map;
 
 public class HttpServer {
+    /**
+     * The clients are served one by one, So they share the head and the buffer.
+     */
+    private static final HttpRequestHead requestHead = new HttpRequestHead();
+    private static final ByteBuffer headBuffer = ByteBuffer.allocate(8 * 1024);
+
     public static void main( String[] args ) throws Exception {
         try (ServerSocket serverSocket = new ServerSocket(8090)) {
             while (true) {
@@ -24,26 +30,14 @@ public class HttpServer {
     }
 
     private static void handleClient(Socket client) throws IOException {
-        BufferedReader br = new BufferedReader(new InputStreamReader(client.getInputStream()));
-        StringBuilder requestBuilder = new StringBuilder();
-        String line;
-        while ((line = br.readLine())!=null) {
-            requestBuilder.append(line + "\r\n");
-        }
-
-        String request = requestBuilder.toString();
-        String[] requestsLines = request.split("\r\n");
-        String[] requestLine = requestsLines[0].split(" ");
-        String method = requestLine[0];
-        String path = requestLine[1];
-        String version = requestLine[2];
-        String host = requestsLines[1].split(" ")[1];
-
-        List<String> headers = new ArrayList<>();
-        for (int h = 2; h < requestsLines.length; h++) {
-            String header = requestsLines[h];
-            headers.add(header);
+        if (0 > requestHead.readFrom(client.getInputStream(), headBuffer)) {
+            return;
         }
+        String method = requestHead.method();
+        String path = requestHead.target();
+        String version = requestHead.version();
+        String host = requestHead.header(HttpRequestHead.HOST);
+        Map<String, String> headers = requestHead.toMap();
 
         String accessLog = String.format("Client %s, method %s, path %s, version %s, host %s, headers %s",
                 client.toString(), method, path, version, host, headers.toString());
@@ -0,0 +1,19 @@
+package com.cz.android.simplehttp.upload;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receive the request body piece by piece as the bytes arrive.
+ */
+public interface BodyConsumer {
+    /**
+     * Consume all the remaining bytes of the buffer. The buffer is only valid during this call, Copy the bytes if you need them later.
+     */
+    void consume(ByteBuffer buffer) throws IOException;
+
+    /**
+     * There is no more body.
+     */
+    void finish() throws IOException;
+}
@@ -0,0 +1,137 @@
+package com.cz.android.simplehttp.upload;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Decode the body of <code>Transfer-Encoding: chunked</code> incrementally.
+ * <pre>
+ * 1a;name=value\r\n      the chunk size in hex, The extension is ignored.
+ * ...26 bytes...\r\n
+ * 0\r\n                  the last chunk
+ * Trailer: value\r\n     the trailers are ignored.
+ * \r\n
+ * </pre>
+ * We keep the state between the calls, So the buffer could end anywhere, Even in the middle of the chunk size.
+ * The chunk data is never copied, We pass a slice of the input buffer to the {@link BodyConsumer}.
+ */
+public class ChunkedDecoder implements BodyConsumer {
+    private static final int STATE_SIZE = 0;
+    private static final int STATE_EXTENSION = 1;
+    private static final int STATE_DATA = 2;
+    private static final int STATE_DATA_CR = 3;
+    private static final int STATE_DATA_LF = 4;
+    private static final int STATE_TRAILER = 5;
+    private static final int STATE_TRAILER_LINE = 6;
+    private static final int STATE_DONE = 7;
+
+    private final BodyConsumer consumer;
+    private int state = STATE_SIZE;
+    private long chunkSize;
+    private int sizeDigits;
+
+    public ChunkedDecoder(BodyConsumer consumer) {
+        this.consumer = consumer;
+    }
+
+    @Override
+    public void consume(ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()&&STATE_DONE!=state){
+            if(STATE_DATA==state){
+                int length = (int) Math.min(chunkSize, buffer.remaining());
+                int limit = buffer.limit();
+                int end = buffer.position() + length;
+                buffer.limit(end);
+                consumer.consume(buffer);
+                buffer.limit(limit);
+                buffer.position(end);
+                chunkSize-=length;
+                if(0 == chunkSize){
+                    state = STATE_DATA_CR;
+                }
+                continue;
+            }
+            byte b = buffer.get();
+            switch (state){
+                case STATE_SIZE:
+                    int digit = Character.digit(b, 16);
+                    if(0 <= digit){
+                        if(15 < ++sizeDigits){
+                            throw new IOException("The chunk size is too large.");
+                        }
+                        chunkSize = (chunkSize << 4) + digit;
+                    } else if(';'==b||' '==b||'\t'==b){
+                        state = STATE_EXTENSION;
+                    } else if('\r'==b){
+                        state = STATE_EXTENSION;
+                    } else if('\n'==b){
+                        onChunkSize();
+                    } else {
+                        throw new IOException("Illegal chunk size character:"+(char)b);
+                    }
+                    break;
+                case STATE_EXTENSION:
+                    if('\n'==b){
+                        onChunkSize();
+                    }
+                    break;
+                case STATE_DATA_CR:
+                    if('\r'==b){
+                        state = STATE_DATA_LF;
+                    } else if('\n'==b){
+                        state = STATE_SIZE;
+                    } else {
+                        throw new IOException("Missing CRLF after the chunk data.");
+                    }
+                    break;
+                case STATE_DATA_LF:
+                    if('\n'!=b){
+                        throw new IOException("Missing CRLF after the chunk data.");
+                    }
+                    state = STATE_SIZE;
+                    break;
+                case STATE_TRAILER:
+                    //The start of a trailer line, An empty line means the end of the body.
+                    if('\r'==b){
+                        break;
+                    } else if('\n'==b){
+                        state = STATE_DONE;
+                        consumer.finish();
+                    } else {
+                        state = STATE_TRAILER_LINE;
+                    }
+                    break;
+                case STATE_TRAILER_LINE:
+                    if('\n'==b){
+                        state = STATE_TRAILER;
+                    }
+                    break;
+            }
+        }
+    }
+
+    private void onChunkSize(){
+        if(0 == sizeDigits){
+            //An empty line before the chunk size, Just skip it.
+            state = STATE_SIZE;
+            return;
+        }
+        sizeDigits = 0;
+        if(0 == chunkSize){
+            state = STATE_TRAILER;
+        } else {
+            state = STATE_DATA;
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if(!isComplete()){
+            throw new IOException("The connection closed before the last chunk.");
+        }
+    }
+
+    public boolean isComplete(){
+        return STATE_DONE==state;
+    }
+}
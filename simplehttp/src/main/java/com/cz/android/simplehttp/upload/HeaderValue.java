@@ -0,0 +1,51 @@
+package com.cz.android.simplehttp.upload;
+
+/**
+ * Helpers for the parameters of a header value. It replaces the regular expressions we used for the part headers.
+ * <pre>
+ * form-data; name="file"; filename="a.txt"
+ * multipart/form-data; boundary=----1595490884216
+ * </pre>
+ */
+final class HeaderValue {
+    private HeaderValue() {
+    }
+
+    /**
+     * @return The value of the parameter without the quotes, Or null if there is no such parameter.
+     */
+    static String parameter(String value, String name){
+        int length = value.length();
+        int index = value.indexOf(';');
+        while(0 <= index && index < length){
+            int start = index + 1;
+            while(start < length && ' '==value.charAt(start)){
+                start++;
+            }
+            int equals = value.indexOf('=', start);
+            if(0 > equals){
+                return null;
+            }
+            String parameterName = value.substring(start, equals).trim();
+            int valueStart = equals + 1;
+            int valueEnd;
+            int next;
+            if(valueStart < length && '"'==value.charAt(valueStart)){
+                valueStart++;
+                valueEnd = value.indexOf('"', valueStart);
+                if(0 > valueEnd){
+                    valueEnd = length;
+                }
+                next = value.indexOf(';', valueEnd);
+            } else {
+                next = value.indexOf(';', valueStart);
+                valueEnd = 0 > next ? length : next;
+            }
+            if(parameterName.equalsIgnoreCase(name)){
+                return value.substring(valueStart, valueEnd).trim();
+            }
+            index = next;
+        }
+        return null;
+    }
+}
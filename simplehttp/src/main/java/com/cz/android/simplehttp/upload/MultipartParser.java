@@ -0,0 +1,329 @@
+package com.cz.android.simplehttp.upload;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Parse <code>multipart/form-data</code> incrementally.
+ * <pre>
+ * --boundary\r\n
+ * Content-Disposition: form-data; name="param"\r\n
+ * \r\n
+ * value\r\n
+ * --boundary\r\n
+ * Content-Disposition: form-data; name="file"; filename="a.txt"\r\n
+ * Content-Type: text/plain\r\n
+ * \r\n
+ * ...file content...\r\n
+ * --boundary--\r\n
+ * </pre>
+ * We look for the delimiter <code>\r\n--boundary</code> byte by byte and never turn the content into a String.
+ * The state survives between the calls, So the delimiter could be split into two reads.
+ * A file part goes straight to the disk through a {@link FileChannel}, So the memory stays the same however large the file is.
+ */
+public class MultipartParser implements BodyConsumer {
+    /**
+     * The part headers are small, We do not accept more than this.
+     */
+    private static final int MAX_PART_HEAD_SIZE = 8 * 1024;
+    /**
+     * A normal form field is kept in memory, So we limit its size.
+     */
+    private static final int MAX_FIELD_SIZE = 64 * 1024;
+
+    private static final int STATE_PREAMBLE = 0;
+    private static final int STATE_AFTER_DELIMITER = 1;
+    private static final int STATE_AFTER_DELIMITER_DASH = 2;
+    private static final int STATE_DELIMITER_LINE = 3;
+    private static final int STATE_PART_HEAD = 4;
+    private static final int STATE_PART_BODY = 5;
+    private static final int STATE_EPILOGUE = 6;
+
+    private final File uploadDirectory;
+    /**
+     * \r\n--boundary. The first CR only appears once here, We depend on this when the match fails.
+     */
+    private final byte[] delimiter;
+    private final byte[] partHead = new byte[MAX_PART_HEAD_SIZE];
+    private final List<Part> parts = new ArrayList<>();
+    private int state = STATE_PREAMBLE;
+    /**
+     * How many bytes of the delimiter we matched so far. They may come from the previous buffer.
+     */
+    private int matched;
+    private int partHeadLength;
+    private Part part;
+
+    /**
+     * @param contentType The Content-Type of the request. We take the boundary from it.
+     * @return null if this is not a multipart request.
+     */
+    public static MultipartParser create(String contentType, File uploadDirectory){
+        if(null==contentType||!contentType.regionMatches(true,0,"multipart/form-data",0,"multipart/form-data".length())){
+            return null;
+        }
+        String boundary = HeaderValue.parameter(contentType, "boundary");
+        if(null==boundary||boundary.isEmpty()){
+            return null;
+        }
+        return new MultipartParser(boundary, uploadDirectory);
+    }
+
+    public MultipartParser(String boundary, File uploadDirectory) {
+        this.uploadDirectory = uploadDirectory;
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        //The body starts with --boundary without the CRLF in front of it. We pretend we already have the CRLF.
+        this.matched = 2;
+    }
+
+    @Override
+    public void consume(ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()){
+            switch (state){
+                case STATE_PREAMBLE:
+                case STATE_PART_BODY:
+                    scanBody(buffer);
+                    break;
+                case STATE_AFTER_DELIMITER: {
+                    byte b = buffer.get();
+                    if('-'==b){
+                        state = STATE_AFTER_DELIMITER_DASH;
+                    } else if('\n'==b){
+                        startPart();
+                    } else {
+                        //Transport padding or the CR of the CRLF.
+                        state = STATE_DELIMITER_LINE;
+                    }
+                    break;
+                }
+                case STATE_AFTER_DELIMITER_DASH: {
+                    byte b = buffer.get();
+                    if('-'==b){
+                        state = STATE_EPILOGUE;
+                    } else {
+                        throw new IOException("Illegal multipart delimiter.");
+                    }
+                    break;
+                }
+                case STATE_DELIMITER_LINE:
+                    if('\n'==buffer.get()){
+                        startPart();
+                    }
+                    break;
+                case STATE_PART_HEAD:
+                    readPartHead(buffer);
+                    break;
+                case STATE_EPILOGUE:
+                    //Everything after the close delimiter is ignored.
+                    buffer.position(buffer.limit());
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Looking for the delimiter. All the bytes before it belong to the current part.
+     */
+    private void scanBody(ByteBuffer buffer) throws IOException {
+        byte[] delimiter = this.delimiter;
+        int position = buffer.position();
+        int limit = buffer.limit();
+        //The first byte of the current buffer that belongs to the content.
+        int contentStart = position;
+        int matched = this.matched;
+        while(position < limit){
+            byte b = buffer.get(position++);
+            if(b == delimiter[matched]){
+                matched++;
+                if(matched == delimiter.length){
+                    int contentEnd = position - matched;
+                    if(contentEnd > contentStart){
+                        writeContent(buffer, contentStart, contentEnd);
+                    }
+                    this.matched = 0;
+                    buffer.position(position);
+                    endPart();
+                    state = STATE_AFTER_DELIMITER;
+                    return;
+                }
+            } else if(0 < matched){
+                //The bytes we matched are content after all. Some of them may come from the previous buffer.
+                int matchedInBuffer = Math.min(matched, position - 1 - contentStart);
+                int fromPrevious = matched - matchedInBuffer;
+                if(0 < fromPrevious){
+                    writeContent(ByteBuffer.wrap(delimiter, 0, fromPrevious));
+                }
+                matched = '\r' == b ? 1 : 0;
+            }
+        }
+        //The matched bytes at the end may be the delimiter, Keep them until the next buffer.
+        int contentEnd = limit - Math.min(matched, limit - contentStart);
+        if(contentEnd > contentStart){
+            writeContent(buffer, contentStart, contentEnd);
+        }
+        this.matched = matched;
+        buffer.position(limit);
+    }
+
+    private void writeContent(ByteBuffer buffer, int start, int end) throws IOException {
+        int position = buffer.position();
+        int limit = buffer.limit();
+        buffer.limit(end);
+        buffer.position(start);
+        writeContent(buffer);
+        buffer.limit(limit);
+        buffer.position(position);
+    }
+
+    private void writeContent(ByteBuffer buffer) throws IOException {
+        if(STATE_PART_BODY!=state||null==part){
+            //The preamble.
+            return;
+        }
+        if(null!=part.fileChannel){
+            long position = part.size;
+            while(buffer.hasRemaining()){
+                position += part.fileChannel.write(buffer, position);
+            }
+            part.size = position;
+        } else {
+            int length = buffer.remaining();
+            if(part.value.size() + length > MAX_FIELD_SIZE){
+                throw new IOException("The form field is too large:"+part.name);
+            }
+            if(buffer.hasArray()){
+                part.value.write(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+                buffer.position(buffer.limit());
+            } else {
+                while(buffer.hasRemaining()){
+                    part.value.write(buffer.get());
+                }
+            }
+            part.size += length;
+        }
+    }
+
+    private void startPart(){
+        partHeadLength = 0;
+        state = STATE_PART_HEAD;
+    }
+
+    private void readPartHead(ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()){
+            if(MAX_PART_HEAD_SIZE == partHeadLength){
+                throw new IOException("The part head is too large.");
+            }
+            byte b = buffer.get();
+            partHead[partHeadLength++] = b;
+            if('\n'==b){
+                //An empty line ends the part head.
+                if(1 == partHeadLength || (2 == partHeadLength && '\r'==partHead[0]) ||
+                        (4 <= partHeadLength && '\r'==partHead[partHeadLength-2] && '\n'==partHead[partHeadLength-3] && '\r'==partHead[partHeadLength-4])){
+                    openPart();
+                    state = STATE_PART_BODY;
+                    return;
+                }
+            }
+        }
+    }
+
+    private void openPart() throws IOException {
+        part = new Part();
+        //The part head is tiny compared to the content, Turning it into a String is fine.
+        String head = new String(partHead, 0, partHeadLength, StandardCharsets.UTF_8);
+        for(String line:head.split("\r\n")){
+            int index = line.indexOf(':');
+            if(0 > index){
+                continue;
+            }
+            String name = line.substring(0, index).trim();
+            String value = line.substring(index + 1).trim();
+            if("Content-Disposition".equalsIgnoreCase(name)){
+                part.name = HeaderValue.parameter(value, "name");
+                part.filename = HeaderValue.parameter(value, "filename");
+            } else if("Content-Type".equalsIgnoreCase(name)){
+                part.contentType = value;
+            }
+        }
+        if(null!=part.filename){
+            //Never trust the path from the client.
+            String filename = new File(part.filename).getName();
+            if(filename.isEmpty()||".".equals(filename)||"..".equals(filename)){
+                filename = "upload-" + System.nanoTime();
+            }
+            if(!uploadDirectory.exists()){
+                uploadDirectory.mkdirs();
+            }
+            part.file = new File(uploadDirectory, filename);
+            part.fileChannel = FileChannel.open(part.file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        } else {
+            part.value = new ByteArrayOutputStream();
+        }
+    }
+
+    private void endPart() throws IOException {
+        if(null!=part){
+            part.close();
+            parts.add(part);
+            part = null;
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if(!isComplete()){
+            close();
+            throw new IOException("The body ended before the close delimiter.");
+        }
+    }
+
+    public boolean isComplete(){
+        return STATE_EPILOGUE==state;
+    }
+
+    /**
+     * Close the file of the part we are writing. Call it when the connection breaks.
+     */
+    public void close() throws IOException {
+        if(null!=part){
+            part.close();
+        }
+    }
+
+    public List<Part> getParts() {
+        return Collections.unmodifiableList(parts);
+    }
+
+    public static class Part {
+        public String name;
+        public String filename;
+        public String contentType;
+        /**
+         * The file we saved the content to. null if this is a normal form field.
+         */
+        public File file;
+        public long size;
+        private ByteArrayOutputStream value;
+        private FileChannel fileChannel;
+
+        public String getValue(){
+            return null!=value ? new String(value.toByteArray(), StandardCharsets.UTF_8) : null;
+        }
+
+        void close() throws IOException {
+            if(null!=fileChannel){
+                fileChannel.close();
+                fileChannel = null;
+            }
+        }
+    }
+}
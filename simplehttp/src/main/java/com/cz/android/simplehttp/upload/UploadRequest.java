@@ -0,0 +1,121 @@
+package com.cz.android.simplehttp.upload;
+
+import com.cz.android.simplehttp.nio.HttpRequestHead;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The body of one upload request. Feed it with the bytes whenever the channel is readable.
+ * It puts {@link ChunkedDecoder} or the Content-Length in front of the {@link MultipartParser} according to the headers.
+ */
+public class UploadRequest {
+    private final MultipartParser multipartParser;
+    private final ChunkedDecoder chunkedDecoder;
+    private long contentRemaining;
+    private boolean complete;
+
+    public UploadRequest(Map<String,String> headers, File uploadDirectory) throws IOException {
+        this(header(headers, "Content-Type"), "chunked".equalsIgnoreCase(header(headers, "Transfer-Encoding")),
+                header(headers, "Content-Length"), uploadDirectory);
+    }
+
+    /**
+     * Only the headers we need become strings, The others stay in the read buffer.
+     */
+    public UploadRequest(HttpRequestHead head, File uploadDirectory) throws IOException {
+        this(head.header(HttpRequestHead.CONTENT_TYPE),
+                head.headerEquals(HttpRequestHead.TRANSFER_ENCODING, "chunked"),
+                head.header(HttpRequestHead.CONTENT_LENGTH), uploadDirectory);
+    }
+
+    private UploadRequest(String contentType, boolean chunked, String contentLength, File uploadDirectory) throws IOException {
+        multipartParser = MultipartParser.create(contentType, uploadDirectory);
+        BodyConsumer bodyConsumer = null!=multipartParser ? multipartParser : DISCARD;
+        if(chunked){
+            chunkedDecoder = new ChunkedDecoder(bodyConsumer);
+        } else {
+            chunkedDecoder = null;
+            try {
+                contentRemaining = null!=contentLength ? Long.parseLong(contentLength.trim()) : 0;
+            } catch (NumberFormatException e){
+                throw new IOException("Illegal Content-Length:"+contentLength);
+            }
+            if(0 == contentRemaining){
+                complete = true;
+                bodyConsumer.finish();
+            }
+        }
+    }
+
+    private static String header(Map<String,String> headers, String name){
+        for(Map.Entry<String,String> entry:headers.entrySet()){
+            if(name.equalsIgnoreCase(entry.getKey())){
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Consume the body bytes of the buffer. The bytes after the body stay in the buffer.
+     */
+    public void consume(ByteBuffer buffer) throws IOException {
+        if(complete){
+            return;
+        }
+        if(null!=chunkedDecoder){
+            chunkedDecoder.consume(buffer);
+            complete = chunkedDecoder.isComplete();
+        } else {
+            int length = (int) Math.min(contentRemaining, buffer.remaining());
+            int limit = buffer.limit();
+            int end = buffer.position() + length;
+            buffer.limit(end);
+            BodyConsumer bodyConsumer = null!=multipartParser ? multipartParser : DISCARD;
+            bodyConsumer.consume(buffer);
+            buffer.limit(limit);
+            buffer.position(end);
+            contentRemaining -= length;
+            if(0 == contentRemaining){
+                complete = true;
+                bodyConsumer.finish();
+            }
+        }
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public List<MultipartParser.Part> getParts(){
+        return null!=multipartParser ? multipartParser.getParts() : Collections.<MultipartParser.Part>emptyList();
+    }
+
+    /**
+     * Release the file we are writing if the connection breaks in the middle of the body.
+     */
+    public void close() throws IOException {
+        if(null!=multipartParser){
+            multipartParser.close();
+        }
+    }
+
+    /**
+     * The body of a request that is not multipart. We do not keep it.
+     */
+    private static final BodyConsumer DISCARD = new BodyConsumer() {
+        @Override
+        public void consume(ByteBuffer buffer) {
+            buffer.position(buffer.limit());
+        }
+
+        @Override
+        public void finish() {
+        }
+    };
+}
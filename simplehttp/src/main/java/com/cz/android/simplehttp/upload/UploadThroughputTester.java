@@ -0,0 +1,185 @@
+package com.cz.android.simplehttp.upload;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Upload generated files to {@link HttpUploadNioServer} from many clients at the same time.
+ * It reports the throughput and the peak heap while uploading, And checks the size and CRC of every file the server saved.
+ *
+ * The content is generated on the fly, So the clients do not need the files on the disk either.
+ * Try one client and 4096MB to see the memory stays flat for a single huge file.
+ *
+ * Arguments: [clients] [MB per client] [chunked: true/false]
+ */
+public class UploadThroughputTester {
+    private static final String HOST = "localhost";
+    private static final int PORT = 8094;
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        int clientCount = 0 < args.length ? Integer.parseInt(args[0]) : 32;
+        final long fileSize = (1 < args.length ? Long.parseLong(args[1]) : 64) * 1024 * 1024;
+        final boolean chunked = 2 < args.length ? Boolean.parseBoolean(args[2]) : true;
+
+        final File uploadDirectory = Files.createTempDirectory("upload").toFile();
+        final HttpUploadNioServer server = new HttpUploadNioServer(new InetSocketAddress(HOST, PORT), uploadDirectory);
+        Thread serverThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                server.startServer();
+            }
+        }, "HttpUploadNioServer");
+        serverThread.setDaemon(true);
+        serverThread.start();
+        Thread.sleep(500);
+
+        final AtomicLong peakHeap = new AtomicLong();
+        final AtomicInteger failures = new AtomicInteger();
+        final long[] checksums = new long[clientCount];
+        final CountDownLatch countDownLatch = new CountDownLatch(clientCount);
+        Thread sampler = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Runtime runtime = Runtime.getRuntime();
+                while(0 < countDownLatch.getCount()){
+                    long used = runtime.totalMemory() - runtime.freeMemory();
+                    if(used > peakHeap.get()){
+                        peakHeap.set(used);
+                    }
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }, "HeapSampler");
+        sampler.setDaemon(true);
+        System.gc();
+        long heapBefore = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+        sampler.start();
+
+        long st = System.nanoTime();
+        for(int i=0;i<clientCount;i++){
+            final int index = i;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        checksums[index] = upload("file-" + index + ".bin", fileSize, chunked, index);
+                    } catch (IOException e) {
+                        System.err.println("Upload failed:"+e.getMessage());
+                        failures.incrementAndGet();
+                    } finally {
+                        countDownLatch.countDown();
+                    }
+                }
+            }, "UploadClient-" + i).start();
+        }
+        countDownLatch.await();
+        long elapsedNs = System.nanoTime() - st;
+        double megabytes = clientCount * (double) fileSize / 1024 / 1024;
+        System.out.println(String.format("Clients:%d file:%dMB chunked:%b", clientCount, fileSize / 1024 / 1024, chunked));
+        System.out.println(String.format("Uploaded %.0fMB in %dms, %.1fMB/s", megabytes, elapsedNs / 1000000, megabytes * 1e9 / elapsedNs));
+        System.out.println(String.format("Heap before:%dMB peak while uploading:%dMB", heapBefore / 1024 / 1024, peakHeap.get() / 1024 / 1024));
+
+        //Check what the server saved.
+        for(int i=0;i<clientCount;i++){
+            File file = new File(uploadDirectory, "file-" + i + ".bin");
+            if(!file.exists()||file.length()!=fileSize||checksum(file)!=checksums[i]){
+                System.err.println("The file is broken:"+file);
+                failures.incrementAndGet();
+            }
+            file.delete();
+        }
+        uploadDirectory.delete();
+        server.stopServer();
+        System.out.println("Failures:"+failures.get());
+    }
+
+    /**
+     * @return The CRC32 of the content we sent.
+     */
+    private static long upload(String filename, long fileSize, boolean chunked, int seed) throws IOException {
+        String boundary = "----UploadThroughputTester" + seed + System.nanoTime();
+        String CRLF = "\r\n";
+        byte[] partHead = ("--" + boundary + CRLF +
+                "Content-Disposition: form-data; name=\"param\"" + CRLF + CRLF +
+                "value" + CRLF +
+                "--" + boundary + CRLF +
+                "Content-Disposition: form-data; name=\"file\"; filename=\"" + filename + "\"" + CRLF +
+                "Content-Type: application/octet-stream" + CRLF + CRLF).getBytes(StandardCharsets.UTF_8);
+        byte[] partTail = (CRLF + "--" + boundary + "--" + CRLF).getBytes(StandardCharsets.UTF_8);
+        byte[] block = new byte[BLOCK_SIZE];
+        new Random(seed).nextBytes(block);
+        CRC32 crc32 = new CRC32();
+
+        try(Socket socket = new Socket(HOST, PORT)){
+            OutputStream outputStream = new BufferedOutputStream(socket.getOutputStream(), BLOCK_SIZE * 2);
+            StringBuilder head = new StringBuilder();
+            head.append("POST / HTTP/1.1").append(CRLF);
+            head.append("Host: ").append(HOST).append(CRLF);
+            head.append("Content-Type: multipart/form-data; boundary=").append(boundary).append(CRLF);
+            if(chunked){
+                head.append("Transfer-Encoding: chunked").append(CRLF);
+            } else {
+                head.append("Content-Length: ").append(partHead.length + fileSize + partTail.length).append(CRLF);
+            }
+            head.append(CRLF);
+            outputStream.write(head.toString().getBytes(StandardCharsets.US_ASCII));
+            writeBody(outputStream, partHead, partHead.length, chunked);
+            long written = 0;
+            while(written < fileSize){
+                int length = (int) Math.min(block.length, fileSize - written);
+                //Change the block a little so the file is not the same block over and over.
+                block[0] = (byte) written;
+                crc32.update(block, 0, length);
+                writeBody(outputStream, block, length, chunked);
+                written += length;
+            }
+            writeBody(outputStream, partTail, partTail.length, chunked);
+            if(chunked){
+                outputStream.write(("0" + CRLF + CRLF).getBytes(StandardCharsets.US_ASCII));
+            }
+            outputStream.flush();
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            String statusLine = reader.readLine();
+            if(null==statusLine||!statusLine.contains(" 200 ")){
+                throw new IOException("The server responded:"+statusLine);
+            }
+        }
+        return crc32.getValue();
+    }
+
+    private static void writeBody(OutputStream outputStream, byte[] bytes, int length, boolean chunked) throws IOException {
+        if(chunked){
+            outputStream.write((Integer.toHexString(length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            outputStream.write(bytes, 0, length);
+            outputStream.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+        } else {
+            outputStream.write(bytes, 0, length);
+        }
+    }
+
+    private static long checksum(File file) throws IOException {
+        CRC32 crc32 = new CRC32();
+        byte[] buffer = new byte[BLOCK_SIZE];
+        try(InputStream inputStream = new FileInputStream(file)){
+            int read;
+            while(-1 != (read = inputStream.read(buffer))){
+                crc32.update(buffer, 0, read);
+            }
+        }
+        return crc32.getValue();
+    }
+}